@@ -163,11 +163,11 @@ public class TelemetryAlertsBolt extends AbstractAlertBolt {
 
 		LOG.trace("[OpenSOC] Starting to process message for alerts");
 		JSONObject original_message = null;
-		String key = null;
+		Object key = null;
 
 		try {
 
-			key = tuple.getStringByField("key");
+			key = tuple.getValueByField("key");
 			original_message = (JSONObject) tuple.getValueByField("message");
 
 			if (original_message == null || original_message.isEmpty())
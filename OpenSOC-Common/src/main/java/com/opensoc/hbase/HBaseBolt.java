@@ -3,11 +3,18 @@ package com.opensoc.hbase;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.configuration.Configuration;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.log4j.Logger;
 import org.json.simple.JSONObject;
 
+import backtype.storm.Config;
+import backtype.storm.Constants;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.IRichBolt;
@@ -16,7 +23,11 @@ import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
 import backtype.storm.tuple.Values;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.opensoc.helpers.topology.ErrorGenerator;
+import com.opensoc.json.serialization.JSONEncoderHelper;
+import com.opensoc.metrics.MetricReporter;
 
 /**
  * A Storm bolt for putting data into HBase.
@@ -24,6 +35,11 @@ import com.opensoc.helpers.topology.ErrorGenerator;
  * By default works in batch mode by enabling HBase's client-side write buffer. Enabling batch mode
  * is recommended for high throughput, but it can be disabled in {@link TupleTableConfig}.
  * <p>
+ * With the write buffer enabled, tuples are acked once they are in the buffer, before they reach
+ * HBase. Setting a batch size turns on batch flushing instead: puts are collected and written when
+ * the batch reaches its size or byte count, or on the Storm tick tuple every flush interval, and
+ * the tuples of a batch are acked, or failed, only once <tt>flushCommits</tt> returns.
+ * <p>
  * The HBase configuration is picked up from the first <tt>hbase-site.xml</tt> encountered in the
  * classpath
  * @see TupleTableConfig
@@ -41,6 +57,17 @@ public class HBaseBolt implements IRichBolt {
   private String _quorum;
   private String _port;
 
+  private int batchSize;
+  private long batchBytes = 4L * 1024 * 1024;
+  private int flushIntervalSecs = 1;
+  private JSONObject metricConfiguration;
+
+  private transient List<Put> pendingPuts;
+  private transient List<Tuple> pendingTuples;
+  private transient volatile long inFlightBytes;
+  private transient Histogram batchSizeHistogram;
+  private transient Histogram flushLatencyHistogram;
+
   public HBaseBolt(TupleTableConfig conf, String quorum, String port) {
     this.conf = conf;
     _quorum = quorum;
@@ -62,12 +89,36 @@ public class HBaseBolt implements IRichBolt {
       throw new RuntimeException(e);
     }
 
+    if (batchSize > 0) {
+      this.pendingPuts = new ArrayList<Put>(batchSize);
+      this.pendingTuples = new ArrayList<Tuple>(batchSize);
+      if (metricConfiguration != null) {
+        registerBatchMetrics();
+      }
+    }
+
     LOG.info("Preparing HBaseBolt for table: " + this.conf.getTableName());
   }
 
+  private void registerBatchMetrics() {
+    MetricReporter reporter = new MetricReporter();
+    reporter.initialize(metricConfiguration, getClass());
+    batchSizeHistogram = reporter.registerHistogram("hbase.batch.size");
+    flushLatencyHistogram = reporter.registerHistogram("hbase.flush.latency.ms");
+    reporter.registerGauge("hbase.inflight.bytes", new Gauge<Long>() {
+      public Long getValue() {
+        return inFlightBytes;
+      }
+    });
+  }
+
   /** {@inheritDoc} */
   
   public void execute(Tuple input) {
+    if (batchSize > 0) {
+      executeBatched(input);
+      return;
+    }
     try {
       this.connector.getTable().put(conf.getPutFromTuple(input));
     } catch (IOException ex) {
@@ -87,9 +138,76 @@ public class HBaseBolt implements IRichBolt {
     }
   }
 
+  /**
+   * Adds the put of a tuple to the pending batch, and flushes the batch once it is full or on a
+   * tick tuple.
+   */
+  private void executeBatched(Tuple input) {
+    if (!isTickTuple(input)) {
+      Put put = conf.getPutFromTuple(input);
+      pendingPuts.add(put);
+      pendingTuples.add(input);
+      inFlightBytes += put.heapSize();
+      if (pendingPuts.size() < batchSize && inFlightBytes < batchBytes) {
+        return;
+      }
+    }
+    flushBatch();
+  }
+
+  /**
+   * Writes the pending puts and acks their tuples once they are flushed, or fails them if the
+   * write fails.
+   */
+  private void flushBatch() {
+    if (pendingPuts == null || pendingPuts.isEmpty()) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    boolean flushed = false;
+    try {
+      this.connector.getTable().put(pendingPuts);
+      this.connector.getTable().flushCommits();
+      flushed = true;
+    } catch (IOException ex) {
+      LOG.error("Unable to write " + pendingPuts.size() + " puts to HBase table "
+          + conf.getTableName(), ex);
+      JSONObject error = ErrorGenerator.generateErrorMessage(
+          "Unable to write a batch of " + pendingPuts.size() + " puts",
+          org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(ex));
+      collector.emit("error", new Values(error));
+    }
+    if (batchSizeHistogram != null) {
+      batchSizeHistogram.update(pendingPuts.size());
+      flushLatencyHistogram.update(System.currentTimeMillis() - start);
+    }
+    if (this.autoAck) {
+      for (Tuple tuple : pendingTuples) {
+        if (flushed) {
+          this.collector.ack(tuple);
+        } else {
+          this.collector.fail(tuple);
+        }
+      }
+    }
+    pendingPuts.clear();
+    pendingTuples.clear();
+    inFlightBytes = 0;
+  }
+
+  /**
+   * @param tuple The tuple
+   * @return Whether the tuple is a Storm tick tuple
+   */
+  protected static boolean isTickTuple(Tuple tuple) {
+    return Constants.SYSTEM_COMPONENT_ID.equals(tuple.getSourceComponent())
+        && Constants.SYSTEM_TICK_STREAM_ID.equals(tuple.getSourceStreamId());
+  }
+
   /** {@inheritDoc} */
   
   public void cleanup() {
+    flushBatch();
     this.connector.close();
   }
 
@@ -102,7 +220,12 @@ public class HBaseBolt implements IRichBolt {
   /** {@inheritDoc} */
   
   public Map<String, Object> getComponentConfiguration() {
-    return null;
+    if (batchSize <= 0) {
+      return null;
+    }
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, flushIntervalSecs);
+    return config;
   }
 
   /**
@@ -118,4 +241,37 @@ public class HBaseBolt implements IRichBolt {
   public void setAutoAck(boolean autoAck) {
     this.autoAck = autoAck;
   }
-}
\ No newline at end of file
+
+  /**
+   * @param batchSize The number of puts at which a batch is flushed; batch flushing is off if 0
+   *          or less
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * @param batchBytes The heap size of the pending puts at which a batch is flushed
+   */
+  public void setBatchBytes(long batchBytes) {
+    this.batchBytes = batchBytes;
+  }
+
+  /**
+   * @param flushIntervalSecs The seconds after which a batch is flushed whatever its size
+   */
+  public void setFlushIntervalSecs(int flushIntervalSecs) {
+    this.flushIntervalSecs = flushIntervalSecs;
+  }
+
+  /**
+   * @param config The configuration of the metric reporters, to report the batch size, the flush
+   *          latency and the bytes in flight
+   * @return this bolt
+   */
+  public HBaseBolt withMetricConfig(Configuration config) {
+    this.metricConfiguration = JSONEncoderHelper.getJSON(config
+        .subset("com.opensoc.metrics"));
+    return this;
+  }
+}
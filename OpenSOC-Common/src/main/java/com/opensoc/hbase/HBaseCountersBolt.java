@@ -0,0 +1,404 @@
+package com.opensoc.hbase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.log4j.Logger;
+import org.json.simple.JSONObject;
+
+import backtype.storm.Config;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import com.opensoc.helpers.topology.ErrorGenerator;
+import com.opensoc.pcap.PcapRecord;
+
+/**
+ * A Storm bolt keeping counters in HBase, such as the bytes or events per host
+ * per minute, from the {@link Increment}s built by
+ * {@link TupleTableConfig#getIncrementFromTuple(Tuple, long)}.
+ * <p>
+ * Increments are not sent one per tuple but summed in memory per row, family
+ * and qualifier, and written as one coalesced {@link Increment} per row every
+ * flush interval, on Storm tick tuples, or as soon as there are too many
+ * counters or too many tuples waiting for them. The tuples of a flush are
+ * acked once the increments are written, and failed if the write fails. As
+ * increments are not idempotent, a replayed tuple of a partly written flush is
+ * counted twice.
+ * <p>
+ * The row key is that of the {@link TupleTableConfig}, optionally cut to its
+ * first tokens and suffixed with the time bucket of the tuple timestamp, e.g.
+ * <tt>srcIp-minute</tt> from the pcap_ids of <tt>pcap_data_stream</tt>.
+ *
+ * @see TupleTableConfig#getIncrementFromTuple(Tuple, long)
+ */
+@SuppressWarnings("serial")
+public class HBaseCountersBolt extends HBaseBolt {
+  private static final Logger LOG = Logger.getLogger(HBaseCountersBolt.class);
+
+  /** The separator of row key tokens and of the time bucket. */
+  private static final byte ROW_KEY_SEPERATOR = '-';
+
+  private String incrementField;
+  private int rowKeyTokens;
+  private long timeBucket;
+  private int maxCounters = 100000;
+  private int maxPendingTuples = 10000;
+  private int flushIntervalSecs = 10;
+
+  private transient CounterMap counters;
+  private transient List<Tuple> pendingTuples;
+
+  /**
+   * @param conf
+   *          The counter table, its row key field, timestamp field and columns
+   * @param quorum
+   *          The zookeeper quorum
+   * @param port
+   *          The zookeeper port
+   */
+  public HBaseCountersBolt(TupleTableConfig conf, String quorum, String port) {
+    super(conf, quorum, port);
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("rawtypes")
+  @Override
+  public void prepare(Map stormConf, TopologyContext context,
+      OutputCollector collector) {
+    if (timeBucket > 0 && conf.getTupleTimestampField().equals("")) {
+      throw new IllegalArgumentException(
+          "Time bucketed counters need the timestamp tuple field");
+    }
+    this.counters = new CounterMap(Math.min(maxCounters, 1024));
+    this.pendingTuples = new ArrayList<Tuple>();
+    super.prepare(stormConf, context, collector);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void execute(Tuple input) {
+    if (isTickTuple(input)) {
+      flush();
+      return;
+    }
+    Increment inc = conf.getIncrementFromTuple(input, getAmount(input));
+    byte[] row = getRow(input, inc.getRow());
+    for (Map.Entry<byte[], NavigableMap<byte[], Long>> family : inc
+        .getFamilyMapOfLongs().entrySet()) {
+      for (Map.Entry<byte[], Long> column : family.getValue().entrySet()) {
+        counters.add(row, family.getKey(), column.getKey(), column.getValue());
+      }
+    }
+    pendingTuples.add(input);
+
+    // the held tuples keep their payload, so they are bounded too
+    if (counters.size() >= maxCounters
+        || pendingTuples.size() >= maxPendingTuples) {
+      flush();
+    }
+  }
+
+  /**
+   * Gets the amount a tuple increments its counters by: the number, or the
+   * length of the bytes or pcap, of the increment field, or 1.
+   */
+  private long getAmount(Tuple input) {
+    if (incrementField == null) {
+      return TupleTableConfig.DEFAULT_INCREMENT;
+    }
+    Object value = input.getValueByField(incrementField);
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    } else if (value instanceof byte[]) {
+      return ((byte[]) value).length;
+    } else if (value instanceof PcapRecord) {
+      return ((PcapRecord) value).length();
+    }
+    throw new IllegalArgumentException("Cannot count " + incrementField
+        + " values of " + (value == null ? null : value.getClass()));
+  }
+
+  /**
+   * Cuts a row key to its first tokens and appends the time bucket of a tuple.
+   */
+  private byte[] getRow(Tuple input, byte[] row) {
+    if (rowKeyTokens > 0) {
+      int tokens = 0;
+      for (int i = 0; i < row.length; i++) {
+        if (row[i] == ROW_KEY_SEPERATOR && ++tokens == rowKeyTokens) {
+          row = Bytes.head(row, i);
+          break;
+        }
+      }
+    }
+    if (timeBucket > 0) {
+      long bucket = input.getLongByField(conf.getTupleTimestampField())
+          / timeBucket;
+      row = Bytes.add(row, new byte[] { ROW_KEY_SEPERATOR },
+          Bytes.toBytes(Long.toString(bucket)));
+    }
+    return row;
+  }
+
+  /**
+   * Writes the coalesced increments and acks their tuples, or fails them if
+   * the write fails.
+   */
+  private void flush() {
+    if (pendingTuples == null || pendingTuples.isEmpty()) {
+      return;
+    }
+    List<Row> increments = counters.toIncrements(conf);
+    try {
+      connector.getTable().batch(increments, new Object[increments.size()]);
+    } catch (Exception ex) {
+      LOG.error("Unable to write " + increments.size()
+          + " counter increments to HBase table " + conf.getTableName(), ex);
+      JSONObject error = ErrorGenerator.generateErrorMessage(
+          "Unable to write counter increments",
+          org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(ex));
+      collector.emit("error", new Values(error));
+      if (ex instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      for (Tuple tuple : pendingTuples) {
+        collector.fail(tuple);
+      }
+      reset();
+      return;
+    }
+    for (Tuple tuple : pendingTuples) {
+      collector.ack(tuple);
+    }
+    reset();
+  }
+
+  private void reset() {
+    pendingTuples.clear();
+    counters.clear();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cleanup() {
+    flush();
+    super.cleanup();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Map<String, Object> getComponentConfiguration() {
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, flushIntervalSecs);
+    return config;
+  }
+
+  /**
+   * @param incrementField
+   *          The tuple field holding the amount to count, a number, bytes or a
+   *          pcap; each tuple counts 1 if not set
+   */
+  public void setIncrementField(String incrementField) {
+    this.incrementField = incrementField;
+  }
+
+  /**
+   * @param rowKeyTokens
+   *          The number of <tt>-</tt> separated tokens of the row key kept,
+   *          e.g. 1 for the src ip of a pcap_id; the whole key if 0
+   */
+  public void setRowKeyTokens(int rowKeyTokens) {
+    this.rowKeyTokens = rowKeyTokens;
+  }
+
+  /**
+   * @param timeBucket
+   *          The width of the time buckets appended to the row keys, in the
+   *          unit of the tuple timestamps; not bucketed if 0
+   */
+  public void setTimeBucket(long timeBucket) {
+    this.timeBucket = timeBucket;
+  }
+
+  /**
+   * @param maxCounters
+   *          The most counters held before they are flushed, whatever the
+   *          flush interval
+   */
+  public void setMaxCounters(int maxCounters) {
+    this.maxCounters = maxCounters;
+  }
+
+  /**
+   * @param maxPendingTuples
+   *          The most tuples held until their counters are written, whatever
+   *          the flush interval
+   */
+  public void setMaxPendingTuples(int maxPendingTuples) {
+    this.maxPendingTuples = maxPendingTuples;
+  }
+
+  /**
+   * @param flushIntervalSecs
+   *          The seconds between flushes of the counters
+   */
+  public void setFlushIntervalSecs(int flushIntervalSecs) {
+    this.flushIntervalSecs = flushIntervalSecs;
+  }
+
+  /**
+   * The pending counts, by row, family and qualifier. An open addressing hash
+   * table of the encoded counter keys, with their hashes and counts in
+   * primitive arrays, so that adding to an existing counter allocates
+   * nothing.
+   */
+  static final class CounterMap {
+    private byte[][] keys;
+    private int[] hashes;
+    private long[] counts;
+    private int size;
+
+    CounterMap(int capacity) {
+      int tableSize = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) * 2;
+      keys = new byte[tableSize][];
+      hashes = new int[tableSize];
+      counts = new long[tableSize];
+    }
+
+    /**
+     * Adds an amount to the count of a row, family and qualifier.
+     */
+    void add(byte[] row, byte[] family, byte[] qualifier, long amount) {
+      int hash = hash(row, family, qualifier);
+      int mask = keys.length - 1;
+      int slot = hash & mask;
+      while (keys[slot] != null) {
+        if (hashes[slot] == hash
+            && matches(keys[slot], row, family, qualifier)) {
+          counts[slot] += amount;
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = encode(row, family, qualifier);
+      hashes[slot] = hash;
+      counts[slot] = amount;
+      if (++size * 2 > keys.length) {
+        grow();
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * Builds one increment per row, holding the counts of all its columns.
+     */
+    List<Row> toIncrements(TupleTableConfig conf) {
+      Map<String, Increment> rows = new HashMap<String, Increment>();
+      List<Row> increments = new ArrayList<Row>();
+      for (int slot = 0; slot < keys.length; slot++) {
+        byte[] key = keys[slot];
+        if (key == null) {
+          continue;
+        }
+        byte[][] parts = decode(key);
+        String rowString = Bytes.toStringBinary(parts[0]);
+        Increment inc = rows.get(rowString);
+        if (inc == null) {
+          inc = new Increment(parts[0]);
+          inc.setDurability(conf.getDurability());
+          rows.put(rowString, inc);
+          increments.add(inc);
+        }
+        inc.addColumn(parts[1], parts[2], counts[slot]);
+      }
+      return increments;
+    }
+
+    void clear() {
+      Arrays.fill(keys, null);
+      size = 0;
+    }
+
+    private void grow() {
+      byte[][] oldKeys = keys;
+      int[] oldHashes = hashes;
+      long[] oldCounts = counts;
+      keys = new byte[oldKeys.length * 2][];
+      hashes = new int[keys.length];
+      counts = new long[keys.length];
+      int mask = keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          int slot = oldHashes[i] & mask;
+          while (keys[slot] != null) {
+            slot = (slot + 1) & mask;
+          }
+          keys[slot] = oldKeys[i];
+          hashes[slot] = oldHashes[i];
+          counts[slot] = oldCounts[i];
+        }
+      }
+    }
+
+    private static int hash(byte[] row, byte[] family, byte[] qualifier) {
+      int hash = Bytes.hashCode(row);
+      hash = 31 * hash + Bytes.hashCode(family);
+      hash = 31 * hash + Bytes.hashCode(qualifier);
+      // spread the low bits the table is indexed by
+      return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Encodes a counter key as row length(2) family length(2) row family
+     * qualifier.
+     */
+    private static byte[] encode(byte[] row, byte[] family, byte[] qualifier) {
+      byte[] key = new byte[4 + row.length + family.length + qualifier.length];
+      key[0] = (byte) (row.length >>> 8);
+      key[1] = (byte) row.length;
+      key[2] = (byte) (family.length >>> 8);
+      key[3] = (byte) family.length;
+      System.arraycopy(row, 0, key, 4, row.length);
+      System.arraycopy(family, 0, key, 4 + row.length, family.length);
+      System.arraycopy(qualifier, 0, key, 4 + row.length + family.length,
+          qualifier.length);
+      return key;
+    }
+
+    private static byte[][] decode(byte[] key) {
+      int rowLength = ((key[0] & 0xff) << 8) | (key[1] & 0xff);
+      int familyLength = ((key[2] & 0xff) << 8) | (key[3] & 0xff);
+      int qualifierOffset = 4 + rowLength + familyLength;
+      return new byte[][] { Arrays.copyOfRange(key, 4, 4 + rowLength),
+          Arrays.copyOfRange(key, 4 + rowLength, qualifierOffset),
+          Arrays.copyOfRange(key, qualifierOffset, key.length) };
+    }
+
+    private static boolean matches(byte[] key, byte[] row, byte[] family,
+        byte[] qualifier) {
+      if (key.length != 4 + row.length + family.length + qualifier.length
+          || (((key[0] & 0xff) << 8) | (key[1] & 0xff)) != row.length
+          || (((key[2] & 0xff) << 8) | (key[3] & 0xff)) != family.length) {
+        return false;
+      }
+      return Bytes.equals(key, 4, row.length, row, 0, row.length)
+          && Bytes.equals(key, 4 + row.length, family.length, family, 0,
+              family.length)
+          && Bytes.equals(key, 4 + row.length + family.length,
+              qualifier.length, qualifier, 0, qualifier.length);
+    }
+  }
+}
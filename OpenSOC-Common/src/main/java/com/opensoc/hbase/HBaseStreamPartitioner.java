@@ -1,146 +1,321 @@
 package com.opensoc.hbase;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.log4j.Logger;
 
 import backtype.storm.generated.GlobalStreamId;
 import backtype.storm.grouping.CustomStreamGrouping;
 import backtype.storm.task.WorkerTopologyContext;
 
+/**
+ * A Storm grouping sending each tuple to the HBase writer task that owns the
+ * region of its row key, so that each {@link HBaseBolt} task batches its puts
+ * to the regions of one region server.
+ * <p>
+ * The regions of a server are spread over the tasks assigned to that server,
+ * and the servers over the tasks when there are fewer tasks than servers. The
+ * region start keys and their tasks are kept in an immutable snapshot, sorted
+ * by start key, which a background thread rebuilds every refresh interval and
+ * swaps in atomically; choosing a task is a binary search and allocates
+ * nothing. Until the regions are first located, tuples are spread by row key
+ * hash.
+ * <p>
+ * Row keys are built from the row key field of the tuples as the
+ * {@link TupleTableConfig} of the table writes them, binary or string.
+ * <p>
+ * Storm does not tell a grouping when its worker stops, so the table and the
+ * refresh thread are released by a JVM shutdown hook, or by {@link #close()}.
+ *
+ * @see TupleTableConfig#getRowKey(String)
+ */
 public class HBaseStreamPartitioner implements CustomStreamGrouping {
 
   private static final long serialVersionUID = -148324019395976092L;
-  private String[] regionStartKeys = { "0" };
-  private Map<String, String> regionStartKeyRegionNameMap = new HashMap<String, String>();
-
-  private List<Integer> targetTasks = null;
-  private int targetTasksSize = 0;
-  private int rowKeyFieldIndex = 0;
-  private String tableName = null;
-  private long regionCheckTime = 0;
-  private int regionInforRefreshIntervalInMins = 60;
-  private int regionInforRefreshIntervalInMillis = regionInforRefreshIntervalInMins * 60000;
-
-  HTable hTable = null;;
-
-  
-  public void prepare(WorkerTopologyContext context, GlobalStreamId stream, List<Integer> targetTasks) {
-    
-    System.out.println("preparing HBaseStreamPartitioner for streamId " + stream.get_streamId());
-    this.targetTasks = targetTasks;
-    this.targetTasksSize = this.targetTasks.size();
-
-    Configuration conf = HBaseConfiguration.create();
-    try {
-      hTable = new HTable(conf, tableName);
-      refreshRegionInfo(tableName);
+  private static final Logger LOG = Logger.getLogger(HBaseStreamPartitioner.class);
+
+  private final String tableName;
+  private final TupleTableConfig tableConfig;
+  private final int rowKeyFieldIndex;
+  private final int regionInfoRefreshIntervalInMins;
+
+  private transient List<List<Integer>> taskLists;
+  private transient volatile Regions regions;
+  private transient RegionLocator regionLocator;
+  private transient ScheduledExecutorService refresher;
+  private transient Thread shutdownHook;
+
+  /**
+   * Locates the regions of a table.
+   */
+  public interface RegionLocator {
+
+    /**
+     * @return The region server hosting each region, by region start key
+     * @throws IOException
+     */
+    Map<byte[], String> getRegionServers() throws IOException;
+
+    /**
+     * Releases the table.
+     *
+     * @throws IOException
+     */
+    void close() throws IOException;
+  }
 
-      System.out.println("regionStartKeyRegionNameMap: " + regionStartKeyRegionNameMap);
+  /**
+   * @param tableName
+   *          The table, whose row keys are the string row key field
+   * @param rowKeyFieldIndex
+   *          The index of the row key field in the tuples
+   * @param regionInfoRefreshIntervalInMins
+   *          The minutes between refreshes of the region locations
+   */
+  public HBaseStreamPartitioner(String tableName, int rowKeyFieldIndex,
+      int regionInfoRefreshIntervalInMins) {
+    this(new TupleTableConfig(tableName, ""), rowKeyFieldIndex,
+        regionInfoRefreshIntervalInMins);
+  }
 
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * @param tableConfig
+   *          The table and the format of its row keys
+   * @param rowKeyFieldIndex
+   *          The index of the row key field in the tuples
+   * @param regionInfoRefreshIntervalInMins
+   *          The minutes between refreshes of the region locations
+   */
+  public HBaseStreamPartitioner(TupleTableConfig tableConfig,
+      int rowKeyFieldIndex, int regionInfoRefreshIntervalInMins) {
+    if (regionInfoRefreshIntervalInMins < 1) {
+      throw new IllegalArgumentException("Invalid region refresh interval "
+          + regionInfoRefreshIntervalInMins);
     }
-
+    this.tableName = tableConfig.getTableName();
+    this.tableConfig = tableConfig;
+    this.rowKeyFieldIndex = rowKeyFieldIndex;
+    this.regionInfoRefreshIntervalInMins = regionInfoRefreshIntervalInMins;
   }
-  
-  public void prepare() {
-    
-    System.out.println("preparing HBaseStreamPartitioner for streamId " );
-
-    Configuration conf = HBaseConfiguration.create();
-    try {
-      hTable = new HTable(conf, tableName);
-      refreshRegionInfo(tableName);
 
-      System.out.println("regionStartKeyRegionNameMap: " + regionStartKeyRegionNameMap);
+  /** {@inheritDoc} */
+  public void prepare(WorkerTopologyContext context, GlobalStreamId stream,
+      List<Integer> targetTasks) {
+    LOG.info("Preparing HBaseStreamPartitioner for table " + tableName
+        + " and " + targetTasks.size() + " tasks");
+    List<List<Integer>> lists = new ArrayList<List<Integer>>(targetTasks.size());
+    for (Integer task : targetTasks) {
+      lists.add(Collections.singletonList(task));
+    }
+    this.taskLists = lists;
 
+    try {
+      refreshRegions();
     } catch (IOException e) {
-      e.printStackTrace();
+      LOG.error("Unable to locate the regions of HBase table " + tableName
+          + ", tuples are spread by row key until they are", e);
     }
 
-  }
-
-  public HBaseStreamPartitioner(String tableName, int rowKeyFieldIndex, int regionInforRefreshIntervalInMins) {
-    System.out.println("Created HBaseStreamPartitioner ");
-    this.rowKeyFieldIndex = rowKeyFieldIndex;
-    this.tableName = tableName;
-    this.regionInforRefreshIntervalInMins = regionInforRefreshIntervalInMins;
-    this.regionInforRefreshIntervalInMillis = regionInforRefreshIntervalInMins * 60000;
+    refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "hbase-region-refresh-" + tableName);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    refresher.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          refreshRegions();
+        } catch (Exception e) {
+          LOG.warn("Unable to refresh the regions of HBase table " + tableName,
+              e);
+        }
+      }
+    }, regionInfoRefreshIntervalInMins, regionInfoRefreshIntervalInMins,
+        TimeUnit.MINUTES);
 
+    shutdownHook = new Thread(new Runnable() {
+      public void run() {
+        close();
+      }
+    }, "hbase-partitioner-close-" + tableName);
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
   }
 
-  
-  public List<Integer> chooseTasks(int taskId, List<Object> values) {
-    List<Integer> choosenTasks = null;
-    System.out.println("Choosing task for taskId " + taskId + " and values " + values);
-
-    if (regionInforRefreshIntervalInMillis > (System.currentTimeMillis() - regionCheckTime)) {
+  /**
+   * Stops the region refreshes and closes the table. Called by the shutdown
+   * hook registered in {@link #prepare}; closing twice does nothing.
+   */
+  public synchronized void close() {
+    if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // already shutting down, the hook closes again harmlessly
+      }
+    }
+    shutdownHook = null;
+    if (refresher != null) {
+      refresher.shutdownNow();
+      refresher = null;
+    }
+    if (regionLocator != null) {
       try {
-        refreshRegionInfo(tableName);
+        regionLocator.close();
       } catch (IOException e) {
-        e.printStackTrace();
+        LOG.warn("Unable to close HBase table " + tableName, e);
       }
+      regionLocator = null;
     }
+  }
 
-    int regionIndex = getRegionIndex((String) values.get(rowKeyFieldIndex));
+  /**
+   * Creates the region locator of the table, on the first refresh.
+   *
+   * @return the region locator
+   * @throws IOException
+   */
+  protected RegionLocator createRegionLocator() throws IOException {
+    Configuration conf = HBaseConfiguration.create();
+    final HTable hTable = new HTable(conf, tableName);
+    return new RegionLocator() {
+      public Map<byte[], String> getRegionServers() throws IOException {
+        Map<byte[], String> servers = new TreeMap<byte[], String>(
+            Bytes.BYTES_COMPARATOR);
+        for (Map.Entry<HRegionInfo, ServerName> region : hTable
+            .getRegionLocations().entrySet()) {
+          servers.put(region.getKey().getStartKey(), region.getValue()
+              .getServerName());
+        }
+        return servers;
+      }
 
-    if (regionIndex < targetTasksSize) {
-      choosenTasks = Arrays.asList(regionIndex);
+      public void close() throws IOException {
+        hTable.close();
+      }
+    };
+  }
 
-    } else {
-      choosenTasks = Arrays.asList(regionIndex % targetTasksSize);
+  /**
+   * Locates the regions of the table again and swaps in their new task
+   * assignment.
+   *
+   * @throws IOException
+   */
+  protected synchronized void refreshRegions() throws IOException {
+    if (regionLocator == null) {
+      regionLocator = createRegionLocator();
     }
-    System.out.println("Choosen tasks are " + choosenTasks);
-
-    return choosenTasks;
-
+    Map<byte[], String> servers = regionLocator.getRegionServers();
+    if (servers.isEmpty()) {
+      throw new IOException("HBase table " + tableName + " has no regions");
+    }
+    Regions refreshed = assign(servers, taskLists.size());
+    regions = refreshed;
+    LOG.info("Assigned " + refreshed.startKeys.length + " regions of HBase table "
+        + tableName + " to " + taskLists.size() + " tasks");
+  }
 
+  /** {@inheritDoc} */
+  public List<Integer> chooseTasks(int taskId, List<Object> values) {
+    byte[] rowKey = tableConfig.getRowKey((String) values.get(rowKeyFieldIndex));
+    Regions current = regions;
+    if (current == null) {
+      return taskLists.get((Bytes.hashCode(rowKey) & Integer.MAX_VALUE)
+          % taskLists.size());
+    }
+    return taskLists.get(current.tasks[getRegionIndex(current.startKeys, rowKey)]);
   }
 
-  
-  
+  /**
+   * @param key
+   *          The row key field
+   * @return The index of the region of the row key, by start key
+   */
   public int getRegionIndex(String key) {
-    int index = Arrays.binarySearch(regionStartKeys, key);
-    if (index < -1) {
-      index = (index + 2) * -1;
-    } else if (index == -1) {
-      index = 0;
+    Regions current = regions;
+    if (current == null) {
+      return 0;
     }
-
-    return index;
+    return getRegionIndex(current.startKeys, tableConfig.getRowKey(key));
   }
 
-  private void refreshRegionInfo(String tableName) throws IOException {
-
-    System.out.println("in refreshRegionInfo ");
-
-    Map<HRegionInfo, ServerName> regionMap = hTable.getRegionLocations();
-
-    synchronized (regionStartKeys) {
-      synchronized (regionStartKeyRegionNameMap) {
-        regionStartKeys = new String[regionMap.size()];
-        int index = 0;
-        String startKey = null;
-        regionStartKeyRegionNameMap.clear();
-        for (HRegionInfo regionInfo : regionMap.keySet()) {
-          startKey = new String(regionInfo.getStartKey());
-          regionStartKeyRegionNameMap.put(startKey, regionInfo.getRegionNameAsString());
-          regionStartKeys[index] = startKey;
-          index++;
-        }
+  /**
+   * Gets the index of the region holding a row key, the last region starting
+   * at or before it.
+   */
+  static int getRegionIndex(byte[][] startKeys, byte[] rowKey) {
+    int index = Arrays.binarySearch(startKeys, rowKey, Bytes.BYTES_COMPARATOR);
+    if (index < 0) {
+      index = -index - 2;
+    }
+    return Math.max(index, 0);
+  }
 
-        Arrays.sort(regionStartKeys);
-        regionCheckTime = System.currentTimeMillis();
+  /**
+   * Assigns the regions of each server to the tasks for that server: the
+   * tasks whose index modulo the number of servers is the server index, or
+   * the one task of the server when there are fewer tasks than servers.
+   */
+  static Regions assign(Map<byte[], String> servers, int taskCount) {
+    Map<byte[], String> sorted = new TreeMap<byte[], String>(
+        Bytes.BYTES_COMPARATOR);
+    sorted.putAll(servers);
+    List<String> serverNames = new ArrayList<String>(new TreeSet<String>(sorted
+        .values()));
+    int serverCount = serverNames.size();
+    int[] regionsOfServer = new int[serverCount];
+
+    byte[][] startKeys = new byte[sorted.size()][];
+    int[] tasks = new int[sorted.size()];
+    int region = 0;
+    for (Map.Entry<byte[], String> entry : sorted.entrySet()) {
+      int server = Collections.binarySearch(serverNames, entry.getValue());
+      int nth = regionsOfServer[server]++;
+      int task;
+      if (taskCount <= serverCount) {
+        task = server % taskCount;
+      } else {
+        // tasks server, server + serverCount, ... take turns
+        int tasksOfServer = (taskCount - server + serverCount - 1) / serverCount;
+        task = server + (nth % tasksOfServer) * serverCount;
       }
+      startKeys[region] = entry.getKey();
+      tasks[region] = task;
+      region++;
+    }
+    return new Regions(startKeys, tasks);
+  }
+
+  /**
+   * The region start keys of the table, sorted, and the index of the task of
+   * each region. Never modified once built.
+   */
+  static final class Regions {
+    final byte[][] startKeys;
+    final int[] tasks;
+
+    Regions(byte[][] startKeys, int[] tasks) {
+      this.startKeys = startKeys;
+      this.tasks = tasks;
     }
   }
-}
\ No newline at end of file
+}
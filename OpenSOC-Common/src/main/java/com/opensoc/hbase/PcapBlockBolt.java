@@ -0,0 +1,299 @@
+package com.opensoc.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.log4j.Logger;
+import org.json.simple.JSONObject;
+
+import backtype.storm.Config;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import com.opensoc.helpers.topology.ErrorGenerator;
+import com.opensoc.pcap.PcapBlock;
+import com.opensoc.pcap.PcapBlockKey;
+import com.opensoc.pcap.PcapIpIndexKey;
+
+/**
+ * A Storm bolt writing the packets on <tt>pcap_data_stream</tt> to HBase as
+ * {@link PcapBlock}s, one block per session and time bucket, instead of one
+ * cell per packet. See {@link PcapBlockKey} for the row keys.
+ * <p>
+ * The packets of a session are held in memory until its time bucket ends, its
+ * block reaches the max block size, or it has been open for the max open
+ * time. A bucket ends once a packet of any session is past it. Ended blocks
+ * are written on the next Storm tick tuple and their tuples are acked once
+ * the puts are flushed, so the max open time plus the flush interval must
+ * stay well within the topology message timeout.
+ * <p>
+ * All packets of a session must reach the same task, see
+ * {@link PcapSessionGrouping}.
+ * <p>
+ * Each block is a cell of its own, qualified by the task and a sequence
+ * number, so the blocks that several tasks, or a late packet, write for the
+ * same session and bucket do not overwrite each other.
+ *
+ * @see PcapBlock
+ * @see PcapBlockKey
+ */
+@SuppressWarnings("serial")
+public class PcapBlockBolt extends HBaseBolt {
+  private static final Logger LOG = Logger.getLogger(PcapBlockBolt.class);
+
+  private final long bucketWidth;
+  private int maxBlockBytes = 1024 * 1024;
+  private long maxOpenBytes = 64L * 1024 * 1024;
+  private int maxOpenSecs = 10;
+  private int flushIntervalSecs = 1;
+  private boolean compress = true;
+
+  private transient byte[] columnFamily;
+  private transient String pcapField;
+  private transient boolean binaryRowKey;
+  private transient int taskId;
+  private transient long sequence;
+  private transient Map<String, OpenBlock> openBlocks;
+  private transient List<OpenBlock> endedBlocks;
+  private transient long openBytes;
+  private transient long newestBucket;
+
+  /**
+   * @param conf
+   *          The pcap table, its column family and row key format, and the
+   *          pcap_id, timestamp and pcap tuple fields
+   * @param bucketWidth
+   *          The width of the time buckets, in the unit of the tuple timestamps
+   * @param quorum
+   *          The zookeeper quorum
+   * @param port
+   *          The zookeeper port
+   */
+  public PcapBlockBolt(TupleTableConfig conf, long bucketWidth, String quorum,
+      String port) {
+    super(conf, quorum, port);
+    if (bucketWidth < 1) {
+      throw new IllegalArgumentException("Invalid time bucket width "
+          + bucketWidth);
+    }
+    this.bucketWidth = bucketWidth;
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("rawtypes")
+  @Override
+  public void prepare(Map stormConf, TopologyContext context,
+      OutputCollector collector) {
+    if (conf.getColumnFamilies().size() != 1) {
+      throw new IllegalArgumentException(
+          "The pcap block table needs exactly one column family");
+    }
+    String cf = conf.getColumnFamilies().iterator().next();
+    this.columnFamily = Bytes.toBytes(cf);
+    this.pcapField = conf.columnFamilies.get(cf).iterator().next();
+    this.binaryRowKey = TupleTableConfig.ROW_KEY_FORMAT_BINARY.equals(conf
+        .getRowKeyFormat());
+    Object timeout = stormConf.get(Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS);
+    if (timeout instanceof Number
+        && maxOpenSecs + flushIntervalSecs >= ((Number) timeout).intValue()) {
+      LOG.warn("Pcap blocks are held up to " + (maxOpenSecs + flushIntervalSecs)
+          + " seconds, their tuples time out after " + timeout);
+    }
+    this.taskId = context.getThisTaskId();
+    // sequence numbers of a restarted task start after those it wrote before
+    this.sequence = System.currentTimeMillis() * 1000;
+    this.openBlocks = new HashMap<String, OpenBlock>();
+    this.endedBlocks = new ArrayList<OpenBlock>();
+    super.prepare(stormConf, context, collector);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void execute(Tuple input) {
+    if (isTickTuple(input)) {
+      endBlocks(System.currentTimeMillis() - maxOpenSecs * 1000L);
+      writeEndedBlocks();
+      return;
+    }
+    String pcapId = input.getStringByField(conf.getTupleRowKeyField());
+    long timestamp = input.getLongByField(conf.getTupleTimestampField());
+    Object pcap = input.getValueByField(pcapField);
+    long bucket = PcapIpIndexKey.getBucket(timestamp, bucketWidth);
+    newestBucket = Math.max(newestBucket, bucket);
+
+    String sessionKey = PcapIpIndexKey.getSessionKey(pcapId);
+    OpenBlock open = openBlocks.get(sessionKey);
+    if (open != null
+        && (open.bucket != bucket || !open.block.add(timestamp, pcap))) {
+      endBlock(open);
+      open = null;
+    }
+    if (open == null) {
+      open = new OpenBlock(sessionKey, bucket);
+      open.block.add(timestamp, pcap);
+      openBlocks.put(sessionKey, open);
+    }
+    open.tuples.add(input);
+    openBytes += open.block.size() - open.size;
+    open.size = open.block.size();
+
+    if (open.size >= maxBlockBytes) {
+      endBlock(open);
+    }
+    if (openBytes >= maxOpenBytes) {
+      endBlocks(Long.MAX_VALUE);
+    }
+  }
+
+  /**
+   * Ends the blocks of the buckets before the newest one, and those opened
+   * before a time.
+   */
+  private void endBlocks(long openedBefore) {
+    Iterator<OpenBlock> blocks = openBlocks.values().iterator();
+    while (blocks.hasNext()) {
+      OpenBlock open = blocks.next();
+      if (open.bucket < newestBucket || open.openedAt < openedBefore) {
+        blocks.remove();
+        endedBlocks.add(open);
+        openBytes -= open.size;
+      }
+    }
+  }
+
+  private void endBlock(OpenBlock open) {
+    openBlocks.remove(open.sessionKey);
+    endedBlocks.add(open);
+    openBytes -= open.size;
+  }
+
+  /**
+   * Writes the ended blocks and acks their tuples, or fails them if the write
+   * fails.
+   */
+  private void writeEndedBlocks() {
+    if (endedBlocks.isEmpty()) {
+      return;
+    }
+    try {
+      List<Put> puts = new ArrayList<Put>(endedBlocks.size());
+      for (OpenBlock ended : endedBlocks) {
+        Put put = new Put(PcapBlockKey.toBytes(ended.sessionKey,
+            ended.bucket, binaryRowKey, conf.getRowKeySaltBuckets()));
+        put.setDurability(conf.getDurability());
+        put.add(columnFamily, Bytes.add(Bytes.toBytes(taskId),
+            Bytes.toBytes(sequence++)), ended.block.toByteArray(compress));
+        puts.add(put);
+      }
+      connector.getTable().put(puts);
+      connector.getTable().flushCommits();
+    } catch (IOException ex) {
+      LOG.error("Unable to write " + endedBlocks.size() + " pcap blocks", ex);
+      JSONObject error = ErrorGenerator.generateErrorMessage(
+          "Unable to write pcap blocks",
+          org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(ex));
+      collector.emit("error", new Values(error));
+      for (OpenBlock ended : endedBlocks) {
+        for (Tuple tuple : ended.tuples) {
+          collector.fail(tuple);
+        }
+      }
+      endedBlocks.clear();
+      return;
+    }
+    for (OpenBlock ended : endedBlocks) {
+      for (Tuple tuple : ended.tuples) {
+        collector.ack(tuple);
+      }
+    }
+    endedBlocks.clear();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void cleanup() {
+    endBlocks(Long.MAX_VALUE);
+    writeEndedBlocks();
+    super.cleanup();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Map<String, Object> getComponentConfiguration() {
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, flushIntervalSecs);
+    return config;
+  }
+
+  /**
+   * @param maxBlockBytes
+   *          The uncompressed size at which a block is ended before its time
+   *          bucket ends
+   */
+  public void setMaxBlockBytes(int maxBlockBytes) {
+    this.maxBlockBytes = maxBlockBytes;
+  }
+
+  /**
+   * @param maxOpenBytes
+   *          The most uncompressed bytes held in open blocks; once reached all
+   *          open blocks are ended
+   */
+  public void setMaxOpenBytes(long maxOpenBytes) {
+    this.maxOpenBytes = maxOpenBytes;
+  }
+
+  /**
+   * @param maxOpenSecs
+   *          The seconds after which a block is ended, even if no later packet
+   *          ended its time bucket
+   *          <p>
+   *          10 by default
+   */
+  public void setMaxOpenSecs(int maxOpenSecs) {
+    this.maxOpenSecs = maxOpenSecs;
+  }
+
+  /**
+   * @param flushIntervalSecs
+   *          The seconds between writes of the ended blocks
+   */
+  public void setFlushIntervalSecs(int flushIntervalSecs) {
+    this.flushIntervalSecs = flushIntervalSecs;
+  }
+
+  /**
+   * @param compress
+   *          Whether to deflate the blocks
+   *          <p>
+   *          Enabled by default
+   */
+  public void setCompress(boolean compress) {
+    this.compress = compress;
+  }
+
+  /**
+   * The block of a session being filled, and the tuples it holds.
+   */
+  private static final class OpenBlock {
+    private final String sessionKey;
+    private final long bucket;
+    private final long openedAt = System.currentTimeMillis();
+    private final PcapBlock block = new PcapBlock();
+    private final List<Tuple> tuples = new ArrayList<Tuple>();
+    private int size;
+
+    OpenBlock(String sessionKey, long bucket) {
+      this.sessionKey = sessionKey;
+      this.bucket = bucket;
+    }
+  }
+}
@@ -0,0 +1,335 @@
+package com.opensoc.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.log4j.Logger;
+import org.json.simple.JSONObject;
+
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import com.opensoc.helpers.topology.ErrorGenerator;
+import com.opensoc.pcap.PcapIpIndexKey;
+
+/**
+ * A Storm bolt writing the pcap ip index, which maps the src and dst ips of
+ * the packets on <tt>pcap_data_stream</tt>, per time bucket, to the session
+ * keys seen. See {@link PcapIpIndexKey} for the table layout.
+ * <p>
+ * Index writes are coalesced: the sessions of an ip and time bucket are held
+ * until the next flush and written as one put, and a session already written
+ * for an ip in a recent bucket is not written again. As a session usually
+ * spans many packets, the index costs a small fraction of the writes of the
+ * pcap table. Pending rows are flushed every flush interval, on Storm tick
+ * tuples, or as soon as there are too many of them, and their tuples are
+ * acked once the puts are flushed. A tuple whose pcap_id can not be parsed is
+ * failed and reported on the error stream.
+ * <p>
+ * The index table and the timestamp and pcap_id fields are taken from the
+ * {@link TupleTableConfig}, whose single column family holds the sessions.
+ *
+ * @see PcapIpIndexKey
+ */
+@SuppressWarnings("serial")
+public class PcapIpIndexBolt implements IRichBolt {
+  private static final Logger LOG = Logger.getLogger(PcapIpIndexBolt.class);
+
+  /** The value of the session columns. */
+  private static final byte[] EMPTY = new byte[0];
+
+  protected OutputCollector collector;
+  protected HTableConnector connector;
+  protected TupleTableConfig conf;
+
+  private String _quorum;
+  private String _port;
+
+  private final long bucketWidth;
+  private int maxPendingRows = 10000;
+  private int maxWrittenSessions = 1000000;
+  private int flushIntervalSecs = 1;
+
+  private transient byte[] columnFamily;
+  private transient Map<IndexRow, Set<String>> pendingRows;
+  private transient Map<IndexRow, Set<String>> writtenRows;
+  private transient List<Tuple> pendingTuples;
+  private transient int writtenSessions;
+  private transient long newestBucket;
+
+  /**
+   * @param conf
+   *          The index table, its column family and the pcap_id and timestamp
+   *          tuple fields
+   * @param bucketWidth
+   *          The width of the time buckets, in the unit of the tuple timestamps
+   * @param quorum
+   *          The zookeeper quorum
+   * @param port
+   *          The zookeeper port
+   */
+  public PcapIpIndexBolt(TupleTableConfig conf, long bucketWidth,
+      String quorum, String port) {
+    if (bucketWidth < 1) {
+      throw new IllegalArgumentException("Invalid time bucket width "
+          + bucketWidth);
+    }
+    this.conf = conf;
+    this.bucketWidth = bucketWidth;
+    _quorum = quorum;
+    _port = port;
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings("rawtypes")
+  public void prepare(Map stormConf, TopologyContext context,
+      OutputCollector collector) {
+    this.collector = collector;
+    if (conf.getColumnFamilies().size() != 1) {
+      throw new IllegalArgumentException(
+          "The ip index table needs exactly one column family");
+    }
+    this.columnFamily = Bytes.toBytes(conf.getColumnFamilies().iterator()
+        .next());
+    this.pendingRows = new HashMap<IndexRow, Set<String>>();
+    this.writtenRows = new HashMap<IndexRow, Set<String>>();
+    this.pendingTuples = new ArrayList<Tuple>();
+
+    try {
+      this.connector = new HTableConnector(conf, _quorum, _port);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    LOG.info("Preparing PcapIpIndexBolt for table: " + conf.getTableName());
+  }
+
+  /** {@inheritDoc} */
+  public void execute(Tuple input) {
+    if (isTick(input)) {
+      flush();
+      return;
+    }
+    String pcapId = input.getStringByField(conf.getTupleRowKeyField());
+    long bucket;
+    int srcIp;
+    int dstIp;
+    try {
+      bucket = PcapIpIndexKey.getBucket(
+          input.getLongByField(conf.getTupleTimestampField()), bucketWidth);
+      srcIp = PcapIpIndexKey.getSrcIp(pcapId);
+      dstIp = PcapIpIndexKey.getDstIp(pcapId);
+    } catch (RuntimeException ex) {
+      LOG.error("Unable to index pcap_id " + pcapId, ex);
+      JSONObject error = ErrorGenerator.generateErrorMessage(
+          "Unable to index pcap_id " + pcapId,
+          org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(ex));
+      collector.emit("error", new Values(error));
+      collector.fail(input);
+      return;
+    }
+    if (bucket > newestBucket) {
+      newestBucket = bucket;
+      forgetOldBuckets();
+    }
+    String sessionKey = PcapIpIndexKey.getSessionKey(pcapId);
+    addSession(srcIp, bucket, sessionKey);
+    addSession(dstIp, bucket, sessionKey);
+    pendingTuples.add(input);
+
+    if (pendingRows.size() >= maxPendingRows) {
+      flush();
+    }
+  }
+
+  /**
+   * Adds a session to the pending row of an ip and time bucket, unless it was
+   * already written there.
+   */
+  private void addSession(int ip, long bucket, String sessionKey) {
+    IndexRow row = new IndexRow(ip, bucket);
+    Set<String> written = writtenRows.get(row);
+    if (written != null && written.contains(sessionKey)) {
+      return;
+    }
+    Set<String> sessions = pendingRows.get(row);
+    if (sessions == null) {
+      sessions = new HashSet<String>();
+      pendingRows.put(row, sessions);
+    }
+    sessions.add(sessionKey);
+  }
+
+  /**
+   * Writes the pending rows and acks their tuples, or fails them if the write
+   * fails.
+   */
+  private void flush() {
+    if (pendingTuples.isEmpty()) {
+      return;
+    }
+    try {
+      if (!pendingRows.isEmpty()) {
+        List<Put> puts = new ArrayList<Put>(pendingRows.size());
+        for (Map.Entry<IndexRow, Set<String>> row : pendingRows.entrySet()) {
+          Put put = new Put(PcapIpIndexKey.toBytes(row.getKey().ip,
+              row.getKey().bucket));
+          put.setDurability(conf.getDurability());
+          for (String sessionKey : row.getValue()) {
+            put.add(columnFamily, Bytes.toBytes(sessionKey), EMPTY);
+          }
+          puts.add(put);
+        }
+        connector.getTable().put(puts);
+        connector.getTable().flushCommits();
+      }
+    } catch (IOException ex) {
+      LOG.error("Unable to write " + pendingRows.size()
+          + " rows of the ip index", ex);
+      JSONObject error = ErrorGenerator.generateErrorMessage(
+          "Unable to write the ip index",
+          org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(ex));
+      collector.emit("error", new Values(error));
+      for (Tuple tuple : pendingTuples) {
+        collector.fail(tuple);
+      }
+      pendingTuples.clear();
+      pendingRows.clear();
+      return;
+    }
+    for (Tuple tuple : pendingTuples) {
+      collector.ack(tuple);
+    }
+    pendingTuples.clear();
+    rememberWritten();
+  }
+
+  /**
+   * Moves the written pending rows to the written rows, so that their
+   * sessions are not written again.
+   */
+  private void rememberWritten() {
+    for (Map.Entry<IndexRow, Set<String>> row : pendingRows.entrySet()) {
+      Set<String> written = writtenRows.get(row.getKey());
+      if (written == null) {
+        writtenRows.put(row.getKey(), row.getValue());
+      } else {
+        written.addAll(row.getValue());
+      }
+      writtenSessions += row.getValue().size();
+    }
+    pendingRows.clear();
+    if (writtenSessions > maxWrittenSessions) {
+      // rewriting a session is harmless, only a wasted write
+      writtenRows.clear();
+      writtenSessions = 0;
+    }
+  }
+
+  /**
+   * Forgets the written sessions of the buckets before the previous one, as
+   * few packets arrive that late.
+   */
+  private void forgetOldBuckets() {
+    Iterator<Map.Entry<IndexRow, Set<String>>> rows = writtenRows.entrySet()
+        .iterator();
+    while (rows.hasNext()) {
+      Map.Entry<IndexRow, Set<String>> row = rows.next();
+      if (row.getKey().bucket < newestBucket - 1) {
+        writtenSessions -= row.getValue().size();
+        rows.remove();
+      }
+    }
+  }
+
+  private static boolean isTick(Tuple tuple) {
+    return Constants.SYSTEM_COMPONENT_ID.equals(tuple.getSourceComponent())
+        && Constants.SYSTEM_TICK_STREAM_ID.equals(tuple.getSourceStreamId());
+  }
+
+  /** {@inheritDoc} */
+  public void cleanup() {
+    flush();
+    this.connector.close();
+  }
+
+  /** {@inheritDoc} */
+  public void declareOutputFields(OutputFieldsDeclarer declarer) {
+    declarer.declareStream("error", new Fields("HBase"));
+  }
+
+  /** {@inheritDoc} */
+  public Map<String, Object> getComponentConfiguration() {
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, flushIntervalSecs);
+    return config;
+  }
+
+  /**
+   * @param maxPendingRows
+   *          The most index rows held before they are flushed, whatever the
+   *          flush interval
+   */
+  public void setMaxPendingRows(int maxPendingRows) {
+    this.maxPendingRows = maxPendingRows;
+  }
+
+  /**
+   * @param maxWrittenSessions
+   *          The most written sessions remembered so they are not written
+   *          again
+   */
+  public void setMaxWrittenSessions(int maxWrittenSessions) {
+    this.maxWrittenSessions = maxWrittenSessions;
+  }
+
+  /**
+   * @param flushIntervalSecs
+   *          The seconds between flushes of the pending index rows
+   */
+  public void setFlushIntervalSecs(int flushIntervalSecs) {
+    this.flushIntervalSecs = flushIntervalSecs;
+  }
+
+  /**
+   * An ip and time bucket, the key of an index row.
+   */
+  private static final class IndexRow {
+    private final int ip;
+    private final long bucket;
+
+    IndexRow(int ip, long bucket) {
+      this.ip = ip;
+      this.bucket = bucket;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * ip + (int) (bucket ^ (bucket >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof IndexRow)) {
+        return false;
+      }
+      IndexRow other = (IndexRow) obj;
+      return ip == other.ip && bucket == other.bucket;
+    }
+  }
+}
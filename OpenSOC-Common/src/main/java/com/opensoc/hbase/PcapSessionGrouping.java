@@ -0,0 +1,55 @@
+package com.opensoc.hbase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.grouping.CustomStreamGrouping;
+import backtype.storm.task.WorkerTopologyContext;
+
+import com.opensoc.pcap.PcapIpIndexKey;
+
+/**
+ * A Storm grouping sending all packets of a session to the same task, by the
+ * session key of their pcap_id, so that a {@link PcapBlockBolt} task holds
+ * the whole block of each session and time bucket. A fields grouping on the
+ * pcap_id would spread a session over the tasks, as the pcap_id also holds the
+ * per-packet ids.
+ *
+ * @see PcapIpIndexKey#getSessionKey(String)
+ */
+public class PcapSessionGrouping implements CustomStreamGrouping {
+
+  private static final long serialVersionUID = 4317356412218045870L;
+
+  private final int pcapIdFieldIndex;
+
+  private transient List<List<Integer>> taskLists;
+
+  /**
+   * @param pcapIdFieldIndex
+   *          The index of the pcap_id field in the tuples
+   */
+  public PcapSessionGrouping(int pcapIdFieldIndex) {
+    this.pcapIdFieldIndex = pcapIdFieldIndex;
+  }
+
+  /** {@inheritDoc} */
+  public void prepare(WorkerTopologyContext context, GlobalStreamId stream,
+      List<Integer> targetTasks) {
+    List<List<Integer>> lists = new ArrayList<List<Integer>>(targetTasks.size());
+    for (Integer task : targetTasks) {
+      lists.add(Collections.singletonList(task));
+    }
+    this.taskLists = lists;
+  }
+
+  /** {@inheritDoc} */
+  public List<Integer> chooseTasks(int taskId, List<Object> values) {
+    String sessionKey = PcapIpIndexKey.getSessionKey((String) values
+        .get(pcapIdFieldIndex));
+    return taskLists.get((sessionKey.hashCode() & Integer.MAX_VALUE)
+        % taskLists.size());
+  }
+}
@@ -13,6 +13,9 @@ import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
 
+import com.opensoc.pcap.PcapRecord;
+import com.opensoc.pcap.PcapRowKey;
+
 import backtype.storm.tuple.Tuple;
 
 /**
@@ -23,6 +26,12 @@ public class TupleTableConfig implements Serializable {
   
   public static final long DEFAULT_INCREMENT = 1L;
   
+  /** Row keys are the UTF-8 bytes of the row key field. */
+  public static final String ROW_KEY_FORMAT_STRING = "string";
+  
+  /** Row keys are pcap_ids written as salted binary {@link PcapRowKey}s. */
+  public static final String ROW_KEY_FORMAT_BINARY = "binary";
+  
   private String tableName;
   protected String tupleRowKeyField;
   protected String tupleTimestampField;
@@ -30,6 +39,8 @@ public class TupleTableConfig implements Serializable {
   private boolean batch = true;
   protected Durability durability = Durability.USE_DEFAULT;
   private long writeBufferSize = 0L;
+  private String rowKeyFormat = ROW_KEY_FORMAT_STRING;
+  private int rowKeySaltBuckets = 1;
   
   /**
    * Initialize configuration
@@ -90,7 +101,7 @@ public class TupleTableConfig implements Serializable {
    * @return {@link Put}
    */
   public Put getPutFromTuple(final Tuple tuple) {
-    byte[] rowKey = Bytes.toBytes(tuple.getStringByField(tupleRowKeyField));
+    byte[] rowKey = getRowKey(tuple);
     
     long ts = 0;
     if (!tupleTimestampField.equals("")) {
@@ -106,7 +117,9 @@ public class TupleTableConfig implements Serializable {
         byte[] cfBytes = Bytes.toBytes(cf);
         for (String cq : columnFamilies.get(cf)) {
           byte[] cqBytes = Bytes.toBytes(cq);
-          byte[] val = tuple.getBinaryByField(cq);
+          // single packet captures are sliced from the parsed capture and
+          // only copied here
+          byte[] val = PcapRecord.toBytes(tuple.getValueByField(cq));
           
           if (ts > 0) {
             p.add(cfBytes, cqBytes, ts, val);
@@ -130,7 +143,7 @@ public class TupleTableConfig implements Serializable {
    * @return {@link Increment}
    */
   public Increment getIncrementFromTuple(final Tuple tuple, final long increment) {
-    byte[] rowKey = Bytes.toBytes(tuple.getStringByField(tupleRowKeyField));
+    byte[] rowKey = getRowKey(tuple);
     
     Increment inc = new Increment(rowKey);
     inc.setDurability(durability);
@@ -155,6 +168,33 @@ public class TupleTableConfig implements Serializable {
     return inc;
   }
   
+  /**
+   * Creates the HBase row key from the row key field of a Storm {@link Tuple},
+   * in the configured row key format
+   * 
+   * @param tuple
+   *          The {@link Tuple}
+   * @return The row key
+   */
+  public byte[] getRowKey(final Tuple tuple) {
+    return getRowKey(tuple.getStringByField(tupleRowKeyField));
+  }
+  
+  /**
+   * Creates the HBase row key from the value of a row key field, in the
+   * configured row key format
+   * 
+   * @param key
+   *          The row key field value
+   * @return The row key
+   */
+  public byte[] getRowKey(final String key) {
+    if (ROW_KEY_FORMAT_BINARY.equals(rowKeyFormat)) {
+      return PcapRowKey.toBytes(key, rowKeySaltBuckets);
+    }
+    return Bytes.toBytes(key);
+  }
+  
   /**
    * Increment the counter for the given family and column by the specified
    * amount
@@ -263,6 +303,53 @@ public class TupleTableConfig implements Serializable {
     return writeBufferSize;
   }
   
+  /**
+   * @param rowKeyFormat
+   *          How the row key field is written as an HBase row key, either
+   *          {@link #ROW_KEY_FORMAT_STRING} or {@link #ROW_KEY_FORMAT_BINARY}.
+   *          <p>
+   *          Binary keys need the row key field to hold pcap_ids. They are 18
+   *          bytes instead of about 40, and are salted to spread sequential ips
+   *          over {@link #setRowKeySaltBuckets(int)} regions. Readers of the
+   *          table must be configured with the same format and buckets
+   *          <p>
+   *          String by default, as existing tables use it
+   */
+  public void setRowKeyFormat(String rowKeyFormat) {
+    if (!ROW_KEY_FORMAT_STRING.equals(rowKeyFormat)
+        && !ROW_KEY_FORMAT_BINARY.equals(rowKeyFormat)) {
+      throw new IllegalArgumentException("Unknown row key format: " + rowKeyFormat);
+    }
+    this.rowKeyFormat = rowKeyFormat;
+  }
+  
+  /**
+   * @return the rowKeyFormat
+   */
+  public String getRowKeyFormat() {
+    return rowKeyFormat;
+  }
+  
+  /**
+   * @param rowKeySaltBuckets
+   *          The number of salt buckets of binary row keys, from 1 to
+   *          {@link PcapRowKey#MAX_SALT_BUCKETS}. Pre-splitting the table on
+   *          the salt byte puts each bucket in its own region
+   */
+  public void setRowKeySaltBuckets(int rowKeySaltBuckets) {
+    if (rowKeySaltBuckets < 1 || rowKeySaltBuckets > PcapRowKey.MAX_SALT_BUCKETS) {
+      throw new IllegalArgumentException("Invalid number of salt buckets: " + rowKeySaltBuckets);
+    }
+    this.rowKeySaltBuckets = rowKeySaltBuckets;
+  }
+  
+  /**
+   * @return the rowKeySaltBuckets
+   */
+  public int getRowKeySaltBuckets() {
+    return rowKeySaltBuckets;
+  }
+  
   /**
    * @return A Set of configured column families
    */
@@ -276,4 +363,11 @@ public class TupleTableConfig implements Serializable {
   public String getTupleRowKeyField() {
     return tupleRowKeyField;
   }
+  
+  /**
+   * @return the tupleTimestampField
+   */
+  public String getTupleTimestampField() {
+    return tupleTimestampField;
+  }
 }
\ No newline at end of file
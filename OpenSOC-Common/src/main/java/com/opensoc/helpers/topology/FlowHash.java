@@ -0,0 +1,153 @@
+package com.opensoc.helpers.topology;
+
+import java.util.Map;
+
+/**
+ * Direction independent 64 bit hash of a 5-tuple, used as the grouping key
+ * between parser, enrichment and alert bolts. Both directions of a
+ * conversation get the same key, and keys are spread evenly so that a fields
+ * grouping on them loads every task about the same.
+ * <p>
+ * IPv4 addresses are hashed from their numeric value, anything else (IPv6,
+ * host names) from its characters. Missing ports count as 0 and a missing
+ * protocol as empty. The int overload takes the IP protocol number rather
+ * than its name, so keys from the two overloads are not interchangeable.
+ */
+public final class FlowHash {
+
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+	private FlowHash() {
+	}
+
+	/**
+	 * @param message
+	 *            Parsed message with the standard ip_src_addr, ip_dst_addr,
+	 *            ip_src_port, ip_dst_port and protocol fields
+	 * @return The key, or a hash of original_string if the message has no
+	 *         addresses
+	 */
+	@SuppressWarnings("rawtypes")
+	public static long hash(Map message) {
+
+		Object srcIp = message.get("ip_src_addr");
+		Object dstIp = message.get("ip_dst_addr");
+
+		if (srcIp == null && dstIp == null) {
+			Object original = message.get("original_string");
+			return original == null ? 0 : mix(chars(original.toString()));
+		}
+
+		Object protocol = message.get("protocol");
+		return hash(srcIp == null ? null : srcIp.toString(),
+				port(message.get("ip_src_port")), dstIp == null ? null
+						: dstIp.toString(), port(message.get("ip_dst_port")),
+				protocol == null ? null : protocol.toString());
+	}
+
+	public static long hash(String srcIp, int srcPort, String dstIp,
+			int dstPort, String protocol) {
+		return combine(endpoint(address(srcIp), srcPort),
+				endpoint(address(dstIp), dstPort), protocol == null ? 0
+						: chars(protocol));
+	}
+
+	/**
+	 * @param srcIp
+	 *            IPv4 address as an int
+	 * @param protocol
+	 *            IP protocol number
+	 */
+	public static long hash(int srcIp, int srcPort, int dstIp, int dstPort,
+			int protocol) {
+		return combine(endpoint(srcIp & 0xffffffffL, srcPort),
+				endpoint(dstIp & 0xffffffffL, dstPort), protocol);
+	}
+
+	private static long combine(long a, long b, long protocol) {
+		long lo = a < b ? a : b;
+		long hi = a < b ? b : a;
+		return mix(mix(lo * GOLDEN + hi) ^ protocol);
+	}
+
+	private static long endpoint(long address, int port) {
+		return (address << 16) | (port & 0xffff);
+	}
+
+	/**
+	 * @return The IPv4 address as an unsigned value, or a hash of the text
+	 *         for anything else
+	 */
+	private static long address(String ip) {
+
+		if (ip == null)
+			return 0;
+
+		long value = 0;
+		int octet = 0;
+		int digits = 0;
+		int dots = 0;
+		for (int i = 0; i < ip.length(); i++) {
+			char c = ip.charAt(i);
+			if (c >= '0' && c <= '9' && digits < 3) {
+				octet = octet * 10 + (c - '0');
+				digits++;
+			} else if (c == '.' && digits > 0 && dots < 3 && octet < 256) {
+				value = (value << 8) | octet;
+				octet = 0;
+				digits = 0;
+				dots++;
+			} else {
+				return chars(ip);
+			}
+		}
+		if (dots != 3 || digits == 0 || octet > 255)
+			return chars(ip);
+		return (value << 8) | octet;
+	}
+
+	private static int port(Object port) {
+
+		if (port instanceof Number)
+			return ((Number) port).intValue();
+		if (port == null)
+			return 0;
+
+		String text = port.toString();
+		int value = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9')
+				return 0;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * FNV-1a over the characters, case insensitive for ASCII letters
+	 */
+	private static long chars(String text) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c >= 'A' && c <= 'Z')
+				c += 32;
+			h ^= c;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * MurmurHash3 64 bit finalizer
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -2,6 +2,8 @@ package com.opensoc.metrics;
 
 import com.codahale.metrics.ConsoleReporter;
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.JmxReporter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.graphite.Graphite;
@@ -43,6 +45,14 @@ public class MetricReporter {
 		return metrics.counter(MetricRegistry.name(_topologyname,_klas.getCanonicalName(), countername));
 	}
 
+	public Histogram registerHistogram(String histogramname) {
+		return metrics.histogram(MetricRegistry.name(_topologyname,_klas.getCanonicalName(), histogramname));
+	}
+
+	public <T> Gauge<T> registerGauge(String gaugename, Gauge<T> gauge) {
+		return metrics.register(MetricRegistry.name(_topologyname,_klas.getCanonicalName(), gaugename), gauge);
+	}
+
 	public void start(Map config) {
 		try {
 			if (config.get("reporter.jmx").equals("true")) {
@@ -0,0 +1,20 @@
+package com.opensoc.parser.interfaces;
+
+/**
+ * A parser that handles the common layout of its messages with a fast scan
+ * and hands everything else to a slower, more general parser. The counts are
+ * reported as metrics by the parser bolt.
+ */
+public interface FastPathParser {
+
+	/**
+	 * @return Number of messages handled by the fast path
+	 */
+	public long getFastPathCount();
+
+	/**
+	 * @return Number of messages handed to the fallback parser
+	 */
+	public long getFallbackCount();
+
+}
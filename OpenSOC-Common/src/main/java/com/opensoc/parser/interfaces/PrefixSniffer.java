@@ -0,0 +1,20 @@
+package com.opensoc.parser.interfaces;
+
+/**
+ * Reads just enough of the start of a raw message to tell what kind of
+ * message it is (a protocol, a log type), without parsing it.
+ */
+public interface PrefixSniffer {
+
+	/**
+	 * @param raw_message
+	 *            Buffer holding the message
+	 * @param offset
+	 *            Index of the first byte of the message
+	 * @param length
+	 *            Number of bytes in the message
+	 * @return The message type or null if it can not be told from the prefix
+	 */
+	public String sniff(byte[] raw_message, int offset, int length);
+
+}
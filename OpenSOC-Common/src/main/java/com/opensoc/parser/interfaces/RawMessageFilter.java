@@ -0,0 +1,20 @@
+package com.opensoc.parser.interfaces;
+
+/**
+ * Filter applied to the raw bytes of a message before it is parsed, so
+ * messages that would be dropped anyway never pay for a full parse.
+ */
+public interface RawMessageFilter {
+
+	/**
+	 * @param raw_message
+	 *            Buffer holding the message
+	 * @param offset
+	 *            Index of the first byte of the message
+	 * @param length
+	 *            Number of bytes in the message
+	 * @return False if the message is filtered and true if it should be parsed
+	 */
+	public boolean emitTuple(byte[] raw_message, int offset, int length);
+
+}
@@ -0,0 +1,32 @@
+package com.opensoc.parser.interfaces;
+
+import java.nio.ByteBuffer;
+
+import org.json.simple.JSONObject;
+
+/**
+ * A MessageParser that can parse a message in place, as a slice of a larger
+ * buffer, without the caller copying it out first.
+ */
+public interface SliceMessageParser extends MessageParser {
+
+	/**
+	 * @param raw_message
+	 *            Buffer holding the message
+	 * @param offset
+	 *            Index of the first byte of the message
+	 * @param length
+	 *            Number of bytes in the message
+	 * @return The parsed message or null if it could not be parsed
+	 */
+	JSONObject parse(byte[] raw_message, int offset, int length);
+
+	/**
+	 * @param raw_message
+	 *            Buffer holding the message between its position and limit.
+	 *            The position of the buffer is not changed.
+	 * @return The parsed message or null if it could not be parsed
+	 */
+	JSONObject parse(ByteBuffer raw_message);
+
+}
@@ -0,0 +1,517 @@
+package com.opensoc.pcap;
+
+import java.util.Arrays;
+
+import com.opensoc.helpers.topology.FlowHash;
+
+/**
+ * The open flows of a packet stream, keyed by their 5-tuple. Packets in both
+ * directions count towards the same flow, oriented the way its first packet
+ * went. Each flow accumulates its packets, bytes, first and last timestamps
+ * and the OR of its TCP flags, and ends:
+ * <ul>
+ * <li>on a TCP packet with RST set,</li>
+ * <li>once both sides sent a FIN and no packet was seen for the close
+ * timeout, so the ACK of the last FIN still counts towards the flow,</li>
+ * <li>once no packet was seen for the idle timeout,</li>
+ * <li>once it has been open for the active timeout, long flows being
+ * reported in parts,</li>
+ * <li>or when the table is full, the flow closest to its timeout first.</li>
+ * </ul>
+ * Ended flows are handed to the {@link Listener}, and their entry is reused.
+ * <p>
+ * Flows are kept in primitive arrays indexed by flow number, found through an
+ * open addressing hash index, and expired by a timer wheel whose buckets are
+ * lists linked through the same arrays. A packet of a known flow allocates
+ * nothing; a flow is only checked against its timeouts when the wheel reaches
+ * the bucket of its earliest possible expiry, and moved further on if packets
+ * kept it alive meanwhile.
+ * <p>
+ * Time only moves with {@link #add} and {@link #advance(long)}, in the unit
+ * of the packet timestamps. Not thread safe.
+ *
+ * @version $Revision: 1.0 $
+ */
+public final class FlowTable {
+
+  /**
+   * Why a flow ended.
+   */
+  public enum EndReason {
+    FIN, RST, IDLE, ACTIVE, EVICTED
+  }
+
+  /**
+   * Receives the flows that end. The flow can be read from the table during
+   * the call only.
+   */
+  public interface Listener {
+
+    /**
+     * @param flows
+     *          the table
+     * @param flow
+     *          the flow number, for the getters of the table
+     * @param reason
+     *          why the flow ended
+     */
+    void flowEnded(FlowTable flows, int flow, EndReason reason);
+  }
+
+  /** The TCP FIN flag. */
+  private static final int TCP_FIN = 0x01;
+
+  /** The TCP RST flag. */
+  private static final int TCP_RST = 0x04;
+
+  /** A FIN went the way of the first packet of the flow. */
+  private static final byte FIN_FORWARD = 1;
+
+  /** A FIN went the other way. */
+  private static final byte FIN_REVERSE = 2;
+
+  /** Both sides sent a FIN. */
+  private static final byte FIN_BOTH = FIN_FORWARD | FIN_REVERSE;
+
+  /** The most buckets of the timer wheel. */
+  private static final int MAX_WHEEL_SIZE = 1 << 16;
+
+  /** No flow, in links and list heads. */
+  private static final int NONE = -1;
+
+  private final long idleTimeout;
+  private final long activeTimeout;
+  private final long closeTimeout;
+  private final long tickWidth;
+  private final int maxFlows;
+  private final Listener listener;
+
+  // the flows, by flow number
+  private long[] hashes;
+  private int[] srcIps;
+  private int[] dstIps;
+  private int[] ports;
+  private byte[] protocols;
+  private long[] packets;
+  private long[] bytes;
+  private long[] firstSeen;
+  private long[] lastSeen;
+  private int[] tcpFlags;
+  private byte[] fins;
+  private int[] buckets;
+  private int[] next;
+  private int[] prev;
+  private int[] nextFree;
+  private int allocated;
+  private int free = NONE;
+  private int size;
+
+  // flow number + 1 by hash, 0 if empty
+  private int[] index;
+
+  private final int[] wheel;
+  private long currentTick = Long.MIN_VALUE;
+  private long now = Long.MIN_VALUE;
+
+  /**
+   * @param idleTimeout
+   *          the time without packets after which a flow ends
+   * @param activeTimeout
+   *          the time after its first packet at which a flow ends
+   * @param closeTimeout
+   *          the time without packets after which a flow ends once both sides
+   *          sent a FIN
+   * @param tickWidth
+   *          the time granularity of the timeouts
+   * @param maxFlows
+   *          the most open flows
+   * @param listener
+   *          the listener of the ended flows
+   */
+  public FlowTable(long idleTimeout, long activeTimeout, long closeTimeout,
+      long tickWidth, int maxFlows, Listener listener) {
+    if (idleTimeout < 1 || activeTimeout < 1 || closeTimeout < 1
+        || tickWidth < 1 || maxFlows < 1) {
+      throw new IllegalArgumentException("Invalid flow table settings");
+    }
+    this.idleTimeout = idleTimeout;
+    this.activeTimeout = activeTimeout;
+    this.closeTimeout = closeTimeout;
+    this.tickWidth = tickWidth;
+    this.maxFlows = maxFlows;
+    this.listener = listener;
+
+    long ticks = Math.max(idleTimeout, activeTimeout) / tickWidth + 2;
+    int wheelSize = (int) Math.min(MAX_WHEEL_SIZE,
+        Long.highestOneBit(ticks - 1) << 1);
+    this.wheel = new int[wheelSize];
+    Arrays.fill(wheel, NONE);
+    resize(Math.min(maxFlows, 1024));
+  }
+
+  /**
+   * Counts a packet towards its flow, first ending the flows whose timeouts
+   * passed by its time.
+   *
+   * @param srcIp
+   *          the src ip
+   * @param dstIp
+   *          the dst ip
+   * @param srcPort
+   *          the src port, 0 if none
+   * @param dstPort
+   *          the dst port, 0 if none
+   * @param protocol
+   *          the ip protocol
+   * @param timestamp
+   *          the packet timestamp
+   * @param length
+   *          the packet length
+   * @param flags
+   *          the tcp flags, 0 if none
+   */
+  public void add(int srcIp, int dstIp, int srcPort, int dstPort,
+      int protocol, long timestamp, int length, int flags) {
+    advance(timestamp);
+
+    long hash = FlowHash.hash(srcIp, srcPort, dstIp, dstPort, protocol);
+    int flow = find(hash, srcIp, dstIp, srcPort, dstPort, protocol);
+    if (flow == NONE) {
+      if (size >= maxFlows) {
+        evict();
+      }
+      flow = insert(hash, srcIp, dstIp, srcPort, dstPort, protocol);
+      firstSeen[flow] = timestamp;
+      lastSeen[flow] = timestamp;
+      schedule(flow, deadline(flow));
+    }
+    packets[flow]++;
+    bytes[flow] += length;
+    lastSeen[flow] = Math.max(lastSeen[flow], timestamp);
+    tcpFlags[flow] |= flags;
+
+    if (protocol != Constants.PROTOCOL_TCP) {
+      return;
+    }
+    if ((flags & TCP_RST) != 0) {
+      end(flow, EndReason.RST);
+    } else if ((flags & TCP_FIN) != 0 && fins[flow] != FIN_BOTH) {
+      fins[flow] |= isForward(flow, srcIp, srcPort, dstPort) ? FIN_FORWARD
+          : FIN_REVERSE;
+      if (fins[flow] == FIN_BOTH) {
+        // the close timeout is due before the bucket the flow is in
+        unschedule(flow);
+        schedule(flow, deadline(flow));
+      }
+    }
+  }
+
+  /**
+   * Moves the time of the table on, ending the flows whose timeouts passed.
+   * Earlier times are ignored.
+   *
+   * @param time
+   *          the time
+   */
+  public void advance(long time) {
+    if (time <= now) {
+      return;
+    }
+    now = time;
+    long tick = time / tickWidth;
+    if (currentTick == Long.MIN_VALUE) {
+      currentTick = tick;
+      return;
+    }
+    if (tick - currentTick > wheel.length) {
+      // every bucket is visited once however long the gap
+      currentTick = tick - wheel.length;
+    }
+    while (currentTick < tick) {
+      currentTick++;
+      int bucket = (int) (currentTick & (wheel.length - 1));
+      int flow = wheel[bucket];
+      wheel[bucket] = NONE;
+      while (flow != NONE) {
+        int following = next[flow];
+        // detach the flow, so ending it does not follow links into the
+        // buckets its neighbours were moved to
+        next[flow] = NONE;
+        prev[flow] = NONE;
+        if (following != NONE) {
+          prev[following] = NONE;
+        }
+        long deadline = deadline(flow);
+        if (deadline <= now) {
+          end(flow, timeoutReason(flow));
+        } else {
+          schedule(flow, deadline);
+        }
+        flow = following;
+      }
+    }
+  }
+
+  /**
+   * Gets the number of open flows.
+   *
+   * @return the size
+   */
+  public int size() {
+    return size;
+  }
+
+  public int getSrcIp(int flow) {
+    return srcIps[flow];
+  }
+
+  public int getDstIp(int flow) {
+    return dstIps[flow];
+  }
+
+  public int getSrcPort(int flow) {
+    return ports[flow] >>> 16;
+  }
+
+  public int getDstPort(int flow) {
+    return ports[flow] & 0xffff;
+  }
+
+  public int getProtocol(int flow) {
+    return protocols[flow] & 0xff;
+  }
+
+  public long getPackets(int flow) {
+    return packets[flow];
+  }
+
+  public long getBytes(int flow) {
+    return bytes[flow];
+  }
+
+  public long getFirstSeen(int flow) {
+    return firstSeen[flow];
+  }
+
+  public long getLastSeen(int flow) {
+    return lastSeen[flow];
+  }
+
+  public int getTcpFlags(int flow) {
+    return tcpFlags[flow];
+  }
+
+  private long deadline(int flow) {
+    return Math.min(lastSeen[flow] + quietTimeout(flow), firstSeen[flow]
+        + activeTimeout);
+  }
+
+  /**
+   * The time without packets after which a flow ends.
+   */
+  private long quietTimeout(int flow) {
+    return fins[flow] == FIN_BOTH ? closeTimeout : idleTimeout;
+  }
+
+  /**
+   * Why a flow whose deadline passed ends.
+   */
+  private EndReason timeoutReason(int flow) {
+    if (lastSeen[flow] + quietTimeout(flow) > firstSeen[flow] + activeTimeout) {
+      return EndReason.ACTIVE;
+    }
+    return fins[flow] == FIN_BOTH ? EndReason.FIN : EndReason.IDLE;
+  }
+
+  /**
+   * Links a flow into the wheel bucket of a deadline, or of the furthest
+   * tick the wheel reaches.
+   */
+  private void schedule(int flow, long deadline) {
+    long tick = deadline / tickWidth;
+    if (currentTick != Long.MIN_VALUE) {
+      tick = Math.max(currentTick + 1, Math.min(tick, currentTick
+          + wheel.length));
+    }
+    int bucket = (int) (tick & (wheel.length - 1));
+    buckets[flow] = bucket;
+    prev[flow] = NONE;
+    next[flow] = wheel[bucket];
+    if (wheel[bucket] != NONE) {
+      prev[wheel[bucket]] = flow;
+    }
+    wheel[bucket] = flow;
+  }
+
+  private void unschedule(int flow) {
+    if (prev[flow] != NONE) {
+      next[prev[flow]] = next[flow];
+    } else if (wheel[buckets[flow]] == flow) {
+      wheel[buckets[flow]] = next[flow];
+    }
+    if (next[flow] != NONE) {
+      prev[next[flow]] = prev[flow];
+    }
+    next[flow] = NONE;
+    prev[flow] = NONE;
+  }
+
+  /**
+   * Ends the flow closest to its timeout.
+   */
+  private void evict() {
+    long tick = currentTick == Long.MIN_VALUE ? 0 : currentTick;
+    for (int i = 1; i <= wheel.length; i++) {
+      int flow = wheel[(int) ((tick + i) & (wheel.length - 1))];
+      if (flow != NONE) {
+        end(flow, EndReason.EVICTED);
+        return;
+      }
+    }
+  }
+
+  private void end(int flow, EndReason reason) {
+    unschedule(flow);
+    try {
+      if (listener != null) {
+        listener.flowEnded(this, flow, reason);
+      }
+    } finally {
+      remove(flow);
+    }
+  }
+
+  private int find(long hash, int srcIp, int dstIp, int srcPort, int dstPort,
+      int protocol) {
+    int mask = index.length - 1;
+    for (int slot = slot(hash, mask); index[slot] != 0; slot = (slot + 1) & mask) {
+      int flow = index[slot] - 1;
+      if (hashes[flow] == hash && protocols[flow] == (byte) protocol
+          && matches(flow, srcIp, dstIp, srcPort, dstPort)) {
+        return flow;
+      }
+    }
+    return NONE;
+  }
+
+  private boolean isForward(int flow, int srcIp, int srcPort, int dstPort) {
+    return srcIps[flow] == srcIp
+        && ports[flow] == ((srcPort << 16) | (dstPort & 0xffff));
+  }
+
+  private boolean matches(int flow, int srcIp, int dstIp, int srcPort,
+      int dstPort) {
+    int forward = (srcPort << 16) | (dstPort & 0xffff);
+    if (srcIps[flow] == srcIp && dstIps[flow] == dstIp && ports[flow] == forward) {
+      return true;
+    }
+    int reverse = (dstPort << 16) | (srcPort & 0xffff);
+    return srcIps[flow] == dstIp && dstIps[flow] == srcIp
+        && ports[flow] == reverse;
+  }
+
+  private int insert(long hash, int srcIp, int dstIp, int srcPort, int dstPort,
+      int protocol) {
+    int flow;
+    if (free != NONE) {
+      flow = free;
+      free = nextFree[flow];
+    } else {
+      if (allocated == hashes.length) {
+        resize(Math.min(maxFlows, hashes.length * 2));
+      }
+      flow = allocated++;
+    }
+    hashes[flow] = hash;
+    srcIps[flow] = srcIp;
+    dstIps[flow] = dstIp;
+    ports[flow] = (srcPort << 16) | (dstPort & 0xffff);
+    protocols[flow] = (byte) protocol;
+    packets[flow] = 0;
+    bytes[flow] = 0;
+    lastSeen[flow] = Long.MIN_VALUE;
+    tcpFlags[flow] = 0;
+    fins[flow] = 0;
+
+    int mask = index.length - 1;
+    int slot = slot(hash, mask);
+    while (index[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    index[slot] = flow + 1;
+    size++;
+    return flow;
+  }
+
+  /**
+   * Removes a flow from the index, shifting back the flows probed past it,
+   * and frees its entry.
+   */
+  private void remove(int flow) {
+    int mask = index.length - 1;
+    int slot = slot(hashes[flow], mask);
+    while (index[slot] != flow + 1) {
+      slot = (slot + 1) & mask;
+    }
+    int hole = slot;
+    for (slot = (hole + 1) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+      int home = slot(hashes[index[slot] - 1], mask);
+      // move back the flows whose home is not between the hole and the slot
+      if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+        index[hole] = index[slot];
+        hole = slot;
+      }
+    }
+    index[hole] = 0;
+
+    nextFree[flow] = free;
+    free = flow;
+    size--;
+  }
+
+  private void resize(int capacity) {
+    hashes = copy(hashes, capacity);
+    srcIps = copy(srcIps, capacity);
+    dstIps = copy(dstIps, capacity);
+    ports = copy(ports, capacity);
+    protocols = copy(protocols, capacity);
+    packets = copy(packets, capacity);
+    bytes = copy(bytes, capacity);
+    firstSeen = copy(firstSeen, capacity);
+    lastSeen = copy(lastSeen, capacity);
+    tcpFlags = copy(tcpFlags, capacity);
+    fins = copy(fins, capacity);
+    buckets = copy(buckets, capacity);
+    next = copy(next, capacity);
+    prev = copy(prev, capacity);
+    nextFree = copy(nextFree, capacity);
+
+    // at most half full; only called with no free entries, so every
+    // allocated entry is an open flow
+    index = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    int mask = index.length - 1;
+    for (int flow = 0; flow < allocated; flow++) {
+      int slot = slot(hashes[flow], mask);
+      while (index[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      index[slot] = flow + 1;
+    }
+  }
+
+  private static int slot(long hash, int mask) {
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  private static byte[] copy(byte[] array, int capacity) {
+    return array == null ? new byte[capacity] : Arrays.copyOf(array, capacity);
+  }
+
+  private static long[] copy(long[] array, int capacity) {
+    return array == null ? new long[capacity] : Arrays.copyOf(array, capacity);
+  }
+
+  private static int[] copy(int[] array, int capacity) {
+    return array == null ? new int[capacity] : Arrays.copyOf(array, capacity);
+  }
+}
@@ -0,0 +1,597 @@
+package com.opensoc.pcap;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Reads the packets of a pcap capture held in a byte array without copying
+ * them. The cursor keeps the global header and the Ethernet, 802.1Q, IPv4 and
+ * TCP/UDP header fields of the current packet as primitives, ip addresses as
+ * ints, read at fixed offsets from the array. {@link #next()} moves it to the
+ * following packet, so one cursor serves a whole capture and can be reset for
+ * the next one.
+ * <p>
+ * A cursor is not thread safe; use {@link #duplicate()} to keep a packet
+ * after moving on.
+ *
+ * @version $Revision: 1.0 $
+ */
+public final class PacketCursor implements Cloneable {
+
+  /** Magic number of captures with microsecond time stamps. */
+  public static final int MAGIC_MICROS = 0xa1b2c3d4;
+
+  /** Magic number of captures with nanosecond time stamps. */
+  public static final int MAGIC_NANOS = 0xa1b23c4d;
+
+  /** The global header length. */
+  public static final int GLOBAL_HEADER_LENGTH = 24;
+
+  /** The packet header length. */
+  public static final int PACKET_HEADER_LENGTH = 16;
+
+  /** The ethertype ipv4. */
+  public static final int ETHERTYPE_IPV4 = 0x0800;
+
+  /** The ethertype of a 802.1Q tag. */
+  public static final int ETHERTYPE_VLAN = 0x8100;
+
+  /** The ethertype of a 802.1ad outer tag. */
+  public static final int ETHERTYPE_QINQ = 0x88a8;
+
+  private static final int ETHERNET_HEADER_LENGTH = 14;
+
+  private byte[] data;
+  private int start;
+  private int end;
+
+  // global header
+  private boolean swapped;
+  private int magicNumber;
+  private int versionMajor;
+  private int versionMinor;
+  private int thiszone;
+  private int sigfigs;
+  private int snaplen;
+  private int network;
+  private long fractionToNanos;
+
+  // packet header
+  private int recordOffset;
+  private int nextOffset;
+  private int tsSec;
+  private int tsFraction;
+  private int inclLen;
+  private int origLen;
+
+  // ethernet
+  private int etherType;
+  private int vlanId;
+
+  // ipv4
+  private boolean ipv4;
+  private int ipOffset;
+  private int ipVersion;
+  private int ipHeaderLength;
+  private int tos;
+  private int ipTotalLength;
+  private int ipId;
+  private int ipFlags;
+  private int fragmentOffset;
+  private int ttl;
+  private int protocol;
+  private int ipChecksum;
+  private int srcIp;
+  private int dstIp;
+
+  // tcp / udp
+  private boolean transport;
+  private int transportOffset;
+  private int srcPort;
+  private int dstPort;
+  private int seq;
+  private int ack;
+  private int tcpDataOffset;
+  private int tcpFlags;
+  private int window;
+  private int transportChecksum;
+  private int urgentPointer;
+  private int udpLength;
+
+  /**
+   * Points the cursor at a capture, before its first packet.
+   *
+   * @param pcap
+   *          the capture, starting with the global header
+   * @throws IOException
+   *           if the capture is shorter than a global header or has an
+   *           unknown magic number
+   */
+  public void reset(byte[] pcap) throws IOException {
+    reset(pcap, 0, pcap.length);
+  }
+
+  /**
+   * Points the cursor at a capture, before its first packet.
+   *
+   * @param pcap
+   *          the array holding the capture
+   * @param offset
+   *          index of the global header
+   * @param length
+   *          length of the capture
+   * @throws IOException
+   *           if the capture is shorter than a global header or has an
+   *           unknown magic number
+   */
+  public void reset(byte[] pcap, int offset, int length) throws IOException {
+    if (length < GLOBAL_HEADER_LENGTH) {
+      throw new EOFException("Capture of " + length
+          + " bytes has no global header");
+    }
+    data = pcap;
+    start = offset;
+    end = offset + length;
+
+    int magic = int32BigEndian(offset);
+    if (magic == MAGIC_MICROS || magic == MAGIC_NANOS) {
+      swapped = false;
+    } else if (Integer.reverseBytes(magic) == MAGIC_MICROS
+        || Integer.reverseBytes(magic) == MAGIC_NANOS) {
+      swapped = true;
+    } else {
+      throw new IOException("Unknown pcap magic number 0x"
+          + Integer.toHexString(magic));
+    }
+    magicNumber = magic;
+    int hostMagic = swapped ? Integer.reverseBytes(magic) : magic;
+    fractionToNanos = hostMagic == MAGIC_NANOS ? 1L : 1000L;
+    versionMajor = uint16(offset + 4);
+    versionMinor = uint16(offset + 6);
+    thiszone = int32(offset + 8);
+    sigfigs = int32(offset + 12);
+    snaplen = int32(offset + 16);
+    network = int32(offset + 20);
+
+    recordOffset = -1;
+    nextOffset = offset + GLOBAL_HEADER_LENGTH;
+    clearPacket();
+  }
+
+  /**
+   * Moves to the next packet of the capture.
+   *
+   * @return false at the end of the capture, or if the rest of it is a
+   *         truncated packet
+   */
+  public boolean next() {
+    clearPacket();
+    int p = nextOffset;
+    if (data == null || p + PACKET_HEADER_LENGTH > end) {
+      return false;
+    }
+    int length = int32(p + 8);
+    if (length < 0 || length > end - p - PACKET_HEADER_LENGTH) {
+      return false;
+    }
+
+    recordOffset = p;
+    tsSec = int32(p);
+    tsFraction = int32(p + 4);
+    inclLen = length;
+    origLen = int32(p + 12);
+    nextOffset = p + PACKET_HEADER_LENGTH + length;
+
+    decodeEthernet(p + PACKET_HEADER_LENGTH, nextOffset);
+    return true;
+  }
+
+  private void decodeEthernet(int p, int limit) {
+    if (p + ETHERNET_HEADER_LENGTH > limit) {
+      return;
+    }
+    p += 12;
+    int type = uint16BigEndian(p);
+    p += 2;
+    // 802.1Q / 802.1ad tags carry the real type after the tag control field
+    while ((type == ETHERTYPE_VLAN || type == ETHERTYPE_QINQ)
+        && p + 4 <= limit) {
+      vlanId = uint16BigEndian(p) & 0x0fff;
+      type = uint16BigEndian(p + 2);
+      p += 4;
+    }
+    etherType = type;
+    if (type == ETHERTYPE_IPV4) {
+      decodeIpv4(p, limit);
+    }
+  }
+
+  private void decodeIpv4(int p, int limit) {
+    if (p + 20 > limit) {
+      return;
+    }
+    int b = data[p] & 0xff;
+    int headerLength = (b & 0x0f) * 4;
+    if ((b >> 4) != 4 || headerLength < 20 || p + headerLength > limit) {
+      return;
+    }
+    ipv4 = true;
+    ipOffset = p;
+    ipVersion = 4;
+    ipHeaderLength = b & 0x0f;
+    tos = data[p + 1] & 0xff;
+    ipTotalLength = uint16BigEndian(p + 2);
+    ipId = uint16BigEndian(p + 4);
+    int flagsAndOffset = uint16BigEndian(p + 6);
+    ipFlags = flagsAndOffset >> 13;
+    fragmentOffset = flagsAndOffset & 0x1fff;
+    ttl = data[p + 8] & 0xff;
+    protocol = data[p + 9] & 0xff;
+    ipChecksum = uint16BigEndian(p + 10);
+    srcIp = int32BigEndian(p + 12);
+    dstIp = int32BigEndian(p + 16);
+
+    p += headerLength;
+    if (protocol == Constants.PROTOCOL_TCP && p + 20 <= limit) {
+      transport = true;
+      transportOffset = p;
+      srcPort = uint16BigEndian(p);
+      dstPort = uint16BigEndian(p + 2);
+      seq = int32BigEndian(p + 4);
+      ack = int32BigEndian(p + 8);
+      tcpDataOffset = (data[p + 12] & 0xf0) >> 4;
+      tcpFlags = data[p + 13] & 0xff;
+      window = uint16BigEndian(p + 14);
+      transportChecksum = uint16BigEndian(p + 16);
+      urgentPointer = uint16BigEndian(p + 18);
+    } else if (protocol == Constants.PROTOCOL_UDP && p + 8 <= limit) {
+      transport = true;
+      transportOffset = p;
+      srcPort = uint16BigEndian(p);
+      dstPort = uint16BigEndian(p + 2);
+      udpLength = uint16BigEndian(p + 4);
+      transportChecksum = uint16BigEndian(p + 6);
+    }
+  }
+
+  private void clearPacket() {
+    recordOffset = -1;
+    tsSec = tsFraction = inclLen = origLen = 0;
+    etherType = 0;
+    vlanId = -1;
+    ipv4 = false;
+    ipOffset = ipVersion = ipHeaderLength = tos = ipTotalLength = ipId = 0;
+    ipFlags = fragmentOffset = ttl = protocol = ipChecksum = srcIp = dstIp = 0;
+    transport = false;
+    transportOffset = srcPort = dstPort = seq = ack = tcpDataOffset = 0;
+    tcpFlags = window = transportChecksum = urgentPointer = udpLength = 0;
+  }
+
+  /**
+   * Gets a copy of the cursor at the current packet, sharing the capture
+   * array.
+   *
+   * @return the packet cursor
+   */
+  public PacketCursor duplicate() {
+    try {
+      return (PacketCursor) clone();
+    } catch (CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private int int32(int p) {
+    int value = int32BigEndian(p);
+    return swapped ? Integer.reverseBytes(value) : value;
+  }
+
+  private int uint16(int p) {
+    int value = uint16BigEndian(p);
+    return swapped ? ((value & 0xff) << 8) | (value >> 8) : value;
+  }
+
+  private int int32BigEndian(int p) {
+    return ((data[p] & 0xff) << 24) | ((data[p + 1] & 0xff) << 16)
+        | ((data[p + 2] & 0xff) << 8) | (data[p + 3] & 0xff);
+  }
+
+  private int uint16BigEndian(int p) {
+    return ((data[p] & 0xff) << 8) | (data[p + 1] & 0xff);
+  }
+
+  /**
+   * Gets the capture array.
+   *
+   * @return the data
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * Gets the index of the global header in the capture array.
+   *
+   * @return the global header offset
+   */
+  public int getGlobalHeaderOffset() {
+    return start;
+  }
+
+  /**
+   * Gets the magic number as read big endian, so byte swapped for little
+   * endian captures as in the krakenapps GlobalHeader.
+   *
+   * @return the magic number
+   */
+  public int getMagicNumber() {
+    return magicNumber;
+  }
+
+  /**
+   * Checks whether the capture has nano second time stamps.
+   *
+   * @return true for nano second captures
+   */
+  public boolean isNanoResolution() {
+    return fractionToNanos == 1L;
+  }
+
+  /**
+   * Checks whether the capture was written little endian.
+   *
+   * @return true if the header fields are swapped
+   */
+  public boolean isSwapped() {
+    return swapped;
+  }
+
+  public int getVersionMajor() {
+    return versionMajor;
+  }
+
+  public int getVersionMinor() {
+    return versionMinor;
+  }
+
+  public int getThiszone() {
+    return thiszone;
+  }
+
+  public int getSigfigs() {
+    return sigfigs;
+  }
+
+  public int getSnaplen() {
+    return snaplen;
+  }
+
+  public int getNetwork() {
+    return network;
+  }
+
+  /**
+   * Gets the index of the current packet header in the capture array.
+   *
+   * @return the record offset, or -1 before the first packet
+   */
+  public int getRecordOffset() {
+    return recordOffset;
+  }
+
+  /**
+   * Gets the length of the current packet header and data.
+   *
+   * @return the record length
+   */
+  public int getRecordLength() {
+    return PACKET_HEADER_LENGTH + inclLen;
+  }
+
+  /**
+   * Gets the index of the current packet data in the capture array.
+   *
+   * @return the packet offset
+   */
+  public int getPacketOffset() {
+    return recordOffset + PACKET_HEADER_LENGTH;
+  }
+
+  public int getTsSec() {
+    return tsSec;
+  }
+
+  /**
+   * Gets the fraction of the time stamp, in micro or nano seconds depending
+   * on the magic number.
+   *
+   * @return the ts usec
+   */
+  public int getTsUsec() {
+    return tsFraction;
+  }
+
+  public int getInclLen() {
+    return inclLen;
+  }
+
+  public int getOrigLen() {
+    return origLen;
+  }
+
+  /**
+   * Gets the packet time stamp, resolving micro or nano second fractions
+   * from the magic number read with the global header.
+   *
+   * @return the packet time in nanos
+   */
+  public long getPacketTimeInNanos() {
+    return (tsSec & 0xffffffffL) * 1000000000L
+        + (tsFraction & 0xffffffffL) * fractionToNanos;
+  }
+
+  /**
+   * Gets the innermost ethertype.
+   *
+   * @return the ether type, 0 if the frame is truncated
+   */
+  public int getEtherType() {
+    return etherType;
+  }
+
+  /**
+   * Gets the vlan id of the innermost 802.1Q tag.
+   *
+   * @return the vlan id, or -1 for untagged frames
+   */
+  public int getVlanId() {
+    return vlanId;
+  }
+
+  /**
+   * Checks whether the packet holds a complete IPv4 header.
+   *
+   * @return true for IPv4 packets
+   */
+  public boolean isIpv4() {
+    return ipv4;
+  }
+
+  public int getIpOffset() {
+    return ipOffset;
+  }
+
+  public int getIpVersion() {
+    return ipVersion;
+  }
+
+  /**
+   * Gets the ip header length in 32 bit words.
+   *
+   * @return the ihl
+   */
+  public int getIhl() {
+    return ipHeaderLength;
+  }
+
+  public int getTos() {
+    return tos;
+  }
+
+  public int getIpTotalLength() {
+    return ipTotalLength;
+  }
+
+  public int getIpId() {
+    return ipId;
+  }
+
+  public int getIpFlags() {
+    return ipFlags;
+  }
+
+  public int getFragmentOffset() {
+    return fragmentOffset;
+  }
+
+  public int getTtl() {
+    return ttl;
+  }
+
+  public int getProtocol() {
+    return protocol;
+  }
+
+  public int getIpHeaderChecksum() {
+    return ipChecksum;
+  }
+
+  /**
+   * Gets the source ip, first octet in the high byte.
+   *
+   * @return the src ip
+   */
+  public int getSrcIp() {
+    return srcIp;
+  }
+
+  /**
+   * Gets the destination ip, first octet in the high byte.
+   *
+   * @return the dst ip
+   */
+  public int getDstIp() {
+    return dstIp;
+  }
+
+  /**
+   * Checks whether the packet holds a complete TCP or UDP header.
+   *
+   * @return true if ports are known
+   */
+  public boolean hasTransportHeader() {
+    return transport;
+  }
+
+  public boolean isTcp() {
+    return transport && protocol == Constants.PROTOCOL_TCP;
+  }
+
+  public boolean isUdp() {
+    return transport && protocol == Constants.PROTOCOL_UDP;
+  }
+
+  public int getTransportOffset() {
+    return transportOffset;
+  }
+
+  public int getSrcPort() {
+    return srcPort;
+  }
+
+  public int getDstPort() {
+    return dstPort;
+  }
+
+  public int getSeq() {
+    return seq;
+  }
+
+  public int getAck() {
+    return ack;
+  }
+
+  /**
+   * Gets the tcp header length in 32 bit words.
+   *
+   * @return the data offset
+   */
+  public int getTcpDataOffset() {
+    return tcpDataOffset;
+  }
+
+  public int getTcpFlags() {
+    return tcpFlags;
+  }
+
+  public int getWindow() {
+    return window;
+  }
+
+  /**
+   * Gets the tcp or udp checksum.
+   *
+   * @return the checksum
+   */
+  public int getTransportChecksum() {
+    return transportChecksum;
+  }
+
+  public int getUrgentPointer() {
+    return urgentPointer;
+  }
+
+  public int getUdpLength() {
+    return udpLength;
+  }
+}
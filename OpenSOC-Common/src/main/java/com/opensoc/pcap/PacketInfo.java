@@ -1,26 +1,35 @@
 package com.opensoc.pcap;
 
 import java.text.MessageFormat;
-import org.apache.log4j.Logger;
+import java.util.Arrays;
 
+import org.json.simple.JSONObject;
+import org.krakenapps.pcap.decoder.ethernet.EthernetDecoder;
 import org.krakenapps.pcap.decoder.ip.Ipv4Packet;
 import org.krakenapps.pcap.decoder.tcp.TcpPacket;
 import org.krakenapps.pcap.decoder.udp.UdpPacket;
 import org.krakenapps.pcap.file.GlobalHeader;
 import org.krakenapps.pcap.packet.PacketHeader;
 import org.krakenapps.pcap.packet.PcapPacket;
+import org.krakenapps.pcap.util.Buffer;
+import org.krakenapps.pcap.util.ChainBuffer;
 
 import com.opensoc.pcap.Constants;
 import com.opensoc.pcap.PcapUtils;
 
 /**
- * The Class PacketInfo.
+ * The Class PacketInfo. A view over one packet read by a {@link PacketCursor}:
+ * keys, time stamps and the ipv4/udp header fields come straight from the
+ * cursor, the krakenapps packet objects are only decoded when asked for.
  * 
  * @author sheetal
  * @version $Revision: 1.0 $
  */
 public class PacketInfo {
 
+  /** The cursor at this packet. */
+  private final PacketCursor cursor;
+
   /** The packetHeader. */
   private PacketHeader packetHeader = null;
 
@@ -39,6 +48,15 @@ public class PacketInfo {
   /** The global header. */
   private GlobalHeader globalHeader = null;
 
+  /** The key, computed on first use. */
+  private String key = null;
+
+  /** Whether the krakenapps objects have been decoded. */
+  private boolean decoded = false;
+
+  /** The ETHERNET_DECODER, used to skip the link layer when decoding. */
+  private static final EthernetDecoder ETHERNET_DECODER = new OpenSocEthernetDecoder();
+
   /** The Constant globalHeaderJsonTemplateSB. */
   private static final StringBuffer globalHeaderJsonTemplateSB = new StringBuffer();
 
@@ -51,9 +69,6 @@ public class PacketInfo {
   /** The Constant udpHeaderJsonTemplateSB. */
   private static final StringBuffer udpHeaderJsonTemplateSB = new StringBuffer();
 
-  /** The Constant LOG. */
-  private static final Logger LOG = Logger.getLogger(PacketInfo.class);
-  
   static {
     globalHeaderJsonTemplateSB.append("<\"global_header\":<\"pcap_id\":\"").append("{0}").append('"');
     globalHeaderJsonTemplateSB.append(",\"inc_len\":").append("{1}");
@@ -130,27 +145,20 @@ public class PacketInfo {
   /**
    * Instantiates a new packet info.
    * 
-   * @param globalHeader
-   *          the global header
-   * @param packetHeader
-   *          the packet header
-   * @param packet
-   *          the packet
-   * @param ipv4Packet
-   *          the ipv4 packet
-   * @param tcpPacket
-   *          the tcp packet
-   * @param udpPacket
-   *          the udp packet
+   * @param cursor
+   *          the cursor at an ipv4 packet, copied so that it can move on
    */
-  public PacketInfo(GlobalHeader globalHeader, PacketHeader packetHeader, PcapPacket packet, Ipv4Packet ipv4Packet, TcpPacket tcpPacket,
-      UdpPacket udpPacket) {
-    this.packetHeader = packetHeader;
-    this.packet = packet;
-    this.ipv4Packet = ipv4Packet;
-    this.tcpPacket = tcpPacket;
-    this.udpPacket = udpPacket;
-    this.globalHeader = globalHeader;
+  public PacketInfo(PacketCursor cursor) {
+    this.cursor = cursor.duplicate();
+  }
+
+  /**
+   * Gets the cursor at this packet.
+   * 
+   * @return the cursor
+   */
+  public PacketCursor getCursor() {
+    return cursor;
   }
 
   /**
@@ -159,6 +167,7 @@ public class PacketInfo {
    * @return the global header
    */
   public GlobalHeader getGlobalHeader() {
+    decode();
     return globalHeader;
   }
 
@@ -169,6 +178,7 @@ public class PacketInfo {
    * @return the packet header
    */
   public PacketHeader getPacketHeader() {
+    decode();
     return packetHeader;
   }
 
@@ -179,6 +189,7 @@ public class PacketInfo {
    * @return the packet
    */
   public PcapPacket getPacket() {
+    decode();
     return packet;
   }
 
@@ -189,6 +200,7 @@ public class PacketInfo {
    * @return the ipv4 packet
    */
   public Ipv4Packet getIpv4Packet() {
+    decode();
     return ipv4Packet;
   }
 
@@ -199,6 +211,7 @@ public class PacketInfo {
    * @return the tcp packet
    */
   public TcpPacket getTcpPacket() {
+    decode();
     return tcpPacket;
   }
 
@@ -209,9 +222,51 @@ public class PacketInfo {
    * @return the udp packet
    */
   public UdpPacket getUdpPacket() {
+    decode();
     return udpPacket;
   }
 
+  /**
+   * Decodes the krakenapps objects from a copy of the packet data, the way
+   * PcapByteInputStream and PcapParser used to.
+   */
+  private synchronized void decode() {
+    if (decoded) {
+      return;
+    }
+    globalHeader = new GlobalHeader(cursor.getMagicNumber(),
+        (short) cursor.getVersionMajor(), (short) cursor.getVersionMinor(),
+        cursor.getThiszone(), cursor.getSigfigs(), cursor.getSnaplen(),
+        cursor.getNetwork());
+    packetHeader = new PacketHeader(cursor.getTsSec(), cursor.getTsUsec(),
+        cursor.getInclLen(), cursor.getOrigLen());
+
+    int offset = cursor.getPacketOffset();
+    Buffer packetData = new ChainBuffer();
+    packetData.addLast(Arrays.copyOfRange(cursor.getData(), offset, offset
+        + cursor.getInclLen()));
+    packet = new PcapPacket(packetHeader, packetData);
+
+    ETHERNET_DECODER.decode(packet);
+    ipv4Packet = Ipv4Packet.parse(packet.getPacketData());
+
+    if (cursor.isTcp()) {
+      tcpPacket = TcpPacket.parse(ipv4Packet);
+    } else if (cursor.isUdp()) {
+      Buffer udpData = ipv4Packet.getData();
+      for (int i = 0; i < 4; i++) {
+        udpData.getUnsignedShort();
+      }
+      udpData.discardReadBytes();
+      udpPacket = new UdpPacket(ipv4Packet, cursor.getSrcPort(),
+          cursor.getDstPort());
+      udpPacket.setLength(cursor.getUdpLength());
+      udpPacket.setChecksum(cursor.getTransportChecksum());
+      udpPacket.setData(udpData);
+    }
+    decoded = true;
+  }
+
   /**
    * Gets the key.
    * 
@@ -219,23 +274,12 @@ public class PacketInfo {
    * @return the key
    */
   public String getKey() {
-    int sourcePort = 0;
-    int destinationPort = 0;
-    if (Constants.PROTOCOL_UDP == ipv4Packet.getProtocol()) {
-      sourcePort = udpPacket.getSourcePort();
-
-      destinationPort = udpPacket.getDestinationPort();
-
-    } else if (Constants.PROTOCOL_TCP == ipv4Packet.getProtocol()) {
-      sourcePort = tcpPacket.getSourcePort();
-
-      destinationPort = tcpPacket.getDestinationPort();
-
+    if (key == null) {
+      key = PcapUtils.getSessionKey(cursor.getSrcIp(), cursor.getDstIp(),
+          cursor.getProtocol(), cursor.getSrcPort(), cursor.getDstPort(),
+          cursor.getIpId(), cursor.getFragmentOffset());
     }
-
-    return PcapUtils.getSessionKey(ipv4Packet.getSourceAddress().getHostAddress(), ipv4Packet.getDestinationAddress().getHostAddress(),
-        ipv4Packet.getProtocol(), sourcePort, destinationPort, ipv4Packet.getId(), ipv4Packet.getFragmentOffset());
-
+    return key;
   }
 
   /**
@@ -245,21 +289,10 @@ public class PacketInfo {
    * @return the short key
    */
   public String getShortKey() {
-	int sourcePort = 0;
-	int destinationPort = 0;
-	if(Constants.PROTOCOL_UDP == ipv4Packet.getProtocol()) {
-		sourcePort = udpPacket.getSourcePort();
-		destinationPort = udpPacket.getDestinationPort();
-	} else if (Constants.PROTOCOL_TCP == ipv4Packet.getProtocol()) {
-		sourcePort = tcpPacket.getSourcePort();
-		destinationPort = tcpPacket.getDestinationPort();
-	}
-	  
-	return PcapUtils.getShortSessionKey(ipv4Packet.getSourceAddress().getHostAddress(), ipv4Packet.getDestinationAddress().getHostAddress(),
-	    ipv4Packet.getProtocol(), sourcePort, destinationPort);
-			 
+    return PcapUtils.getShortSessionKey(cursor.getSrcIp(), cursor.getDstIp(),
+        cursor.getProtocol(), cursor.getSrcPort(), cursor.getDstPort());
   }
-  
+
   /**
    * Gets the json doc.
    * 
@@ -268,7 +301,7 @@ public class PacketInfo {
    */
   public String getJsonDoc() {
 
-    return getJsonDocUsingSBAppend();
+    return PacketJsonWriter.get().writeJsonDoc(this).toString();
   }
 
   /**
@@ -279,84 +312,7 @@ public class PacketInfo {
    */
   public String getJsonIndexDoc() {
 
-    return getJsonIndexDocUsingSBAppend();
-  }
-
-  /**
-   * Gets the json doc using sb append.
-   * 
-   * @return the json doc using sb append
-   */
-  private String getJsonDocUsingSBAppend() {
-
-	
-    StringBuffer jsonSb = new StringBuffer(1024);
-
-    // global header
-    jsonSb.append("{\"global_header\":{\"pcap_id\":\"").append(getKey());
-    jsonSb.append("\",\"inc_len\":").append(packetHeader.getInclLen());
-    jsonSb.append(",\"orig_len\":").append(packetHeader.getOrigLen());
-    jsonSb.append(",\"ts_sec\":").append(packetHeader.getTsSec());
-    jsonSb.append(",\"ts_usec\":").append(packetHeader.getTsUsec());
-    jsonSb.append("},"); // NOPMD by sheetal on 1/29/14 2:37 PM
-
-    // ipv4 header
-
-    jsonSb.append("\"ipv4_header\":{");
-
-    jsonSb.append("\"ip_dst\":").append(ipv4Packet.getDestination());
-    jsonSb.append(",\"ip_dst_addr\":\"").append(ipv4Packet.getDestinationAddress().getHostAddress());
-    jsonSb.append("\",\"ip_flags\":").append(ipv4Packet.getFlags());
-    jsonSb.append(",\"ip_fragment_offset\":").append(ipv4Packet.getFragmentOffset());
-    jsonSb.append(",\"ip_header_checksum\":").append(ipv4Packet.getHeaderChecksum());
-    jsonSb.append(",\"ip_id\":").append(ipv4Packet.getId());
-    jsonSb.append(",\"ip_header_length\":").append(ipv4Packet.getIhl());
-    jsonSb.append(",\"ip_protocol\":").append(ipv4Packet.getProtocol());
-    jsonSb.append(",\"ip_src\":").append(ipv4Packet.getSource());
-    jsonSb.append(",\"ip_src_addr\":\"").append(ipv4Packet.getSourceAddress().getHostAddress());
-    jsonSb.append("\",\"ip_tos\":").append(ipv4Packet.getTos());
-    jsonSb.append(",\"ip_total_length\":").append(ipv4Packet.getTotalLength());
-    jsonSb.append(",\"ip_ttl\":").append(ipv4Packet.getTtl());
-    jsonSb.append(",\"ip_version\":").append(ipv4Packet.getVersion());
-    jsonSb.append('}');
-
-    // tcp header
-    if (tcpPacket != null) {
-      jsonSb.append(",\"tcp_header\":{\"ack\":").append(tcpPacket.getAck());
-      jsonSb.append(",\"checksum\":").append(tcpPacket.getChecksum());
-      jsonSb.append(",\"data_length\":").append(tcpPacket.getDataLength());
-      jsonSb.append(",\"data_offset\":").append(tcpPacket.getDataOffset());
-      jsonSb.append(",\"dst_addr\":\"").append(tcpPacket.getDestinationAddress().getHostAddress());
-      jsonSb.append("\",\"dst_port\":").append(tcpPacket.getDestinationPort());
-      jsonSb.append(",\"direction\":").append(tcpPacket.getDirection());
-      jsonSb.append(",\"flags\":").append(tcpPacket.getFlags());
-      jsonSb.append(",\"reassembled_length \":").append(tcpPacket.getReassembledLength());
-      jsonSb.append(",\"relative_ack\":").append(tcpPacket.getRelativeAck());
-      jsonSb.append(",\"relative_seq\":").append(tcpPacket.getRelativeSeq());
-      jsonSb.append(",\"seq\":").append(tcpPacket.getSeq());
-      jsonSb.append(",\"session_key\":\"").append(tcpPacket.getSessionKey());
-      jsonSb.append("\",\"src_addr\":\"").append(tcpPacket.getSourceAddress().getHostAddress());
-      jsonSb.append("\",\"src_port\":").append(tcpPacket.getSourcePort());
-      jsonSb.append(",\"total_length\":").append(tcpPacket.getTotalLength());
-      jsonSb.append(",\"urgent_pointer\":").append(tcpPacket.getUrgentPointer());
-      jsonSb.append(",\"window\":").append(tcpPacket.getWindow());
-      jsonSb.append('}');
-    }
-
-    // udp headers
-    if (udpPacket != null) {
-      jsonSb.append(",\"udp_header\":{\"checksum\":").append(udpPacket.getChecksum());
-      jsonSb.append(",\"dst_port\":").append(udpPacket.getDestinationPort());
-      jsonSb.append(",\"length\":").append(udpPacket.getLength());
-      jsonSb.append(",\"src_port\":").append(udpPacket.getSourcePort());
-      jsonSb.append(",\"dst_addr\":\"").append(udpPacket.getDestination().getAddress().getHostAddress());
-      jsonSb.append("\",\"src_addr\":\"").append(udpPacket.getSource().getAddress().getHostAddress());
-      jsonSb.append("\"}");
-    }
-
-    jsonSb.append('}');
-
-    return jsonSb.toString();
+    return PacketJsonWriter.get().writeJsonIndexDoc(this).toString();
   }
 
   /**
@@ -366,6 +322,10 @@ public class PacketInfo {
    */
   private String getJsonDocUsingMessageFormat() {
 
+    PacketHeader packetHeader = getPacketHeader();
+    Ipv4Packet ipv4Packet = getIpv4Packet();
+    TcpPacket tcpPacket = getTcpPacket();
+    UdpPacket udpPacket = getUdpPacket();
     StringBuffer jsonSb = new StringBuffer(600);
 
     jsonSb.append(MessageFormat.format(globalHeaderJsonTemplateString, getKey(), packetHeader.getInclLen(), packetHeader.getOrigLen(),
@@ -397,58 +357,37 @@ public class PacketInfo {
   }
 
   /**
-   * Gets the json index doc using sb append.
+   * Gets the index document as a map, with the same fields and value types
+   * as parsing {@link #getJsonIndexDoc()} would give.
    * 
-   * @return the json index doc using sb append
+   * @return the json index map
    */
-  private String getJsonIndexDocUsingSBAppend() {
-
-	Long ts_micro = getPacketTimeInNanos() / 1000L;
-	StringBuffer jsonSb = new StringBuffer(175);
-
-	jsonSb.append("{\"pcap_id\":\"").append(getShortKey());
-    jsonSb.append("\",\"ip_protocol\":").append(ipv4Packet.getProtocol());
-    jsonSb.append(",\"ip_id\":").append(ipv4Packet.getId());
-    jsonSb.append(",\"frag_offset\":").append(ipv4Packet.getFragmentOffset());
-    jsonSb.append(",\"ts_micro\":").append(ts_micro);
-
-
-    // tcp header
-    if (tcpPacket != null) {
-      jsonSb.append(",\"ip_src_addr\":\"").append(tcpPacket.getSourceAddress().getHostAddress());
-      jsonSb.append("\",\"ip_src_port\":").append(tcpPacket.getSourcePort());
-      jsonSb.append(",\"ip_dst_addr\":\"").append(tcpPacket.getDestinationAddress().getHostAddress());
-      jsonSb.append("\",\"ip_dst_port\":").append(tcpPacket.getDestinationPort());
-    }
-
-    // udp headers
-    if (udpPacket != null) {
-      jsonSb.append(",\"ip_src_addr\":\"").append(udpPacket.getSource().getAddress().getHostAddress());
-      jsonSb.append("\",\"ip_src_port\":").append(udpPacket.getSourcePort());
-      jsonSb.append(",\"ip_dst_addr\":\"").append(udpPacket.getDestination().getAddress().getHostAddress());
-      jsonSb.append("\",\"ip_dst_port\":").append(udpPacket.getDestinationPort());
+  @SuppressWarnings("unchecked")
+  public JSONObject getJsonIndexMap() {
+    JSONObject index = new JSONObject();
+    index.put("pcap_id", getShortKey());
+    index.put("ip_protocol", Long.valueOf(cursor.getProtocol()));
+    index.put("ip_id", Long.valueOf(cursor.getIpId()));
+    index.put("frag_offset", Long.valueOf(cursor.getFragmentOffset()));
+    index.put("ts_micro", Long.valueOf(getPacketTimeInNanos() / 1000L));
+
+    // tcp and udp headers
+    if (cursor.hasTransportHeader()) {
+      index.put("ip_src_addr", PcapUtils.convertIntToIpv4(cursor.getSrcIp()));
+      index.put("ip_src_port", Long.valueOf(cursor.getSrcPort()));
+      index.put("ip_dst_addr", PcapUtils.convertIntToIpv4(cursor.getDstIp()));
+      index.put("ip_dst_port", Long.valueOf(cursor.getDstPort()));
     }
-
-    jsonSb.append('}');
-
-    return jsonSb.toString();
+    return index;
   }
-  
-  public long getPacketTimeInNanos()
-  {
-	  if ( getGlobalHeader().getMagicNumber() == 0xa1b2c3d4 || getGlobalHeader().getMagicNumber() == 0xd4c3b2a1 )
-	  {
-		  //Time is in micro assemble as nano
-		  LOG.info("Times are in micro according to the magic number");
-		  return getPacketHeader().getTsSec() * 1000000000L + getPacketHeader().getTsUsec() * 1000L ; 
-	  }
-	  else if ( getGlobalHeader().getMagicNumber() == 0xa1b23c4d || getGlobalHeader().getMagicNumber() == 0x4d3cb2a1 ) {
-		//Time is in nano assemble as nano
-		  LOG.info("Times are in nano according to the magic number");
-		  return getPacketHeader().getTsSec() * 1000000000L + getPacketHeader().getTsUsec() ; 
-	  }
-	  //Default assume time is in micro assemble as nano
-	  LOG.warn("Unknown magic number. Defaulting to micro");
-	  return getPacketHeader().getTsSec() * 1000000000L + getPacketHeader().getTsUsec() * 1000L ;  
+
+  /**
+   * Gets the packet time in nanos, in micro or nano second resolution as
+   * given by the magic number of the global header.
+   * 
+   * @return the packet time in nanos
+   */
+  public long getPacketTimeInNanos() {
+    return cursor.getPacketTimeInNanos();
   }
-}
\ No newline at end of file
+}
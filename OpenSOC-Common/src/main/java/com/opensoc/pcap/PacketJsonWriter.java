@@ -0,0 +1,336 @@
+package com.opensoc.pcap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.krakenapps.pcap.decoder.tcp.TcpPacket;
+
+/**
+ * Writes the header and index documents of a {@link PacketInfo} as JSON
+ * bytes, straight from its {@link PacketCursor}. Numbers, addresses and keys
+ * are written digit by digit into a reusable buffer, so the only allocation
+ * per document is the result.
+ * <p>
+ * One writer is pooled per thread; {@link #get()} hands out the calling
+ * thread's writer, emptied. A writer must not be kept across calls to
+ * {@link #get()}.
+ *
+ * @version $Revision: 1.0 $
+ */
+public final class PacketJsonWriter {
+
+  /** The Constant US_ASCII. */
+  private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+  /** The hex digits. */
+  private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(US_ASCII);
+
+  /** Buffers grown past this are dropped when handed out again. */
+  private static final int MAX_POOLED_SIZE = 64 * 1024;
+
+  /** The writers, one per thread. */
+  private static final ThreadLocal<PacketJsonWriter> POOL = new ThreadLocal<PacketJsonWriter>() {
+    @Override
+    protected PacketJsonWriter initialValue() {
+      return new PacketJsonWriter();
+    }
+  };
+
+  /** The buffer. */
+  private byte[] buf = new byte[1024];
+
+  /** The length. */
+  private int len;
+
+  /** The scratch space for number digits. */
+  private final byte[] digits = new byte[20];
+
+  /**
+   * Gets the writer of the calling thread, emptied.
+   *
+   * @return the packet json writer
+   */
+  public static PacketJsonWriter get() {
+    PacketJsonWriter writer = POOL.get();
+    writer.reset();
+    return writer;
+  }
+
+  /**
+   * Empties the writer.
+   */
+  public void reset() {
+    len = 0;
+    if (buf.length > MAX_POOLED_SIZE) {
+      buf = new byte[1024];
+    }
+  }
+
+  /**
+   * Writes the header document of a packet: global, ipv4 and tcp or udp
+   * headers.
+   *
+   * @param packetInfo
+   *          the packet info
+   * @return this writer
+   */
+  public PacketJsonWriter writeJsonDoc(PacketInfo packetInfo) {
+    PacketCursor c = packetInfo.getCursor();
+
+    // global header
+    raw("{\"global_header\":{\"pcap_id\":\"");
+    sessionKey(c, true);
+    raw("\",\"inc_len\":").number(c.getInclLen());
+    raw(",\"orig_len\":").number(c.getOrigLen());
+    raw(",\"ts_sec\":").number(c.getTsSec());
+    raw(",\"ts_usec\":").number(c.getTsUsec());
+    raw("},");
+
+    // ipv4 header
+    raw("\"ipv4_header\":{");
+    raw("\"ip_dst\":").number(c.getDstIp());
+    raw(",\"ip_dst_addr\":\"").ip(c.getDstIp());
+    raw("\",\"ip_flags\":").number(c.getIpFlags());
+    raw(",\"ip_fragment_offset\":").number(c.getFragmentOffset());
+    raw(",\"ip_header_checksum\":").number(c.getIpHeaderChecksum());
+    raw(",\"ip_id\":").number(c.getIpId());
+    raw(",\"ip_header_length\":").number(c.getIhl());
+    raw(",\"ip_protocol\":").number(c.getProtocol());
+    raw(",\"ip_src\":").number(c.getSrcIp());
+    raw(",\"ip_src_addr\":\"").ip(c.getSrcIp());
+    raw("\",\"ip_tos\":").number(c.getTos());
+    raw(",\"ip_total_length\":").number(c.getIpTotalLength());
+    raw(",\"ip_ttl\":").number(c.getTtl());
+    raw(",\"ip_version\":").number(c.getIpVersion());
+    raw("}");
+
+    // tcp header, decoded by krakenapps for its session tracking fields
+    TcpPacket tcpPacket = c.isTcp() ? packetInfo.getTcpPacket() : null;
+    if (tcpPacket != null) {
+      raw(",\"tcp_header\":{\"ack\":").number(tcpPacket.getAck());
+      raw(",\"checksum\":").number(tcpPacket.getChecksum());
+      raw(",\"data_length\":").number(tcpPacket.getDataLength());
+      raw(",\"data_offset\":").number(tcpPacket.getDataOffset());
+      raw(",\"dst_addr\":\"").ip(c.getDstIp());
+      raw("\",\"dst_port\":").number(tcpPacket.getDestinationPort());
+      raw(",\"direction\":").text(String.valueOf(tcpPacket.getDirection()));
+      raw(",\"flags\":").number(tcpPacket.getFlags());
+      raw(",\"reassembled_length \":").number(tcpPacket.getReassembledLength());
+      raw(",\"relative_ack\":").number(tcpPacket.getRelativeAck());
+      raw(",\"relative_seq\":").number(tcpPacket.getRelativeSeq());
+      raw(",\"seq\":").number(tcpPacket.getSeq());
+      raw(",\"session_key\":\"").text(String.valueOf(tcpPacket.getSessionKey()));
+      raw("\",\"src_addr\":\"").ip(c.getSrcIp());
+      raw("\",\"src_port\":").number(tcpPacket.getSourcePort());
+      raw(",\"total_length\":").number(tcpPacket.getTotalLength());
+      raw(",\"urgent_pointer\":").number(tcpPacket.getUrgentPointer());
+      raw(",\"window\":").number(tcpPacket.getWindow());
+      raw("}");
+    }
+
+    // udp header
+    if (c.isUdp()) {
+      raw(",\"udp_header\":{\"checksum\":").number(c.getTransportChecksum());
+      raw(",\"dst_port\":").number(c.getDstPort());
+      raw(",\"length\":").number(c.getUdpLength());
+      raw(",\"src_port\":").number(c.getSrcPort());
+      raw(",\"dst_addr\":\"").ip(c.getDstIp());
+      raw("\",\"src_addr\":\"").ip(c.getSrcIp());
+      raw("\"}");
+    }
+
+    raw("}");
+    return this;
+  }
+
+  /**
+   * Writes the index document of a packet: short key, ip id, fragment
+   * offset, time stamp and the ports and addresses.
+   *
+   * @param packetInfo
+   *          the packet info
+   * @return this writer
+   */
+  public PacketJsonWriter writeJsonIndexDoc(PacketInfo packetInfo) {
+    PacketCursor c = packetInfo.getCursor();
+
+    raw("{\"pcap_id\":\"");
+    sessionKey(c, false);
+    raw("\",\"ip_protocol\":").number(c.getProtocol());
+    raw(",\"ip_id\":").number(c.getIpId());
+    raw(",\"frag_offset\":").number(c.getFragmentOffset());
+    raw(",\"ts_micro\":").number(c.getPacketTimeInNanos() / 1000L);
+
+    if (c.hasTransportHeader()) {
+      raw(",\"ip_src_addr\":\"").ip(c.getSrcIp());
+      raw("\",\"ip_src_port\":").number(c.getSrcPort());
+      raw(",\"ip_dst_addr\":\"").ip(c.getDstIp());
+      raw("\",\"ip_dst_port\":").number(c.getDstPort());
+    }
+
+    raw("}");
+    return this;
+  }
+
+  /**
+   * Gets the number of bytes written.
+   *
+   * @return the size
+   */
+  public int size() {
+    return len;
+  }
+
+  /**
+   * Gets the buffer; only the first {@link #size()} bytes are written.
+   *
+   * @return the buffer
+   */
+  public byte[] getBuffer() {
+    return buf;
+  }
+
+  /**
+   * Copies the bytes written.
+   *
+   * @return the byte array
+   */
+  public byte[] toByteArray() {
+    byte[] copy = new byte[len];
+    System.arraycopy(buf, 0, copy, 0, len);
+    return copy;
+  }
+
+  /**
+   * Writes the bytes written to a stream.
+   *
+   * @param out
+   *          the out
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(buf, 0, len);
+  }
+
+  /**
+   * Gets the document written as a String.
+   *
+   * @return the string
+   */
+  @Override
+  public String toString() {
+    return new String(buf, 0, len, US_ASCII);
+  }
+
+  /**
+   * The session key of PcapUtils.getSessionKey, or getShortSessionKey
+   */
+  private void sessionKey(PacketCursor c, boolean full) {
+    hex(c.getSrcIp());
+    put('-');
+    hex(c.getDstIp());
+    put('-');
+    number(c.getProtocol());
+    put('-');
+    number(c.getSrcPort());
+    put('-');
+    number(c.getDstPort());
+    if (full) {
+      put('-');
+      number(c.getIpId());
+      put('-');
+      number(c.getFragmentOffset());
+    }
+  }
+
+  /**
+   * Appends ASCII text as is.
+   */
+  private PacketJsonWriter raw(String ascii) {
+    int n = ascii.length();
+    ensure(n);
+    for (int i = 0; i < n; i++) {
+      buf[len++] = (byte) ascii.charAt(i);
+    }
+    return this;
+  }
+
+  /**
+   * Appends text for use inside a JSON string, escaping quotes, back slashes,
+   * control and non ASCII characters.
+   */
+  private PacketJsonWriter text(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char ch = value.charAt(i);
+      if (ch == '"' || ch == '\\') {
+        put('\\');
+        put(ch);
+      } else if (ch < 0x20 || ch > 0x7e) {
+        raw("\\u");
+        put(HEX_DIGITS[(ch >> 12) & 0xf]);
+        put(HEX_DIGITS[(ch >> 8) & 0xf]);
+        put(HEX_DIGITS[(ch >> 4) & 0xf]);
+        put(HEX_DIGITS[ch & 0xf]);
+      } else {
+        put(ch);
+      }
+    }
+    return this;
+  }
+
+  private PacketJsonWriter number(long value) {
+    if (value == Long.MIN_VALUE) {
+      return raw("-9223372036854775808");
+    }
+    if (value < 0) {
+      put('-');
+      value = -value;
+    }
+    int n = 0;
+    do {
+      digits[n++] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    ensure(n);
+    while (n > 0) {
+      buf[len++] = digits[--n];
+    }
+    return this;
+  }
+
+  /**
+   * Appends an ip held as an int in dotted form.
+   */
+  private PacketJsonWriter ip(int address) {
+    number((address >>> 24) & 0xff);
+    put('.');
+    number((address >>> 16) & 0xff);
+    put('.');
+    number((address >>> 8) & 0xff);
+    put('.');
+    number(address & 0xff);
+    return this;
+  }
+
+  private void hex(int value) {
+    ensure(8);
+    for (int shift = 28; shift >= 0; shift -= 4) {
+      buf[len++] = HEX_DIGITS[(value >>> shift) & 0xf];
+    }
+  }
+
+  private void put(int b) {
+    ensure(1);
+    buf[len++] = (byte) b;
+  }
+
+  private void ensure(int n) {
+    if (len + n > buf.length) {
+      byte[] grown = new byte[Math.max(buf.length * 2, len + n)];
+      System.arraycopy(buf, 0, grown, 0, len);
+      buf = grown;
+    }
+  }
+}
@@ -0,0 +1,313 @@
+package com.opensoc.pcap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The packets of one session in one time bucket, stored as a single cell of
+ * the pcap table instead of one cell per packet. The global header shared by
+ * the packets is kept once, and each packet is kept as its timestamp and its
+ * pcap record:
+ *
+ * <pre>
+ * version(1) codec(1) count(4) payload length(4) payload
+ * payload: global header(24) { timestamp(8) record length(4) record }...
+ * </pre>
+ *
+ * The payload is deflated at {@link Deflater#BEST_SPEED} unless that does not
+ * make it smaller. Packets are added as they arrive, and
+ * {@link #decode(byte[], long, long)} gives back the single packet captures
+ * within a time range, as they are stored by the per packet layout.
+ *
+ * @version $Revision: 1.0 $
+ */
+public final class PcapBlock {
+
+  /** The payload is stored as is. */
+  public static final byte CODEC_NONE = 0;
+
+  /** The payload is deflated. */
+  public static final byte CODEC_DEFLATE = 1;
+
+  /** The version of the block format. */
+  private static final byte VERSION = 1;
+
+  /** The length of the block header. */
+  private static final int HEADER_LENGTH = 10;
+
+  /** The length of the timestamp and record length of a packet. */
+  private static final int PACKET_PREFIX_LENGTH = 12;
+
+  /** The payload. */
+  private byte[] payload = new byte[4096];
+
+  /** The payload length. */
+  private int length;
+
+  /** The number of packets. */
+  private int count;
+
+  /** The first timestamp. */
+  private long firstTimestamp;
+
+  /** The last timestamp. */
+  private long lastTimestamp;
+
+  /**
+   * Adds a packet, unless its capture has a different global header than the
+   * packets already in the block.
+   *
+   * @param timestamp
+   *          the packet timestamp, in the time unit of the pcap table
+   * @param pcap
+   *          the single packet capture, a {@link PcapRecord} or a byte array
+   * @return false, if the packet belongs in another block
+   */
+  public boolean add(long timestamp, Object pcap) {
+    byte[] capture;
+    int globalHeaderOffset;
+    int recordOffset;
+    int recordLength;
+    if (pcap instanceof PcapRecord) {
+      PcapRecord record = (PcapRecord) pcap;
+      capture = record.getCapture();
+      globalHeaderOffset = record.getGlobalHeaderOffset();
+      recordOffset = record.getRecordOffset();
+      recordLength = record.getRecordLength();
+    } else {
+      capture = (byte[]) pcap;
+      globalHeaderOffset = 0;
+      recordOffset = PacketCursor.GLOBAL_HEADER_LENGTH;
+      recordLength = capture.length - PacketCursor.GLOBAL_HEADER_LENGTH;
+      if (recordLength < PacketCursor.PACKET_HEADER_LENGTH) {
+        throw new IllegalArgumentException("Not a single packet capture");
+      }
+    }
+    if (count == 0) {
+      put(capture, globalHeaderOffset, PacketCursor.GLOBAL_HEADER_LENGTH);
+      firstTimestamp = timestamp;
+    } else if (!sameGlobalHeader(capture, globalHeaderOffset)) {
+      return false;
+    }
+    ensureCapacity(PACKET_PREFIX_LENGTH + recordLength);
+    putLong(timestamp);
+    putInt(recordLength);
+    put(capture, recordOffset, recordLength);
+    lastTimestamp = timestamp;
+    count++;
+    return true;
+  }
+
+  /**
+   * Gets the number of packets.
+   *
+   * @return the count
+   */
+  public int count() {
+    return count;
+  }
+
+  /**
+   * Gets the size of the uncompressed payload.
+   *
+   * @return the size
+   */
+  public int size() {
+    return length;
+  }
+
+  /**
+   * Gets the timestamp of the first packet added.
+   *
+   * @return the first timestamp
+   */
+  public long getFirstTimestamp() {
+    return firstTimestamp;
+  }
+
+  /**
+   * Gets the timestamp of the last packet added.
+   *
+   * @return the last timestamp
+   */
+  public long getLastTimestamp() {
+    return lastTimestamp;
+  }
+
+  /**
+   * Encodes the block.
+   *
+   * @param compress
+   *          whether to deflate the payload
+   * @return the encoded block
+   */
+  public byte[] toByteArray(boolean compress) {
+    byte[] deflated = compress ? deflate(payload, length) : null;
+    boolean useDeflated = deflated != null && deflated.length < length;
+    int payloadLength = useDeflated ? deflated.length : length;
+    byte[] block = new byte[HEADER_LENGTH + payloadLength];
+    block[0] = VERSION;
+    block[1] = useDeflated ? CODEC_DEFLATE : CODEC_NONE;
+    putInt(block, 2, count);
+    putInt(block, 6, length);
+    System.arraycopy(useDeflated ? deflated : payload, 0, block,
+        HEADER_LENGTH, payloadLength);
+    return block;
+  }
+
+  /**
+   * Decodes the single packet captures of a block whose timestamps are in a
+   * time range.
+   *
+   * @param block
+   *          the encoded block
+   * @param minTimestamp
+   *          the first timestamp included
+   * @param maxTimestamp
+   *          the first timestamp excluded
+   * @return the single packet captures, in the order they were added
+   * @throws IOException
+   *           if the block is not valid
+   */
+  public static List<byte[]> decode(byte[] block, long minTimestamp,
+      long maxTimestamp) throws IOException {
+    if (block.length < HEADER_LENGTH || block[0] != VERSION) {
+      throw new IOException("Not a pcap block");
+    }
+    int count = getInt(block, 2);
+    int payloadLength = getInt(block, 6);
+    byte[] payload;
+    if (block[1] == CODEC_DEFLATE) {
+      payload = inflate(block, HEADER_LENGTH, payloadLength);
+    } else if (block[1] == CODEC_NONE) {
+      payload = block;
+      if (block.length != HEADER_LENGTH + payloadLength) {
+        throw new IOException("Truncated pcap block");
+      }
+    } else {
+      throw new IOException("Unknown pcap block codec " + block[1]);
+    }
+    int offset = payload == block ? HEADER_LENGTH : 0;
+    int end = offset + payloadLength;
+    int globalHeaderOffset = offset;
+    offset += PacketCursor.GLOBAL_HEADER_LENGTH;
+    List<byte[]> pcaps = new ArrayList<byte[]>(count);
+    for (int i = 0; i < count; i++) {
+      if (offset + PACKET_PREFIX_LENGTH > end) {
+        throw new IOException("Truncated pcap block");
+      }
+      long timestamp = getLong(payload, offset);
+      int recordLength = getInt(payload, offset + 8);
+      offset += PACKET_PREFIX_LENGTH;
+      if (recordLength < 0 || offset + recordLength > end) {
+        throw new IOException("Truncated pcap block");
+      }
+      if (timestamp >= minTimestamp && timestamp < maxTimestamp) {
+        byte[] pcap = new byte[PacketCursor.GLOBAL_HEADER_LENGTH
+            + recordLength];
+        System.arraycopy(payload, globalHeaderOffset, pcap, 0,
+            PacketCursor.GLOBAL_HEADER_LENGTH);
+        System.arraycopy(payload, offset, pcap,
+            PacketCursor.GLOBAL_HEADER_LENGTH, recordLength);
+        pcaps.add(pcap);
+      }
+      offset += recordLength;
+    }
+    return pcaps;
+  }
+
+  private boolean sameGlobalHeader(byte[] capture, int globalHeaderOffset) {
+    for (int i = 0; i < PacketCursor.GLOBAL_HEADER_LENGTH; i++) {
+      if (payload[i] != capture[globalHeaderOffset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void ensureCapacity(int more) {
+    if (length + more > payload.length) {
+      byte[] grown = new byte[Math.max(payload.length * 2, length + more)];
+      System.arraycopy(payload, 0, grown, 0, length);
+      payload = grown;
+    }
+  }
+
+  private void put(byte[] src, int offset, int len) {
+    ensureCapacity(len);
+    System.arraycopy(src, offset, payload, length, len);
+    length += len;
+  }
+
+  private void putInt(int value) {
+    putInt(payload, length, value);
+    length += 4;
+  }
+
+  private void putLong(long value) {
+    putInt(payload, length, (int) (value >>> 32));
+    putInt(payload, length + 4, (int) value);
+    length += 8;
+  }
+
+  private static void putInt(byte[] dst, int offset, int value) {
+    dst[offset] = (byte) (value >>> 24);
+    dst[offset + 1] = (byte) (value >>> 16);
+    dst[offset + 2] = (byte) (value >>> 8);
+    dst[offset + 3] = (byte) value;
+  }
+
+  private static int getInt(byte[] src, int offset) {
+    return ((src[offset] & 0xff) << 24) | ((src[offset + 1] & 0xff) << 16)
+        | ((src[offset + 2] & 0xff) << 8) | (src[offset + 3] & 0xff);
+  }
+
+  private static long getLong(byte[] src, int offset) {
+    return ((long) getInt(src, offset) << 32)
+        | (getInt(src, offset + 4) & 0xffffffffL);
+  }
+
+  private static byte[] deflate(byte[] data, int len) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(data, 0, len);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(len / 2 + 64);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        int n = deflater.deflate(buffer);
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] block, int offset, int payloadLength)
+      throws IOException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(block, offset, block.length - offset);
+      byte[] payload = new byte[payloadLength];
+      int n = 0;
+      while (n < payloadLength) {
+        int inflated = inflater.inflate(payload, n, payloadLength - n);
+        if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+          throw new IOException("Truncated pcap block");
+        }
+        n += inflated;
+      }
+      return payload;
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt pcap block", e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
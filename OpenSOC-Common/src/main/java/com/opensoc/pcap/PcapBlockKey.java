@@ -0,0 +1,150 @@
+package com.opensoc.pcap;
+
+import java.nio.charset.Charset;
+
+/**
+ * Row keys of the pcap table when packets are stored as {@link PcapBlock}s,
+ * one row per session and time bucket. The row key is the session key, the
+ * 5-tuple prefix of the pcap_ids of the session, followed by the time bucket:
+ *
+ * <pre>
+ * string: srcIp-dstIp-protocol-srcPort-dstPort-bucket(19 digits)
+ * binary: salt(1) src ip(4) dst ip(4) protocol(1) src port(2) dst port(2) bucket(8)
+ * </pre>
+ *
+ * The binary key starts with the same salted 5-tuple as a {@link PcapRowKey}.
+ * Either way the rows of a session sort by time, so a time range of a
+ * session is one contiguous scan.
+ *
+ * @version $Revision: 1.0 $
+ */
+public final class PcapBlockKey {
+
+  /** The length of a binary row key. */
+  public static final int BINARY_LENGTH = PcapRowKey.SESSION_PREFIX_LENGTH + 8;
+
+  /** The digits of the time bucket of a string row key. */
+  private static final int BUCKET_DIGITS = 19;
+
+  /** The Constant SESSION_KEY_SEPERATOR. */
+  private static final char SESSION_KEY_SEPERATOR = '-';
+
+  /** The charset of string row keys. */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Instantiates a new pcap block key.
+   */
+  private PcapBlockKey() {
+  }
+
+  /**
+   * Gets the row key of a session and time bucket.
+   *
+   * @param sessionKey
+   *          the session key
+   * @param bucket
+   *          the time bucket
+   * @param binary
+   *          whether the row key is binary, rather than string
+   * @param saltBuckets
+   *          the number of salt buckets of binary row keys
+   * @return the row key
+   */
+  public static byte[] toBytes(String sessionKey, long bucket, boolean binary,
+      int saltBuckets) {
+    byte[] prefix = toSessionPrefix(sessionKey, binary, saltBuckets);
+    if (!binary) {
+      StringBuilder sb = new StringBuilder(BUCKET_DIGITS);
+      String digits = Long.toString(bucket);
+      for (int i = digits.length(); i < BUCKET_DIGITS; i++) {
+        sb.append('0');
+      }
+      byte[] suffix = sb.append(digits).toString().getBytes(UTF_8);
+      byte[] key = new byte[prefix.length + suffix.length];
+      System.arraycopy(prefix, 0, key, 0, prefix.length);
+      System.arraycopy(suffix, 0, key, prefix.length, suffix.length);
+      return key;
+    }
+    byte[] key = new byte[BINARY_LENGTH];
+    System.arraycopy(prefix, 0, key, 0, prefix.length);
+    for (int i = BINARY_LENGTH - 1; i >= prefix.length; i--) {
+      key[i] = (byte) bucket;
+      bucket >>>= 8;
+    }
+    return key;
+  }
+
+  /**
+   * Gets the prefix of the row keys of all time buckets of a session.
+   *
+   * @param sessionKey
+   *          the session key
+   * @param binary
+   *          whether the row key is binary, rather than string
+   * @param saltBuckets
+   *          the number of salt buckets of binary row keys
+   * @return the row key prefix
+   */
+  public static byte[] toSessionPrefix(String sessionKey, boolean binary,
+      int saltBuckets) {
+    if (!binary) {
+      return (sessionKey + SESSION_KEY_SEPERATOR).getBytes(UTF_8);
+    }
+    int salt = PcapRowKey.getSalt(sessionKey, saltBuckets);
+    byte[] prefix = salt < 0 ? null : PcapRowKey.toPrefix(salt, sessionKey);
+    if (prefix == null || prefix.length != PcapRowKey.SESSION_PREFIX_LENGTH) {
+      throw new IllegalArgumentException("Not a session key: " + sessionKey);
+    }
+    return prefix;
+  }
+
+  /**
+   * Gets the session key and time bucket of a row key, as
+   * <tt>srcIp-dstIp-protocol-srcPort-dstPort-bucket</tt>.
+   *
+   * @param rowKey
+   *          the row key
+   * @param binary
+   *          whether the row key is binary, rather than string
+   * @return the key string
+   */
+  public static String toKeyString(byte[] rowKey, boolean binary) {
+    if (!binary) {
+      String key = new String(rowKey, UTF_8);
+      int separator = key.lastIndexOf(SESSION_KEY_SEPERATOR);
+      return key.substring(0, separator + 1)
+          + Long.parseLong(key.substring(separator + 1));
+    }
+    if (rowKey.length != BINARY_LENGTH) {
+      throw new IllegalArgumentException("Invalid row key length "
+          + rowKey.length);
+    }
+    return PcapUtils.getShortSessionKey(get(rowKey, 1, 4), get(rowKey, 5, 4),
+        get(rowKey, 9, 1), get(rowKey, 10, 2), get(rowKey, 12, 2))
+        + SESSION_KEY_SEPERATOR + getBucket(rowKey);
+  }
+
+  /**
+   * Gets the time bucket of a binary row key.
+   *
+   * @param rowKey
+   *          the row key
+   * @return the time bucket
+   */
+  private static long getBucket(byte[] rowKey) {
+    long bucket = 0;
+    for (int i = PcapRowKey.SESSION_PREFIX_LENGTH; i < BINARY_LENGTH; i++) {
+      bucket = (bucket << 8) | (rowKey[i] & 0xff);
+    }
+    return bucket;
+  }
+
+  private static int get(byte[] key, int offset, int width) {
+    int value = 0;
+    for (int i = 0; i < width; i++) {
+      value = (value << 8) | (key[offset + i] & 0xff);
+    }
+    return value;
+  }
+}
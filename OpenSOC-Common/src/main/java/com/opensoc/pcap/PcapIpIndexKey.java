@@ -0,0 +1,171 @@
+package com.opensoc.pcap;
+
+/**
+ * Row keys of the pcap ip index table, which maps an ip and a time bucket to
+ * the session keys of the packets seen to or from that ip in the bucket. A row
+ * key is 12 bytes:
+ *
+ * <pre>
+ * ip(4) time bucket(8)
+ * </pre>
+ *
+ * Keys sort by ip, then by time, so the rows of an ip, or of a subnet, over a
+ * time range are one contiguous scan. The row holds one column per session
+ * key, the 5-tuple prefix of the pcap_ids of the session, with an empty value.
+ * <p>
+ * The time bucket is the packet timestamp divided by the bucket width, both in
+ * the time unit of the pcap table. Writers and readers of the index must use
+ * the same width.
+ *
+ * @version $Revision: 1.0 $
+ */
+public final class PcapIpIndexKey {
+
+  /** The length of a row key. */
+  public static final int LENGTH = 12;
+
+  /** The Constant SESSION_KEY_SEPERATOR. */
+  private static final char SESSION_KEY_SEPERATOR = '-';
+
+  /**
+   * Instantiates a new pcap ip index key.
+   */
+  private PcapIpIndexKey() {
+  }
+
+  /**
+   * Gets the time bucket of a timestamp.
+   *
+   * @param timestamp
+   *          the timestamp
+   * @param bucketWidth
+   *          the bucket width, in the unit of the timestamp
+   * @return the time bucket
+   */
+  public static long getBucket(long timestamp, long bucketWidth) {
+    if (bucketWidth < 1) {
+      throw new IllegalArgumentException("Invalid time bucket width "
+          + bucketWidth);
+    }
+    return timestamp < 0 ? 0 : timestamp / bucketWidth;
+  }
+
+  /**
+   * Gets the row key of an ip and time bucket.
+   *
+   * @param ip
+   *          the ip, first octet in the high byte
+   * @param bucket
+   *          the time bucket
+   * @return the row key
+   */
+  public static byte[] toBytes(int ip, long bucket) {
+    byte[] key = new byte[LENGTH];
+    for (int i = 3; i >= 0; i--) {
+      key[i] = (byte) ip;
+      ip >>>= 8;
+    }
+    for (int i = LENGTH - 1; i >= 4; i--) {
+      key[i] = (byte) bucket;
+      bucket >>>= 8;
+    }
+    return key;
+  }
+
+  /**
+   * Gets the ip of a row key.
+   *
+   * @param rowKey
+   *          the row key
+   * @return the ip
+   */
+  public static int getIp(byte[] rowKey) {
+    checkLength(rowKey);
+    int ip = 0;
+    for (int i = 0; i < 4; i++) {
+      ip = (ip << 8) | (rowKey[i] & 0xff);
+    }
+    return ip;
+  }
+
+  /**
+   * Gets the time bucket of a row key.
+   *
+   * @param rowKey
+   *          the row key
+   * @return the time bucket
+   */
+  public static long getBucket(byte[] rowKey) {
+    checkLength(rowKey);
+    long bucket = 0;
+    for (int i = 4; i < LENGTH; i++) {
+      bucket = (bucket << 8) | (rowKey[i] & 0xff);
+    }
+    return bucket;
+  }
+
+  /**
+   * Gets the session key, the 5-tuple prefix, of a pcap_id.
+   *
+   * @param pcapId
+   *          the pcap_id
+   * @return the session key
+   */
+  public static String getSessionKey(String pcapId) {
+    int end = -1;
+    for (int i = 0; i < PcapRowKey.SALT_TOKENS; i++) {
+      end = pcapId.indexOf(SESSION_KEY_SEPERATOR, end + 1);
+      if (end < 0) {
+        return pcapId;
+      }
+    }
+    return pcapId.substring(0, end);
+  }
+
+  /**
+   * Gets the src ip of a pcap_id.
+   *
+   * @param pcapId
+   *          the pcap_id
+   * @return the src ip
+   */
+  public static int getSrcIp(String pcapId) {
+    return parseIp(pcapId, 0);
+  }
+
+  /**
+   * Gets the dst ip of a pcap_id.
+   *
+   * @param pcapId
+   *          the pcap_id
+   * @return the dst ip
+   */
+  public static int getDstIp(String pcapId) {
+    return parseIp(pcapId, 9);
+  }
+
+  /**
+   * Parses the 8 hex digit ip of a pcap_id at an offset.
+   */
+  private static int parseIp(String pcapId, int start) {
+    if (pcapId.length() < start + 8) {
+      throw new IllegalArgumentException("Invalid ip in pcap_id: " + pcapId);
+    }
+    int ip = 0;
+    for (int i = start; i < start + 8; i++) {
+      int digit = Character.digit(pcapId.charAt(i), 16);
+      if (digit < 0) {
+        throw new IllegalArgumentException("Invalid ip in pcap_id: " + pcapId);
+      }
+      ip = (ip << 4) | digit;
+    }
+    return ip;
+  }
+
+  private static void checkLength(byte[] rowKey) {
+    if (rowKey.length != LENGTH) {
+      throw new IllegalArgumentException("Invalid row key length "
+          + rowKey.length);
+    }
+  }
+}
@@ -4,10 +4,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
@@ -30,6 +33,16 @@ public final class PcapMerger {
   /** The comparator for PcapPackets */
   private static PcapPacketComparator PCAP_PACKET_COMPARATOR = new PcapPacketComparator();
 
+  /** Orders sources by the time of their current packet, then by input order. */
+  private static final Comparator<Source> SOURCE_COMPARATOR = new Comparator<Source>() {
+    public int compare(Source s1, Source s2) {
+      if (s1.time != s2.time) {
+        return s1.time < s2.time ? -1 : 1;
+      }
+      return s1.index - s2.index;
+    }
+  };
+
   /**
    * Instantiates a new pcap merger.
    */
@@ -67,8 +80,101 @@ public final class PcapMerger {
   // }
   // }
 
+  /**
+   * Merges pcaps into a byte array.
+   * 
+   * @param baos
+   *          the baos
+   * @param pcaps
+   *          the pcaps
+   * @throws IOException
+   *           if a pcap has no global header
+   * @see #merge(OutputStream, List)
+   */
   public static void merge(ByteArrayOutputStream baos, List<byte[]> pcaps)
       throws IOException {
+    merge((OutputStream) baos, pcaps);
+  }
+
+  /**
+   * Merges pcaps into one, with packets in chronological order, writing
+   * each packet as soon as it is known to be next. The global header of the
+   * first pcap is written once; packets of pcaps in another byte order or
+   * time stamp resolution are converted to it.
+   * <p>
+   * Every pcap must be in chronological order itself, as the pcaps read from
+   * HBase are. They are checked first, and merged with
+   * {@link #mergeBySorting(ByteArrayOutputStream, List)} if one is not.
+   * 
+   * @param out
+   *          the output, which is not closed
+   * @param pcaps
+   *          the pcaps
+   * @throws IOException
+   *           if a pcap has no global header, or the output fails
+   */
+  public static void merge(OutputStream out, List<byte[]> pcaps)
+      throws IOException {
+    if (pcaps.isEmpty()) {
+      return;
+    }
+    PacketCursor first = new PacketCursor();
+    first.reset(pcaps.get(0));
+    if (!isChronological(pcaps)) {
+      LOG.debug("Pcaps are not in chronological order, sorting them");
+      if (out instanceof ByteArrayOutputStream) {
+        mergeBySorting((ByteArrayOutputStream) out, pcaps);
+      } else {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        mergeBySorting(baos, pcaps);
+        baos.writeTo(out);
+      }
+      return;
+    }
+
+    PriorityQueue<Source> heap = new PriorityQueue<Source>(pcaps.size(),
+        SOURCE_COMPARATOR);
+    for (int i = 0; i < pcaps.size(); i++) {
+      Source source = new Source(pcaps.get(i), i);
+      if (source.next()) {
+        heap.add(source);
+      }
+    }
+
+    out.write(first.getData(), 0, PacketCursor.GLOBAL_HEADER_LENGTH);
+    byte[] header = new byte[PacketCursor.PACKET_HEADER_LENGTH];
+    while (!heap.isEmpty()) {
+      Source source = heap.poll();
+      PacketCursor cursor = source.cursor;
+      if (cursor.isSwapped() == first.isSwapped()
+          && cursor.isNanoResolution() == first.isNanoResolution()) {
+        out.write(cursor.getData(), cursor.getRecordOffset(),
+            cursor.getRecordLength());
+      } else {
+        writePacketHeader(header, cursor, first);
+        out.write(header);
+        out.write(cursor.getData(), cursor.getPacketOffset(),
+            cursor.getInclLen());
+      }
+      if (source.next()) {
+        heap.add(source);
+      }
+    }
+  }
+
+  /**
+   * Merges pcaps by concatenating all their packets and sorting them by
+   * time stamp, for pcaps that are not in chronological order themselves.
+   * 
+   * @param baos
+   *          the baos
+   * @param pcaps
+   *          the pcaps
+   * @throws IOException
+   *           if there is no byte array, or other io related problems.
+   */
+  public static void mergeBySorting(ByteArrayOutputStream baos,
+      List<byte[]> pcaps) throws IOException {
     PcapByteInputStream is = null;
     PcapByteOutputStream os = null;
     ByteArrayOutputStream unsortedBaos = new ByteArrayOutputStream();
@@ -153,6 +259,94 @@ public final class PcapMerger {
 	  pcapOs.close();  
   }
   
+  /**
+   * Checks that the packets of each pcap are in chronological order.
+   * 
+   * @param pcaps
+   *          the pcaps
+   * @return true, if every pcap is in chronological order
+   * @throws IOException
+   *           if a pcap has no global header
+   */
+  private static boolean isChronological(List<byte[]> pcaps)
+      throws IOException {
+    PacketCursor cursor = new PacketCursor();
+    for (byte[] pcap : pcaps) {
+      cursor.reset(pcap);
+      long last = Long.MIN_VALUE;
+      while (cursor.next()) {
+        long time = cursor.getPacketTimeInNanos();
+        if (time < last) {
+          return false;
+        }
+        last = time;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Writes the header of the current packet of a cursor in the byte order and
+   * time stamp resolution of another.
+   * 
+   * @param header
+   *          receives the header
+   * @param cursor
+   *          the cursor
+   * @param to
+   *          the cursor of the output global header
+   */
+  private static void writePacketHeader(byte[] header, PacketCursor cursor,
+      PacketCursor to) {
+    int fraction = cursor.getTsUsec();
+    if (cursor.isNanoResolution() && !to.isNanoResolution()) {
+      fraction = (int) ((fraction & 0xffffffffL) / 1000L);
+    } else if (!cursor.isNanoResolution() && to.isNanoResolution()) {
+      fraction = fraction * 1000;
+    }
+    putInt(header, 0, cursor.getTsSec(), to.isSwapped());
+    putInt(header, 4, fraction, to.isSwapped());
+    putInt(header, 8, cursor.getInclLen(), to.isSwapped());
+    putInt(header, 12, cursor.getOrigLen(), to.isSwapped());
+  }
+
+  private static void putInt(byte[] b, int offset, int value,
+      boolean littleEndian) {
+    int v = littleEndian ? Integer.reverseBytes(value) : value;
+    b[offset] = (byte) (v >>> 24);
+    b[offset + 1] = (byte) (v >>> 16);
+    b[offset + 2] = (byte) (v >>> 8);
+    b[offset + 3] = (byte) v;
+  }
+
+  /**
+   * A pcap being merged, at its next packet.
+   */
+  private static final class Source {
+
+    /** The cursor. */
+    private final PacketCursor cursor = new PacketCursor();
+
+    /** The index of the pcap in the input. */
+    private final int index;
+
+    /** The time of the current packet. */
+    private long time;
+
+    Source(byte[] pcap, int index) throws IOException {
+      cursor.reset(pcap);
+      this.index = index;
+    }
+
+    boolean next() {
+      if (!cursor.next()) {
+        return false;
+      }
+      time = cursor.getPacketTimeInNanos();
+      return true;
+    }
+  }
+
   /**
    * Write packet.
    * 
@@ -0,0 +1,153 @@
+package com.opensoc.pcap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A single packet pcap capture: the global header of the capture a packet
+ * came from, followed by that packet's record header and data. The record
+ * refers to slices of the original capture array, so nothing is copied
+ * until it is written out by {@link #writeTo(OutputStream)},
+ * {@link #toByteArray()} or {@link PcapRecordKryoSerializer}.
+ *
+ * @version $Revision: 1.0 $
+ */
+public final class PcapRecord {
+
+  /** The capture. */
+  private final byte[] capture;
+
+  /** The global header offset. */
+  private final int globalHeaderOffset;
+
+  /** The record offset. */
+  private final int recordOffset;
+
+  /** The record length. */
+  private final int recordLength;
+
+  /**
+   * Instantiates a new pcap record.
+   *
+   * @param capture
+   *          the array holding the capture
+   * @param globalHeaderOffset
+   *          index of the global header
+   * @param recordOffset
+   *          index of the packet header
+   * @param recordLength
+   *          length of the packet header and data
+   */
+  public PcapRecord(byte[] capture, int globalHeaderOffset, int recordOffset,
+      int recordLength) {
+    if (globalHeaderOffset < 0
+        || globalHeaderOffset + PacketCursor.GLOBAL_HEADER_LENGTH > capture.length
+        || recordOffset < 0 || recordLength < PacketCursor.PACKET_HEADER_LENGTH
+        || recordOffset + recordLength > capture.length) {
+      throw new IllegalArgumentException("Record [" + recordOffset + ", +"
+          + recordLength + ") is outside of the capture");
+    }
+    this.capture = capture;
+    this.globalHeaderOffset = globalHeaderOffset;
+    this.recordOffset = recordOffset;
+    this.recordLength = recordLength;
+  }
+
+  /**
+   * Gets the record of the packet a cursor is at.
+   *
+   * @param cursor
+   *          the cursor
+   * @return the pcap record
+   */
+  public static PcapRecord of(PacketCursor cursor) {
+    return new PcapRecord(cursor.getData(), cursor.getGlobalHeaderOffset(),
+        cursor.getRecordOffset(), cursor.getRecordLength());
+  }
+
+  /**
+   * Gets the length of the single packet capture.
+   *
+   * @return the length
+   */
+  public int length() {
+    return PacketCursor.GLOBAL_HEADER_LENGTH + recordLength;
+  }
+
+  /**
+   * Writes the single packet capture.
+   *
+   * @param out
+   *          the out
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(capture, globalHeaderOffset, PacketCursor.GLOBAL_HEADER_LENGTH);
+    out.write(capture, recordOffset, recordLength);
+  }
+
+  /**
+   * Copies the single packet capture into a new array.
+   *
+   * @return the byte array
+   */
+  public byte[] toByteArray() {
+    byte[] pcap = new byte[length()];
+    System.arraycopy(capture, globalHeaderOffset, pcap, 0,
+        PacketCursor.GLOBAL_HEADER_LENGTH);
+    System.arraycopy(capture, recordOffset, pcap,
+        PacketCursor.GLOBAL_HEADER_LENGTH, recordLength);
+    return pcap;
+  }
+
+  /**
+   * Gets the array holding the capture.
+   *
+   * @return the capture
+   */
+  byte[] getCapture() {
+    return capture;
+  }
+
+  /**
+   * Gets the index of the global header in the capture.
+   *
+   * @return the global header offset
+   */
+  int getGlobalHeaderOffset() {
+    return globalHeaderOffset;
+  }
+
+  /**
+   * Gets the index of the packet header in the capture.
+   *
+   * @return the record offset
+   */
+  int getRecordOffset() {
+    return recordOffset;
+  }
+
+  /**
+   * Gets the length of the packet header and data.
+   *
+   * @return the record length
+   */
+  int getRecordLength() {
+    return recordLength;
+  }
+
+  /**
+   * Gets a tuple value as bytes, whether it is a byte array or a record.
+   *
+   * @param value
+   *          the value
+   * @return the bytes
+   */
+  public static byte[] toBytes(Object value) {
+    if (value instanceof PcapRecord) {
+      return ((PcapRecord) value).toByteArray();
+    }
+    return (byte[]) value;
+  }
+}
@@ -0,0 +1,35 @@
+package com.opensoc.pcap;
+
+import java.io.IOException;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Custom Serializer to help Storm send {@link PcapRecord}s between workers.
+ * Only the single packet capture is written, never the rest of the capture
+ * array it was sliced from.
+ */
+public class PcapRecordKryoSerializer extends
+    com.esotericsoftware.kryo.Serializer<PcapRecord> {
+
+  @Override
+  public void write(Kryo kryo, Output output, PcapRecord record) {
+    output.writeInt(record.length());
+    try {
+      record.writeTo(output);
+    } catch (IOException e) {
+      throw new KryoException(e);
+    }
+  }
+
+  @Override
+  public PcapRecord read(Kryo kryo, Input input, Class<PcapRecord> type) {
+    int length = input.readInt();
+    byte[] pcap = input.readBytes(length);
+    return new PcapRecord(pcap, 0, PacketCursor.GLOBAL_HEADER_LENGTH, length
+        - PacketCursor.GLOBAL_HEADER_LENGTH);
+  }
+}
@@ -0,0 +1,353 @@
+package com.opensoc.pcap;
+
+import com.opensoc.helpers.topology.FlowHash;
+
+/**
+ * Binary, fixed width row keys of the pcap table. A pcap_id such as
+ * <tt>0a000001-c0a8c8fe-6-51234-443-7-0</tt> is stored as 18 bytes:
+ *
+ * <pre>
+ * salt(1) src ip(4) dst ip(4) protocol(1) src port(2) dst port(2) ip id(2) fragment offset(2)
+ * </pre>
+ *
+ * The salt is a bucket number taken from the direction independent
+ * {@link FlowHash} of the 5-tuple, so sequential ips are spread over as many
+ * regions as there are buckets, while all packets of a session, in both
+ * directions, stay in one bucket. Readers that know the 5-tuple compute the
+ * salt; readers that do not have to scan every bucket.
+ * <p>
+ * Within a bucket keys sort by their numeric fields, which is not the order
+ * of the pcap_id strings: the decimal tokens of a pcap_id sort as text.
+ *
+ * @version $Revision: 1.0 $
+ */
+public final class PcapRowKey {
+
+  /** The length of a full row key. */
+  public static final int LENGTH = 18;
+
+  /** The most salt buckets, as the salt is a single byte. */
+  public static final int MAX_SALT_BUCKETS = 256;
+
+  /** The number of pcap_id tokens the salt is computed from. */
+  public static final int SALT_TOKENS = 5;
+
+  /** The length of the salt and 5-tuple at the start of a row key. */
+  public static final int SESSION_PREFIX_LENGTH = 14;
+
+  /** The number of tokens in a full pcap_id. */
+  public static final int TOKENS = 7;
+
+  /** Width in bytes of each pcap_id token. */
+  private static final int[] TOKEN_WIDTH = { 4, 4, 1, 2, 2, 2, 2 };
+
+  /** The Constant SESSION_KEY_SEPERATOR. */
+  private static final char SESSION_KEY_SEPERATOR = '-';
+
+  /**
+   * Instantiates a new pcap row key.
+   */
+  private PcapRowKey() {
+  }
+
+  /**
+   * Gets the salt bucket of a 5-tuple.
+   *
+   * @param srcIp
+   *          the src ip
+   * @param dstIp
+   *          the dst ip
+   * @param protocol
+   *          the protocol
+   * @param srcPort
+   *          the src port
+   * @param dstPort
+   *          the dst port
+   * @param buckets
+   *          the number of salt buckets
+   * @return the salt, from 0 to buckets - 1
+   */
+  public static int getSalt(int srcIp, int dstIp, int protocol, int srcPort,
+      int dstPort, int buckets) {
+    checkBuckets(buckets);
+    long hash = FlowHash.hash(srcIp, srcPort, dstIp, dstPort, protocol);
+    return (int) ((hash & Long.MAX_VALUE) % buckets);
+  }
+
+  /**
+   * Gets the salt bucket of a pcap_id, or of a partial one holding at least
+   * the 5-tuple.
+   *
+   * @param pcapId
+   *          the pcap_id
+   * @param buckets
+   *          the number of salt buckets
+   * @return the salt, or -1 if the key holds less than the 5-tuple
+   */
+  public static int getSalt(String pcapId, int buckets) {
+    int[] fields = new int[TOKENS];
+    if (parse(pcapId, fields) < SALT_TOKENS) {
+      checkBuckets(buckets);
+      return -1;
+    }
+    return getSalt(fields[0], fields[1], fields[2], fields[3], fields[4],
+        buckets);
+  }
+
+  /**
+   * Gets the row key of a packet.
+   *
+   * @param srcIp
+   *          the src ip
+   * @param dstIp
+   *          the dst ip
+   * @param protocol
+   *          the protocol
+   * @param srcPort
+   *          the src port
+   * @param dstPort
+   *          the dst port
+   * @param ipId
+   *          the ip id
+   * @param fragmentOffset
+   *          the fragment offset
+   * @param buckets
+   *          the number of salt buckets
+   * @return the row key
+   */
+  public static byte[] toBytes(int srcIp, int dstIp, int protocol,
+      int srcPort, int dstPort, int ipId, int fragmentOffset, int buckets) {
+    byte[] key = new byte[LENGTH];
+    key[0] = (byte) getSalt(srcIp, dstIp, protocol, srcPort, dstPort, buckets);
+    int offset = 1;
+    offset = put(key, offset, srcIp, 4);
+    offset = put(key, offset, dstIp, 4);
+    offset = put(key, offset, protocol, 1);
+    offset = put(key, offset, srcPort, 2);
+    offset = put(key, offset, dstPort, 2);
+    offset = put(key, offset, ipId, 2);
+    put(key, offset, fragmentOffset, 2);
+    return key;
+  }
+
+  /**
+   * Gets the row key of a full pcap_id, as built by
+   * {@link PcapUtils#getSessionKey(int, int, int, int, int, int, int)}.
+   *
+   * @param pcapId
+   *          the pcap_id
+   * @param buckets
+   *          the number of salt buckets
+   * @return the row key
+   */
+  public static byte[] toBytes(String pcapId, int buckets) {
+    int[] f = new int[TOKENS];
+    if (parse(pcapId, f) != TOKENS) {
+      throw new IllegalArgumentException("Not a full pcap_id: " + pcapId);
+    }
+    return toBytes(f[0], f[1], f[2], f[3], f[4], f[5], f[6], buckets);
+  }
+
+  /**
+   * Gets the prefix, within one salt bucket, of the row keys of all pcap_ids
+   * starting with the tokens of a key.
+   *
+   * @param salt
+   *          the salt
+   * @param key
+   *          a pcap_id, or its first tokens
+   * @return the row key prefix
+   */
+  public static byte[] toPrefix(int salt, String key) {
+    if (salt < 0 || salt >= MAX_SALT_BUCKETS) {
+      throw new IllegalArgumentException("Invalid salt " + salt);
+    }
+    int[] fields = new int[TOKENS];
+    int tokens = parse(key, fields);
+    int length = 1;
+    for (int i = 0; i < tokens; i++) {
+      length += TOKEN_WIDTH[i];
+    }
+    byte[] prefix = new byte[length];
+    prefix[0] = (byte) salt;
+    int offset = 1;
+    for (int i = 0; i < tokens; i++) {
+      offset = put(prefix, offset, fields[i], TOKEN_WIDTH[i]);
+    }
+    return prefix;
+  }
+
+  /**
+   * Completes the last token of one end of a key range, so that its
+   * {@link #toPrefix(int, String)} bounds the range as the key bounds it among
+   * the pcap_ids as text. The key may end in a partial ip token, such as the 6
+   * hex digits of a /24, which is padded with zeros, and in a trailing
+   * separator, which is dropped. Either way the prefix sorts before every ip
+   * starting with those digits, so it serves both as an inclusive start row
+   * and as an exclusive stop row.
+   *
+   * @param key
+   *          a pcap_id, or its first tokens
+   * @return the key with its last token complete
+   */
+  public static String toRangeKey(String key) {
+    int start = key.lastIndexOf(SESSION_KEY_SEPERATOR) + 1;
+    if (start > 0 && start == key.length()) {
+      return key.substring(0, start - 1);
+    }
+    int token = 0;
+    for (int i = 0; i < start; i++) {
+      if (key.charAt(i) == SESSION_KEY_SEPERATOR) {
+        token++;
+      }
+    }
+    int digits = key.length() - start;
+    if (token >= 2 || digits == 0 || digits >= 8) {
+      return key;
+    }
+    StringBuilder padded = new StringBuilder(start + 8).append(key);
+    for (int i = digits; i < 8; i++) {
+      padded.append('0');
+    }
+    return padded.toString();
+  }
+
+  /**
+   * Gets the first row key after all keys starting with a prefix, for use as
+   * the stop row of a scan.
+   *
+   * @param prefix
+   *          the prefix
+   * @return the stop row, empty if no key sorts after the prefix
+   */
+  public static byte[] toStopRow(byte[] prefix) {
+    for (int i = prefix.length - 1; i >= 0; i--) {
+      if (prefix[i] != (byte) 0xff) {
+        byte[] stop = new byte[i + 1];
+        System.arraycopy(prefix, 0, stop, 0, i + 1);
+        stop[i]++;
+        return stop;
+      }
+    }
+    return new byte[0];
+  }
+
+  /**
+   * Gets the first row key after a given one, for use as the start row of a
+   * scan that resumes after it.
+   *
+   * @param rowKey
+   *          the row key
+   * @return the next row key
+   */
+  public static byte[] toNextRow(byte[] rowKey) {
+    byte[] next = new byte[rowKey.length + 1];
+    System.arraycopy(rowKey, 0, next, 0, rowKey.length);
+    return next;
+  }
+
+  /**
+   * Gets the pcap_id of a row key.
+   *
+   * @param rowKey
+   *          the row key
+   * @return the pcap_id
+   */
+  public static String toPcapId(byte[] rowKey) {
+    if (rowKey.length != LENGTH) {
+      throw new IllegalArgumentException("Invalid row key length "
+          + rowKey.length);
+    }
+    return PcapUtils.getSessionKey(get(rowKey, 1, 4), get(rowKey, 5, 4),
+        get(rowKey, 9, 1), get(rowKey, 10, 2), get(rowKey, 12, 2),
+        get(rowKey, 14, 2), get(rowKey, 16, 2));
+  }
+
+  /**
+   * Parses the tokens of a pcap_id, or of its first tokens. The ips are 8 hex
+   * digits, the other tokens decimal.
+   *
+   * @param key
+   *          the key
+   * @param fields
+   *          receives the tokens
+   * @return the number of tokens
+   */
+  private static int parse(String key, int[] fields) {
+    int tokens = 0;
+    int start = 0;
+    int length = key.length();
+    while (start <= length) {
+      int end = key.indexOf(SESSION_KEY_SEPERATOR, start);
+      if (end < 0) {
+        end = length;
+      }
+      if (tokens == TOKENS) {
+        throw new IllegalArgumentException("Too many tokens in pcap_id: "
+            + key);
+      }
+      fields[tokens] = tokens < 2 ? parseIp(key, start, end) : parseNumber(
+          key, start, end, (1 << (8 * TOKEN_WIDTH[tokens])) - 1);
+      tokens++;
+      start = end + 1;
+    }
+    return tokens;
+  }
+
+  private static int parseIp(String key, int start, int end) {
+    if (end - start != 8) {
+      throw new IllegalArgumentException("Invalid ip in pcap_id: " + key);
+    }
+    int value = 0;
+    for (int i = start; i < end; i++) {
+      int digit = Character.digit(key.charAt(i), 16);
+      if (digit < 0) {
+        throw new IllegalArgumentException("Invalid ip in pcap_id: " + key);
+      }
+      value = (value << 4) | digit;
+    }
+    return value;
+  }
+
+  private static int parseNumber(String key, int start, int end, int max) {
+    if (end == start || end - start > 5) {
+      throw new IllegalArgumentException("Invalid token in pcap_id: " + key);
+    }
+    int value = 0;
+    for (int i = start; i < end; i++) {
+      char ch = key.charAt(i);
+      if (ch < '0' || ch > '9') {
+        throw new IllegalArgumentException("Invalid token in pcap_id: " + key);
+      }
+      value = value * 10 + (ch - '0');
+    }
+    if (value > max) {
+      throw new IllegalArgumentException("Token out of range in pcap_id: "
+          + key);
+    }
+    return value;
+  }
+
+  private static int put(byte[] key, int offset, int value, int width) {
+    for (int i = width - 1; i >= 0; i--) {
+      key[offset + i] = (byte) value;
+      value >>>= 8;
+    }
+    return offset + width;
+  }
+
+  private static int get(byte[] key, int offset, int width) {
+    int value = 0;
+    for (int i = 0; i < width; i++) {
+      value = (value << 8) | (key[offset + i] & 0xff);
+    }
+    return value;
+  }
+
+  private static void checkBuckets(int buckets) {
+    if (buckets < 1 || buckets > MAX_SALT_BUCKETS) {
+      throw new IllegalArgumentException("Salt buckets must be from 1 to "
+          + MAX_SALT_BUCKETS + ": " + buckets);
+    }
+  }
+}
@@ -17,6 +17,9 @@ public class PcapUtils {
   /** The Constant SESSION_KEY_SEPERATOR. */
   private static final char SESSION_KEY_SEPERATOR = '-';
 
+  /** The hex digits. */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
   /** The Constant protocolIdToNameMap. */
   private static final BiMap<Integer, String> protocolIdToNameMap = HashBiMap
       .create();
@@ -192,6 +195,43 @@ public class PcapUtils {
 
   }
 
+  /**
+   * Convert an ipv4 ip held as an int to hex, giving the same text as
+   * {@link #convertIpv4IpToHex(String)} on its dotted form.
+   *
+   * @param ipAddress
+   *          the ip address, first octet in the high byte
+   * @return the string
+   */
+  public static String convertIpv4IpToHex(int ipAddress) {
+    return appendHex(new StringBuilder(8), ipAddress).toString();
+  }
+
+  /**
+   * Convert an ipv4 ip held as an int to its dotted form.
+   *
+   * @param ipAddress
+   *          the ip address, first octet in the high byte
+   * @return the string
+   */
+  public static String convertIntToIpv4(int ipAddress) {
+    StringBuilder sb = new StringBuilder(15);
+    sb.append((ipAddress >>> 24) & 0xff).append('.')
+        .append((ipAddress >>> 16) & 0xff).append('.')
+        .append((ipAddress >>> 8) & 0xff).append('.').append(ipAddress & 0xff);
+    return sb.toString();
+  }
+
+  /**
+   * Appends the 8 lower case hex digits of an int.
+   */
+  private static StringBuilder appendHex(StringBuilder sb, int value) {
+    for (int shift = 28; shift >= 0; shift -= 4) {
+      sb.append(HEX_DIGITS[(value >>> shift) & 0xf]);
+    }
+    return sb;
+  }
+
   /**
    * Gets the session key.
    * 
@@ -306,6 +346,65 @@ public class PcapUtils {
 
     return sb.toString();
   }
+
+  /**
+   * Gets the session key from ips held as ints, without formatting them as
+   * dotted strings first.
+   *
+   * @param srcIp
+   *          the src ip
+   * @param dstIp
+   *          the dst ip
+   * @param protocol
+   *          the protocol
+   * @param srcPort
+   *          the src port
+   * @param dstPort
+   *          the dst port
+   * @param ipId
+   *          the ip id
+   * @param fragmentOffset
+   *          the fragment offset
+   * @return the session key
+   */
+  public static String getSessionKey(int srcIp, int dstIp, int protocol,
+      int srcPort, int dstPort, int ipId, int fragmentOffset) {
+    StringBuilder sb = new StringBuilder(40);
+    appendShortSessionKey(sb, srcIp, dstIp, protocol, srcPort, dstPort);
+    sb.append(SESSION_KEY_SEPERATOR).append(ipId)
+        .append(SESSION_KEY_SEPERATOR).append(fragmentOffset);
+    return sb.toString();
+  }
+
+  /**
+   * Gets the short session key (5-tuple only) from ips held as ints.
+   *
+   * @param srcIp
+   *          the src ip
+   * @param dstIp
+   *          the dst ip
+   * @param protocol
+   *          the protocol
+   * @param srcPort
+   *          the src port
+   * @param dstPort
+   *          the dst port
+   * @return the session key
+   */
+  public static String getShortSessionKey(int srcIp, int dstIp, int protocol,
+      int srcPort, int dstPort) {
+    StringBuilder sb = new StringBuilder(32);
+    appendShortSessionKey(sb, srcIp, dstIp, protocol, srcPort, dstPort);
+    return sb.toString();
+  }
+
+  private static void appendShortSessionKey(StringBuilder sb, int srcIp,
+      int dstIp, int protocol, int srcPort, int dstPort) {
+    appendHex(sb, srcIp).append(SESSION_KEY_SEPERATOR);
+    appendHex(sb, dstIp).append(SESSION_KEY_SEPERATOR).append(protocol)
+        .append(SESSION_KEY_SEPERATOR).append(srcPort)
+        .append(SESSION_KEY_SEPERATOR).append(dstPort);
+  }
   
   // public static String convertPortToHex(String portNumber) {
   // return convertPortToHex(Integer.valueOf(portNumber));
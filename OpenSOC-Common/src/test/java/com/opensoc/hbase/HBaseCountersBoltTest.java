@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.hbase;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * <ul>
+ * <li>Title: Test For HBaseCountersBolt</li>
+ * <li>Description: the coalescing of counters in its CounterMap</li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class HBaseCountersBoltTest extends TestCase {
+
+	private static final byte[] CF = Bytes.toBytes("c");
+
+	private static final byte[] BYTES = Bytes.toBytes("bytes");
+
+	private static final byte[] PACKETS = Bytes.toBytes("packets");
+
+	private final TupleTableConfig conf = new TupleTableConfig("pcap_counters",
+			"pcap_id");
+
+	public void testCoalescesPerRowAndColumn() {
+		HBaseCountersBolt.CounterMap counters = new HBaseCountersBolt.CounterMap(8);
+		counters.add(Bytes.toBytes("0a000001-1"), CF, BYTES, 100);
+		counters.add(Bytes.toBytes("0a000001-1"), CF, PACKETS, 1);
+		counters.add(Bytes.toBytes("0a000001-1"), CF, BYTES, 60);
+		counters.add(Bytes.toBytes("0a000001-1"), CF, PACKETS, 1);
+		counters.add(Bytes.toBytes("0a000002-1"), CF, BYTES, 40);
+		assertEquals(3, counters.size());
+
+		Map<String, Map<String, Long>> rows = toMap(counters.toIncrements(conf));
+		assertEquals(2, rows.size());
+		assertEquals(Long.valueOf(160), rows.get("0a000001-1").get("c:bytes"));
+		assertEquals(Long.valueOf(2), rows.get("0a000001-1").get("c:packets"));
+		assertEquals(Long.valueOf(40), rows.get("0a000002-1").get("c:bytes"));
+	}
+
+	public void testKeysDifferingOnlyInSplit() {
+		// the same bytes split differently between row, family and qualifier
+		HBaseCountersBolt.CounterMap counters = new HBaseCountersBolt.CounterMap(8);
+		counters.add(Bytes.toBytes("ab"), Bytes.toBytes("c"), Bytes.toBytes("d"), 1);
+		counters.add(Bytes.toBytes("a"), Bytes.toBytes("bc"), Bytes.toBytes("d"), 2);
+		counters.add(Bytes.toBytes("a"), Bytes.toBytes("b"), Bytes.toBytes("cd"), 4);
+		counters.add(Bytes.toBytes(""), Bytes.toBytes("a"), Bytes.toBytes("bcd"), 8);
+		assertEquals(4, counters.size());
+
+		Map<String, Map<String, Long>> rows = toMap(counters.toIncrements(conf));
+		assertEquals(Long.valueOf(1), rows.get("ab").get("c:d"));
+		assertEquals(Long.valueOf(2), rows.get("a").get("bc:d"));
+		assertEquals(Long.valueOf(4), rows.get("a").get("b:cd"));
+		assertEquals(Long.valueOf(8), rows.get("").get("a:bcd"));
+	}
+
+	public void testGrowKeepsCounts() {
+		HBaseCountersBolt.CounterMap counters = new HBaseCountersBolt.CounterMap(8);
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 5000; i++) {
+				counters.add(Bytes.toBytes("row" + i), CF, BYTES, i);
+			}
+		}
+		assertEquals(5000, counters.size());
+
+		Map<String, Map<String, Long>> rows = toMap(counters.toIncrements(conf));
+		assertEquals(5000, rows.size());
+		for (int i = 0; i < 5000; i++) {
+			assertEquals(Long.valueOf(3L * i), rows.get("row" + i).get("c:bytes"));
+		}
+	}
+
+	public void testClear() {
+		HBaseCountersBolt.CounterMap counters = new HBaseCountersBolt.CounterMap(8);
+		counters.add(Bytes.toBytes("row"), CF, BYTES, 10);
+		counters.clear();
+		assertEquals(0, counters.size());
+		assertTrue(counters.toIncrements(conf).isEmpty());
+
+		counters.add(Bytes.toBytes("row"), CF, BYTES, 5);
+		Map<String, Map<String, Long>> rows = toMap(counters.toIncrements(conf));
+		assertEquals(Long.valueOf(5), rows.get("row").get("c:bytes"));
+	}
+
+	/**
+	 * Gets the counts of the increments, as family:qualifier by row.
+	 */
+	private static Map<String, Map<String, Long>> toMap(List<Row> increments) {
+		Map<String, Map<String, Long>> rows = new HashMap<String, Map<String, Long>>();
+		for (Row row : increments) {
+			Increment inc = (Increment) row;
+			String rowKey = Bytes.toString(inc.getRow());
+			assertFalse("one increment per row", rows.containsKey(rowKey));
+			Map<String, Long> columns = new HashMap<String, Long>();
+			for (Map.Entry<byte[], NavigableMap<byte[], Long>> family : inc
+					.getFamilyMapOfLongs().entrySet()) {
+				for (Map.Entry<byte[], Long> column : family.getValue().entrySet()) {
+					columns.put(Bytes.toString(family.getKey()) + ":"
+							+ Bytes.toString(column.getKey()), column.getValue());
+				}
+			}
+			rows.put(rowKey, columns);
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import backtype.storm.generated.GlobalStreamId;
+
+import com.opensoc.pcap.PcapRowKey;
+import com.opensoc.pcap.PcapUtils;
+
+/**
+ * <ul>
+ * <li>Title: Test For HBaseStreamPartitioner</li>
+ * <li>Description: Regions are located by a stub, no cluster is needed</li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class HBaseStreamPartitionerTest extends TestCase {
+
+	private static final List<Integer> TASKS = Arrays.asList(10, 11, 12, 13);
+
+	private final Map<byte[], String> regions = new TreeMap<byte[], String>(
+			Bytes.BYTES_COMPARATOR);
+
+	private boolean unavailable;
+
+	private boolean closed;
+
+	private final List<HBaseStreamPartitioner> prepared =
+			new ArrayList<HBaseStreamPartitioner>();
+
+	protected void tearDown() throws Exception {
+		for (HBaseStreamPartitioner partitioner : prepared) {
+			partitioner.close();
+		}
+	}
+
+	public void testRegionsOfServerGoToItsTasks() {
+		region("", "rs1");
+		region("2", "rs2");
+		region("5", "rs1");
+		region("8", "rs2");
+		StubPartitioner partitioner = prepare(
+				new TupleTableConfig("pcap", "pcap_id"), TASKS);
+
+		// rs1 gets tasks 10 and 12, rs2 tasks 11 and 13
+		assertEquals(Arrays.asList(10), choose(partitioner, "1"));
+		assertEquals(Arrays.asList(11), choose(partitioner, "2"));
+		assertEquals(Arrays.asList(11), choose(partitioner, "3"));
+		assertEquals(Arrays.asList(12), choose(partitioner, "7"));
+		assertEquals(Arrays.asList(13), choose(partitioner, "9"));
+		assertEquals(3, partitioner.getRegionIndex("8"));
+		assertSame(choose(partitioner, "1"), choose(partitioner, "0"));
+	}
+
+	public void testFewerTasksThanServers() {
+		region("", "rs1");
+		region("2", "rs2");
+		region("5", "rs3");
+		StubPartitioner partitioner = prepare(
+				new TupleTableConfig("pcap", "pcap_id"), Arrays.asList(7, 8));
+
+		assertEquals(Arrays.asList(7), choose(partitioner, "1"));
+		assertEquals(Arrays.asList(8), choose(partitioner, "3"));
+		assertEquals(Arrays.asList(7), choose(partitioner, "6"));
+	}
+
+	public void testRefreshSwapsRegions() throws Exception {
+		region("", "rs1");
+		StubPartitioner partitioner = prepare(
+				new TupleTableConfig("pcap", "pcap_id"), TASKS);
+		assertEquals(Arrays.asList(10), choose(partitioner, "9"));
+
+		region("5", "rs2");
+		partitioner.refresh();
+		assertEquals(Arrays.asList(10), choose(partitioner, "4"));
+		assertEquals(Arrays.asList(11), choose(partitioner, "9"));
+
+		// a failed refresh keeps the regions located before
+		unavailable = true;
+		try {
+			partitioner.refresh();
+			fail("Expected IOException");
+		} catch (IOException e) {
+		}
+		assertEquals(Arrays.asList(11), choose(partitioner, "9"));
+	}
+
+	public void testUnlocatedRegionsSpreadByRowKey() {
+		unavailable = true;
+		StubPartitioner partitioner = prepare(
+				new TupleTableConfig("pcap", "pcap_id"), TASKS);
+
+		List<Integer> chosen = new ArrayList<Integer>();
+		for (int i = 0; i < 100; i++) {
+			List<Integer> tasks = choose(partitioner, "key" + i);
+			assertEquals(tasks, choose(partitioner, "key" + i));
+			assertTrue(TASKS.containsAll(tasks));
+			if (!chosen.contains(tasks.get(0))) {
+				chosen.add(tasks.get(0));
+			}
+		}
+		assertEquals(TASKS.size(), chosen.size());
+	}
+
+	public void testBinaryRowKeys() {
+		// a table pre-split on the salt byte, one region server per bucket
+		List<Integer> tasks = new ArrayList<Integer>();
+		for (int salt = 0; salt < 16; salt++) {
+			regions.put(salt == 0 ? new byte[0] : new byte[] { (byte) salt },
+					String.format("rs%02d", salt));
+			tasks.add(100 + salt);
+		}
+		TupleTableConfig config = new TupleTableConfig("pcap", "pcap_id");
+		config.setRowKeyFormat(TupleTableConfig.ROW_KEY_FORMAT_BINARY);
+		config.setRowKeySaltBuckets(16);
+		StubPartitioner partitioner = prepare(config, tasks);
+
+		int src = 0x0a000001;
+		int dst = 0xc0a8c8fe;
+		for (int port = 1024; port < 1100; port++) {
+			String pcapId = PcapUtils.getSessionKey(src, dst, 6, port, 443, 0, 0);
+			int salt = PcapRowKey.toBytes(pcapId, 16)[0];
+			assertEquals(Arrays.asList(100 + salt), choose(partitioner, pcapId));
+		}
+	}
+
+	public void testCloseReleasesTable() {
+		region("", "rs1");
+		StubPartitioner partitioner = prepare(
+				new TupleTableConfig("pcap", "pcap_id"), TASKS);
+		assertFalse(closed);
+
+		partitioner.close();
+		assertTrue(closed);
+		closed = false;
+		partitioner.close();
+		assertFalse(closed);
+
+		// routing keeps the regions located before
+		assertEquals(Arrays.asList(10), choose(partitioner, "9"));
+	}
+
+	private void region(String startKey, String server) {
+		regions.put(Bytes.toBytes(startKey), server);
+	}
+
+	private StubPartitioner prepare(TupleTableConfig config, List<Integer> tasks) {
+		StubPartitioner partitioner = new StubPartitioner(config);
+		partitioner.prepare(null, new GlobalStreamId(), tasks);
+		prepared.add(partitioner);
+		return partitioner;
+	}
+
+	private static List<Integer> choose(StubPartitioner partitioner, String key) {
+		return partitioner.chooseTasks(1, Arrays.<Object> asList(key, 0L));
+	}
+
+	/**
+	 * Locates the regions of the test instead of a table.
+	 */
+	@SuppressWarnings("serial")
+	private class StubPartitioner extends HBaseStreamPartitioner {
+
+		StubPartitioner(TupleTableConfig config) {
+			super(config, 0, 60);
+		}
+
+		@Override
+		protected RegionLocator createRegionLocator() {
+			return new RegionLocator() {
+				public Map<byte[], String> getRegionServers() throws IOException {
+					if (unavailable) {
+						throw new IOException("No cluster");
+					}
+					Map<byte[], String> copy = new TreeMap<byte[], String>(
+							Bytes.BYTES_COMPARATOR);
+					copy.putAll(regions);
+					return copy;
+				}
+
+				public void close() {
+					closed = true;
+				}
+			};
+		}
+
+		void refresh() throws IOException {
+			refreshRegions();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.hbase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * <ul>
+ * <li>Title: Test For PcapSessionGrouping</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class PcapSessionGroupingTest extends TestCase {
+
+	private static final String SESSION = "0a000001-c0a8c8fe-06-c822-01bb";
+
+	public void testSessionGoesToOneTask() {
+		PcapSessionGrouping grouping = new PcapSessionGrouping(0);
+		grouping.prepare(null, null, Arrays.asList(11, 12, 13, 14, 15));
+		Set<Integer> tasks = new HashSet<Integer>();
+		for (int id = 0; id < 100; id++) {
+			List<Integer> chosen = grouping.chooseTasks(0, Arrays.<Object> asList(
+					SESSION + "-" + id + "-0", 1405612710L, null));
+			assertEquals(1, chosen.size());
+			tasks.add(chosen.get(0));
+		}
+		assertEquals(1, tasks.size());
+	}
+
+	public void testSessionsAreSpread() {
+		PcapSessionGrouping grouping = new PcapSessionGrouping(0);
+		grouping.prepare(null, null, Arrays.asList(11, 12, 13, 14, 15));
+		Set<Integer> tasks = new HashSet<Integer>();
+		for (int port = 0; port < 100; port++) {
+			tasks.addAll(grouping.chooseTasks(0, Arrays.<Object> asList(
+					"0a000001-c0a8c8fe-06-" + Integer.toHexString(50000 + port)
+							+ "-01bb-1-0", 1405612710L, null)));
+		}
+		assertEquals(5, tasks.size());
+	}
+}
@@ -150,11 +150,11 @@ public class GenericEnrichmentBolt extends AbstractEnrichmentBolt {
 		LOG.trace("[OpenSOC] Starting enrichment");
 
 		JSONObject in_json = null;
-		String key = null;
+		Object key = null;
 		
 		try {
 
-			key = tuple.getStringByField("key");
+			key = tuple.getValueByField("key");
 			in_json = (JSONObject) tuple.getValueByField("message");
 
 			if (in_json == null || in_json.isEmpty())
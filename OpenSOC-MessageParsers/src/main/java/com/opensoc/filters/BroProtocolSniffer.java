@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.filters;
+
+import java.io.Serializable;
+
+import com.opensoc.parser.interfaces.PrefixSniffer;
+
+/**
+ * Reads the protocol of a Bro message, the first top level key in
+ * {"http":{...}}, without parsing the rest of the message.
+ */
+public class BroProtocolSniffer implements PrefixSniffer, Serializable {
+
+	private static final long serialVersionUID = 4011520462187446512L;
+
+	public String sniff(byte[] raw_message, int offset, int length) {
+
+		int end = offset + length;
+		int pos = skipWhitespace(raw_message, offset, end);
+		if (pos >= end || raw_message[pos] != '{')
+			return null;
+
+		pos = skipWhitespace(raw_message, pos + 1, end);
+		if (pos >= end || raw_message[pos] != '"')
+			return null;
+
+		int start = ++pos;
+		while (pos < end) {
+			byte b = raw_message[pos];
+			if (b == '"') {
+				StringBuilder protocol = new StringBuilder(pos - start);
+				for (int i = start; i < pos; i++)
+					protocol.append((char) raw_message[i]);
+				return protocol.toString();
+			}
+			// leave escaped or non ascii keys to the parser
+			if (b == '\\' || b < 0)
+				return null;
+			pos++;
+		}
+		return null;
+	}
+
+	private static int skipWhitespace(byte[] raw_message, int pos, int end) {
+		while (pos < end
+				&& (raw_message[pos] == ' ' || raw_message[pos] == '\t'
+						|| raw_message[pos] == '\r' || raw_message[pos] == '\n'))
+			pos++;
+		return pos;
+	}
+}
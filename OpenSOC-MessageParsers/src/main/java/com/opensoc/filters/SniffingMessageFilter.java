@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.filters;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.configuration.Configuration;
+
+import com.opensoc.parser.interfaces.PrefixSniffer;
+import com.opensoc.parser.interfaces.RawMessageFilter;
+
+public class SniffingMessageFilter implements RawMessageFilter, Serializable {
+
+	/**
+	 * Filter raw messages on the type read by a PrefixSniffer, based on
+	 * whitelists and blacklists. Messages whose type can not be sniffed are
+	 * passed on to the parser.
+	 */
+
+	private static final long serialVersionUID = -1390870519465270851L;
+	private final PrefixSniffer _sniffer;
+	private final Set<String> _include;
+	private final Set<String> _exclude;
+
+	/**
+	 * Drops the types of source.exclude.protocols. source.include.protocols
+	 * is only enforced as a whitelist when
+	 * bolt.parser.sniffer.whitelist.enabled is true, so types missing from it
+	 * are not dropped unnoticed.
+	 * 
+	 * @param conf
+	 *            Commons configuration for reading properties files
+	 * @param sniffer
+	 *            Reads the message type from the raw message
+	 */
+
+	public SniffingMessageFilter(Configuration conf, PrefixSniffer sniffer) {
+		this(sniffer, conf.getBoolean("bolt.parser.sniffer.whitelist.enabled",
+				false) ? toSet(conf.getStringArray("source.include.protocols"))
+				: new HashSet<String>(), toSet(conf
+				.getStringArray("source.exclude.protocols")));
+	}
+
+	/**
+	 * @param sniffer
+	 *            Reads the message type from the raw message
+	 * @param include
+	 *            Types to keep, everything is kept when empty
+	 * @param exclude
+	 *            Types to drop
+	 */
+
+	public SniffingMessageFilter(PrefixSniffer sniffer, Set<String> include,
+			Set<String> exclude) {
+		_sniffer = sniffer;
+		_include = include;
+		_exclude = exclude;
+	}
+
+	/**
+	 * @return False if message if filtered and True if message is not filtered
+	 */
+
+	public boolean emitTuple(byte[] raw_message, int offset, int length) {
+		String type = _sniffer.sniff(raw_message, offset, length);
+		if (type == null)
+			return true;
+		if (_exclude.contains(type))
+			return false;
+		return _include.isEmpty() || _include.contains(type);
+	}
+
+	private static Set<String> toSet(String[] values) {
+		Set<String> set = new HashSet<String>();
+		for (String value : values) {
+			if (value.trim().length() > 0)
+				set.add(value.trim());
+		}
+		return set;
+	}
+}
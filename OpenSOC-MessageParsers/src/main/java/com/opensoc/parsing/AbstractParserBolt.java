@@ -29,9 +29,12 @@ import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.base.BaseRichBolt;
 
 import com.codahale.metrics.Counter;
+import com.opensoc.helpers.topology.FlowHash;
 import com.opensoc.metrics.MetricReporter;
 import com.opensoc.parser.interfaces.MessageFilter;
 import com.opensoc.parser.interfaces.MessageParser;
+import com.opensoc.parser.interfaces.SliceMessageParser;
+import com.opensoc.parsing.parsers.SliceParserAdapter;
 
 @SuppressWarnings("rawtypes")
 public abstract class AbstractParserBolt extends BaseRichBolt {
@@ -45,6 +48,7 @@ public abstract class AbstractParserBolt extends BaseRichBolt {
 
 	protected OutputCollector _collector;
 	protected MessageParser _parser;
+	protected transient SliceMessageParser _sliceParser;
 
 	protected String OutputFieldName;
 	protected MetricReporter _reporter;
@@ -85,6 +89,9 @@ public abstract class AbstractParserBolt extends BaseRichBolt {
 		if (this._filter == null)
 			throw new IllegalStateException("MessageFilter must be specified");
 
+		_parser.initializeParser();
+		_sliceParser = SliceParserAdapter.adapt(_parser);
+
 		try {
 			doPrepare(conf, topologyContext, collector);
 		} catch (IOException e) {
@@ -139,25 +146,13 @@ public abstract class AbstractParserBolt extends BaseRichBolt {
 	abstract void doPrepare(Map conf, TopologyContext topologyContext,
 			OutputCollector collector) throws IOException;
 
-	protected String generateTopologyKey(String src_ip, String dst_ip)
-			throws Exception {
-		try {
-			if (dst_ip == null && src_ip == null)
-				return "0";
-
-			if (src_ip == null || src_ip.length() == 0)
-				return dst_ip;
-
-			if (dst_ip == null || dst_ip.length() == 0)
-				return src_ip;
-
-			double ip1 = Double.parseDouble(src_ip.replace(".", ""));
-			double ip2 = Double.parseDouble(dst_ip.replace(".", ""));
-
-			return String.valueOf(ip1 + ip2);
-		} catch (Exception e) {
-			return "0";
-		}
+	/**
+	 * @return Grouping key for the message, the same for both directions of a
+	 *         conversation
+	 * @see FlowHash
+	 */
+	protected long generateTopologyKey(JSONObject message) {
+		return FlowHash.hash(message);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * How records are packed into a single Kafka message. Splitting only records
+ * the offset and length of every record, the records themselves stay in the
+ * original array and are handed to the parser as slices.
+ * <p>
+ * <ul>
+ * <li>NONE - the message is one record
+ * <li>NEWLINE - one record per line, blank lines are skipped
+ * <li>LENGTH_PREFIXED - each record is preceded by its length as a 4 byte big
+ * endian int
+ * <li>JSON_ARRAY - the message is a JSON array, each element is a record
+ * </ul>
+ */
+public enum MessageFraming {
+
+	NONE {
+		@Override
+		public void split(byte[] data, Records records) {
+			records.add(0, data.length);
+		}
+	},
+
+	NEWLINE {
+		@Override
+		public void split(byte[] data, Records records) {
+			int start = 0;
+			for (int i = 0; i <= data.length; i++) {
+				if (i == data.length || data[i] == '\n') {
+					int end = i;
+					if (end > start && data[end - 1] == '\r')
+						end--;
+					if (!isBlank(data, start, end))
+						records.add(start, end - start);
+					start = i + 1;
+				}
+			}
+		}
+	},
+
+	LENGTH_PREFIXED {
+		@Override
+		public void split(byte[] data, Records records) throws IOException {
+			int pos = 0;
+			while (pos < data.length) {
+				if (pos + 4 > data.length)
+					throw new IOException("Truncated length prefix at offset "
+							+ pos);
+				int length = ((data[pos] & 0xff) << 24)
+						| ((data[pos + 1] & 0xff) << 16)
+						| ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+				pos += 4;
+				if (length < 0 || length > data.length - pos)
+					throw new IOException("Record length " + length
+							+ " at offset " + (pos - 4)
+							+ " runs past the end of the message");
+				records.add(pos, length);
+				pos += length;
+			}
+		}
+	},
+
+	JSON_ARRAY {
+		@Override
+		public void split(byte[] data, Records records) throws IOException {
+			int pos = skipWhitespace(data, 0, data.length);
+			if (pos >= data.length || data[pos] != '[')
+				throw new IOException("Message is not a JSON array");
+			pos++;
+
+			int depth = 0;
+			boolean inString = false;
+			int start = -1;
+
+			for (; pos < data.length; pos++) {
+				byte b = data[pos];
+				if (inString) {
+					if (b == '\\')
+						pos++;
+					else if (b == '"')
+						inString = false;
+					continue;
+				}
+				if (start < 0 && b != ' ' && b != '\t' && b != '\n'
+						&& b != '\r' && b != ',' && b != ']')
+					start = pos;
+
+				if (b == '"') {
+					inString = true;
+				} else if (b == '{' || b == '[') {
+					depth++;
+				} else if (b == '}' || (b == ']' && depth > 0)) {
+					depth--;
+				} else if (depth == 0 && (b == ',' || b == ']')) {
+					if (start >= 0) {
+						records.add(start, trimEnd(data, start, pos) - start);
+						start = -1;
+					}
+					if (b == ']')
+						return;
+				}
+			}
+			throw new IOException("Unterminated JSON array");
+		}
+	};
+
+	/**
+	 * Finds the records in a message. Records found before a framing problem
+	 * are kept in {@code records} so the caller can still process them.
+	 *
+	 * @param data
+	 *            The raw message
+	 * @param records
+	 *            Receives the offset and length of every record
+	 * @throws IOException
+	 *             if the message does not follow the framing
+	 */
+	public abstract void split(byte[] data, Records records) throws IOException;
+
+	/**
+	 * @param name
+	 *            Framing name as used in topology.conf, case insensitive
+	 * @return The framing, NONE for a null or empty name
+	 */
+	public static MessageFraming fromString(String name) {
+		if (name == null || name.trim().length() == 0)
+			return NONE;
+		return valueOf(name.trim().toUpperCase());
+	}
+
+	private static boolean isBlank(byte[] data, int start, int end) {
+		return skipWhitespace(data, start, end) >= end;
+	}
+
+	private static int skipWhitespace(byte[] data, int start, int end) {
+		while (start < end
+				&& (data[start] == ' ' || data[start] == '\t'
+						|| data[start] == '\n' || data[start] == '\r'))
+			start++;
+		return start;
+	}
+
+	private static int trimEnd(byte[] data, int start, int end) {
+		while (end > start
+				&& (data[end - 1] == ' ' || data[end - 1] == '\t'
+						|| data[end - 1] == '\n' || data[end - 1] == '\r'))
+			end--;
+		return end;
+	}
+
+	/**
+	 * Reusable list of record offsets and lengths.
+	 */
+	public static final class Records {
+
+		private int[] offsets = new int[16];
+		private int[] lengths = new int[16];
+		private int size;
+
+		public void add(int offset, int length) {
+			if (size == offsets.length) {
+				offsets = Arrays.copyOf(offsets, size * 2);
+				lengths = Arrays.copyOf(lengths, size * 2);
+			}
+			offsets[size] = offset;
+			lengths[size] = length;
+			size++;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int offset(int i) {
+			return offsets[i];
+		}
+
+		public int length(int i) {
+			return lengths[i];
+		}
+
+		public void clear() {
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package com.opensoc.parsing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.json.simple.JSONObject;
+
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import com.opensoc.pcap.FlowTable;
+import com.opensoc.pcap.PcapUtils;
+
+/**
+ * The Class PcapFlowBolt aggregates the packets a {@link PcapParserBolt} emits
+ * on pcap_flow_stream into flows, and emits a message per flow instead of per
+ * packet, with the same fields as the packet messages plus the flow counts:
+ *
+ * <pre>
+ * pcap_id, ip_src_addr, ip_dst_addr, ip_src_port, ip_dst_port, ip_protocol,
+ * ts_micro, end_ts_micro, packets, bytes, tcp_flags, end_reason
+ * </pre>
+ *
+ * A flow ends on a tcp RST, after the close timeout without packets once both
+ * sides sent a FIN, after the idle timeout without packets, after the active
+ * timeout since its first packet, or when the max flows are open. See
+ * {@link FlowTable}. Timeouts are in packet time, moved on by the wall clock
+ * on tick tuples while no packets come, so the flows of a quiet link end too.
+ * <p>
+ * The input must be grouped by flow_key so both directions of a flow reach the
+ * same task. The packets are acked as they are counted; the flow messages are
+ * not anchored, like the packet messages of the parser.
+ *
+ * @version $Revision: 1.0 $
+ */
+public class PcapFlowBolt implements IRichBolt, FlowTable.Listener {
+
+  /** The Constant serialVersionUID. */
+  private static final long serialVersionUID = 2287113826127330417L;
+
+  /** The Constant LOG. */
+  private static final Logger LOG = Logger.getLogger(PcapFlowBolt.class);
+
+  /** The idle timeout in seconds. */
+  private int idleTimeoutSecs = 30;
+
+  /** The active timeout in seconds. */
+  private int activeTimeoutSecs = 300;
+
+  /** The close timeout in seconds. */
+  private int closeTimeoutSecs = 2;
+
+  /** The max open flows per task. */
+  private int maxFlows = 1000000;
+
+  /** The seconds between tick tuples. */
+  private int tickIntervalSecs = 1;
+
+  /** The collector. */
+  private transient OutputCollector collector;
+
+  /** The open flows. */
+  private transient FlowTable flows;
+
+  /** The time of the latest packet, in micros. */
+  private transient long packetTime;
+
+  /** The wall clock time of the latest packet, in millis. */
+  private transient long packetWallTime;
+
+  public PcapFlowBolt withIdleTimeoutSecs(int idleTimeoutSecs) {
+    this.idleTimeoutSecs = idleTimeoutSecs;
+    return this;
+  }
+
+  public PcapFlowBolt withActiveTimeoutSecs(int activeTimeoutSecs) {
+    this.activeTimeoutSecs = activeTimeoutSecs;
+    return this;
+  }
+
+  public PcapFlowBolt withCloseTimeoutSecs(int closeTimeoutSecs) {
+    this.closeTimeoutSecs = closeTimeoutSecs;
+    return this;
+  }
+
+  public PcapFlowBolt withMaxFlows(int maxFlows) {
+    this.maxFlows = maxFlows;
+    return this;
+  }
+
+  public PcapFlowBolt withTickIntervalSecs(int tickIntervalSecs) {
+    this.tickIntervalSecs = tickIntervalSecs;
+    return this;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see backtype.storm.task.IBolt#prepare(java.util.Map,
+   * backtype.storm.task.TopologyContext, backtype.storm.task.OutputCollector)
+   */
+  @SuppressWarnings("rawtypes")
+  public void prepare(Map stormConf, TopologyContext context,
+      OutputCollector collector) {
+    this.collector = collector;
+    this.flows = new FlowTable(idleTimeoutSecs * 1000000L,
+        activeTimeoutSecs * 1000000L, closeTimeoutSecs * 1000000L, 1000000L,
+        maxFlows, this);
+    LOG.info("Preparing PcapFlowBolt with idle timeout " + idleTimeoutSecs
+        + "s, active timeout " + activeTimeoutSecs + "s, close timeout "
+        + closeTimeoutSecs + "s and " + maxFlows + " max flows");
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see backtype.storm.task.IBolt#execute(backtype.storm.tuple.Tuple)
+   */
+  public void execute(Tuple input) {
+    if (isTickTuple(input)) {
+      if (packetWallTime != 0) {
+        flows.advance(packetTime
+            + (System.currentTimeMillis() - packetWallTime) * 1000L);
+      }
+      return;
+    }
+    long timestamp = input.getLongByField("timestamp");
+    if (timestamp > packetTime) {
+      packetTime = timestamp;
+      packetWallTime = System.currentTimeMillis();
+    }
+    flows.add(input.getIntegerByField("src_ip"),
+        input.getIntegerByField("dst_ip"),
+        input.getIntegerByField("src_port"),
+        input.getIntegerByField("dst_port"),
+        input.getIntegerByField("protocol"), timestamp,
+        input.getIntegerByField("length"),
+        input.getIntegerByField("tcp_flags"));
+    collector.ack(input);
+  }
+
+  /**
+   * Emits an ended flow on message.
+   */
+  @SuppressWarnings("unchecked")
+  public void flowEnded(FlowTable table, int flow, FlowTable.EndReason reason) {
+    int srcIp = table.getSrcIp(flow);
+    int dstIp = table.getDstIp(flow);
+    int protocol = table.getProtocol(flow);
+    int srcPort = table.getSrcPort(flow);
+    int dstPort = table.getDstPort(flow);
+    String key = PcapUtils.getShortSessionKey(srcIp, dstIp, protocol, srcPort,
+        dstPort);
+
+    JSONObject record = new JSONObject();
+    record.put("pcap_id", key);
+    record.put("ip_src_addr", PcapUtils.convertIntToIpv4(srcIp));
+    record.put("ip_dst_addr", PcapUtils.convertIntToIpv4(dstIp));
+    record.put("ip_src_port", Long.valueOf(srcPort));
+    record.put("ip_dst_port", Long.valueOf(dstPort));
+    record.put("ip_protocol", Long.valueOf(protocol));
+    record.put("ts_micro", Long.valueOf(table.getFirstSeen(flow)));
+    record.put("end_ts_micro", Long.valueOf(table.getLastSeen(flow)));
+    record.put("packets", Long.valueOf(table.getPackets(flow)));
+    record.put("bytes", Long.valueOf(table.getBytes(flow)));
+    record.put("tcp_flags", Long.valueOf(table.getTcpFlags(flow)));
+    record.put("end_reason", reason.name());
+
+    JSONObject message = new JSONObject();
+    message.put("message", record);
+    collector.emit("message", new Values(key, message));
+  }
+
+  private static boolean isTickTuple(Tuple tuple) {
+    return Constants.SYSTEM_COMPONENT_ID.equals(tuple.getSourceComponent())
+        && Constants.SYSTEM_TICK_STREAM_ID.equals(tuple.getSourceStreamId());
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see backtype.storm.topology.IComponent#declareOutputFields(backtype.storm
+   * .topology.OutputFieldsDeclarer)
+   */
+  public void declareOutputFields(OutputFieldsDeclarer declarer) {
+    declarer.declareStream("message", new Fields("key", "message"));
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see backtype.storm.topology.IComponent#getComponentConfiguration()
+   */
+  public Map<String, Object> getComponentConfiguration() {
+    Map<String, Object> config = new HashMap<String, Object>();
+    config.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, tickIntervalSecs);
+    return config;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see backtype.storm.task.IBolt#cleanup()
+   */
+  public void cleanup() {
+  }
+}
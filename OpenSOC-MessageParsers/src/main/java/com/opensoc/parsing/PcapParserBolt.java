@@ -3,13 +3,20 @@ package com.opensoc.parsing;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.log4j.Logger;
 import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.opensoc.helpers.topology.ErrorGenerator;
+import com.opensoc.helpers.topology.FlowHash;
+import com.opensoc.json.serialization.JSONEncoderHelper;
+import com.opensoc.metrics.MetricReporter;
 import com.opensoc.parsing.parsers.PcapParser;
+import com.opensoc.pcap.PacketCursor;
 import com.opensoc.pcap.PacketInfo;
+import com.opensoc.pcap.PcapRecord;
 
 import backtype.storm.generated.Grouping;
 import backtype.storm.task.OutputCollector;
@@ -52,6 +59,23 @@ private int numberOfCharsToUseForShuffleGrouping = 4;
   /** The divisor to convert nanos to expected time precision. */
   private long timePrecisionDivisor = 1L;
 
+  /** The cursor, reused for every capture. */
+  private transient PacketCursor cursor;
+
+  /** The metric configuration, metrics are off when null. */
+  private JSONObject metricConfiguration;
+
+  /** The reporter. */
+  private transient MetricReporter reporter;
+
+  /** Bytes of the captures received. */
+  private transient Counter captureBytesCounter;
+
+  /** Bytes of the single packet records emitted on pcap_data_stream. */
+  private transient Counter dataBytesCounter;
+
+  /** Whether packets go to pcap_flow_stream instead of message. */
+  private boolean flows = false;
 
   // HBaseStreamPartitioner hBaseStreamPartitioner = null ;
 
@@ -81,6 +105,27 @@ private int numberOfCharsToUseForShuffleGrouping = 4;
 	}
 	return this;
   }
+
+  /**
+   * Emits the 5-tuple, length and tcp flags of each IPv4 packet on
+   * pcap_flow_stream, for a {@link PcapFlowBolt} to emit flow records on
+   * message, instead of a message per packet. pcap_header_stream and
+   * pcap_data_stream are emitted either way.
+   * 
+   * @param flows
+   *          whether to emit flows
+   * @return this bolt
+   */
+  public PcapParserBolt withFlows(boolean flows) {
+    this.flows = flows;
+    return this;
+  }
+
+  public PcapParserBolt withMetricConfig(Configuration config) {
+    this.metricConfiguration = JSONEncoderHelper.getJSON(config
+        .subset("com.opensoc.metrics"));
+    return this;
+  }
   
   /*
    * (non-Javadoc)
@@ -93,6 +138,9 @@ private int numberOfCharsToUseForShuffleGrouping = 4;
     //declarer.declareStream("pcap_index_stream", new Fields("index_json", "pcap_id"));
     declarer.declareStream("pcap_header_stream", new Fields("header_json", "pcap_id"));
     declarer.declareStream("pcap_data_stream", new Fields("pcap_id", "timestamp", "pcap"));
+    declarer.declareStream("pcap_flow_stream", new Fields("flow_key", "src_ip",
+        "dst_ip", "src_port", "dst_port", "protocol", "timestamp", "length",
+        "tcp_flags"));
     declarer.declareStream("error", new Fields("error"));
 
   }
@@ -127,6 +175,12 @@ private int numberOfCharsToUseForShuffleGrouping = 4;
   public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
     this.collector = collector;
     this.conf = stormConf;
+    this.cursor = new PacketCursor();
+    if (metricConfiguration != null) {
+      reporter = new MetricReporter();
+      reporter.initialize(metricConfiguration, PcapParserBolt.class);
+      registerAmplificationMetrics();
+    }
     if (conf.containsKey("bolt.parser.num.of.key.chars.to.use.for.shuffle.grouping")) {
       this.numberOfCharsToUseForShuffleGrouping = Integer.valueOf(conf.get(
           "bolt.parser.num.of.key.chars.to.use.for.shuffle.grouping").toString());
@@ -165,30 +219,41 @@ public void execute(Tuple input) {
 
     List<PacketInfo> packetInfoList = null;
     try {
-      packetInfoList = PcapParser.parse(input.getBinary(0));
+      byte[] pcap = input.getBinary(0);
+      packetInfoList = PcapParser.parse(pcap, cursor);
+      if (metricConfiguration != null) {
+        captureBytesCounter.inc(pcap.length);
+      }
 
       if (packetInfoList != null) {
 
         for (PacketInfo packetInfo : packetInfoList) {
-        	
-        	
-        	String string_pcap = packetInfo.getJsonIndexDoc();
-        	Object obj=JSONValue.parse(string_pcap);
-        	  JSONObject header=(JSONObject)obj;
-        	
+
+        	String key = packetInfo.getKey();
+
+          if (flows) {
+            emitFlowPacket(packetInfo.getCursor());
+          } else {
         	JSONObject message = new JSONObject();
         	//message.put("key", packetInfo.getKey());
-        	
-        	message.put("message", header);
-        	
-        	collector.emit("message", new Values(packetInfo.getKey(), message));
-        	
+
+        	message.put("message", packetInfo.getJsonIndexMap());
+
+        	collector.emit("message", new Values(key, message));
+          }
+
         	//collector.emit("pcap_index_stream", new Values(packetInfo.getJsonIndexDoc(), packetInfo.getKey()));
-        	
-          collector.emit("pcap_header_stream", new Values(packetInfo.getJsonDoc(), packetInfo.getKey()));
-          collector.emit("pcap_data_stream", new Values(packetInfo.getKey(),
+
+          collector.emit("pcap_header_stream", new Values(packetInfo.getJsonDoc(), key));
+          // only this packet, sliced from the capture
+          PcapRecord record = PcapRecord.of(packetInfo.getCursor());
+          if (metricConfiguration != null) {
+            dataBytesCounter.inc(record.length());
+          }
+          // anchored, so a packet whose write fails replays the capture
+          collector.emit("pcap_data_stream", input, new Values(key,
              packetInfo.getPacketTimeInNanos() / timePrecisionDivisor,
-              input.getBinary(0)));
+              record));
 
           // collector.emit(new Values(packetInfo.getJsonDoc(), packetInfo
           // .getKey().substring(0, numberOfCharsToUseForShuffleGrouping),
@@ -212,10 +277,45 @@ public void execute(Tuple input) {
 		
       return;
     }
+    // only once the packets are anchored to it
     collector.ack(input);
 
   }
 
+  /**
+   * Emits a packet on pcap_flow_stream, grouped by its direction independent
+   * flow hash. Non IPv4 packets are not part of any flow.
+   */
+  private void emitFlowPacket(PacketCursor packet) {
+    if (!packet.isIpv4()) {
+      return;
+    }
+    int srcPort = packet.hasTransportHeader() ? packet.getSrcPort() : 0;
+    int dstPort = packet.hasTransportHeader() ? packet.getDstPort() : 0;
+    int tcpFlags = packet.isTcp() ? packet.getTcpFlags() : 0;
+    long flowKey = FlowHash.hash(packet.getSrcIp(), srcPort, packet.getDstIp(),
+        dstPort, packet.getProtocol());
+    collector.emit("pcap_flow_stream", new Values(flowKey, packet.getSrcIp(),
+        packet.getDstIp(), srcPort, dstPort, packet.getProtocol(),
+        packet.getPacketTimeInNanos() / 1000L, packet.getOrigLen(), tcpFlags));
+  }
+
+  /**
+   * Registers the bytes received and emitted on pcap_data_stream, and their
+   * ratio: the storage amplification of the pcap table.
+   */
+  private void registerAmplificationMetrics() {
+    captureBytesCounter = reporter.registerCounter("pcap.capture.bytes");
+    dataBytesCounter = reporter.registerCounter("pcap.data.bytes");
+    reporter.registerGauge("pcap.data.amplification", new Gauge<Double>() {
+      public Double getValue() {
+        long captured = captureBytesCounter.getCount();
+        return captured == 0 ? 0.0 : (double) dataBytesCounter.getCount()
+            / captured;
+      }
+    });
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -30,11 +30,15 @@ import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
 import backtype.storm.tuple.Values;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.opensoc.helpers.topology.ErrorGenerator;
 import com.opensoc.json.serialization.JSONEncoderHelper;
 import com.opensoc.metrics.MetricReporter;
+import com.opensoc.parser.interfaces.FastPathParser;
 import com.opensoc.parser.interfaces.MessageFilter;
 import com.opensoc.parser.interfaces.MessageParser;
+import com.opensoc.parser.interfaces.RawMessageFilter;
 
 /**
  * Uses an adapter to parse a telemetry message from its native format into a
@@ -63,6 +67,11 @@ public class TelemetryParserBolt extends AbstractParserBolt {
 
 	private static final long serialVersionUID = -2647123143398352020L;
 	private JSONObject metricConfiguration;
+	private MessageFraming framing = MessageFraming.NONE;
+	private transient MessageFraming.Records records;
+	private RawMessageFilter _rawFilter;
+	private transient Counter prefilteredCounter, prefilteredBytesCounter,
+			filteredCounter;
 
 	/**
 	 * @param parser
@@ -110,28 +119,100 @@ public class TelemetryParserBolt extends AbstractParserBolt {
 		return this;
 	}
 
+	/**
+	 * @param filter
+	 *            A class for dropping incomming telemetry messages from their
+	 *            raw bytes, before they are parsed
+	 * @return Instance of this class
+	 */
+
+	public TelemetryParserBolt withRawMessageFilter(RawMessageFilter filter) {
+		this._rawFilter = filter;
+		return this;
+	}
+
+	/**
+	 * @param framing
+	 *            How records are packed into an incoming message: none,
+	 *            newline, length_prefixed or json_array. See
+	 *            {@link MessageFraming}
+	 * @return Instance of this class
+	 */
+
+	public TelemetryParserBolt withMessageFraming(String framing) {
+		this.framing = MessageFraming.fromString(framing);
+		return this;
+	}
+
 	@Override
 	void doPrepare(Map conf, TopologyContext topologyContext,
 			OutputCollector collector) throws IOException {
 
 		LOG.info("[OpenSOC] Preparing TelemetryParser Bolt...");
 
+		records = new MessageFraming.Records();
+		LOG.info("[OpenSOC] Incoming messages use " + framing + " framing");
+
 		if (metricConfiguration != null) {
 			_reporter = new MetricReporter();
 			_reporter
 					.initialize(metricConfiguration, TelemetryParserBolt.class);
 			LOG.info("[OpenSOC] Metric reporter is initialized");
+			this.registerCounters();
+
+			String parserName = _parser.getClass().getSimpleName();
+			prefilteredCounter = _reporter.registerCounter(parserName
+					+ ".prefiltered");
+			prefilteredBytesCounter = _reporter.registerCounter(parserName
+					+ ".prefiltered.bytes");
+			filteredCounter = _reporter.registerCounter(parserName
+					+ ".filtered");
+
+			if (_parser instanceof FastPathParser)
+				registerFastPathGauges(parserName, (FastPathParser) _parser);
 		} else {
 			LOG.info("[OpenSOC] Metric reporter is not initialized");
 		}
-		this.registerCounters();
 	}
 
-	@SuppressWarnings("unchecked")
+	private void registerFastPathGauges(String parserName,
+			final FastPathParser parser) {
+
+		_reporter.registerGauge(parserName + ".fastpath", new Gauge<Long>() {
+			public Long getValue() {
+				return parser.getFastPathCount();
+			}
+		});
+		_reporter.registerGauge(parserName + ".fallback", new Gauge<Long>() {
+			public Long getValue() {
+				return parser.getFallbackCount();
+			}
+		});
+		_reporter.registerGauge(parserName + ".fastpath.ratio",
+				new Gauge<Double>() {
+					public Double getValue() {
+						long fast = parser.getFastPathCount();
+						long total = fast + parser.getFallbackCount();
+						return total == 0 ? 1.0 : (double) fast / total;
+					}
+				});
+	}
+
 	public void execute(Tuple tuple) {
 
 		LOG.trace("[OpenSOC] Starting to process a new incoming tuple");
 
+		if (framing == MessageFraming.NONE)
+			executeSingle(tuple);
+		else
+			executeFramed(tuple);
+	}
+
+	/**
+	 * One tuple is one record. Any problem fails the tuple.
+	 */
+	private void executeSingle(Tuple tuple) {
+
 		byte[] original_message = null;
 
 		try {
@@ -145,69 +226,153 @@ public class TelemetryParserBolt extends AbstractParserBolt {
 				throw new Exception("Invalid message length");
 			}
 
-			LOG.trace("[OpenSOC] Attempting to transofrm binary message to JSON");
-			JSONObject transformed_message = _parser.parse(original_message);
-			LOG.debug("[OpenSOC] Transformed Telemetry message: "
-					+ transformed_message);
+			JSONObject transformed_message = parseRecord(original_message, 0,
+					original_message.length);
 
-			if (transformed_message == null || transformed_message.isEmpty())
-				throw new Exception("Unable to turn binary message into a JSON");
+			if (transformed_message != null)
+				emitMessage(null, transformed_message);
 
-			LOG.trace("[OpenSOC] Checking if the transformed JSON conforms to the right schema");
+			_collector.ack(tuple);
+			if (metricConfiguration != null)
+				ackCounter.inc();
 
-			if (!checkForSchemaCorrectness(transformed_message)) {
-				throw new Exception("Incorrect formatting on message: "
-						+ transformed_message);
-			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			LOG.error("Failed to parse telemetry message :" + original_message);
+			_collector.fail(tuple);
 
-			else {
-				LOG.trace("[OpenSOC] JSON message has the right schema");
-				boolean filtered = false;
+			if (metricConfiguration != null)
+				failCounter.inc();
 
-				if (_filter != null) {
-					if (!_filter.emitTuple(transformed_message)) {
-						filtered = true;
-					}
-				}
+			JSONObject error = ErrorGenerator.generateErrorMessage(
+					"Parsing problem: " + new String(original_message),
+					e.toString());
+			_collector.emit("error", new Values(error));
+		}
+	}
 
-				if (!filtered) {
-					String ip1 = null;
+	/**
+	 * One tuple carries many records. Every record is emitted anchored to the
+	 * tuple, records that fail to parse go to the error stream, and the tuple
+	 * is acked once all records have been handled.
+	 */
+	private void executeFramed(Tuple tuple) {
 
-					if (transformed_message.containsKey("ip_src_addr"))
-						ip1 = transformed_message.get("ip_src_addr").toString();
+		byte[] original_message = tuple.getBinary(0);
 
-					String ip2 = null;
+		if (original_message == null || original_message.length == 0) {
+			LOG.error("Incomming tuple is null");
+			emitError(tuple, "", "Invalid message length");
+			_collector.ack(tuple);
+			return;
+		}
 
-					if (transformed_message.containsKey("ip_dst_addr"))
-						ip2 = transformed_message.get("ip_dst_addr").toString();
+		records.clear();
+		try {
+			framing.split(original_message, records);
+		} catch (IOException e) {
+			// keep whatever records were framed before the problem
+			LOG.error("Unable to split message with " + framing + " framing: "
+					+ e.getMessage());
+			emitError(tuple, "Framing problem: " + new String(original_message),
+					e.toString());
+		}
 
-					String key = generateTopologyKey(ip1, ip2);
+		LOG.trace("[OpenSOC] Split message into " + records.size()
+				+ " records");
 
-					JSONObject new_message = new JSONObject();
-					new_message.put("message", transformed_message);
-					_collector.emit("message", new Values(key, new_message));
-				}
+		for (int i = 0; i < records.size(); i++) {
+			int offset = records.offset(i);
+			int length = records.length(i);
+			try {
+				JSONObject transformed_message = parseRecord(original_message,
+						offset, length);
+
+				if (transformed_message != null)
+					emitMessage(tuple, transformed_message);
+
+			} catch (Exception e) {
+				String record = new String(original_message, offset, length);
+				LOG.error("Failed to parse telemetry record :" + record);
 
-				_collector.ack(tuple);
 				if (metricConfiguration != null)
-					ackCounter.inc();
+					failCounter.inc();
+
+				emitError(tuple, "Parsing problem: " + record, e.toString());
 			}
+		}
 
-		} catch (Exception e) {
-			e.printStackTrace();
-			LOG.error("Failed to parse telemetry message :" + original_message);
-			_collector.fail(tuple);
+		_collector.ack(tuple);
+		if (metricConfiguration != null)
+			ackCounter.inc();
+	}
+
+	/**
+	 * @return The parsed record, or null if one of the filters dropped it
+	 */
+	private JSONObject parseRecord(byte[] data, int offset, int length)
+			throws Exception {
+
+		if (_rawFilter != null && !_rawFilter.emitTuple(data, offset, length)) {
+			LOG.trace("[OpenSOC] Message dropped before parsing");
+			if (metricConfiguration != null) {
+				prefilteredCounter.inc();
+				prefilteredBytesCounter.inc(length);
+			}
+			return null;
+		}
+
+		LOG.trace("[OpenSOC] Attempting to transofrm binary message to JSON");
+		JSONObject transformed_message = _sliceParser.parse(data, offset,
+				length);
+		LOG.debug("[OpenSOC] Transformed Telemetry message: "
+				+ transformed_message);
+
+		if (transformed_message == null || transformed_message.isEmpty())
+			throw new Exception("Unable to turn binary message into a JSON");
 
+		LOG.trace("[OpenSOC] Checking if the transformed JSON conforms to the right schema");
+
+		if (!checkForSchemaCorrectness(transformed_message)) {
+			throw new Exception("Incorrect formatting on message: "
+					+ transformed_message);
+		}
+
+		LOG.trace("[OpenSOC] JSON message has the right schema");
+
+		if (_filter != null && !_filter.emitTuple(transformed_message)) {
 			if (metricConfiguration != null)
-				failCounter.inc();
+				filteredCounter.inc();
+			return null;
+		}
 
-			JSONObject error = ErrorGenerator.generateErrorMessage(
-					"Parsing problem: " + new String(original_message),
-					e.toString());
-			_collector.emit("error", new Values(error));
+		return transformed_message;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void emitMessage(Tuple anchor, JSONObject transformed_message)
+			throws Exception {
+
+		long key = generateTopologyKey(transformed_message);
+
+		JSONObject new_message = new JSONObject();
+		new_message.put("message", transformed_message);
+
+		if (anchor == null) {
+			_collector.emit("message", new Values(key, new_message));
+		} else {
+			_collector.emit("message", anchor, new Values(key, new_message));
+			if (metricConfiguration != null)
+				emitCounter.inc();
 		}
 	}
 
+	private void emitError(Tuple anchor, String message, String exception) {
+		JSONObject error = ErrorGenerator.generateErrorMessage(message,
+				exception);
+		_collector.emit("error", anchor, new Values(error));
+	}
+
 	public void declareOutputFields(OutputFieldsDeclarer declearer) {
 		declearer.declareStream("message", new Fields("key", "message"));
 		declearer.declareStream("error", new Fields("message"));
@@ -0,0 +1,423 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing;
+
+/**
+ * Event time stamp parsing shared by all parsers. Every method returns epoch
+ * milliseconds, the value parsers put in the "timestamp" field.
+ * <p>
+ * <ul>
+ * <li>ISO-8601 - 2014-07-17T15:58:30Z, 2014-08-07 00:45:43.741 -07:00
+ * <li>RFC3164 - Jul 17 15:59:01, the year is the current one unless that puts
+ * the event more than a day in the future
+ * <li>Epoch - 1402307733.473 (seconds) or 1402307733473 (milliseconds)
+ * </ul>
+ * <p>
+ * Time stamps without a zone are UTC. Text is read straight from a byte array
+ * or a CharSequence without allocating, and trailing text after a time stamp
+ * is ignored so a time stamp can be read in place inside a message. The last
+ * second parsed for each format is cached, so a burst of events from the same
+ * second only costs reading the digits. All methods are thread safe.
+ * <p>
+ * Text that is not a time stamp throws IllegalArgumentException, or returns
+ * the given default from the variants taking one.
+ */
+public final class TimestampParser {
+
+	private static final long MILLIS_PER_SECOND = 1000L;
+	private static final long MILLIS_PER_DAY = 86400000L;
+
+	/** Integer epochs at or above this are milliseconds (year 5138 in seconds) */
+	private static final long EPOCH_MILLIS_THRESHOLD = 100000000000L;
+
+	/** Returned by the readers for text that is not a time stamp */
+	private static final long INVALID = Long.MIN_VALUE;
+
+	private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+	private static volatile CachedSecond lastIso = new CachedSecond(-1, 0);
+	private static volatile CachedSecond lastSyslog = new CachedSecond(-1, 0);
+
+	private TimestampParser() {
+	}
+
+	public static long parseIso8601(CharSequence text) {
+		return parseIso8601(text, 0, text.length());
+	}
+
+	public static long parseIso8601(CharSequence text, int offset, int length) {
+		return check(readIso8601(text, null, offset, length), text, null,
+				offset, length);
+	}
+
+	public static long parseIso8601(byte[] buf, int offset, int length) {
+		return check(readIso8601(null, buf, offset, length), null, buf,
+				offset, length);
+	}
+
+	/**
+	 * @return The time stamp, or defaultValue if the text is not one
+	 */
+	public static long parseIso8601(CharSequence text, int offset,
+			int length, long defaultValue) {
+		long millis = readIso8601(text, null, offset, length);
+		return millis == INVALID ? defaultValue : millis;
+	}
+
+	public static long parseIso8601(byte[] buf, int offset, int length,
+			long defaultValue) {
+		long millis = readIso8601(null, buf, offset, length);
+		return millis == INVALID ? defaultValue : millis;
+	}
+
+	public static long parseSyslog(CharSequence text) {
+		return parseSyslog(text, 0, text.length());
+	}
+
+	public static long parseSyslog(CharSequence text, int offset, int length) {
+		return check(readSyslog(text, null, offset, length), text, null,
+				offset, length);
+	}
+
+	public static long parseSyslog(byte[] buf, int offset, int length) {
+		return check(readSyslog(null, buf, offset, length), null, buf, offset,
+				length);
+	}
+
+	/**
+	 * @return The time stamp, or defaultValue if the text is not one
+	 */
+	public static long parseSyslog(byte[] buf, int offset, int length,
+			long defaultValue) {
+		long millis = readSyslog(null, buf, offset, length);
+		return millis == INVALID ? defaultValue : millis;
+	}
+
+	/**
+	 * Reads the time stamp at the start of an RFC3164 syslog line, after the
+	 * optional &lt;priority&gt;.
+	 *
+	 * @return The time stamp, or defaultValue if the line does not start with
+	 *         one
+	 */
+	public static long parseSyslogHeader(byte[] buf, int offset, int length,
+			long defaultValue) {
+		int end = offset + length;
+		int p = offset;
+		if (p < end && buf[p] == '<') {
+			p++;
+			while (p < end && buf[p] >= '0' && buf[p] <= '9')
+				p++;
+			if (p >= end || buf[p] != '>')
+				return defaultValue;
+			p++;
+		}
+		return parseSyslog(buf, p, end - p, defaultValue);
+	}
+
+	public static long parseEpoch(CharSequence text) {
+		return check(readEpoch(text, null, 0, text.length()), text, null, 0,
+				text.length());
+	}
+
+	public static long parseEpoch(byte[] buf, int offset, int length) {
+		return check(readEpoch(null, buf, offset, length), null, buf, offset,
+				length);
+	}
+
+	/**
+	 * Converts a time stamp value taken from a parsed message: a number of
+	 * seconds or milliseconds, or text in any of the supported formats.
+	 */
+	public static long toEpochMillis(Object value) {
+
+		if (value instanceof Double || value instanceof Float) {
+			double d = ((Number) value).doubleValue();
+			return d >= EPOCH_MILLIS_THRESHOLD ? Math.round(d) : Math.round(d
+					* MILLIS_PER_SECOND);
+		}
+		if (value instanceof Number)
+			return epoch(((Number) value).longValue());
+		if (value == null)
+			throw new IllegalArgumentException("Missing timestamp");
+
+		String text = value.toString().trim();
+		if (isEpoch(text))
+			return parseEpoch(text);
+		if (text.length() > 0 && text.charAt(0) >= '0' && text.charAt(0) <= '9')
+			return parseIso8601(text);
+		return parseSyslog(text);
+	}
+
+	/**
+	 * yyyy-MM-dd('T'|' ')HH:mm:ss[.SSS][ ][Z|+HH:mm|-HH:mm|+HHmm]
+	 */
+	private static long readIso8601(CharSequence s, byte[] b, int offset,
+			int length) {
+
+		int end = offset + length;
+		int p = offset;
+		if (length < 19 || at(s, b, p + 4) != '-' || at(s, b, p + 7) != '-'
+				|| at(s, b, p + 13) != ':' || at(s, b, p + 16) != ':')
+			return INVALID;
+		char sep = at(s, b, p + 10);
+		if (sep != 'T' && sep != 't' && sep != ' ')
+			return INVALID;
+
+		int year = digits(s, b, p, 4);
+		int month = digits(s, b, p + 5, 2);
+		int day = digits(s, b, p + 8, 2);
+		int hour = digits(s, b, p + 11, 2);
+		int minute = digits(s, b, p + 14, 2);
+		int second = digits(s, b, p + 17, 2);
+		if (year < 0 || !validTime(month, day, hour, minute, second))
+			return INVALID;
+
+		long millis = isoSecond(year, month, day, hour, minute, second);
+		p += 19;
+
+		// fraction, only the first three digits count
+		if (p < end && at(s, b, p) == '.') {
+			p++;
+			int scale = 100;
+			int start = p;
+			while (p < end && isDigit(at(s, b, p))) {
+				millis += (at(s, b, p) - '0') * scale;
+				scale /= 10;
+				p++;
+			}
+			if (p == start)
+				return INVALID;
+		}
+
+		// zone, a single space is allowed before an offset
+		if (p + 1 < end && at(s, b, p) == ' '
+				&& (at(s, b, p + 1) == '+' || at(s, b, p + 1) == '-'))
+			p++;
+		if (p < end) {
+			char z = at(s, b, p);
+			if (z == '+' || z == '-') {
+				if (p + 3 > end)
+					return INVALID;
+				int hours = digits(s, b, p + 1, 2);
+				int minutes = 0;
+				int q = p + 3;
+				if (q < end && at(s, b, q) == ':')
+					q++;
+				if (q + 2 <= end && isDigit(at(s, b, q)))
+					minutes = digits(s, b, q, 2);
+				if (hours < 0 || minutes < 0)
+					return INVALID;
+				long zone = (hours * 60L + minutes) * 60L * MILLIS_PER_SECOND;
+				millis += z == '+' ? -zone : zone;
+			}
+		}
+		return millis;
+	}
+
+	/**
+	 * MMM dd HH:mm:ss, the day may be padded with a space
+	 */
+	private static long readSyslog(CharSequence s, byte[] b, int offset,
+			int length) {
+
+		int p = offset;
+		if (length < 15 || at(s, b, p + 3) != ' ' || at(s, b, p + 6) != ' '
+				|| at(s, b, p + 9) != ':' || at(s, b, p + 12) != ':')
+			return INVALID;
+
+		int month = month(at(s, b, p), at(s, b, p + 1), at(s, b, p + 2));
+		char tens = at(s, b, p + 4);
+		int day = (tens == ' ' ? 0 : tens - '0') * 10 + (at(s, b, p + 5) - '0');
+		if ((tens != ' ' && !isDigit(tens)) || !isDigit(at(s, b, p + 5)))
+			return INVALID;
+		int hour = digits(s, b, p + 7, 2);
+		int minute = digits(s, b, p + 10, 2);
+		int second = digits(s, b, p + 13, 2);
+		if (!validTime(month, day, hour, minute, second))
+			return INVALID;
+
+		long key = (((month * 100L + day) * 100L + hour) * 100L + minute)
+				* 100L + second;
+		CachedSecond cached = lastSyslog;
+		if (cached.key == key)
+			return cached.millis;
+
+		long now = System.currentTimeMillis();
+		int year = yearOf(now);
+		long millis = epochMillis(year, month, day, hour, minute, second);
+		if (millis > now + MILLIS_PER_DAY)
+			millis = epochMillis(year - 1, month, day, hour, minute, second);
+
+		lastSyslog = new CachedSecond(key, millis);
+		return millis;
+	}
+
+	/**
+	 * Digits with an optional fraction. A fraction means seconds, an integer
+	 * is milliseconds when it is too large to be seconds.
+	 */
+	private static long readEpoch(CharSequence s, byte[] b, int offset,
+			int length) {
+
+		int end = offset + length;
+		int p = offset;
+		long whole = 0;
+		while (p < end && isDigit(at(s, b, p))) {
+			whole = whole * 10 + (at(s, b, p) - '0');
+			p++;
+		}
+		if (p == offset || p - offset > 18)
+			return INVALID;
+		if (p == end || at(s, b, p) != '.')
+			return epoch(whole);
+
+		p++;
+		long millis = whole * MILLIS_PER_SECOND;
+		int scale = 100;
+		while (p < end && isDigit(at(s, b, p))) {
+			millis += (at(s, b, p) - '0') * scale;
+			scale /= 10;
+			p++;
+		}
+		return millis;
+	}
+
+	private static long epoch(long value) {
+		return value >= EPOCH_MILLIS_THRESHOLD ? value : value
+				* MILLIS_PER_SECOND;
+	}
+
+	private static boolean isEpoch(String text) {
+		int dots = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '.')
+				dots++;
+			else if (!isDigit(c))
+				return false;
+		}
+		return text.length() > 0 && dots <= 1;
+	}
+
+	private static long isoSecond(int year, int month, int day, int hour,
+			int minute, int second) {
+
+		long key = ((((year * 100L + month) * 100L + day) * 100L + hour) * 100L + minute)
+				* 100L + second;
+		CachedSecond cached = lastIso;
+		if (cached.key == key)
+			return cached.millis;
+
+		long millis = epochMillis(year, month, day, hour, minute, second);
+		lastIso = new CachedSecond(key, millis);
+		return millis;
+	}
+
+	static long epochMillis(int year, int month, int day, int hour,
+			int minute, int second) {
+		return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+				+ ((hour * 60L + minute) * 60L + second) * MILLIS_PER_SECOND;
+	}
+
+	/**
+	 * Days since 1970-01-01 in the proleptic Gregorian calendar, from Howard
+	 * Hinnant's civil calendar algorithms. yearOf is the inverse.
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yoe = y - era * 400;
+		long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	private static int yearOf(long millis) {
+		long days = millis / MILLIS_PER_DAY;
+		if (millis % MILLIS_PER_DAY < 0)
+			days--;
+		long z = days + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		long doe = z - era * 146097;
+		long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		long mp = (5 * doy + 2) / 153;
+		long month = mp < 10 ? mp + 3 : mp - 9;
+		return (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+	}
+
+	private static int month(char a, char b, char c) {
+		for (int i = 0; i < MONTHS.length(); i += 3) {
+			if ((MONTHS.charAt(i) | 0x20) == (a | 0x20)
+					&& MONTHS.charAt(i + 1) == (b | 0x20)
+					&& MONTHS.charAt(i + 2) == (c | 0x20))
+				return i / 3 + 1;
+		}
+		return -1;
+	}
+
+	private static boolean validTime(int month, int day, int hour,
+			int minute, int second) {
+		return month >= 1 && month <= 12 && day >= 1 && day <= 31
+				&& hour >= 0 && hour < 24 && minute >= 0 && minute < 60
+				&& second >= 0 && second <= 60;
+	}
+
+	/**
+	 * @return The value of count digits at p, or -1 if they are not all
+	 *         digits
+	 */
+	private static int digits(CharSequence s, byte[] b, int p, int count) {
+		int value = 0;
+		for (int i = p; i < p + count; i++) {
+			char c = at(s, b, i);
+			if (!isDigit(c))
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static char at(CharSequence s, byte[] b, int i) {
+		return b != null ? (char) (b[i] & 0xff) : s.charAt(i);
+	}
+
+	private static long check(long millis, CharSequence s, byte[] b,
+			int offset, int length) {
+		if (millis != INVALID)
+			return millis;
+		String text = b != null ? new String(b, offset, length) : s
+				.subSequence(offset, offset + length).toString();
+		throw new IllegalArgumentException("Invalid timestamp: " + text);
+	}
+
+	private static final class CachedSecond {
+
+		final long key;
+		final long millis;
+
+		CachedSecond(long key, long millis) {
+			this.key = key;
+			this.millis = millis;
+		}
+	}
+}
@@ -18,16 +18,17 @@
 package com.opensoc.parsing.parsers;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.opensoc.parser.interfaces.MessageParser;
+import com.opensoc.parser.interfaces.SliceMessageParser;
 import com.opensoc.parsing.AbstractParserBolt;
 
 @SuppressWarnings("serial")
-public abstract class AbstractParser implements MessageParser, Serializable {
+public abstract class AbstractParser implements SliceMessageParser, Serializable {
 
 	protected static final Logger _LOG = LoggerFactory
 			.getLogger(AbstractParserBolt.class);
@@ -39,4 +40,19 @@ public abstract class AbstractParser implements MessageParser, Serializable {
 
 	abstract public JSONObject parse(byte[] raw_message);
 
+	/**
+	 * Default slice support for parsers that only work on whole arrays. Parsers
+	 * able to scan a message in place override this.
+	 */
+	public JSONObject parse(byte[] raw_message, int offset, int length) {
+		return parse(SliceParserAdapter.copy(raw_message, offset, length));
+	}
+
+	public JSONObject parse(ByteBuffer raw_message) {
+		if (raw_message.hasArray())
+			return parse(raw_message.array(), raw_message.arrayOffset()
+					+ raw_message.position(), raw_message.remaining());
+		return parse(SliceParserAdapter.copy(raw_message));
+	}
+
 }
@@ -17,8 +17,11 @@
 
 package com.opensoc.parsing.parsers;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
+import org.apache.commons.configuration.Configuration;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,10 +31,83 @@ public class BasicBroParser extends AbstractParser {
 
 	protected static final Logger _LOG = LoggerFactory
 			.getLogger(BasicBroParser.class);
+
+	/**
+	 * Mappings applied to every protocol when none are configured. Matches the
+	 * renames and tld derivation this parser has always done, with ts turned
+	 * into an epoch milliseconds timestamp.
+	 */
+	public static final String[] DEFAULT_FIELD_MAPPINGS = {
+			"rename:ts:timestamp", "cast:timestamp:timestamp",
+			"rename:id.orig_h:ip_src_addr", "cast:ip_src_addr:string",
+			"rename:id.resp_h:ip_dst_addr", "cast:ip_dst_addr:string",
+			"rename:id.orig_p:ip_src_port", "cast:ip_src_port:string",
+			"rename:id.resp_p:ip_dst_port", "cast:ip_dst_port:string",
+			"tld:host", "tld:query" };
+
+	public static final String DEFAULT_MAPPING_KEY = "default";
+
 	JSONCleaner cleaner = new JSONCleaner();
 
-	@SuppressWarnings("unchecked")
+	private HashMap<String, String[]> fieldMappings = new HashMap<String, String[]>();
+	private transient Map<String, FieldMappingPlan> plans;
+
+	/**
+	 * @param config
+	 *            Field mappings keyed by Bro protocol, plus an optional
+	 *            "default" entry applied ahead of every protocol. See
+	 *            {@link FieldMappingPlan} for the operations.
+	 * @return Instance of this class
+	 */
+	@SuppressWarnings("rawtypes")
+	public BasicBroParser withFieldMappings(Configuration config) {
+		Iterator keys = config.getKeys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			fieldMappings.put(key, config.getStringArray(key));
+		}
+		return this;
+	}
+
+	/**
+	 * Compiles a mapping plan per configured protocol. Protocols seen later
+	 * without configuration get the default plan compiled on first use.
+	 */
+	@Override
+	public void initializeParser() {
+		super.initializeParser();
+		plans = new HashMap<String, FieldMappingPlan>();
+		for (String protocol : fieldMappings.keySet()) {
+			if (!DEFAULT_MAPPING_KEY.equals(protocol))
+				plans.put(protocol, compilePlan(protocol));
+		}
+		_LOG.info("[OpenSOC] Compiled field mappings for " + plans.keySet());
+	}
+
+	private FieldMappingPlan compilePlan(String protocol) {
+		String[] defaults = fieldMappings.containsKey(DEFAULT_MAPPING_KEY) ? fieldMappings
+				.get(DEFAULT_MAPPING_KEY) : DEFAULT_FIELD_MAPPINGS;
+		return FieldMappingPlan.compile(defaults, fieldMappings.get(protocol));
+	}
+
+	private FieldMappingPlan planFor(String protocol) {
+		if (plans == null)
+			initializeParser();
+		FieldMappingPlan plan = plans.get(protocol);
+		if (plan == null) {
+			plan = compilePlan(protocol);
+			plans.put(protocol, plan);
+		}
+		return plan;
+	}
+
 	public JSONObject parse(byte[] msg) {
+		return parse(msg, 0, msg.length);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	public JSONObject parse(byte[] msg, int offset, int length) {
 
 		_LOG.trace("[OpenSOC] Starting to parse incoming message");
 		
@@ -39,7 +115,7 @@ public class BasicBroParser extends AbstractParser {
 
 		try {
 
-			raw_message = new String(msg, "UTF-8");
+			raw_message = new String(msg, offset, length, "UTF-8");
 			_LOG.trace("[OpenSOC] Received message: " + raw_message);
 
 			JSONObject cleaned_message = cleaner.Clean(raw_message);
@@ -55,65 +131,20 @@ public class BasicBroParser extends AbstractParser {
 
 			JSONObject payload = (JSONObject) cleaned_message.get(key);
 			
-			String originalString = " |";
-			for( Object k : payload.keySet() ) {
-				originalString = originalString + " " + k.toString() + ":" + payload.get(k).toString();
-			}
-			originalString = key.toUpperCase() + originalString;
-			payload.put("original_string", originalString);
-			
 			if(payload == null)
 				throw new Exception("Unable to retrieve payload for message: " + raw_message);
 
-			if (payload.containsKey("ts")) {
-				String ts = payload.remove("ts").toString();
-				payload.put("timestamp", ts);
-				_LOG.trace("[OpenSOC] Added ts to: " + payload);
-			}
-			
-			if (payload.containsKey("id.orig_h")) {
-				String source_ip = payload.remove("id.orig_h").toString();
-				payload.put("ip_src_addr", source_ip);
-				_LOG.trace("[OpenSOC] Added ip_src_addr to: " + payload);
-			}
-			if (payload.containsKey("id.resp_h")) {
-				String source_ip = payload.remove("id.resp_h").toString();
-				payload.put("ip_dst_addr", source_ip);
-				_LOG.trace("[OpenSOC] Added ip_dst_addr to: " + payload);
-			}
-			if (payload.containsKey("id.orig_p")) {
-				String source_port = payload.remove("id.orig_p")
-						.toString();
-				payload.put("ip_src_port", source_port);
-				_LOG.trace("[OpenSOC] Added ip_src_port to: " + payload);
-			}
-			if (payload.containsKey("id.resp_p")) {
-				String dest_port = payload.remove("id.resp_p").toString();
-				payload.put("ip_dst_port", dest_port);
-				_LOG.trace("[OpenSOC] Added ip_dst_port to: " + payload);
-			}
-			if (payload.containsKey("host")) {
-
-				String host = payload.get("host").toString().trim();
-				String[] parts = host.split("\\.");
-				int length = parts.length;
-				if ( length >= 2 ) {
-          payload.put("tld", parts[length - 2] + "."
-						  + parts[length - 1]);
-				  _LOG.trace("[OpenSOC] Added tld to: " + payload);
-        }
-			}
-			if (payload.containsKey("query")) {
-				String host = payload.get("query").toString();
-				String[] parts = host.split("\\.");
-				int length = parts.length;
-				if (length >= 2) {
-          payload.put("tld", parts[length - 2] + "."
-						  + parts[length - 1]);
-				  _LOG.trace("[OpenSOC] Added tld to: " + payload);
-        }
+			// the raw message length is a close upper bound for the flattened form
+			StringBuilder originalString = new StringBuilder(raw_message.length());
+			originalString.append(key.toUpperCase()).append(" |");
+			for (Object entry : payload.entrySet()) {
+				Map.Entry field = (Map.Entry) entry;
+				originalString.append(' ').append(field.getKey()).append(':')
+						.append(field.getValue());
 			}
+			payload.put("original_string", originalString.toString());
 
+			planFor(key).apply(payload);
 			_LOG.trace("[OpenSOC] Inner message: " + payload);
 
 			payload.put("protocol", key);
@@ -18,6 +18,7 @@
 package com.opensoc.parsing.parsers;
 
 import java.io.StringReader;
+import java.util.Map;
 
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
@@ -25,30 +26,55 @@ import org.slf4j.LoggerFactory;
 
 import com.esotericsoftware.minlog.Log;
 import com.opensoc.ise.parser.ISEParser;
+import com.opensoc.parsing.TimestampParser;
 
 @SuppressWarnings("serial")
 public class BasicIseParser extends AbstractParser {
 
 	protected static final Logger _LOG = LoggerFactory
 			.getLogger(BasicIseParser.class);
-	static final transient ISEParser _parser = new ISEParser("header=");
 
-	@SuppressWarnings("unchecked")
+	private transient IseKeyValueScanner _scanner;
+	private transient ISEParser _fallback;
+
+	@Override
+	public void initializeParser() {
+		super.initializeParser();
+		_scanner = new IseKeyValueScanner();
+	}
+
 	public JSONObject parse(byte[] msg) {
+		return parse(msg, 0, msg.length);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public JSONObject parse(byte[] msg, int offset, int length) {
 	
 		String raw_message = "";
 
 		try {
 
-			raw_message = new String(msg, "UTF-8");
-			_LOG.debug("Received message: " + raw_message);
-			
-			/*
-			 * Reinitialize Parser. It has the effect of calling the constructor again. 
-			 */
-			_parser.ReInit(new StringReader("header=" + raw_message.trim()));
+			if (_scanner == null)
+				initializeParser();
+
+			JSONObject payload = _scanner.scan(msg, offset, length);
+
+			if (payload == null) {
+				raw_message = new String(msg, offset, length, "UTF-8");
+				_LOG.debug("Falling back to the JavaCC parser for: " + raw_message);
+
+				if (_fallback == null)
+					_fallback = new ISEParser("header=");
+
+				/*
+				 * Reinitialize Parser. It has the effect of calling the constructor again. 
+				 */
+				_fallback.ReInit(new StringReader("header=" + raw_message.trim()));
 
-			JSONObject payload = _parser.parseObject();
+				payload = _fallback.parseObject();
+				flattenNested(payload);
+			}
 
 			String ip_src_addr = (String) payload.get("Device IP Address");
 			String ip_src_port = (String) payload.get("Device Port");
@@ -68,6 +94,9 @@ public class BasicIseParser extends AbstractParser {
 			if(ip_dst_port != null)
 				payload.put("ip_dst_port", ip_dst_port);
 
+			payload.put("timestamp", eventTime(payload.get("header"), msg,
+					offset, length));
+
 			JSONObject message = new JSONObject();
 			//message.put("message", payload);
 
@@ -79,4 +108,85 @@ public class BasicIseParser extends AbstractParser {
 		}
 		return null;
 	}
+
+	/**
+	 * The JavaCC parser splits a nested value at every '=' into a chain of
+	 * single entry maps, {A={1\,B={2\,C=null}}}. Each chain is replaced by
+	 * the {A=1, B=2, C=null} object the scanner emits for the same text, so
+	 * a field keeps one shape whichever parser read the message.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void flattenNested(JSONObject payload) {
+		for (Object entry : payload.entrySet()) {
+			Map.Entry e = (Map.Entry) entry;
+			if (e.getValue() instanceof Map)
+				e.setValue(flatten((Map) e.getValue()));
+		}
+	}
+
+	/**
+	 * Joins the chain back into "A=1\,B=2\,C=" and splits it as the scanner
+	 * does: an '=' not preceded by a "\," separator belongs to the value
+	 * before it, and only the last value can be null.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static JSONObject flatten(Map chain) {
+		StringBuilder joined = new StringBuilder();
+		Object value = chain;
+		while (value instanceof Map) {
+			Map.Entry e = (Map.Entry) ((Map) value).entrySet().iterator()
+					.next();
+			joined.append(e.getKey()).append('=');
+			value = e.getValue();
+		}
+		if (value != null)
+			joined.append(value);
+		String text = joined.toString();
+
+		JSONObject nested = new JSONObject();
+		int equals = text.indexOf('=');
+		String key = text.substring(0, equals).trim();
+		int valueStart = equals + 1;
+		int scan = valueStart;
+
+		while (true) {
+			int next = text.indexOf('=', scan);
+			if (next < 0) {
+				nested.put(key, valueStart < text.length() ? text.substring(
+						valueStart).trim() : null);
+				return nested;
+			}
+			int separator = text.lastIndexOf("\\,", next);
+			if (separator < valueStart) {
+				scan = next + 1;
+				continue;
+			}
+			nested.put(key, text.substring(valueStart, separator).trim());
+			key = text.substring(separator + 2, next).trim();
+			valueStart = next + 1;
+			scan = valueStart;
+		}
+	}
+
+	/**
+	 * The event time is the "2014-08-07 00:45:43.741 -07:00" stamp in the
+	 * header, or the syslog time stamp starting the message if there is none.
+	 */
+	private static long eventTime(Object header, byte[] msg, int offset,
+			int length) {
+
+		if (header != null) {
+			String text = header.toString();
+			for (int i = 0; i + 19 <= text.length(); i++) {
+				if (text.charAt(i + 4) != '-' || text.charAt(i + 7) != '-')
+					continue;
+				long millis = TimestampParser.parseIso8601(text, i,
+						text.length() - i, Long.MIN_VALUE);
+				if (millis != Long.MIN_VALUE)
+					return millis;
+			}
+		}
+		return TimestampParser.parseSyslogHeader(msg, offset, length,
+				System.currentTimeMillis());
+	}
 }
@@ -17,56 +17,51 @@
 
 package com.opensoc.parsing.parsers;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
 import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 
+import com.opensoc.parsing.TimestampParser;
+
+/**
+ * StealthWatch alerts. The syslog header is read by BasicSyslogParser; the
+ * message text starts with the event time, source and destination address.
+ */
 @SuppressWarnings("serial")
-public class BasicLancopeParser extends AbstractParser {
+public class BasicLancopeParser extends BasicSyslogParser {
 	// Sample Lancope Message
 	// {"message":"<131>Jul 17 15:59:01 smc-01 StealthWatch[12365]: 2014-07-17T15:58:30Z 10.40.10.254 0.0.0.0 Minor High Concern Index The host's concern index has either exceeded the CI threshold or rapidly increased. Observed 36.55M points. Policy maximum allows up to 20M points.","@version":"1","@timestamp":"2014-07-17T15:56:05.992Z","type":"syslog","host":"10.122.196.201"}
 
 	@SuppressWarnings("unchecked")
 	@Override
-	public JSONObject parse(byte[] msg) {
-
-		JSONObject payload = null;
-
-		try {
-			
-			String raw_message = new String(msg, "UTF-8");
-			
-			payload = (JSONObject) JSONValue.parse(raw_message);
-			
-			
-
-			String message = payload.get("message").toString();
-			String[] parts = message.split(" ");
-			payload.put("ip_src_addr", parts[6]);
-			payload.put("ip_dst_addr", parts[7]);
+	protected boolean parsePayload(JSONObject payload, byte[] line,
+			int offset, int end) {
 
-			String fixed_date = parts[5].replace('T', ' ');
-			fixed_date = fixed_date.replace('Z', ' ').trim();
+		int tsStart = skipSpaces(line, offset, end);
+		int tsEnd = tokenEnd(line, tsStart, end);
+		int srcStart = skipSpaces(line, tsEnd, end);
+		int srcEnd = tokenEnd(line, srcStart, end);
+		int dstStart = skipSpaces(line, srcEnd, end);
+		int dstEnd = tokenEnd(line, dstStart, end);
+		if (dstEnd == dstStart)
+			return false;
 
-			SimpleDateFormat formatter = new SimpleDateFormat(
-					"yyyy-MM-dd HH:mm:ss");
-
-			Date date;
-
-			date = formatter.parse(fixed_date);
-			payload.put("timestamp", date.getTime());
-
-			payload.remove("@timestamp");
-			payload.remove("message");
-			payload.put("original_string", message);
+		payload.put("timestamp", TimestampParser.parseIso8601(line, tsStart,
+				tsEnd - tsStart));
+		payload.put("ip_src_addr", new String(line, srcStart, srcEnd
+				- srcStart, UTF_8));
+		payload.put("ip_dst_addr", new String(line, dstStart, dstEnd
+				- dstStart, UTF_8));
+		return true;
+	}
 
-			return payload;
-		} catch (Exception e) {
+	private static int skipSpaces(byte[] line, int p, int end) {
+		while (p < end && line[p] == ' ')
+			p++;
+		return p;
+	}
 
-			_LOG.error("Unable to parse message: " + payload.toJSONString());
-			return null;
-		}
+	private static int tokenEnd(byte[] line, int p, int end) {
+		while (p < end && line[p] != ' ')
+			p++;
+		return p;
 	}
 }
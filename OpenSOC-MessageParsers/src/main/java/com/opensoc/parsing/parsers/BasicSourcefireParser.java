@@ -23,6 +23,7 @@ import java.util.regex.Pattern;
 import org.json.simple.JSONObject;
 
 import com.opensoc.parser.interfaces.MessageParser;
+import com.opensoc.parsing.TimestampParser;
 
 @SuppressWarnings("serial")
 public class BasicSourcefireParser extends AbstractParser implements MessageParser{
@@ -33,15 +34,20 @@ public class BasicSourcefireParser extends AbstractParser implements MessagePars
 	Pattern sidPattern = Pattern.compile(sidRegex);
 	Pattern pattern = Pattern.compile(domain_name_regex);
 
-	@SuppressWarnings({ "unchecked", "unused" })
 	public JSONObject parse(byte[] msg) {
+		return parse(msg, 0, msg.length);
+	}
+
+	@SuppressWarnings({ "unchecked", "unused" })
+	@Override
+	public JSONObject parse(byte[] msg, int offset, int length) {
 
 		JSONObject payload = new JSONObject();
 		String toParse = "";
 
 		try {
 
-			toParse = new String(msg, "UTF-8");
+			toParse = new String(msg, offset, length, "UTF-8");
 			_LOG.debug("Received message: " + toParse);
 
 			String tmp = toParse.substring(toParse.lastIndexOf("{"));
@@ -80,7 +86,8 @@ public class BasicSourcefireParser extends AbstractParser implements MessagePars
 				dest_ip = dest;
 			}
 
-			payload.put("timestamp", System.currentTimeMillis());
+			payload.put("timestamp", TimestampParser.parseSyslogHeader(msg,
+					offset, length, System.currentTimeMillis()));
 			
 			Matcher sidMatcher = sidPattern.matcher(toParse);
 			String originalString = null;
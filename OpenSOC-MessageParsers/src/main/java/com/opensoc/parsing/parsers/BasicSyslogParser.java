@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensoc.parsing.parsers;
+
+import java.nio.charset.Charset;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+/**
+ * Parses RFC3164 and RFC5424 syslog lines, either raw or wrapped in a logstash
+ * JSON envelope ({"message":"&lt;131&gt;Jul 17 ...","@version":"1",...}).
+ * Envelope fields are kept, except message and @timestamp which are replaced
+ * by the parsed line.
+ * <p>
+ * Header fields are emitted as syslog_priority, syslog_facility,
+ * syslog_severity, syslog_host, syslog_program, syslog_pid, syslog_msgid and
+ * syslog_structured_data when present, the header time stamp as timestamp
+ * and the message text as message. Vendor parsers extend this class and
+ * override {@link #parsePayload} to read the message text in place.
+ */
+@SuppressWarnings("serial")
+public class BasicSyslogParser extends AbstractParser {
+
+	protected static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	protected transient SyslogHeader header;
+
+	@Override
+	public void initializeParser() {
+		super.initializeParser();
+		header = new SyslogHeader();
+	}
+
+	@Override
+	public JSONObject parse(byte[] msg) {
+		return parse(msg, 0, msg.length);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public JSONObject parse(byte[] msg, int offset, int length) {
+
+		if (header == null)
+			initializeParser();
+
+		JSONObject payload = null;
+		try {
+
+			byte[] line = msg;
+			int start = offset;
+			int end = offset + length;
+			while (start < end && (line[start] == ' ' || line[start] == '\t'))
+				start++;
+
+			if (start < end && line[start] == '{') {
+				payload = (JSONObject) JSONValue.parse(new String(msg, offset,
+						length, UTF_8));
+				if (payload == null || payload.get("message") == null) {
+					_LOG.error("Unable to parse message: "
+							+ new String(msg, offset, length, UTF_8));
+					return null;
+				}
+				line = payload.remove("message").toString().getBytes(UTF_8);
+				payload.remove("@timestamp");
+				start = 0;
+				end = line.length;
+			} else {
+				payload = new JSONObject();
+			}
+
+			while (end > start
+					&& (line[end - 1] == '\n' || line[end - 1] == '\r'))
+				end--;
+
+			if (!header.parse(line, start, end - start)) {
+				_LOG.error("Unable to find syslog header: "
+						+ new String(line, start, end - start, UTF_8));
+				return null;
+			}
+
+			putHeader(payload);
+			payload.put("original_string", new String(line, start, end
+					- start, UTF_8));
+
+			if (!parsePayload(payload, line, header.getPayloadOffset(), end)) {
+				_LOG.error("Unable to parse message: "
+						+ new String(line, start, end - start, UTF_8));
+				return null;
+			}
+			return payload;
+
+		} catch (Exception e) {
+			_LOG.error("Unable to parse message: "
+					+ new String(msg, offset, length, UTF_8), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the message text following the header. The default keeps it as
+	 * the message field.
+	 *
+	 * @param payload
+	 *            Output, already holding the header fields
+	 * @param line
+	 *            Buffer holding the syslog line
+	 * @param offset
+	 *            Index of the first byte of the message text
+	 * @param end
+	 *            Index past the last byte of the message text
+	 * @return false if the message text can not be parsed
+	 */
+	@SuppressWarnings("unchecked")
+	protected boolean parsePayload(JSONObject payload, byte[] line,
+			int offset, int end) {
+		payload.put("message", new String(line, offset, end - offset, UTF_8));
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void putHeader(JSONObject payload) {
+
+		if (header.getPriority() >= 0) {
+			payload.put("syslog_priority", header.getPriority());
+			payload.put("syslog_facility", header.getFacility());
+			payload.put("syslog_severity", header.getSeverity());
+		}
+		putIfPresent(payload, "syslog_host", header.getHostname());
+		putIfPresent(payload, "syslog_program", header.getAppName());
+		putIfPresent(payload, "syslog_pid", header.getProcId());
+		putIfPresent(payload, "syslog_msgid", header.getMsgId());
+		putIfPresent(payload, "syslog_structured_data",
+				header.getStructuredData());
+
+		payload.put("timestamp", header.hasTimestamp() ? header.getTimestamp()
+				: System.currentTimeMillis());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void putIfPresent(JSONObject payload, String key,
+			String value) {
+		if (value != null)
+			payload.put(key, value);
+	}
+}
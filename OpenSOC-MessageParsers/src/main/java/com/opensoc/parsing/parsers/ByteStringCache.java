@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensoc.parsing.parsers;
+
+import java.nio.charset.Charset;
+
+/**
+ * Direct mapped cache of decoded strings keyed by their raw bytes. Used for
+ * field names, which repeat on every message, so a hit costs a hash and a
+ * compare instead of a decode and an allocation. Not thread safe.
+ */
+final class ByteStringCache {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final byte[][] raw;
+	private final String[] values;
+	private final int mask;
+
+	/**
+	 * @param size
+	 *            Number of slots, rounded up to a power of two
+	 */
+	ByteStringCache(int size) {
+		int slots = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+		raw = new byte[slots][];
+		values = new String[slots];
+		mask = slots - 1;
+	}
+
+	String get(byte[] buf, int offset, int length) {
+
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++)
+			hash = 31 * hash + buf[i];
+		int slot = (hash ^ (hash >>> 16)) & mask;
+
+		byte[] cached = raw[slot];
+		if (cached != null && cached.length == length) {
+			int i = 0;
+			while (i < length && cached[i] == buf[offset + i])
+				i++;
+			if (i == length)
+				return values[slot];
+		}
+
+		byte[] copy = new byte[length];
+		System.arraycopy(buf, offset, copy, 0, length);
+		String value = new String(copy, UTF_8);
+		raw[slot] = copy;
+		values[slot] = value;
+		return value;
+	}
+}
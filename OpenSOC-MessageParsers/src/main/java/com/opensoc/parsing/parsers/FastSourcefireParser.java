@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensoc.parsing.parsers;
+
+import java.nio.charset.Charset;
+
+import org.json.simple.JSONObject;
+
+import com.opensoc.parser.interfaces.FastPathParser;
+import com.opensoc.parser.interfaces.SliceMessageParser;
+import com.opensoc.parsing.TimestampParser;
+
+/**
+ * Sourcefire/Snort alert parser for the common layout
+ *
+ * <pre>
+ * ... [gid:sid:rev] msg ... {PROTO} src[:port] -> dst[:port]
+ * </pre>
+ *
+ * read with one pass over the bytes and no regular expressions. The output
+ * has the same fields as BasicSourcefireParser. Lines the scan rejects are
+ * handed to the fallback parser, by default GrokSourcefireParser, or
+ * BasicSourcefireParser when the Grok patterns can not be loaded.
+ */
+@SuppressWarnings("serial")
+public class FastSourcefireParser extends AbstractParser implements
+		FastPathParser {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private transient SliceMessageParser _fallback;
+
+	private volatile long fastPathCount;
+	private volatile long fallbackCount;
+
+	public FastSourcefireParser() {
+	}
+
+	/**
+	 * @param fallback
+	 *            Parser for lines the fast path rejects
+	 */
+	public FastSourcefireParser(SliceMessageParser fallback) {
+		_fallback = fallback;
+	}
+
+	@Override
+	public void initializeParser() {
+		super.initializeParser();
+		if (_fallback == null)
+			_fallback = createFallback();
+	}
+
+	public JSONObject parse(byte[] msg) {
+		return parse(msg, 0, msg.length);
+	}
+
+	@Override
+	public JSONObject parse(byte[] msg, int offset, int length) {
+
+		JSONObject payload = null;
+		try {
+			payload = scan(msg, offset, offset + length);
+		} catch (RuntimeException e) {
+			_LOG.debug("Fast path failed on message", e);
+		}
+
+		if (payload != null) {
+			fastPathCount++;
+			return payload;
+		}
+
+		fallbackCount++;
+		if (_fallback == null)
+			_fallback = createFallback();
+		return _fallback.parse(msg, offset, length);
+	}
+
+	public long getFastPathCount() {
+		return fastPathCount;
+	}
+
+	public long getFallbackCount() {
+		return fallbackCount;
+	}
+
+	/**
+	 * @return The parsed message, or null if the line does not follow the
+	 *         layout
+	 */
+	@SuppressWarnings("unchecked")
+	private JSONObject scan(byte[] msg, int offset, int end) {
+
+		// {PROTO}, the last brace in the line
+		int open = lastIndexOf(msg, offset, end, (byte) '{');
+		if (open < 0)
+			return null;
+		int close = indexOf(msg, open + 1, end, (byte) '}');
+		if (close < 0 || close == open + 1)
+			return null;
+		for (int i = open + 1; i < close; i++)
+			if (!isWord(msg[i]))
+				return null;
+
+		// src[:port] -> dst[:port]
+		int arrow = -1;
+		for (int i = close + 1; i + 1 < end; i++) {
+			if (msg[i] == '-' && msg[i + 1] == '>') {
+				arrow = i;
+				break;
+			}
+		}
+		if (arrow < 0)
+			return null;
+
+		JSONObject payload = new JSONObject();
+		if (!endpoint(msg, close + 1, arrow, payload, "ip_src_addr",
+				"ip_src_port"))
+			return null;
+		if (!endpoint(msg, arrow + 2, end, payload, "ip_dst_addr",
+				"ip_dst_port"))
+			return null;
+
+		payload.put("key", string(msg, open, end));
+		payload.put("protocol", lowerCase(msg, open + 1, close));
+		payload.put("timestamp", TimestampParser.parseSyslogHeader(msg, offset,
+				end - offset, System.currentTimeMillis()));
+
+		int sid = sidEnd(msg, offset, open);
+		if (sid < 0)
+			_LOG.warn("Unable to find SID in message: "
+					+ string(msg, offset, end));
+		payload.put("original_string", string(msg, sid < 0 ? offset : sid,
+				end));
+
+		return payload;
+	}
+
+	/**
+	 * Reads "addr" or "addr:port" between start and end, surrounding spaces
+	 * allowed. Rejects empty addresses, inner spaces, more than one ':' and
+	 * ports that are not numeric.
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean endpoint(byte[] msg, int start, int end,
+			JSONObject payload, String addrField, String portField) {
+
+		while (start < end && isSpace(msg[start]))
+			start++;
+		while (end > start && isSpace(msg[end - 1]))
+			end--;
+		if (start == end)
+			return false;
+
+		int colon = -1;
+		for (int i = start; i < end; i++) {
+			byte b = msg[i];
+			if (b == ':') {
+				if (colon >= 0)
+					return false;
+				colon = i;
+			} else if (isSpace(b)) {
+				return false;
+			}
+		}
+
+		if (colon < 0) {
+			payload.put(addrField, string(msg, start, end));
+			return true;
+		}
+		if (colon == start || colon == end - 1)
+			return false;
+		for (int i = colon + 1; i < end; i++)
+			if (msg[i] < '0' || msg[i] > '9')
+				return false;
+
+		payload.put(addrField, string(msg, start, colon));
+		payload.put(portField, string(msg, colon + 1, end));
+		return true;
+	}
+
+	/**
+	 * @return Index just past the first [gid:sid:rev] before limit, or -1
+	 */
+	private static int sidEnd(byte[] msg, int offset, int limit) {
+
+		for (int i = offset; i < limit; i++) {
+			if (msg[i] != '[')
+				continue;
+			int pos = i + 1;
+			int groups = 0;
+			while (groups < 3) {
+				int digits = pos;
+				while (pos < limit && msg[pos] >= '0' && msg[pos] <= '9')
+					pos++;
+				if (pos == digits)
+					break;
+				groups++;
+				if (groups < 3) {
+					if (pos >= limit || msg[pos] != ':')
+						break;
+					pos++;
+				}
+			}
+			if (groups == 3 && pos < limit && msg[pos] == ']')
+				return pos + 1;
+		}
+		return -1;
+	}
+
+	private static SliceMessageParser createFallback() {
+		try {
+			return new GrokSourcefireParser();
+		} catch (Exception e) {
+			_LOG.warn("Unable to load the Sourcefire Grok patterns, "
+					+ "falling back to BasicSourcefireParser: " + e);
+			return new BasicSourcefireParser();
+		}
+	}
+
+	private static int indexOf(byte[] msg, int start, int end, byte b) {
+		for (int i = start; i < end; i++)
+			if (msg[i] == b)
+				return i;
+		return -1;
+	}
+
+	private static int lastIndexOf(byte[] msg, int start, int end, byte b) {
+		for (int i = end - 1; i >= start; i--)
+			if (msg[i] == b)
+				return i;
+		return -1;
+	}
+
+	private static boolean isWord(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+				|| (b >= '0' && b <= '9') || b == '-' || b == '_';
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	private static String lowerCase(byte[] msg, int start, int end) {
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; i++) {
+			byte b = msg[i];
+			chars[i - start] = (char) (b >= 'A' && b <= 'Z' ? b + 32 : b);
+		}
+		return new String(chars);
+	}
+
+	private static String string(byte[] msg, int start, int end) {
+		return new String(msg, start, end - start, UTF_8);
+	}
+}
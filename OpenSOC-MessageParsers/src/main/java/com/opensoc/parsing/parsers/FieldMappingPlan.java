@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensoc.parsing.parsers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.opensoc.parsing.TimestampParser;
+
+/**
+ * A compiled list of field operations applied to a parsed message. Plans are
+ * declared as a list of operations:
+ * <p>
+ * <ul>
+ * <li>rename:from:to - moves a field to a new name
+ * <li>cast:field:string|long|double|timestamp - converts a field value,
+ * timestamp gives epoch milliseconds (see TimestampParser)
+ * <li>tld:field - derives tld from the last two labels of a host name field
+ * <li>drop:field - removes a field
+ * </ul>
+ * <p>
+ * and compiled once into flat arrays so applying a plan is a single loop with
+ * no parsing or pattern matching.
+ */
+public final class FieldMappingPlan {
+
+	static final int RENAME = 0;
+	static final int CAST = 1;
+	static final int TLD = 2;
+	static final int DROP = 3;
+
+	static final int TO_STRING = 0;
+	static final int TO_LONG = 1;
+	static final int TO_DOUBLE = 2;
+	static final int TO_TIMESTAMP = 3;
+
+	private final int[] ops;
+	private final int[] casts;
+	private final String[] sources;
+	private final String[] targets;
+
+	private FieldMappingPlan(int[] ops, int[] casts, String[] sources,
+			String[] targets) {
+		this.ops = ops;
+		this.casts = casts;
+		this.sources = sources;
+		this.targets = targets;
+	}
+
+	/**
+	 * @param declarations
+	 *            Operations in the order they should be applied
+	 * @return The compiled plan
+	 * @throws IllegalArgumentException
+	 *             if an operation can not be understood
+	 */
+	public static FieldMappingPlan compile(List<String> declarations) {
+
+		int size = declarations.size();
+		int[] ops = new int[size];
+		int[] casts = new int[size];
+		String[] sources = new String[size];
+		String[] targets = new String[size];
+
+		for (int i = 0; i < size; i++) {
+			String declaration = declarations.get(i).trim();
+			String[] parts = declaration.split(":");
+
+			if (parts.length < 2)
+				throw new IllegalArgumentException("Invalid field mapping: "
+						+ declaration);
+
+			String op = parts[0].trim().toLowerCase();
+			sources[i] = parts[1].trim();
+
+			if (op.equals("rename") && parts.length == 3) {
+				ops[i] = RENAME;
+				targets[i] = parts[2].trim();
+			} else if (op.equals("cast") && parts.length == 3) {
+				ops[i] = CAST;
+				casts[i] = castType(parts[2].trim());
+			} else if (op.equals("tld") && parts.length == 2) {
+				ops[i] = TLD;
+				targets[i] = "tld";
+			} else if (op.equals("drop") && parts.length == 2) {
+				ops[i] = DROP;
+			} else {
+				throw new IllegalArgumentException("Invalid field mapping: "
+						+ declaration);
+			}
+		}
+
+		return new FieldMappingPlan(ops, casts, sources, targets);
+	}
+
+	/**
+	 * Convenience for plans declared as a default list followed by a
+	 * protocol specific list.
+	 */
+	public static FieldMappingPlan compile(String[] defaults, String[] specific) {
+
+		List<String> declarations = new ArrayList<String>();
+		if (defaults != null) {
+			for (String declaration : defaults)
+				if (declaration.trim().length() > 0)
+					declarations.add(declaration);
+		}
+		if (specific != null) {
+			for (String declaration : specific)
+				if (declaration.trim().length() > 0)
+					declarations.add(declaration);
+		}
+		return compile(declarations);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void apply(Map message) {
+
+		for (int i = 0; i < ops.length; i++) {
+			switch (ops[i]) {
+			case RENAME: {
+				Object value = message.remove(sources[i]);
+				if (value != null)
+					message.put(targets[i], value);
+				break;
+			}
+			case CAST: {
+				Object value = message.get(sources[i]);
+				if (value != null)
+					message.put(sources[i], cast(value, casts[i]));
+				break;
+			}
+			case TLD: {
+				Object value = message.get(sources[i]);
+				if (value != null) {
+					String tld = tld(value.toString().trim());
+					if (tld != null)
+						message.put(targets[i], tld);
+				}
+				break;
+			}
+			case DROP:
+				message.remove(sources[i]);
+				break;
+			}
+		}
+	}
+
+	public int size() {
+		return ops.length;
+	}
+
+	/**
+	 * Last two labels of a host name, same as splitting on '.' and joining the
+	 * last two parts. Returns null when there are less than two parts.
+	 */
+	public static String tld(String host) {
+
+		int last = host.length();
+		while (last > 0 && host.charAt(last - 1) == '.')
+			last--;
+		int dot = host.lastIndexOf('.', last - 1);
+		if (dot < 0)
+			return null;
+		int start = host.lastIndexOf('.', dot - 1) + 1;
+		return host.substring(start, last);
+	}
+
+	private static Object cast(Object value, int type) {
+
+		try {
+			switch (type) {
+			case TO_LONG:
+				if (value instanceof Number)
+					return ((Number) value).longValue();
+				return Long.valueOf(value.toString().trim());
+			case TO_DOUBLE:
+				if (value instanceof Number)
+					return ((Number) value).doubleValue();
+				return Double.valueOf(value.toString().trim());
+			case TO_TIMESTAMP:
+				return TimestampParser.toEpochMillis(value);
+			default:
+				return value.toString();
+			}
+		} catch (IllegalArgumentException e) {
+			// leave values that do not convert untouched
+			return value;
+		}
+	}
+
+	private static int castType(String type) {
+
+		String lower = type.toLowerCase();
+		if (lower.equals("string"))
+			return TO_STRING;
+		if (lower.equals("long"))
+			return TO_LONG;
+		if (lower.equals("double"))
+			return TO_DOUBLE;
+		if (lower.equals("timestamp"))
+			return TO_TIMESTAMP;
+		throw new IllegalArgumentException("Unknown cast type: " + type);
+	}
+}
@@ -41,6 +41,11 @@ public class GrokSourcefireParser extends AbstractParser{
 	
 	@Override
 	public JSONObject parse(byte[] raw_message) {
+		return parse(raw_message, 0, raw_message.length);
+	}
+
+	@Override
+	public JSONObject parse(byte[] raw_message, int offset, int length) {
 		JSONObject payload = new JSONObject();
 		String toParse = "";
 		JSONObject toReturn;
@@ -48,7 +53,7 @@ public class GrokSourcefireParser extends AbstractParser{
 
 		try {
 
-			toParse = new String(raw_message, "UTF-8");
+			toParse = new String(raw_message, offset, length, "UTF-8");
 			Match gm = grok.match(toParse);
 			gm.captures();
 			
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensoc.parsing.parsers;
+
+import java.nio.charset.Charset;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Scanner for the Cisco ISE syslog format, working on the raw bytes:
+ *
+ * <pre>
+ * header text, Key=value, Nested=A=1\,B=2, Braced={x=y; }, Tagged=(tag=0) VLAN,
+ * </pre>
+ *
+ * Everything up to the first comma is stored under "header". Commas escaped
+ * as "\," do not end a value. A value holding '=' is a nested list of
+ * key=value pairs separated by "\," and becomes a nested object. Values
+ * wrapped in braces and values starting with (tag=0) are kept as strings.
+ * Plain values are trimmed and kept verbatim, escapes included, as the
+ * JavaCC ISEParser does.
+ * <p>
+ * Instances keep state and are not thread safe.
+ */
+public final class IseKeyValueScanner {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String HEADER = "header";
+	private static final String TAG = "(tag=0)";
+	private static final byte[] TAG_BYTES = TAG.getBytes(UTF_8);
+
+	private final ByteStringCache keys = new ByteStringCache(512);
+
+	private byte[] buf;
+	private boolean sawEquals;
+
+	/**
+	 * @return The parsed message, or null if the message does not follow the
+	 *         format and should be handed to the JavaCC parser instead
+	 */
+	@SuppressWarnings("unchecked")
+	public JSONObject scan(byte[] raw_message, int offset, int length) {
+
+		buf = raw_message;
+		try {
+			int end = offset + length;
+			while (end > offset && isSpace(buf[end - 1]))
+				end--;
+			int pos = offset;
+			while (pos < end && isSpace(buf[pos]))
+				pos++;
+
+			JSONObject message = new JSONObject();
+			String key = HEADER;
+
+			while (true) {
+				pos = readValue(key, pos, end, message);
+				if (pos < 0)
+					return null;
+
+				// pos is on the comma ending the value, or at the end
+				if (pos >= end || ++pos >= end)
+					return message;
+
+				int equals = findKeyEnd(pos, end);
+				if (equals < 0)
+					return null;
+				key = key(pos, equals);
+				pos = equals + 1;
+			}
+		} finally {
+			buf = null;
+		}
+	}
+
+	/**
+	 * @return Index of the comma ending the value, end, or -1 on a format
+	 *         problem
+	 */
+	@SuppressWarnings("unchecked")
+	private int readValue(String key, int pos, int end, JSONObject message) {
+
+		if (pos >= end || buf[pos] == ',') {
+			message.put(key, null);
+			return pos;
+		}
+
+		if (startsWithTag(pos, end)) {
+			int start = pos + TAG_BYTES.length;
+			int stop = findValueEnd(start, end);
+			if (stop == start)
+				return -1;
+			message.put(key, TAG + string(start, stop));
+			return stop;
+		}
+
+		if (buf[pos] == '{') {
+			int close = pos + 1;
+			while (close < end && buf[close] != '}' && buf[close] != '{')
+				close++;
+			if (close < end && buf[close] == '}'
+					&& (close + 1 == end || buf[close + 1] == ',')) {
+				message.put(key, trimmed(pos, close + 1));
+				return close + 1;
+			}
+		}
+
+		int stop = findValueEnd(pos, end);
+		if (sawEquals)
+			message.put(key, nested(pos, stop));
+		else
+			message.put(key, trimmed(pos, stop));
+		return stop;
+	}
+
+	/**
+	 * Splits "A=1\,B=\,C=" into {A=1, B="", C=null}. An '=' not preceded by a
+	 * "\," separator belongs to the value before it. As with the JavaCC
+	 * parser only the last value can be null.
+	 */
+	@SuppressWarnings("unchecked")
+	private JSONObject nested(int pos, int stop) {
+
+		JSONObject nested = new JSONObject();
+
+		int equals = indexOfEquals(pos, stop);
+		String key = key(pos, equals);
+		int valueStart = equals + 1;
+		int scan = valueStart;
+
+		while (true) {
+			int next = indexOfEquals(scan, stop);
+			if (next < 0) {
+				nested.put(key, value(valueStart, stop));
+				return nested;
+			}
+			int separator = lastEscapedComma(valueStart, next);
+			if (separator < 0) {
+				scan = next + 1;
+				continue;
+			}
+			nested.put(key, trimmed(valueStart, separator));
+			key = key(separator + 2, next);
+			valueStart = next + 1;
+			scan = valueStart;
+		}
+	}
+
+	/**
+	 * @return Index of the next unescaped comma, or end. Sets sawEquals when
+	 *         the value holds an '='.
+	 */
+	private int findValueEnd(int pos, int end) {
+		sawEquals = false;
+		while (pos < end) {
+			byte b = buf[pos];
+			if (b == '\\') {
+				pos += 2;
+				continue;
+			}
+			if (b == ',')
+				return pos;
+			if (b == '=')
+				sawEquals = true;
+			pos++;
+		}
+		return end;
+	}
+
+	/**
+	 * @return Index of the '=' ending a key, or -1 if a comma comes first
+	 */
+	private int findKeyEnd(int pos, int end) {
+		while (pos < end) {
+			byte b = buf[pos];
+			if (b == '\\') {
+				pos += 2;
+				continue;
+			}
+			if (b == '=')
+				return pos;
+			if (b == ',')
+				return -1;
+			pos++;
+		}
+		return -1;
+	}
+
+	private int indexOfEquals(int pos, int stop) {
+		for (; pos < stop; pos++) {
+			if (buf[pos] == '=')
+				return pos;
+		}
+		return -1;
+	}
+
+	private int lastEscapedComma(int pos, int stop) {
+		int last = -1;
+		while (pos < stop) {
+			if (buf[pos] == '\\') {
+				if (pos + 1 < stop && buf[pos + 1] == ',')
+					last = pos;
+				pos += 2;
+			} else {
+				pos++;
+			}
+		}
+		return last;
+	}
+
+	private boolean startsWithTag(int pos, int end) {
+		if (end - pos < TAG_BYTES.length)
+			return false;
+		for (int i = 0; i < TAG_BYTES.length; i++) {
+			byte b = buf[pos + i];
+			if (b >= 'A' && b <= 'Z')
+				b += 'a' - 'A';
+			if (b != TAG_BYTES[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * An empty value is null, a blank one is an empty string.
+	 */
+	private String value(int start, int stop) {
+		if (stop <= start)
+			return null;
+		return trimmed(start, stop);
+	}
+
+	/**
+	 * A blank key is an empty string, as with the JavaCC parser.
+	 */
+	private String key(int start, int stop) {
+		int from = trimStart(start, stop);
+		return keys.get(buf, from, trimEnd(from, stop) - from);
+	}
+
+	private String trimmed(int start, int stop) {
+		int from = trimStart(start, stop);
+		return string(from, trimEnd(from, stop));
+	}
+
+	private String string(int start, int stop) {
+		return new String(buf, start, stop - start, UTF_8);
+	}
+
+	private int trimStart(int start, int stop) {
+		while (start < stop && isSpace(buf[start]))
+			start++;
+		return start;
+	}
+
+	private int trimEnd(int start, int stop) {
+		while (stop > start && isSpace(buf[stop - 1]))
+			stop--;
+		return stop;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b >= 0 && b <= ' ';
+	}
+}
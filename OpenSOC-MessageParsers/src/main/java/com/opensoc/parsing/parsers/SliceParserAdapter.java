@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensoc.parsing.parsers;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.json.simple.JSONObject;
+
+import com.opensoc.parser.interfaces.MessageParser;
+import com.opensoc.parser.interfaces.SliceMessageParser;
+
+/**
+ * Exposes a legacy {@link MessageParser} through the slice API. Slices that
+ * cover a whole array are passed through as is, anything else is copied out
+ * before calling the wrapped parser.
+ */
+public class SliceParserAdapter implements SliceMessageParser {
+
+	private final MessageParser parser;
+
+	private SliceParserAdapter(MessageParser parser) {
+		this.parser = parser;
+	}
+
+	/**
+	 * @param parser
+	 *            Any message parser
+	 * @return The parser itself if it already supports slices, otherwise an
+	 *         adapter around it
+	 */
+	public static SliceMessageParser adapt(MessageParser parser) {
+		if (parser instanceof SliceMessageParser)
+			return (SliceMessageParser) parser;
+		return new SliceParserAdapter(parser);
+	}
+
+	public void initializeParser() {
+		parser.initializeParser();
+	}
+
+	public JSONObject parse(byte[] raw_message) {
+		return parser.parse(raw_message);
+	}
+
+	public JSONObject parse(byte[] raw_message, int offset, int length) {
+		return parser.parse(copy(raw_message, offset, length));
+	}
+
+	public JSONObject parse(ByteBuffer raw_message) {
+		return parser.parse(copy(raw_message));
+	}
+
+	static byte[] copy(byte[] raw_message, int offset, int length) {
+		if (offset == 0 && length == raw_message.length)
+			return raw_message;
+		return Arrays.copyOfRange(raw_message, offset, offset + length);
+	}
+
+	static byte[] copy(ByteBuffer raw_message) {
+		if (raw_message.hasArray())
+			return copy(raw_message.array(), raw_message.arrayOffset()
+					+ raw_message.position(), raw_message.remaining());
+		byte[] bytes = new byte[raw_message.remaining()];
+		raw_message.duplicate().get(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,589 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensoc.parsing.parsers;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.opensoc.parsing.TimestampParser;
+
+/**
+ * Single pass Bro parser working directly on the raw Kafka bytes. Produces the
+ * same document as {@link BasicBroParser} without decoding the message to a
+ * String, parsing it with json-simple and copying it through
+ * {@link JSONCleaner}. Keys are sanitized against a lookup table while they
+ * are read, the sanitized form of every key seen is cached, and the
+ * id.orig_h -> ip_src_addr style renames are applied in the same pass.
+ *
+ * Instances keep parse state and are not thread safe; each bolt task gets its
+ * own copy through serialization.
+ */
+@SuppressWarnings("serial")
+public class StreamingBroParser extends AbstractParser {
+
+	protected static final Logger _LOG = LoggerFactory
+			.getLogger(StreamingBroParser.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** Key characters kept by the sanitizer, same as [\._a-zA-Z0-9] */
+	private static final boolean[] KEY_CHARS = new boolean[128];
+
+	/**
+	 * Payload keys renamed (and stringified) on the way through, except ts
+	 * which becomes an epoch milliseconds timestamp
+	 */
+	private static final Map<String, String> RENAMES = new HashMap<String, String>();
+
+	private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+	private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+	private static final int TLD_NONE = 0;
+	private static final int TLD_HOST = 1;
+	private static final int TLD_QUERY = 2;
+
+	private static final int KEY_CACHE_SIZE = 1024;
+
+	static {
+		for (char c = 'a'; c <= 'z'; c++)
+			KEY_CHARS[c] = true;
+		for (char c = 'A'; c <= 'Z'; c++)
+			KEY_CHARS[c] = true;
+		for (char c = '0'; c <= '9'; c++)
+			KEY_CHARS[c] = true;
+		KEY_CHARS['.'] = true;
+		KEY_CHARS['_'] = true;
+
+		RENAMES.put("ts", "timestamp");
+		RENAMES.put("id.orig_h", "ip_src_addr");
+		RENAMES.put("id.resp_h", "ip_dst_addr");
+		RENAMES.put("id.orig_p", "ip_src_port");
+		RENAMES.put("id.resp_p", "ip_dst_port");
+	}
+
+	private transient Key[] keyCache;
+	private transient StringBuilder chars;
+	private transient StringBuilder original;
+
+	private transient byte[] buf;
+	private transient int pos;
+	private transient int end;
+
+	@Override
+	public void initializeParser() {
+		super.initializeParser();
+		keyCache = new Key[KEY_CACHE_SIZE];
+		chars = new StringBuilder(64);
+		original = new StringBuilder(512);
+	}
+
+	public JSONObject parse(byte[] msg) {
+		return parse(msg, 0, msg.length);
+	}
+
+	@Override
+	public JSONObject parse(byte[] msg, int offset, int length) {
+
+		_LOG.trace("[OpenSOC] Starting to parse incoming message");
+
+		if (keyCache == null)
+			initializeParser();
+
+		try {
+
+			buf = msg;
+			pos = offset;
+			end = offset + length;
+
+			skipWhitespace();
+			expect('{');
+			skipWhitespace();
+
+			if (pos < end && buf[pos] == '}')
+				throw new ParseException("Unable to retrieve key for message",
+						pos);
+
+			Key protocol = readKey();
+			skipWhitespace();
+			expect(':');
+			skipWhitespace();
+			expect('{');
+
+			JSONObject payload = readPayload(protocol);
+
+			// anything after the first entry is validated and dropped
+			skipWhitespace();
+			while (pos < end && buf[pos] == ',') {
+				pos++;
+				readKey();
+				skipWhitespace();
+				expect(':');
+				readValue();
+				skipWhitespace();
+			}
+			expect('}');
+
+			_LOG.debug("[OpenSOC] Returning parsed message: " + payload);
+
+			return payload;
+
+		} catch (Exception e) {
+
+			_LOG.error("Unable to Parse Message: "
+					+ new String(msg, offset, length, UTF_8));
+			e.printStackTrace();
+			return null;
+		} finally {
+			buf = null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONObject readPayload(Key protocol) throws ParseException {
+
+		JSONObject payload = new JSONObject();
+		StringBuilder originalString = original;
+		originalString.setLength(0);
+		originalString.append(protocol.upper).append(" |");
+
+		Object host = null;
+		Object query = null;
+
+		skipWhitespace();
+		if (pos < end && buf[pos] == '}') {
+			pos++;
+		} else {
+			while (true) {
+				Key key = readKey();
+				skipWhitespace();
+				expect(':');
+				Object value = readValue();
+
+				originalString.append(' ').append(key.name).append(':')
+						.append(value);
+
+				if (key.timestamp)
+					payload.put(key.field, timestamp(value));
+				else if (key.renamed)
+					payload.put(key.field, String.valueOf(value));
+				else
+					payload.put(key.name, value);
+
+				if (key.tldSource == TLD_HOST)
+					host = value;
+				else if (key.tldSource == TLD_QUERY)
+					query = value;
+
+				skipWhitespace();
+				if (pos >= end)
+					throw new ParseException("Unterminated payload", pos);
+				byte c = buf[pos++];
+				if (c == '}')
+					break;
+				if (c != ',')
+					throw new ParseException("Expected ',' or '}'", pos - 1);
+			}
+		}
+
+		payload.put("original_string", originalString.toString());
+
+		String tld = null;
+		if (host != null)
+			tld = FieldMappingPlan.tld(host.toString().trim());
+		if (query != null) {
+			String fromQuery = FieldMappingPlan.tld(query.toString());
+			if (fromQuery != null)
+				tld = fromQuery;
+		}
+		if (tld != null)
+			payload.put("tld", tld);
+
+		payload.put("protocol", protocol.name);
+		return payload;
+	}
+
+	/**
+	 * Same as the cast:timestamp:timestamp mapping, values that do not
+	 * convert are kept as they are.
+	 */
+	private static Object timestamp(Object value) {
+		try {
+			return TimestampParser.toEpochMillis(value);
+		} catch (IllegalArgumentException e) {
+			return value;
+		}
+	}
+
+	private Object readValue() throws ParseException {
+
+		skipWhitespace();
+		if (pos >= end)
+			throw new ParseException("Expected value", pos);
+
+		byte c = buf[pos];
+		switch (c) {
+		case '"':
+			pos++;
+			return readString();
+		case '{':
+			pos++;
+			return readObject();
+		case '[':
+			pos++;
+			return readArray();
+		case 't':
+			expectLiteral(TRUE);
+			return Boolean.TRUE;
+		case 'f':
+			expectLiteral(FALSE);
+			return Boolean.FALSE;
+		case 'n':
+			expectLiteral(NULL);
+			return null;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9'))
+				return readNumber();
+			throw new ParseException("Unexpected character '" + (char) c
+					+ "'", pos);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONObject readObject() throws ParseException {
+
+		JSONObject object = new JSONObject();
+		skipWhitespace();
+		if (pos < end && buf[pos] == '}') {
+			pos++;
+			return object;
+		}
+		while (true) {
+			Key key = readKey();
+			skipWhitespace();
+			expect(':');
+			object.put(key.name, readValue());
+			skipWhitespace();
+			if (pos >= end)
+				throw new ParseException("Unterminated object", pos);
+			byte c = buf[pos++];
+			if (c == '}')
+				return object;
+			if (c != ',')
+				throw new ParseException("Expected ',' or '}'", pos - 1);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONArray readArray() throws ParseException {
+
+		JSONArray array = new JSONArray();
+		skipWhitespace();
+		if (pos < end && buf[pos] == ']') {
+			pos++;
+			return array;
+		}
+		while (true) {
+			array.add(readValue());
+			skipWhitespace();
+			if (pos >= end)
+				throw new ParseException("Unterminated array", pos);
+			byte c = buf[pos++];
+			if (c == ']')
+				return array;
+			if (c != ',')
+				throw new ParseException("Expected ',' or ']'", pos - 1);
+		}
+	}
+
+	/**
+	 * Reads a key and resolves it through the key cache. Keys are looked up by
+	 * their raw bytes so a cache hit costs a hash and a compare, no decoding.
+	 */
+	private Key readKey() throws ParseException {
+
+		skipWhitespace();
+		if (pos >= end || buf[pos] != '"')
+			throw new ParseException("Expected key", pos);
+
+		int start = ++pos;
+		int hash = 0;
+		while (pos < end) {
+			byte b = buf[pos];
+			if (b == '"') {
+				int length = pos - start;
+				pos++;
+
+				int slot = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+				Key key = keyCache[slot];
+				if (key != null && key.matches(buf, start, length))
+					return key;
+
+				byte[] raw = new byte[length];
+				System.arraycopy(buf, start, raw, 0, length);
+				key = new Key(raw, sanitize(new String(raw, UTF_8)));
+				keyCache[slot] = key;
+				return key;
+			}
+			if (b == '\\') {
+				// escaped keys are rare enough to not be worth caching
+				pos = start;
+				return new Key(null, sanitize(readString()));
+			}
+			hash = 31 * hash + b;
+			pos++;
+		}
+		throw new ParseException("Unterminated key", start);
+	}
+
+	private String readString() throws ParseException {
+
+		int start = pos;
+		while (pos < end) {
+			byte b = buf[pos];
+			if (b == '"') {
+				String value = new String(buf, start, pos - start, UTF_8);
+				pos++;
+				return value;
+			}
+			if (b == '\\')
+				return readEscapedString(start);
+			pos++;
+		}
+		throw new ParseException("Unterminated string", start);
+	}
+
+	private String readEscapedString(int start) throws ParseException {
+
+		StringBuilder sb = chars;
+		sb.setLength(0);
+		int segment = start;
+
+		while (pos < end) {
+			byte b = buf[pos];
+			if (b == '"') {
+				appendSegment(sb, segment, pos);
+				pos++;
+				return sb.toString();
+			}
+			if (b != '\\') {
+				pos++;
+				continue;
+			}
+
+			appendSegment(sb, segment, pos);
+			if (++pos >= end)
+				break;
+			byte escaped = buf[pos++];
+			switch (escaped) {
+			case '"':
+			case '\\':
+			case '/':
+				sb.append((char) escaped);
+				break;
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'u':
+				sb.append(readUnicodeEscape());
+				break;
+			default:
+				throw new ParseException("Invalid escape '\\" + (char) escaped
+						+ "'", pos - 1);
+			}
+			segment = pos;
+		}
+		throw new ParseException("Unterminated string", start);
+	}
+
+	private void appendSegment(StringBuilder sb, int from, int to) {
+
+		for (int i = from; i < to; i++) {
+			if (buf[i] < 0) {
+				sb.append(new String(buf, i, to - i, UTF_8));
+				return;
+			}
+			sb.append((char) buf[i]);
+		}
+	}
+
+	private char readUnicodeEscape() throws ParseException {
+
+		if (pos + 4 > end)
+			throw new ParseException("Truncated unicode escape", pos);
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			int digit = Character.digit(buf[pos++], 16);
+			if (digit < 0)
+				throw new ParseException("Invalid unicode escape", pos - 1);
+			value = (value << 4) | digit;
+		}
+		return (char) value;
+	}
+
+	/**
+	 * Numbers follow json-simple: integers become Long, anything with a
+	 * fraction or exponent becomes Double.
+	 */
+	private Object readNumber() throws ParseException {
+
+		int start = pos;
+		boolean negative = buf[pos] == '-';
+		if (negative)
+			pos++;
+
+		long value = 0;
+		int digits = 0;
+		boolean integral = true;
+		while (pos < end) {
+			byte b = buf[pos];
+			if (b >= '0' && b <= '9') {
+				value = value * 10 + (b - '0');
+				digits++;
+			} else if (b == '.' || b == 'e' || b == 'E' || b == '+'
+					|| b == '-') {
+				integral = false;
+			} else {
+				break;
+			}
+			pos++;
+		}
+
+		if (digits == 0)
+			throw new ParseException("Invalid number", start);
+
+		if (integral && digits <= 18)
+			return Long.valueOf(negative ? -value : value);
+
+		String text = new String(buf, start, pos - start, UTF_8);
+		try {
+			return integral ? (Object) Long.valueOf(text) : (Object) Double
+					.valueOf(text);
+		} catch (NumberFormatException e) {
+			throw new ParseException("Invalid number " + text, start);
+		}
+	}
+
+	private void expectLiteral(byte[] literal) throws ParseException {
+
+		if (pos + literal.length > end)
+			throw new ParseException("Truncated literal", pos);
+		for (int i = 0; i < literal.length; i++) {
+			if (buf[pos + i] != literal[i])
+				throw new ParseException("Invalid literal", pos);
+		}
+		pos += literal.length;
+	}
+
+	private void expect(char c) throws ParseException {
+
+		if (pos >= end || buf[pos] != c)
+			throw new ParseException("Expected '" + c + "'", pos);
+		pos++;
+	}
+
+	private void skipWhitespace() {
+
+		while (pos < end) {
+			byte b = buf[pos];
+			if (b != ' ' && b != '\t' && b != '\n' && b != '\r')
+				return;
+			pos++;
+		}
+	}
+
+	/**
+	 * Same result as replaceAll("[^\\._a-zA-Z0-9]+","") without the regex.
+	 */
+	static String sanitize(String key) {
+
+		int length = key.length();
+		char[] out = null;
+		int n = 0;
+		for (int i = 0; i < length; i++) {
+			char c = key.charAt(i);
+			boolean keep = c < 128 && KEY_CHARS[c];
+			if (out == null) {
+				if (keep)
+					continue;
+				out = new char[length];
+				key.getChars(0, i, out, 0);
+				n = i;
+			} else if (keep) {
+				out[n++] = c;
+			}
+		}
+		return out == null ? key : new String(out, 0, n);
+	}
+
+	private static final class Key {
+
+		final byte[] raw;
+		final String name;
+		final String field;
+		final String upper;
+		final boolean renamed;
+		final boolean timestamp;
+		final int tldSource;
+
+		Key(byte[] raw, String name) {
+			this.raw = raw;
+			this.name = name;
+			String rename = RENAMES.get(name);
+			this.renamed = rename != null;
+			this.field = renamed ? rename : name;
+			this.timestamp = "ts".equals(name);
+			this.upper = name.toUpperCase();
+			if ("host".equals(name))
+				tldSource = TLD_HOST;
+			else if ("query".equals(name))
+				tldSource = TLD_QUERY;
+			else
+				tldSource = TLD_NONE;
+		}
+
+		boolean matches(byte[] bytes, int offset, int length) {
+			if (raw.length != length)
+				return false;
+			for (int i = 0; i < length; i++) {
+				if (raw[i] != bytes[offset + i])
+					return false;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensoc.parsing.parsers;
+
+import java.nio.charset.Charset;
+
+import com.opensoc.parsing.TimestampParser;
+
+/**
+ * Reads the header of a syslog line in one pass over the bytes:
+ *
+ * <pre>
+ * RFC3164: &lt;PRI&gt;Mmm dd hh:mm:ss HOST TAG[PID]: MSG
+ * RFC5424: &lt;PRI&gt;1 TIMESTAMP HOST APP-NAME PROCID MSGID [SD-ID ...] MSG
+ * </pre>
+ *
+ * Only offsets are recorded while reading; fields are turned into Strings
+ * when asked for. {@link #getPayloadOffset()} is where the message text
+ * starts, so vendor parsers can carry on from there. The header refers to the
+ * buffer it last read and is reused for the next line, so it is not thread
+ * safe.
+ */
+public final class SyslogHeader {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+	private byte[] buf;
+	private int end;
+
+	private int priority;
+	private int version;
+	private long timestamp;
+	private int hostStart, hostEnd;
+	private int appStart, appEnd;
+	private int procStart, procEnd;
+	private int msgIdStart, msgIdEnd;
+	private int sdStart, sdEnd;
+	private int payloadOffset;
+
+	/**
+	 * @return true if the line starts with a syslog header
+	 */
+	public boolean parse(byte[] raw_message, int offset, int length) {
+
+		buf = raw_message;
+		end = offset + length;
+		priority = -1;
+		version = 0;
+		timestamp = NO_TIMESTAMP;
+		hostStart = hostEnd = appStart = appEnd = procStart = procEnd = -1;
+		msgIdStart = msgIdEnd = sdStart = sdEnd = -1;
+
+		int p = offset;
+		if (p < end && buf[p] == '<') {
+			int value = 0;
+			int digits = 0;
+			p++;
+			while (p < end && isDigit(buf[p]) && digits < 3) {
+				value = value * 10 + (buf[p++] - '0');
+				digits++;
+			}
+			if (digits == 0 || p >= end || buf[p] != '>' || value > 191)
+				return false;
+			priority = value;
+			p++;
+
+			if (p + 1 < end && isDigit(buf[p]) && buf[p + 1] == ' ') {
+				version = buf[p] - '0';
+				return parse5424(p + 2);
+			}
+		}
+		return parse3164(p);
+	}
+
+	private boolean parse5424(int p) {
+
+		int tsEnd = tokenEnd(p);
+		if (!isNil(p, tsEnd)) {
+			timestamp = TimestampParser.parseIso8601(buf, p, tsEnd - p,
+					NO_TIMESTAMP);
+			if (timestamp == NO_TIMESTAMP)
+				return false;
+		}
+
+		p = next(tsEnd);
+		hostEnd = tokenEnd(p);
+		hostStart = isNil(p, hostEnd) ? -1 : p;
+
+		p = next(hostEnd);
+		appEnd = tokenEnd(p);
+		appStart = isNil(p, appEnd) ? -1 : p;
+
+		p = next(appEnd);
+		procEnd = tokenEnd(p);
+		procStart = isNil(p, procEnd) ? -1 : p;
+
+		p = next(procEnd);
+		msgIdEnd = tokenEnd(p);
+		msgIdStart = isNil(p, msgIdEnd) ? -1 : p;
+		if (msgIdEnd == p)
+			return false;
+
+		p = next(msgIdEnd);
+		if (p < end && buf[p] == '[') {
+			sdStart = p;
+			while (p < end && buf[p] == '[') {
+				p = elementEnd(p);
+				if (p < 0)
+					return false;
+			}
+			sdEnd = p;
+		} else {
+			int nil = tokenEnd(p);
+			if (!isNil(p, nil))
+				return false;
+			p = nil;
+		}
+
+		p = next(p);
+		// a UTF-8 message may start with a byte order mark
+		if (p + 2 < end && buf[p] == (byte) 0xEF && buf[p + 1] == (byte) 0xBB
+				&& buf[p + 2] == (byte) 0xBF)
+			p += 3;
+		payloadOffset = p;
+		return true;
+	}
+
+	private boolean parse3164(int p) {
+
+		int tsEnd;
+		timestamp = TimestampParser.parseSyslog(buf, p, end - p, NO_TIMESTAMP);
+		if (timestamp != NO_TIMESTAMP) {
+			tsEnd = p + 15;
+		} else {
+			// some senders put an ISO time stamp in a RFC3164 header
+			tsEnd = tokenEnd(p);
+			timestamp = TimestampParser.parseIso8601(buf, p, tsEnd - p,
+					NO_TIMESTAMP);
+			if (timestamp == NO_TIMESTAMP)
+				return false;
+		}
+		if (tsEnd < end && buf[tsEnd] != ' ')
+			return false;
+
+		p = skipSpaces(tsEnd);
+		int tokenEnd = tokenEnd(p);
+		if (!isTag(p, tokenEnd)) {
+			hostStart = p;
+			hostEnd = tokenEnd;
+			p = skipSpaces(tokenEnd);
+			tokenEnd = tokenEnd(p);
+			if (!isTag(p, tokenEnd)) {
+				// no tag, the rest of the line is the message
+				payloadOffset = p;
+				return true;
+			}
+		}
+
+		appStart = p;
+		while (p < tokenEnd && buf[p] != '[' && buf[p] != ':')
+			p++;
+		appEnd = p;
+		if (p < tokenEnd && buf[p] == '[') {
+			procStart = ++p;
+			while (p < tokenEnd && buf[p] != ']')
+				p++;
+			procEnd = p;
+			p++;
+		}
+		if (p < end && buf[p] == ':')
+			p++;
+		if (p < end && buf[p] == ' ')
+			p++;
+		payloadOffset = p;
+		return true;
+	}
+
+	/**
+	 * A tag is a token holding '[' or ending with ':', such as sshd[42]: or
+	 * kernel:
+	 */
+	private boolean isTag(int start, int stop) {
+		if (stop <= start)
+			return false;
+		if (buf[stop - 1] == ':')
+			return true;
+		for (int i = start; i < stop; i++)
+			if (buf[i] == '[')
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return Index past a [id key="value" ...] element, or -1 if it is not
+	 *         terminated
+	 */
+	private int elementEnd(int p) {
+		boolean quoted = false;
+		for (p++; p < end; p++) {
+			byte b = buf[p];
+			if (quoted) {
+				if (b == '\\')
+					p++;
+				else if (b == '"')
+					quoted = false;
+			} else if (b == '"') {
+				quoted = true;
+			} else if (b == ']') {
+				return p + 1;
+			}
+		}
+		return -1;
+	}
+
+	private int tokenEnd(int p) {
+		while (p < end && buf[p] != ' ')
+			p++;
+		return p;
+	}
+
+	private int next(int p) {
+		return p < end ? p + 1 : p;
+	}
+
+	private int skipSpaces(int p) {
+		while (p < end && buf[p] == ' ')
+			p++;
+		return p;
+	}
+
+	private boolean isNil(int start, int stop) {
+		return stop == start + 1 && buf[start] == '-';
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private String string(int start, int stop) {
+		if (start < 0)
+			return null;
+		return new String(buf, start, stop - start, UTF_8);
+	}
+
+	/**
+	 * @return PRI value, or -1 if the line has none
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	public int getFacility() {
+		return priority < 0 ? -1 : priority >> 3;
+	}
+
+	public int getSeverity() {
+		return priority < 0 ? -1 : priority & 7;
+	}
+
+	/**
+	 * @return 1 for RFC5424, 0 for RFC3164
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return Epoch milliseconds, or Long.MIN_VALUE for a nil RFC5424 time
+	 *         stamp
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public boolean hasTimestamp() {
+		return timestamp != NO_TIMESTAMP;
+	}
+
+	public String getHostname() {
+		return string(hostStart, hostEnd);
+	}
+
+	/**
+	 * @return The RFC5424 APP-NAME or the RFC3164 tag
+	 */
+	public String getAppName() {
+		return string(appStart, appEnd);
+	}
+
+	public String getProcId() {
+		return string(procStart, procEnd);
+	}
+
+	public String getMsgId() {
+		return string(msgIdStart, msgIdEnd);
+	}
+
+	/**
+	 * @return The structured data elements as they appear in the line
+	 */
+	public String getStructuredData() {
+		return string(sdStart, sdEnd);
+	}
+
+	/**
+	 * @return Index of the first byte of the message text
+	 */
+	public int getPayloadOffset() {
+		return payloadOffset;
+	}
+
+	/**
+	 * @return Index past the last byte of the line
+	 */
+	public int getEnd() {
+		return end;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import junit.framework.TestCase;
+
+import org.json.simple.JSONObject;
+
+import com.opensoc.parsing.parsers.BasicLancopeParser;
+import com.opensoc.parsing.parsers.BasicSyslogParser;
+import com.opensoc.parsing.parsers.SyslogHeader;
+
+/**
+ * <ul>
+ * <li>Title: Test For BasicSyslogParser</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class BasicSyslogParserTest extends TestCase {
+
+	private static final String LANCOPE = "{\"message\":\"<131>Jul 17 15:59:01 smc-01 StealthWatch[12365]: 2014-07-17T15:58:30Z 10.40.10.254 0.0.0.0 Minor High Concern Index The host's concern index has either exceeded the CI threshold or rapidly increased. Observed 36.55M points. Policy maximum allows up to 20M points.\",\"@version\":\"1\",\"@timestamp\":\"2014-07-17T15:56:05.992Z\",\"type\":\"syslog\",\"host\":\"10.122.196.201\"}";
+
+	private BasicSyslogParser syslogParser = null;
+
+	public void setUp() throws Exception {
+		syslogParser = new BasicSyslogParser();
+		syslogParser.initializeParser();
+	}
+
+	public void testRfc3164() throws Exception {
+		JSONObject parsed = syslogParser
+				.parse("<34>Oct 11 22:14:15 mymachine su[230]: 'su root' failed for lonvick on /dev/pts/8\n"
+						.getBytes("UTF-8"));
+		assertNotNull(parsed);
+		assertEquals(34, parsed.get("syslog_priority"));
+		assertEquals(4, parsed.get("syslog_facility"));
+		assertEquals(2, parsed.get("syslog_severity"));
+		assertEquals("mymachine", parsed.get("syslog_host"));
+		assertEquals("su", parsed.get("syslog_program"));
+		assertEquals("230", parsed.get("syslog_pid"));
+		assertEquals("'su root' failed for lonvick on /dev/pts/8",
+				parsed.get("message"));
+		assertTrue(parsed.get("timestamp") instanceof Long);
+
+		parsed = syslogParser.parse("Oct  1 22:14:15 kernel: link up"
+				.getBytes("UTF-8"));
+		assertNull(parsed.get("syslog_host"));
+		assertEquals("kernel", parsed.get("syslog_program"));
+		assertEquals("link up", parsed.get("message"));
+	}
+
+	public void testRfc5424() throws Exception {
+		JSONObject parsed = syslogParser
+				.parse("<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\" eventSource=\"Appl\\\"ication\"][examplePriority@32473 class=\"high\"] An application event"
+						.getBytes("UTF-8"));
+		assertNotNull(parsed);
+		assertEquals(165, parsed.get("syslog_priority"));
+		assertEquals(Long.valueOf(1065910455003L), parsed.get("timestamp"));
+		assertEquals("mymachine.example.com", parsed.get("syslog_host"));
+		assertEquals("evntslog", parsed.get("syslog_program"));
+		assertNull(parsed.get("syslog_pid"));
+		assertEquals("ID47", parsed.get("syslog_msgid"));
+		assertEquals(
+				"[exampleSDID@32473 iut=\"3\" eventSource=\"Appl\\\"ication\"][examplePriority@32473 class=\"high\"]",
+				parsed.get("syslog_structured_data"));
+		assertEquals("An application event", parsed.get("message"));
+
+		parsed = syslogParser.parse("<14>1 - host app 42 - - "
+				.getBytes("UTF-8"));
+		assertEquals("42", parsed.get("syslog_pid"));
+		assertEquals("", parsed.get("message"));
+	}
+
+	public void testPayloadOffset() throws Exception {
+		byte[] line = "<131>Jul 17 15:59:01 smc-01 StealthWatch[12365]: 2014-07-17T15:58:30Z 10.40.10.254"
+				.getBytes("UTF-8");
+		SyslogHeader header = new SyslogHeader();
+		assertTrue(header.parse(line, 0, line.length));
+		assertEquals("smc-01", header.getHostname());
+		assertEquals("StealthWatch", header.getAppName());
+		assertEquals("12365", header.getProcId());
+		assertEquals("2014-07-17T15:58:30Z 10.40.10.254", new String(line,
+				header.getPayloadOffset(), line.length
+						- header.getPayloadOffset(), "UTF-8"));
+	}
+
+	public void testJsonWrapped() throws Exception {
+		JSONObject parsed = syslogParser.parse(LANCOPE.getBytes("UTF-8"));
+		assertNotNull(parsed);
+		assertEquals("10.122.196.201", parsed.get("host"));
+		assertEquals("smc-01", parsed.get("syslog_host"));
+		assertEquals("1", parsed.get("@version"));
+		assertNull(parsed.get("@timestamp"));
+		assertTrue(parsed.get("original_string").toString()
+				.startsWith("<131>Jul 17 15:59:01 smc-01"));
+	}
+
+	public void testLancope() throws Exception {
+		BasicLancopeParser lancopeParser = new BasicLancopeParser();
+		JSONObject parsed = lancopeParser.parse(LANCOPE.getBytes("UTF-8"));
+		assertNotNull(parsed);
+		assertEquals(Long.valueOf(1405612710000L), parsed.get("timestamp"));
+		assertEquals("10.40.10.254", parsed.get("ip_src_addr"));
+		assertEquals("0.0.0.0", parsed.get("ip_dst_addr"));
+		assertNull(parsed.get("message"));
+		assertEquals("syslog", parsed.get("type"));
+	}
+
+	public void testNotSyslog() throws Exception {
+		assertNull(syslogParser.parse("not a syslog line".getBytes("UTF-8")));
+		assertNull(syslogParser.parse("<999>Oct 11 22:14:15 host x"
+				.getBytes("UTF-8")));
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.opensoc.parser.interfaces.MessageParser;
+import com.opensoc.parsing.parsers.BasicBroParser;
+import com.opensoc.parsing.parsers.StreamingBroParser;
+
+/**
+ * Throughput comparison of BasicBroParser and StreamingBroParser over the
+ * sample Bro input. Run with
+ *
+ * <pre>
+ * java com.opensoc.parsing.test.BroParserBenchmark [iterations] [sample resource]
+ * </pre>
+ */
+public class BroParserBenchmark {
+
+	public static void main(String[] args) throws IOException {
+
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		String resource = args.length > 1 ? args[1] : "BroSample.log";
+
+		List<byte[]> messages = readMessages(resource);
+		if (messages.isEmpty())
+			throw new IllegalArgumentException("No messages in " + resource);
+
+		StreamingBroParser streaming = new StreamingBroParser();
+		streaming.initializeParser();
+		BasicBroParser basic = new BasicBroParser();
+		basic.initializeParser();
+
+		// warm up both paths before measuring
+		run(basic, messages, iterations / 10);
+		run(streaming, messages, iterations / 10);
+
+		report("BasicBroParser", run(basic, messages, iterations), iterations);
+		report("StreamingBroParser", run(streaming, messages, iterations),
+				iterations);
+	}
+
+	private static long run(MessageParser parser, List<byte[]> messages,
+			int iterations) {
+		int size = messages.size();
+		long fields = 0;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			fields += parser.parse(messages.get(i % size)).size();
+		}
+		long elapsed = System.nanoTime() - startTime;
+		// keep the results alive so the loop is not optimized away
+		if (fields == 0)
+			System.out.println("No fields parsed");
+		return elapsed;
+	}
+
+	private static void report(String name, long elapsedNanos, int iterations) {
+		System.out.println(name + ": " + iterations + " events in "
+				+ (elapsedNanos / 1000000) + " ms, "
+				+ (elapsedNanos / iterations) + " ns/event, "
+				+ (long) (iterations * 1e9 / elapsedNanos) + " events/sec");
+	}
+
+	private static List<byte[]> readMessages(String resource)
+			throws IOException {
+		List<byte[]> messages = new ArrayList<byte[]>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(
+				BroParserBenchmark.class.getClassLoader().getResourceAsStream(
+						resource), "UTF-8"));
+		String line;
+		while ((line = br.readLine()) != null) {
+			if (line.trim().length() > 0)
+				messages.add(line.getBytes("UTF-8"));
+		}
+		br.close();
+		return messages;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import junit.framework.TestCase;
+
+import org.json.simple.JSONObject;
+
+import com.opensoc.parsing.parsers.BasicSourcefireParser;
+import com.opensoc.parsing.parsers.FastSourcefireParser;
+
+/**
+ * <ul>
+ * <li>Title: Test For FastSourcefireParser</li>
+ * <li>Description: Checks the fast path against BasicSourcefireParser</li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class FastSourcefireParserTest extends TestCase {
+
+	private static final String[] ALERTS = {
+			"SFIMS: [Primary Detection Engine (a7213248-6423-11e3-8537-fac6a92b7d9d)][MTD Access Control] Connection Type: Start, User: Unknown, Client: Unknown, Application Protocol: Unknown, Web App: Unknown, Firewall Rule Name: MTD Access Control, Firewall Rule Action: Allow, Firewall Rule Reasons: Unknown, URL Category: Unknown, URL_Reputation: Risk unknown, URL: Unknown, Interface Ingress: s1p1, Interface Egress: N/A, Security Zone Ingress: Unknown, Security Zone Egress: N/A, Security Intelligence Matching IP: None, Security Intelligence Category: None, {TCP} 72.163.0.129:60517 -> 10.1.128.236:443",
+			"snort: [1:3192:2] WEB-CLIENT Windows Media Player directory traversal via Content-Disposition attempt [Classification: Attempted User Privilege Gain] [Priority: 1] {TCP} 46.149.110.103:80 -> 192.168.56.102:1073",
+			"SFIMS: Correlation Event: Open Soc Log Forwarding/Opensoc Log Forwarding at Thu Oct 23 04:55:39 2014 UTC: [1:19123:7] \"MALWARE-CNC Dropper Win.Trojan.Cefyns.A variant outbound connection\" [Impact: Unknown] From \"172.19.50.7\" at Thu Oct 23 04:55:38 2014 UTC [Classification: A Network Trojan was Detected] [Priority: 1] {tcp} 139.230.245.23:52078->72.52.4.91:80",
+			"snort: [1:384:5] PROTOCOL-ICMP PING [Classification: Misc activity] [Priority: 3] {ICMP} 10.0.0.1 -> 10.0.0.2" };
+
+	private FastSourcefireParser fastParser = null;
+	private BasicSourcefireParser basicParser = null;
+
+	public void setUp() throws Exception {
+		basicParser = new BasicSourcefireParser();
+		fastParser = new FastSourcefireParser(basicParser);
+		fastParser.initializeParser();
+	}
+
+	/**
+	 * Every field except the parse time stamp must match
+	 * BasicSourcefireParser.
+	 */
+	public void testParseMatchesBasicParser() throws Exception {
+		for (String alert : ALERTS) {
+			JSONObject fast = fastParser.parse(alert.getBytes("UTF-8"));
+			JSONObject basic = basicParser.parse(alert.getBytes("UTF-8"));
+			assertNotNull(fast);
+			assertNotNull(basic);
+
+			assertEquals(basic.keySet(), fast.keySet());
+			for (Object key : basic.keySet()) {
+				if ("timestamp".equals(key))
+					continue;
+				assertEquals("Mismatch on " + key, basic.get(key), fast.get(key));
+			}
+		}
+		assertEquals(ALERTS.length, fastParser.getFastPathCount());
+		assertEquals(0, fastParser.getFallbackCount());
+	}
+
+	public void testParseSlice() throws Exception {
+		byte[] alert = ALERTS[1].getBytes("UTF-8");
+		byte[] buffer = new byte[alert.length + 8];
+		System.arraycopy(alert, 0, buffer, 4, alert.length);
+		buffer[0] = '{';
+		buffer[buffer.length - 1] = '}';
+
+		JSONObject parsed = fastParser.parse(buffer, 4, alert.length);
+		assertEquals("tcp", parsed.get("protocol"));
+		assertEquals("192.168.56.102", parsed.get("ip_dst_addr"));
+		assertEquals("1073", parsed.get("ip_dst_port"));
+		assertEquals(1, fastParser.getFastPathCount());
+	}
+
+	public void testFallback() throws Exception {
+		// IPv6 addresses are left to the fallback parser
+		JSONObject parsed = fastParser.parse("snort: [1:1:1] test {TCP} fe80::1 -> fe80::2"
+				.getBytes("UTF-8"));
+		assertNotNull(parsed);
+		assertEquals(1, fastParser.getFallbackCount());
+
+		assertNull(fastParser.parse("snort: [1:1:1] no addresses {TCP}"
+				.getBytes("UTF-8")));
+		assertEquals(2, fastParser.getFallbackCount());
+		assertEquals(0, fastParser.getFastPathCount());
+	}
+}
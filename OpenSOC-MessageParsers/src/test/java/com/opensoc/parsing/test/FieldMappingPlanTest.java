@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.opensoc.parsing.parsers.FieldMappingPlan;
+
+/**
+ * <ul>
+ * <li>Title: Test For FieldMappingPlan</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class FieldMappingPlanTest extends TestCase {
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void testApply() {
+		FieldMappingPlan plan = FieldMappingPlan.compile(new String[] {
+				"rename:ts:timestamp", "cast:timestamp:string", "drop:uid",
+				"cast:trans_depth:long", "tld:host" },
+				new String[] { "tld:query" });
+		assertEquals(6, plan.size());
+
+		Map message = new HashMap();
+		message.put("ts", Long.valueOf(1402307733473L));
+		message.put("uid", "CTo78A11g7CYbbOHvj");
+		message.put("trans_depth", "1");
+		message.put("host", " www.cisco.com ");
+		message.put("query", "a.b.example.org.");
+
+		plan.apply(message);
+
+		assertEquals("1402307733473", message.get("timestamp"));
+		assertFalse(message.containsKey("ts"));
+		assertFalse(message.containsKey("uid"));
+		assertEquals(Long.valueOf(1), message.get("trans_depth"));
+		assertEquals("example.org", message.get("tld"));
+	}
+
+	public void testTld() {
+		assertEquals("cisco.com", FieldMappingPlan.tld("www.cisco.com"));
+		assertEquals("cisco.com", FieldMappingPlan.tld("www.cisco.com."));
+		assertEquals(".com", FieldMappingPlan.tld(".com"));
+		assertNull(FieldMappingPlan.tld("localhost"));
+		assertNull(FieldMappingPlan.tld(""));
+	}
+
+	public void testInvalidMapping() {
+		try {
+			FieldMappingPlan.compile(new String[] { "cast:ts:date" }, null);
+			fail("Expected an invalid cast to be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.opensoc.pcap.FlowTable;
+import com.opensoc.pcap.FlowTable.EndReason;
+
+/**
+ * <ul>
+ * <li>Title: Test For FlowTable</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class FlowTableTest extends TestCase {
+
+	private static final int SRC = PcapTestData.ip(10, 0, 0, 1);
+
+	private static final int DST = PcapTestData.ip(192, 168, 200, 254);
+
+	private static final int TCP = 6;
+
+	private static final int UDP = 17;
+
+	private final List<String> ended = new ArrayList<String>();
+
+	private final FlowTable.Listener listener = new FlowTable.Listener() {
+		public void flowEnded(FlowTable flows, int flow, EndReason reason) {
+			ended.add(reason + " " + flows.getSrcPort(flow) + ">"
+					+ flows.getDstPort(flow) + " " + flows.getPackets(flow) + "/"
+					+ flows.getBytes(flow) + " " + flows.getFirstSeen(flow) + "-"
+					+ flows.getLastSeen(flow) + " " + flows.getTcpFlags(flow));
+		}
+	};
+
+	public void testBothDirectionsOneFlowEndingOnFin() {
+		FlowTable flows = new FlowTable(30, 300, 2, 1, 10, listener);
+		flows.add(SRC, DST, 51234, 443, TCP, 100, 60, 0x02);
+		flows.add(DST, SRC, 443, 51234, TCP, 101, 60, 0x12);
+		flows.add(SRC, DST, 51234, 443, TCP, 102, 1500, 0x10);
+		assertEquals(1, flows.size());
+		assertTrue(ended.isEmpty());
+
+		// FIN, FIN/ACK and the last ACK all count towards the flow
+		flows.add(DST, SRC, 443, 51234, TCP, 103, 40, 0x11);
+		flows.add(SRC, DST, 51234, 443, TCP, 104, 40, 0x11);
+		flows.add(DST, SRC, 443, 51234, TCP, 105, 40, 0x10);
+		assertEquals(1, flows.size());
+		assertTrue(ended.isEmpty());
+
+		// ends once the close timeout passed after the last ACK
+		flows.advance(106);
+		assertTrue(ended.isEmpty());
+		flows.advance(107);
+		assertEquals(0, flows.size());
+		assertEquals(1, ended.size());
+		assertEquals("FIN 51234>443 6/1740 100-105 19", ended.get(0));
+	}
+
+	public void testHalfClosedFlowStaysOpen() {
+		FlowTable flows = new FlowTable(30, 300, 2, 1, 10, listener);
+		flows.add(SRC, DST, 51234, 443, TCP, 100, 60, 0x02);
+		flows.add(SRC, DST, 51234, 443, TCP, 101, 40, 0x11);
+		// a retransmitted FIN does not close the other side
+		flows.add(SRC, DST, 51234, 443, TCP, 102, 40, 0x11);
+		flows.add(DST, SRC, 443, 51234, TCP, 110, 1500, 0x10);
+		flows.advance(139);
+		assertTrue(ended.isEmpty());
+		flows.advance(140);
+		assertEquals("IDLE 51234>443 4/1640 100-110 19", ended.get(0));
+	}
+
+	public void testRst() {
+		FlowTable flows = new FlowTable(30, 300, 2, 1, 10, listener);
+		flows.add(SRC, DST, 51234, 443, TCP, 100, 60, 0x02);
+		flows.add(DST, SRC, 443, 51234, TCP, 101, 40, 0x14);
+		assertEquals("RST 51234>443 2/100 100-101 22", ended.get(0));
+	}
+
+	public void testIdleTimeout() {
+		FlowTable flows = new FlowTable(30, 300, 2, 1, 10, listener);
+		flows.add(SRC, DST, 5353, 53, UDP, 100, 80, 0);
+		flows.add(SRC, DST, 5353, 53, UDP, 120, 80, 0);
+		flows.advance(149);
+		assertTrue(ended.isEmpty());
+		flows.advance(150);
+		assertEquals("IDLE 5353>53 2/160 100-120 0", ended.get(0));
+		assertEquals(0, flows.size());
+	}
+
+	public void testActiveTimeout() {
+		FlowTable flows = new FlowTable(30, 300, 2, 1, 10, listener);
+		for (int t = 100; t < 400; t += 10) {
+			flows.add(SRC, DST, 5353, 53, UDP, t, 100, 0);
+		}
+		assertTrue(ended.isEmpty());
+		flows.add(SRC, DST, 5353, 53, UDP, 400, 100, 0);
+		assertEquals("ACTIVE 5353>53 30/3000 100-390 0", ended.get(0));
+		// the next packet opens the next part of the flow
+		assertEquals(1, flows.size());
+	}
+
+	public void testRescheduledAndExpiringFlowsInOneBucket() {
+		FlowTable flows = new FlowTable(30, 300, 2, 1, 10, listener);
+		flows.add(SRC, DST, 1, 53, UDP, 100, 80, 0);
+		flows.add(SRC, DST, 2, 53, UDP, 100, 80, 0);
+		flows.add(SRC, DST, 3, 53, UDP, 100, 80, 0);
+		// 1 and 3 stay alive, 2 expires from between them
+		flows.add(SRC, DST, 3, 53, UDP, 120, 80, 0);
+		flows.add(SRC, DST, 1, 53, UDP, 120, 80, 0);
+
+		flows.advance(131);
+		assertEquals(1, ended.size());
+		assertEquals("IDLE 2>53 1/80 100-100 0", ended.get(0));
+		assertEquals(2, flows.size());
+
+		// the freed entry is reused while the others are still scheduled
+		flows.add(SRC, DST, 4, 53, UDP, 140, 80, 0);
+		flows.advance(200);
+		assertEquals(4, ended.size());
+		assertEquals(0, flows.size());
+		assertTrue(ended.contains("IDLE 1>53 2/160 100-120 0"));
+		assertTrue(ended.contains("IDLE 3>53 2/160 100-120 0"));
+		assertTrue(ended.contains("IDLE 4>53 1/80 140-140 0"));
+	}
+
+	public void testLargeTimeJump() {
+		FlowTable flows = new FlowTable(30, 300, 2, 1, 10, listener);
+		flows.add(SRC, DST, 1, 53, UDP, 100, 80, 0);
+		flows.add(SRC, DST, 2, 53, UDP, 200, 80, 0);
+		flows.advance(1000000);
+		assertEquals(2, ended.size());
+		assertEquals(0, flows.size());
+	}
+
+	public void testEvictsWhenFull() {
+		FlowTable flows = new FlowTable(30, 300, 2, 1, 3, listener);
+		flows.add(SRC, DST, 1, 53, UDP, 100, 80, 0);
+		flows.add(SRC, DST, 2, 53, UDP, 101, 80, 0);
+		flows.add(SRC, DST, 3, 53, UDP, 102, 80, 0);
+		flows.add(SRC, DST, 4, 53, UDP, 103, 80, 0);
+		assertEquals(3, flows.size());
+		assertEquals("EVICTED 1>53 1/80 100-100 0", ended.get(0));
+	}
+
+	public void testManyFlows() {
+		FlowTable flows = new FlowTable(30, 300, 2, 1, 100000, listener);
+		for (int i = 0; i < 50000; i++) {
+			flows.add(SRC + i, DST, i & 0xffff, 80, TCP, 100, 60, 0x02);
+		}
+		assertEquals(50000, flows.size());
+		for (int i = 0; i < 50000; i += 2) {
+			flows.add(DST, SRC + i, 80, i & 0xffff, TCP, 101, 40, 0x04);
+		}
+		assertEquals(25000, flows.size());
+		assertEquals(25000, ended.size());
+		for (int i = 1; i < 50000; i += 2) {
+			flows.add(SRC + i, DST, i & 0xffff, 80, TCP, 102, 60, 0x10);
+		}
+		assertEquals(25000, flows.size());
+		flows.advance(200);
+		assertEquals(0, flows.size());
+		assertEquals(50000, ended.size());
+		assertTrue(ended.get(49999).startsWith("IDLE"));
+		assertTrue(ended.get(49999).contains(" 2/120 "));
+	}
+}
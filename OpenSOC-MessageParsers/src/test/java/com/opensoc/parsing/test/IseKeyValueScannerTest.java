@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.json.simple.JSONObject;
+
+import com.opensoc.ise.parser.ISEParser;
+import com.opensoc.parsing.parsers.BasicIseParser;
+import com.opensoc.parsing.parsers.IseKeyValueScanner;
+
+/**
+ * <ul>
+ * <li>Title: Test For IseKeyValueScanner</li>
+ * <li>Description: Checks the scanner against the JavaCC ISEParser on the
+ * sample ISE output</li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class IseKeyValueScannerTest extends TestCase {
+
+	private IseKeyValueScanner scanner = new IseKeyValueScanner();
+
+	/**
+	 * Top level keys and plain values must match the JavaCC parser. Nested
+	 * values come out of the JavaCC parser as a chain of single entry maps
+	 * ({A={1\,B={2\,C=null}}}) rather than the scanner's {A=1, B=2, C=null},
+	 * so the chain is flattened into its pairs before they are compared.
+	 */
+	@SuppressWarnings("rawtypes")
+	public void testMatchesJavaCCParser() throws Exception {
+		URL log_url = getClass().getClassLoader().getResource("IseSample.log");
+		BufferedReader br = new BufferedReader(new FileReader(log_url.getFile()));
+		ISEParser parser = new ISEParser("header=");
+
+		String line;
+		int lines = 0;
+		while ((line = br.readLine()) != null) {
+			parser.ReInit(new StringReader("header=" + line.trim()));
+			JSONObject expected = parser.parseObject();
+
+			byte[] bytes = line.getBytes("UTF-8");
+			JSONObject scanned = scanner.scan(bytes, 0, bytes.length);
+			assertNotNull(scanned);
+
+			assertEquals(expected.keySet(), scanned.keySet());
+			for (Object key : expected.keySet()) {
+				Object value = expected.get(key);
+				if (value instanceof Map)
+					assertNestedEquals((String) key, (Map) value,
+							scanned.get(key));
+				else
+					assertEquals("Mismatch on " + key, value, scanned.get(key));
+			}
+			lines++;
+		}
+		br.close();
+		assertTrue(lines > 0);
+	}
+
+	public void testNestedAndSpecialValues() throws Exception {
+		byte[] bytes = ("head, A=1, Escaped=x\\,y, Empty=, Blank= , "
+				+ "Nested=K1=v1\\,K2=\\,K3=a=b, Braced={p=q; r}, Tag=(TAG=0) VLAN, Last=")
+				.getBytes("UTF-8");
+		JSONObject scanned = scanner.scan(bytes, 0, bytes.length);
+
+		assertEquals("head", scanned.get("header"));
+		assertEquals("1", scanned.get("A"));
+		assertEquals("x\\,y", scanned.get("Escaped"));
+		assertNull(scanned.get("Empty"));
+		assertTrue(scanned.containsKey("Empty"));
+		assertEquals("", scanned.get("Blank"));
+		assertEquals("{p=q; r}", scanned.get("Braced"));
+		assertEquals("(tag=0) VLAN", scanned.get("Tag"));
+		assertNull(scanned.get("Last"));
+
+		Map nested = (Map) scanned.get("Nested");
+		assertEquals(3, nested.size());
+		assertEquals("v1", nested.get("K1"));
+		assertEquals("", nested.get("K2"));
+		assertEquals("a=b", nested.get("K3"));
+	}
+
+	public void testMalformedMessage() throws Exception {
+		byte[] bytes = "head, novalue, A=1".getBytes("UTF-8");
+		assertNull(scanner.scan(bytes, 0, bytes.length));
+	}
+
+	public void testBlankKey() throws Exception {
+		byte[] bytes = "head, =x, A=1".getBytes("UTF-8");
+		JSONObject scanned = scanner.scan(bytes, 0, bytes.length);
+
+		assertEquals("x", scanned.get(""));
+		assertEquals("1", scanned.get("A"));
+	}
+
+	/**
+	 * The backslash before the first '=' makes the scanner reject the line and
+	 * BasicIseParser fall back to the JavaCC parser. The nested value must
+	 * still come out as the flat object of a scanned line.
+	 */
+	@SuppressWarnings("rawtypes")
+	public void testFallbackKeepsNestedShape() throws Exception {
+		String nested = "Nested=K1=v1\\,K2=\\,K3=a=b\\,K4=";
+		byte[] scannedLine = ("head, A=1, " + nested).getBytes("UTF-8");
+		byte[] rejectedLine = ("head, Dir\\=x, " + nested).getBytes("UTF-8");
+		assertNull(scanner.scan(rejectedLine, 0, rejectedLine.length));
+
+		BasicIseParser parser = new BasicIseParser();
+		Map expected = (Map) parser.parse(scannedLine).get("Nested");
+		Map parsed = (Map) parser.parse(rejectedLine).get("Nested");
+
+		assertEquals(4, expected.size());
+		assertEquals(expected, parsed);
+		assertEquals("a=b", parsed.get("K3"));
+		assertTrue(parsed.containsKey("K4"));
+		assertNull(parsed.get("K4"));
+	}
+
+	/**
+	 * The scanner's nested object must hold exactly the key=value pairs of the
+	 * JavaCC chain, with the same values: no pair missing, extra or moved to
+	 * another key. JavaCC drops the blanks around '=' and escaped commas, so
+	 * the values are compared without them.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static void assertNestedEquals(String key, Map chain, Object scanned) {
+		assertTrue("Expected nested " + key, scanned instanceof Map);
+		assertEquals("Mismatch on " + key, flatten(chain),
+				normalize((Map) scanned));
+	}
+
+	/**
+	 * Flattens a JavaCC chain of single entry maps into the key=value pairs it
+	 * holds. JavaCC splits the text at every '=', so the chain is joined back
+	 * into text and split into pairs at the escaped commas, each pair at its
+	 * first '='. A piece without an '=' belongs to the value before it.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static Map<String, Object> flatten(Map chain) {
+		StringBuilder text = new StringBuilder();
+		Object value = chain;
+		while (value instanceof Map) {
+			Map.Entry e = (Map.Entry) ((Map) value).entrySet().iterator().next();
+			text.append(e.getKey()).append('=');
+			value = e.getValue();
+		}
+		if (value != null)
+			text.append(value);
+
+		Map<String, Object> pairs = new LinkedHashMap<String, Object>();
+		String key = null;
+		for (String piece : text.toString().split("\\\\,")) {
+			int eq = piece.indexOf('=');
+			if (eq < 0 && key != null) {
+				pairs.put(key, pairs.get(key) + "\\," + piece);
+			} else {
+				key = piece.substring(0, eq).trim();
+				pairs.put(key, piece.substring(eq + 1));
+			}
+		}
+		for (Map.Entry<String, Object> pair : pairs.entrySet())
+			pair.setValue(normalize((String) pair.getValue()));
+		if (value == null)
+			pairs.put(key, null);
+		return pairs;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Map<String, Object> normalize(Map scanned) {
+		Map<String, Object> pairs = new LinkedHashMap<String, Object>();
+		for (Object entry : scanned.entrySet()) {
+			Map.Entry e = (Map.Entry) entry;
+			pairs.put((String) e.getKey(), e.getValue() == null ? null
+					: normalize(e.getValue().toString()));
+		}
+		return pairs;
+	}
+
+	private static String normalize(String value) {
+		return value.replaceAll("\\s*(=|\\\\[,;])\\s*", "$1").trim();
+	}
+}
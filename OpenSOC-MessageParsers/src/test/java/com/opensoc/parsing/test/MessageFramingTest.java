@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.opensoc.parsing.MessageFraming;
+
+/**
+ * <ul>
+ * <li>Title: Test For MessageFraming</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class MessageFramingTest extends TestCase {
+
+	private MessageFraming.Records records = new MessageFraming.Records();
+
+	private String record(byte[] data, int i) throws IOException {
+		return new String(data, records.offset(i), records.length(i), "UTF-8");
+	}
+
+	public void testNewline() throws IOException {
+		byte[] data = "{\"a\":1}\r\n\n  \n{\"b\":2}".getBytes("UTF-8");
+		MessageFraming.NEWLINE.split(data, records);
+		assertEquals(2, records.size());
+		assertEquals("{\"a\":1}", record(data, 0));
+		assertEquals("{\"b\":2}", record(data, 1));
+	}
+
+	public void testLengthPrefixed() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (String s : new String[] { "first", "second record" }) {
+			out.writeInt(s.length());
+			out.writeBytes(s);
+		}
+		out.writeInt(100);
+		out.writeBytes("short");
+		byte[] data = bytes.toByteArray();
+
+		try {
+			MessageFraming.LENGTH_PREFIXED.split(data, records);
+			fail("Expected the truncated record to be reported");
+		} catch (IOException e) {
+			// records before the truncated one are kept
+		}
+		assertEquals(2, records.size());
+		assertEquals("first", record(data, 0));
+		assertEquals("second record", record(data, 1));
+	}
+
+	public void testJsonArray() throws IOException {
+		byte[] data = " [ {\"a\":\"x,]}\"}, {\"b\":[1,2]} ,3 ] ".getBytes("UTF-8");
+		MessageFraming.JSON_ARRAY.split(data, records);
+		assertEquals(3, records.size());
+		assertEquals("{\"a\":\"x,]}\"}", record(data, 0));
+		assertEquals("{\"b\":[1,2]}", record(data, 1));
+		assertEquals("3", record(data, 2));
+	}
+
+	public void testFromString() {
+		assertEquals(MessageFraming.NONE, MessageFraming.fromString(null));
+		assertEquals(MessageFraming.JSON_ARRAY,
+				MessageFraming.fromString("json_array"));
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import com.opensoc.pcap.PacketInfo;
+import com.opensoc.pcap.PacketJsonWriter;
+import com.opensoc.parsing.parsers.PcapParser;
+
+/**
+ * <ul>
+ * <li>Title: Test For PacketJsonWriter</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class PacketJsonWriterTest extends TestCase {
+
+	private List<PacketInfo> packets;
+
+	@Override
+	protected void setUp() throws Exception {
+		packets = PcapParser.parse(new PcapTestData(true, false)
+				.tcp(1405612710, 250, PcapTestData.ip(10, 0, 0, 1), 51234,
+						PcapTestData.ip(192, 168, 200, 254), 443, 7, 0x12, -1)
+				.udp(1405612712, 500, PcapTestData.ip(255, 255, 255, 255), 53,
+						PcapTestData.ip(0, 0, 0, 0), 0, 65535, 8191)
+				.toByteArray());
+	}
+
+	public void testIndexMapMatchesIndexDoc() {
+		for (PacketInfo packetInfo : packets) {
+			JSONObject parsed = (JSONObject) JSONValue.parse(packetInfo
+					.getJsonIndexDoc());
+			assertEquals(parsed, packetInfo.getJsonIndexMap());
+		}
+	}
+
+	public void testIndexDoc() {
+		assertEquals("{\"pcap_id\":\"ffffffff-00000000-17-53-0\","
+				+ "\"ip_protocol\":17,\"ip_id\":65535,\"frag_offset\":8191,"
+				+ "\"ts_micro\":1405612712000500,"
+				+ "\"ip_src_addr\":\"255.255.255.255\",\"ip_src_port\":53,"
+				+ "\"ip_dst_addr\":\"0.0.0.0\",\"ip_dst_port\":0}", packets
+				.get(1).getJsonIndexDoc());
+	}
+
+	public void testHeaderDoc() {
+		PacketInfo udp = packets.get(1);
+		JSONObject doc = (JSONObject) JSONValue.parse(udp.getJsonDoc());
+
+		JSONObject global = (JSONObject) doc.get("global_header");
+		assertEquals(udp.getKey(), global.get("pcap_id"));
+		assertEquals(1405612712L, global.get("ts_sec"));
+		assertEquals(500L, global.get("ts_usec"));
+
+		JSONObject ipv4 = (JSONObject) doc.get("ipv4_header");
+		// signed, as Ipv4Packet.getSource() gives it
+		assertEquals(-1L, ipv4.get("ip_src"));
+		assertEquals("255.255.255.255", ipv4.get("ip_src_addr"));
+		assertEquals(0L, ipv4.get("ip_dst"));
+		assertEquals(5L, ipv4.get("ip_header_length"));
+		assertEquals(64L, ipv4.get("ip_ttl"));
+		assertEquals(2L, ipv4.get("ip_flags"));
+		assertEquals(8191L, ipv4.get("ip_fragment_offset"));
+
+		JSONObject udpHeader = (JSONObject) doc.get("udp_header");
+		assertEquals(20L, udpHeader.get("length"));
+		assertEquals("0.0.0.0", udpHeader.get("dst_addr"));
+	}
+
+	public void testWriterIsPooled() {
+		PacketJsonWriter writer = PacketJsonWriter.get();
+		writer.writeJsonIndexDoc(packets.get(0));
+		int size = writer.size();
+		assertTrue(size > 0);
+		assertEquals(writer.toString(), new String(writer.toByteArray()));
+
+		PacketJsonWriter again = PacketJsonWriter.get();
+		assertSame(writer, again);
+		assertEquals(0, again.size());
+		assertEquals(size, again.writeJsonIndexDoc(packets.get(0)).size());
+	}
+}
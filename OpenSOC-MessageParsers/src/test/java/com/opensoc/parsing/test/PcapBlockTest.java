@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.opensoc.pcap.PacketInfo;
+import com.opensoc.pcap.PcapBlock;
+import com.opensoc.pcap.PcapBlockKey;
+import com.opensoc.pcap.PcapRecord;
+import com.opensoc.pcap.PcapUtils;
+import com.opensoc.parsing.parsers.PcapParser;
+
+/**
+ * <ul>
+ * <li>Title: Test For PcapBlock</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class PcapBlockTest extends TestCase {
+
+	private static final int SRC = PcapTestData.ip(10, 0, 0, 1);
+
+	private static final int DST = PcapTestData.ip(192, 168, 200, 254);
+
+	private List<byte[]> pcaps;
+
+	@Override
+	protected void setUp() throws Exception {
+		PcapTestData data = new PcapTestData(true, true);
+		for (int i = 0; i < 50; i++) {
+			data.tcp(1405612710 + i, 250, SRC, 51234, DST, 443, i, 0x10, 0);
+		}
+		pcaps = new ArrayList<byte[]>();
+		for (PacketInfo packetInfo : PcapParser.parse(data.toByteArray())) {
+			pcaps.add(PcapRecord.of(packetInfo.getCursor()).toByteArray());
+		}
+	}
+
+	public void testRoundTrip() throws Exception {
+		PcapBlock block = new PcapBlock();
+		for (int i = 0; i < pcaps.size(); i++) {
+			assertTrue(block.add(i, pcaps.get(i)));
+		}
+		assertEquals(pcaps.size(), block.count());
+		assertEquals(0, block.getFirstTimestamp());
+		assertEquals(pcaps.size() - 1, block.getLastTimestamp());
+
+		byte[] plain = block.toByteArray(false);
+		byte[] deflated = block.toByteArray(true);
+		assertEquals(PcapBlock.CODEC_NONE, plain[1]);
+		assertEquals(PcapBlock.CODEC_DEFLATE, deflated[1]);
+		assertTrue(deflated.length < plain.length);
+
+		for (byte[] encoded : Arrays.asList(plain, deflated)) {
+			List<byte[]> decoded = PcapBlock.decode(encoded, 0, Long.MAX_VALUE);
+			assertEquals(pcaps.size(), decoded.size());
+			for (int i = 0; i < pcaps.size(); i++) {
+				assertTrue(Arrays.equals(pcaps.get(i), decoded.get(i)));
+			}
+		}
+	}
+
+	public void testTimeRange() throws Exception {
+		PcapBlock block = new PcapBlock();
+		for (int i = 0; i < pcaps.size(); i++) {
+			block.add(i * 10, pcaps.get(i));
+		}
+		List<byte[]> decoded = PcapBlock.decode(block.toByteArray(true), 100,
+				200);
+		assertEquals(10, decoded.size());
+		assertTrue(Arrays.equals(pcaps.get(10), decoded.get(0)));
+		assertTrue(Arrays.equals(pcaps.get(19), decoded.get(9)));
+	}
+
+	public void testDifferentGlobalHeader() {
+		PcapBlock block = new PcapBlock();
+		assertTrue(block.add(0, pcaps.get(0)));
+		byte[] other = pcaps.get(1).clone();
+		other[0] ^= 1;
+		assertFalse(block.add(1, other));
+		assertEquals(1, block.count());
+	}
+
+	public void testCorruptBlock() {
+		PcapBlock block = new PcapBlock();
+		block.add(0, pcaps.get(0));
+		byte[] encoded = block.toByteArray(false);
+		try {
+			PcapBlock.decode(Arrays.copyOf(encoded, encoded.length - 1), 0,
+					Long.MAX_VALUE);
+			fail("Expected IOException");
+		} catch (IOException e) {
+		}
+	}
+
+	public void testBlockKeys() {
+		String sessionKey = PcapUtils.getShortSessionKey(SRC, DST, 6, 51234,
+				443);
+		for (boolean binary : new boolean[] { false, true }) {
+			byte[] key = PcapBlockKey.toBytes(sessionKey, 42, binary, 16);
+			byte[] next = PcapBlockKey.toBytes(sessionKey, 256, binary, 16);
+			byte[] prefix = PcapBlockKey.toSessionPrefix(sessionKey, binary,
+					16);
+			assertEquals(sessionKey + "-42",
+					PcapBlockKey.toKeyString(key, binary));
+			assertTrue(Arrays.equals(prefix,
+					Arrays.copyOf(key, prefix.length)));
+			assertTrue(compare(key, next) < 0);
+		}
+		assertEquals(PcapBlockKey.BINARY_LENGTH,
+				PcapBlockKey.toBytes(sessionKey, 42, true, 16).length);
+	}
+
+	private static int compare(byte[] a, byte[] b) {
+		for (int i = 0; i < Math.min(a.length, b.length); i++) {
+			int d = (a[i] & 0xff) - (b[i] & 0xff);
+			if (d != 0)
+				return d;
+		}
+		return a.length - b.length;
+	}
+}
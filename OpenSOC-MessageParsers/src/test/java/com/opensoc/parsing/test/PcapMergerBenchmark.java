@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.opensoc.pcap.PcapMerger;
+
+/**
+ * Memory and latency of merging the pcaps of a 1k-key response. Compares
+ * <ul>
+ * <li>merge: the streaming k-way heap merge of PcapMerger.merge</li>
+ * <li>sort: PcapMerger.mergeBySorting, which concatenates every packet into
+ * one buffer and sorts it before writing anything</li>
+ * </ul>
+ * For each it reports the time to the first packet written, the total time
+ * and the bytes allocated per merge, where the JVM can count them. Run with
+ *
+ * <pre>
+ * java com.opensoc.parsing.test.PcapMergerBenchmark [iterations] [keys] [packets per key]
+ * </pre>
+ */
+public class PcapMergerBenchmark {
+
+	public static void main(String[] args) throws IOException {
+
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int keys = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int packets = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		List<byte[]> pcaps = syntheticResponse(keys, packets);
+
+		// warm up both paths before measuring
+		run(pcaps, iterations / 10, false);
+		run(pcaps, iterations / 10, true);
+
+		System.out.println(keys + " keys, " + packets + " packets per key");
+		report("merge", run(pcaps, iterations, false), iterations);
+		report("sort", run(pcaps, iterations, true), iterations);
+	}
+
+	/**
+	 * Returns the summed first packet latency, total time and allocated bytes.
+	 */
+	private static long[] run(List<byte[]> pcaps, int iterations,
+			boolean sort) throws IOException {
+		long[] result = new long[3];
+		long allocatedBefore = allocatedBytes();
+		for (int i = 0; i < iterations; i++) {
+			FirstPacketStream out = new FirstPacketStream();
+			long startTime = System.nanoTime();
+			if (sort) {
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				PcapMerger.mergeBySorting(baos, pcaps);
+				baos.writeTo(out);
+			} else {
+				PcapMerger.merge(out, pcaps);
+			}
+			long endTime = System.nanoTime();
+			result[0] += out.firstPacketTime - startTime;
+			result[1] += endTime - startTime;
+		}
+		long allocatedAfter = allocatedBytes();
+		result[2] = allocatedBefore < 0 ? -1 : allocatedAfter
+				- allocatedBefore;
+		return result;
+	}
+
+	private static List<byte[]> syntheticResponse(int keys, int packets) {
+		List<byte[]> pcaps = new ArrayList<byte[]>(keys);
+		for (int i = 0; i < keys; i++) {
+			PcapTestData data = new PcapTestData(true, false);
+			int src = PcapTestData.ip(10, 0, i >> 8, i);
+			int dst = PcapTestData.ip(192, 168, 1, i);
+			// sessions overlap in time, so the packets interleave
+			for (int j = 0; j < packets; j++)
+				data.tcp(1405612710 + j, (i * 7919) % 1000000, src, 1024 + i,
+						dst, 443, j, 0x10, 100);
+			pcaps.add(data.toByteArray());
+		}
+		return pcaps;
+	}
+
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread()
+						.getId());
+			}
+		}
+		return -1;
+	}
+
+	private static void report(String name, long[] result, int iterations) {
+		System.out.println(name + ": first packet "
+				+ (result[0] / iterations / 1000) + " us, total "
+				+ (result[1] / iterations / 1000) + " us, "
+				+ (result[2] < 0 ? "n/a" : String.valueOf(result[2] / iterations))
+				+ " bytes allocated per merge");
+	}
+
+	/**
+	 * Discards what is written, noting when the first byte past the global
+	 * header arrives.
+	 */
+	private static class FirstPacketStream extends OutputStream {
+
+		private long written;
+
+		private long firstPacketTime;
+
+		@Override
+		public void write(int b) {
+			write(null, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			written += len;
+			if (firstPacketTime == 0 && written > 24)
+				firstPacketTime = System.nanoTime();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.opensoc.pcap.PacketCursor;
+import com.opensoc.pcap.PcapMerger;
+
+/**
+ * <ul>
+ * <li>Title: Test For PcapMerger</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class PcapMergerTest extends TestCase {
+
+	private static final int SRC = PcapTestData.ip(10, 0, 0, 1);
+
+	private static final int DST = PcapTestData.ip(10, 0, 0, 2);
+
+	public void testMergesInTimeOrder() throws Exception {
+		List<byte[]> pcaps = new ArrayList<byte[]>();
+		for (int i = 0; i < 3; i++) {
+			PcapTestData data = new PcapTestData(true, false);
+			for (int j = 0; j < 5; j++)
+				data.udp(1405612710 + j, i * 100 + j, SRC, i, DST, j, 0, 0);
+			pcaps.add(data.toByteArray());
+		}
+
+		byte[] merged = merge(pcaps);
+
+		assertTrue(Arrays.equals(Arrays.copyOf(pcaps.get(0), 24),
+				Arrays.copyOf(merged, 24)));
+		long last = Long.MIN_VALUE;
+		int packets = 0;
+		PacketCursor cursor = new PacketCursor();
+		cursor.reset(merged);
+		while (cursor.next()) {
+			assertTrue(cursor.getPacketTimeInNanos() >= last);
+			last = cursor.getPacketTimeInNanos();
+			packets++;
+		}
+		assertEquals(15, packets);
+	}
+
+	public void testSameAsMergeBySorting() throws Exception {
+		List<byte[]> pcaps = new ArrayList<byte[]>();
+		for (int i = 0; i < 50; i++) {
+			pcaps.add(new PcapTestData(true, false)
+					.udp(1405612710 + i % 7, i, SRC, i, DST, 53, i, 0)
+					.tcp(1405612720, i % 3, SRC, i, DST, 80, i, 0x10, -1)
+					.toByteArray());
+		}
+
+		ByteArrayOutputStream sorted = new ByteArrayOutputStream();
+		PcapMerger.mergeBySorting(sorted, pcaps);
+
+		assertTrue(Arrays.equals(sorted.toByteArray(), merge(pcaps)));
+	}
+
+	public void testTiesKeepInputOrder() throws Exception {
+		List<byte[]> pcaps = new ArrayList<byte[]>();
+		for (int i = 0; i < 4; i++)
+			pcaps.add(new PcapTestData(true, false).udp(1405612710, 0, SRC,
+					i, DST, 53, 0, 0).toByteArray());
+
+		PacketCursor cursor = new PacketCursor();
+		cursor.reset(merge(pcaps));
+		for (int i = 0; i < 4; i++) {
+			assertTrue(cursor.next());
+			assertEquals(i, cursor.getSrcPort());
+		}
+		assertFalse(cursor.next());
+	}
+
+	public void testUnorderedPcapIsSorted() throws Exception {
+		List<byte[]> pcaps = new ArrayList<byte[]>();
+		pcaps.add(new PcapTestData(true, false)
+				.udp(1405612712, 0, SRC, 1, DST, 53, 0, 0)
+				.udp(1405612710, 0, SRC, 2, DST, 53, 0, 0).toByteArray());
+		pcaps.add(new PcapTestData(true, false).udp(1405612711, 0, SRC, 3,
+				DST, 53, 0, 0).toByteArray());
+
+		PacketCursor cursor = new PacketCursor();
+		cursor.reset(merge(pcaps));
+		int[] expected = { 2, 3, 1 };
+		for (int port : expected) {
+			assertTrue(cursor.next());
+			assertEquals(port, cursor.getSrcPort());
+		}
+	}
+
+	public void testConvertsToFirstGlobalHeader() throws Exception {
+		List<byte[]> pcaps = new ArrayList<byte[]>();
+		pcaps.add(new PcapTestData(true, false).udp(1405612710, 500, SRC, 1,
+				DST, 53, 0, 0).toByteArray());
+		pcaps.add(new PcapTestData(false, true).udp(1405612710, 250999, SRC,
+				2, DST, 53, 0, 0).toByteArray());
+
+		PacketCursor cursor = new PacketCursor();
+		cursor.reset(merge(pcaps));
+		assertTrue(cursor.isSwapped());
+		assertFalse(cursor.isNanoResolution());
+
+		assertTrue(cursor.next());
+		assertEquals(2, cursor.getSrcPort());
+		assertEquals(250, cursor.getTsUsec());
+		assertTrue(cursor.next());
+		assertEquals(1, cursor.getSrcPort());
+		assertEquals(500, cursor.getTsUsec());
+		assertFalse(cursor.next());
+	}
+
+	public void testEmpty() throws Exception {
+		assertEquals(0, merge(new ArrayList<byte[]>()).length);
+
+		byte[] headerOnly = new PcapTestData(true, false).toByteArray();
+		assertTrue(Arrays.equals(headerOnly,
+				merge(Arrays.asList(headerOnly, headerOnly))));
+	}
+
+	private static byte[] merge(List<byte[]> pcaps) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		PcapMerger.merge(baos, pcaps);
+		return baos.toByteArray();
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import com.opensoc.pcap.PacketCursor;
+import com.opensoc.pcap.PacketInfo;
+import com.opensoc.parsing.parsers.PcapParser;
+
+/**
+ * Throughput of the pcap decoding paths, replacing the ad-hoc main() that
+ * used to live in PcapParser. Compares
+ * <ul>
+ * <li>cursor: walking a capture with a reused PacketCursor</li>
+ * <li>parse: PcapParser.parse plus the key and index document per packet, as
+ * PcapParserBolt does</li>
+ * <li>kraken: the same with the krakenapps packet objects decoded for every
+ * packet, which is what PcapParser used to do</li>
+ * </ul>
+ * Run with
+ *
+ * <pre>
+ * java com.opensoc.parsing.test.PcapParserBenchmark [iterations] [pcap file]
+ * </pre>
+ *
+ * Without a file a synthetic capture of 100 TCP and UDP packets is used.
+ */
+public class PcapParserBenchmark {
+
+	public static void main(String[] args) throws IOException {
+
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		byte[] pcap = args.length > 1 ? FileUtils.readFileToByteArray(new File(
+				args[1])) : syntheticCapture(100);
+
+		int packets = PcapParser.parse(pcap).size();
+		if (packets == 0)
+			throw new IllegalArgumentException("No IPv4 packets in capture");
+
+		// warm up all paths before measuring
+		cursor(pcap, iterations / 10);
+		parse(pcap, iterations / 10, false);
+		parse(pcap, iterations / 10, true);
+
+		report("cursor", cursor(pcap, iterations), iterations, packets);
+		report("parse", parse(pcap, iterations, false), iterations, packets);
+		report("kraken", parse(pcap, iterations, true), iterations, packets);
+	}
+
+	private static long cursor(byte[] pcap, int iterations) throws IOException {
+		PacketCursor cursor = new PacketCursor();
+		long sum = 0;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			cursor.reset(pcap);
+			while (cursor.next())
+				sum += cursor.getSrcIp() ^ cursor.getDstPort();
+		}
+		long elapsed = System.nanoTime() - startTime;
+		// keep the results alive so the loop is not optimized away
+		if (sum == 42)
+			System.out.println();
+		return elapsed;
+	}
+
+	private static long parse(byte[] pcap, int iterations, boolean kraken)
+			throws IOException {
+		PacketCursor cursor = new PacketCursor();
+		long chars = 0;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			List<PacketInfo> list = PcapParser.parse(pcap, cursor);
+			for (PacketInfo packetInfo : list) {
+				if (kraken)
+					packetInfo.getIpv4Packet();
+				chars += packetInfo.getKey().length()
+						+ packetInfo.getJsonIndexDoc().length();
+			}
+		}
+		long elapsed = System.nanoTime() - startTime;
+		if (chars == 0)
+			System.out.println("Nothing parsed");
+		return elapsed;
+	}
+
+	private static byte[] syntheticCapture(int packets) {
+		PcapTestData data = new PcapTestData(true, false);
+		for (int i = 0; i < packets; i++) {
+			int src = PcapTestData.ip(10, 0, i >> 8, i);
+			int dst = PcapTestData.ip(192, 168, 1, i);
+			if (i % 4 == 0)
+				data.udp(1405612710 + i, i, src, 1024 + i, dst, 53, i, 0);
+			else
+				data.tcp(1405612710 + i, i, src, 1024 + i, dst, 443, i, 0x10,
+						i % 2 == 0 ? 100 : -1);
+		}
+		return data.toByteArray();
+	}
+
+	private static void report(String name, long elapsedNanos, int iterations,
+			int packets) {
+		long total = (long) iterations * packets;
+		System.out.println(name + ": " + total + " packets in "
+				+ (elapsedNanos / 1000000) + " ms, " + (elapsedNanos / total)
+				+ " ns/packet, " + (long) (total * 1e9 / elapsedNanos)
+				+ " packets/sec");
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import com.opensoc.pcap.PacketCursor;
+import com.opensoc.pcap.PacketInfo;
+import com.opensoc.pcap.PcapUtils;
+import com.opensoc.parsing.parsers.PcapParser;
+
+/**
+ * <ul>
+ * <li>Title: Test For PcapParser and PacketCursor</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class PcapParserTest extends TestCase {
+
+	private static final int SRC = PcapTestData.ip(10, 0, 0, 1);
+	private static final int DST = PcapTestData.ip(192, 168, 200, 254);
+
+	private byte[] capture(boolean littleEndian, boolean nanos) {
+		return new PcapTestData(littleEndian, nanos)
+				.tcp(1405612710, 250, SRC, 51234, DST, 443, 7, 0x12, 100)
+				.arp(1405612711)
+				.udp(1405612712, 500, DST, 53, SRC, 40000, 8, 3)
+				.truncated(1405612713).toByteArray();
+	}
+
+	public void testParse() throws Exception {
+		List<PacketInfo> packets = PcapParser.parse(capture(true, false));
+		assertEquals(2, packets.size());
+
+		PacketCursor tcp = packets.get(0).getCursor();
+		assertTrue(tcp.isTcp());
+		assertEquals(100, tcp.getVlanId());
+		assertEquals(SRC, tcp.getSrcIp());
+		assertEquals(DST, tcp.getDstIp());
+		assertEquals(51234, tcp.getSrcPort());
+		assertEquals(443, tcp.getDstPort());
+		assertEquals(0x12, tcp.getTcpFlags());
+		assertEquals(1000, tcp.getSeq());
+		assertEquals(5, tcp.getTcpDataOffset());
+		assertEquals(64, tcp.getTtl());
+		assertEquals(2, tcp.getIpFlags());
+		assertEquals(1405612710000250000L, tcp.getPacketTimeInNanos());
+
+		PacketCursor udp = packets.get(1).getCursor();
+		assertTrue(udp.isUdp());
+		assertEquals(-1, udp.getVlanId());
+		assertEquals(53, udp.getSrcPort());
+		assertEquals(20, udp.getUdpLength());
+		assertEquals(3, udp.getFragmentOffset());
+		assertEquals(0xbeef, udp.getTransportChecksum());
+	}
+
+	public void testKeysMatchStringKeys() throws Exception {
+		List<PacketInfo> packets = PcapParser.parse(capture(false, false));
+
+		assertEquals(PcapUtils.getSessionKey("10.0.0.1", "192.168.200.254", 6,
+				51234, 443, 7, 0), packets.get(0).getKey());
+		assertEquals(PcapUtils.getShortSessionKey("10.0.0.1",
+				"192.168.200.254", 6, 51234, 443), packets.get(0).getShortKey());
+		assertEquals(PcapUtils.getSessionKey("192.168.200.254", "10.0.0.1",
+				17, 53, 40000, 8, 3), packets.get(1).getKey());
+		assertEquals("0a000001",
+				PcapUtils.convertIpv4IpToHex(PcapTestData.ip(10, 0, 0, 1)));
+		assertEquals("192.168.200.254", PcapUtils.convertIntToIpv4(DST));
+	}
+
+	public void testJsonDocs() throws Exception {
+		PacketInfo udp = PcapParser.parse(capture(true, false)).get(1);
+
+		JSONObject index = (JSONObject) JSONValue.parse(udp.getJsonIndexDoc());
+		assertEquals(udp.getShortKey(), index.get("pcap_id"));
+		assertEquals(1405612712000500L, ((Number) index.get("ts_micro"))
+				.longValue());
+		assertEquals("192.168.200.254", index.get("ip_src_addr"));
+		assertEquals(40000L, ((Number) index.get("ip_dst_port")).longValue());
+
+		JSONObject doc = (JSONObject) JSONValue.parse(udp.getJsonDoc());
+		JSONObject ipv4 = (JSONObject) doc.get("ipv4_header");
+		assertEquals("10.0.0.1", ipv4.get("ip_dst_addr"));
+		assertEquals(17L, ((Number) ipv4.get("ip_protocol")).longValue());
+		JSONObject header = (JSONObject) doc.get("udp_header");
+		assertEquals(53L, ((Number) header.get("src_port")).longValue());
+	}
+
+	public void testNanoResolution() throws Exception {
+		PacketCursor cursor = new PacketCursor();
+		cursor.reset(capture(false, true));
+		assertTrue(cursor.isNanoResolution());
+		assertTrue(cursor.next());
+		assertEquals(1405612710000000250L, cursor.getPacketTimeInNanos());
+	}
+
+	public void testCursorIsReusable() throws Exception {
+		PacketCursor cursor = new PacketCursor();
+		assertEquals(2, PcapParser.parse(capture(true, false), cursor).size());
+		assertEquals(2, PcapParser.parse(capture(false, true), cursor).size());
+
+		cursor.reset(new PcapTestData(true, false).toByteArray());
+		assertFalse(cursor.next());
+	}
+
+	public void testRejectsUnknownMagicNumber() {
+		byte[] pcap = capture(true, false);
+		pcap[0] = 0;
+		try {
+			PcapParser.parse(pcap);
+			fail("Expected an IOException");
+		} catch (IOException expected) {
+		}
+		try {
+			PcapParser.parse(new byte[10]);
+			fail("Expected an IOException");
+		} catch (IOException expected) {
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.opensoc.pcap.PacketCursor;
+import com.opensoc.pcap.PacketInfo;
+import com.opensoc.pcap.PcapRecord;
+import com.opensoc.pcap.PcapRecordKryoSerializer;
+import com.opensoc.parsing.parsers.PcapParser;
+
+/**
+ * <ul>
+ * <li>Title: Test For PcapRecord</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class PcapRecordTest extends TestCase {
+
+	private byte[] capture;
+
+	private List<PacketInfo> packets;
+
+	@Override
+	protected void setUp() throws Exception {
+		capture = new PcapTestData(true, true)
+				.tcp(1405612710, 250, PcapTestData.ip(10, 0, 0, 1), 51234,
+						PcapTestData.ip(192, 168, 200, 254), 443, 7, 0x12, 100)
+				.arp(1405612711)
+				.udp(1405612712, 500, PcapTestData.ip(10, 0, 0, 2), 53,
+						PcapTestData.ip(10, 0, 0, 3), 1053, 8, 0)
+				.toByteArray();
+		packets = PcapParser.parse(capture);
+	}
+
+	public void testRecordIsSinglePacketCapture() throws Exception {
+		int total = 0;
+		for (PacketInfo packetInfo : packets) {
+			PcapRecord record = PcapRecord.of(packetInfo.getCursor());
+			byte[] pcap = record.toByteArray();
+			assertEquals(record.length(), pcap.length);
+			total += pcap.length - PacketCursor.GLOBAL_HEADER_LENGTH;
+
+			// same global header, nanosecond magic included
+			assertTrue(Arrays.equals(
+					Arrays.copyOf(capture, PacketCursor.GLOBAL_HEADER_LENGTH),
+					Arrays.copyOf(pcap, PacketCursor.GLOBAL_HEADER_LENGTH)));
+
+			List<PacketInfo> parsed = PcapParser.parse(pcap);
+			assertEquals(1, parsed.size());
+			assertEquals(packetInfo.getKey(), parsed.get(0).getKey());
+			assertEquals(packetInfo.getPacketTimeInNanos(), parsed.get(0)
+					.getPacketTimeInNanos());
+		}
+		// the records together are smaller than the capture by the headers
+		// and the skipped arp packet
+		assertTrue(total < capture.length - PacketCursor.GLOBAL_HEADER_LENGTH);
+	}
+
+	public void testWriteToMatchesToByteArray() throws Exception {
+		PcapRecord record = PcapRecord.of(packets.get(1).getCursor());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		record.writeTo(out);
+		assertTrue(Arrays.equals(record.toByteArray(), out.toByteArray()));
+	}
+
+	public void testKryoRoundTrip() throws Exception {
+		PcapRecordKryoSerializer serializer = new PcapRecordKryoSerializer();
+		PcapRecord record = PcapRecord.of(packets.get(0).getCursor());
+
+		Output output = new Output(4096);
+		serializer.write(new Kryo(), output, record);
+		PcapRecord read = serializer.read(new Kryo(),
+				new Input(output.toBytes()), PcapRecord.class);
+
+		assertEquals(record.length(), read.length());
+		assertTrue(Arrays.equals(record.toByteArray(), read.toByteArray()));
+	}
+
+	public void testToBytes() {
+		PcapRecord record = PcapRecord.of(packets.get(0).getCursor());
+		assertTrue(Arrays.equals(record.toByteArray(),
+				PcapRecord.toBytes(record)));
+		assertSame(capture, PcapRecord.toBytes(capture));
+	}
+
+	public void testRecordOutsideCapture() {
+		try {
+			new PcapRecord(capture, 0, capture.length - 8, 16);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
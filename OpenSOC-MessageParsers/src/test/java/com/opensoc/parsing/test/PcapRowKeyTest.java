@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.opensoc.pcap.PcapRowKey;
+import com.opensoc.pcap.PcapUtils;
+
+/**
+ * <ul>
+ * <li>Title: Test For PcapRowKey</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class PcapRowKeyTest extends TestCase {
+
+	private static final int BUCKETS = 16;
+
+	private static final int SRC = PcapTestData.ip(10, 0, 0, 1);
+
+	private static final int DST = PcapTestData.ip(192, 168, 200, 254);
+
+	public void testRoundTrip() {
+		String pcapId = PcapUtils.getSessionKey(SRC, DST, 6, 51234, 443, 65535,
+				8191);
+		byte[] rowKey = PcapRowKey.toBytes(pcapId, BUCKETS);
+
+		assertEquals(PcapRowKey.LENGTH, rowKey.length);
+		assertTrue(Arrays.equals(rowKey, PcapRowKey.toBytes(SRC, DST, 6, 51234,
+				443, 65535, 8191, BUCKETS)));
+		assertEquals(pcapId, PcapRowKey.toPcapId(rowKey));
+
+		// 0a000001 after the salt, protocol 6 after both ips
+		assertEquals(0x0a, rowKey[1]);
+		assertEquals(0x01, rowKey[4]);
+		assertEquals((byte) 0xc0, rowKey[5]);
+		assertEquals(6, rowKey[9]);
+	}
+
+	public void testSaltIsDirectionIndependent() {
+		for (int port = 1024; port < 1100; port++) {
+			int salt = PcapRowKey.getSalt(SRC, DST, 6, port, 443, BUCKETS);
+			assertTrue(salt >= 0 && salt < BUCKETS);
+			assertEquals(salt, PcapRowKey.getSalt(DST, SRC, 6, 443, port,
+					BUCKETS));
+			assertEquals(salt, PcapRowKey.toBytes(SRC, DST, 6, port, 443, port,
+					0, BUCKETS)[0]);
+		}
+		assertEquals(0, PcapRowKey.getSalt(SRC, DST, 6, 1, 2, 1));
+	}
+
+	public void testSequentialIpsSpreadOverBuckets() {
+		boolean[] used = new boolean[BUCKETS];
+		for (int i = 0; i < 256; i++) {
+			used[PcapRowKey.getSalt(SRC + i, DST, 6, 51234, 443, BUCKETS)] = true;
+		}
+		for (boolean bucket : used) {
+			assertTrue(bucket);
+		}
+	}
+
+	public void testPrefixAndStopRow() {
+		String shortKey = PcapUtils.getShortSessionKey(SRC, DST, 17, 53, 1053);
+		int salt = PcapRowKey.getSalt(shortKey, BUCKETS);
+		assertEquals(PcapRowKey.getSalt(SRC, DST, 17, 53, 1053, BUCKETS), salt);
+
+		byte[] prefix = PcapRowKey.toPrefix(salt, shortKey);
+		assertEquals(PcapRowKey.SESSION_PREFIX_LENGTH, prefix.length);
+		byte[] stop = PcapRowKey.toStopRow(prefix);
+
+		for (int ipId = 0; ipId <= 65535; ipId += 4369) {
+			byte[] rowKey = PcapRowKey.toBytes(SRC, DST, 17, 53, 1053, ipId,
+					8191, BUCKETS);
+			assertTrue(Arrays.equals(prefix,
+					Arrays.copyOf(rowKey, prefix.length)));
+			assertTrue(compare(rowKey, stop) < 0);
+			assertTrue(compare(PcapRowKey.toNextRow(rowKey), rowKey) > 0);
+		}
+
+		assertEquals(-1, PcapRowKey.getSalt("0a000001-c0a8c8fe", BUCKETS));
+		assertEquals(9, PcapRowKey.toPrefix(3, "0a000001-c0a8c8fe").length);
+		assertEquals(0, PcapRowKey.toStopRow(new byte[] { -1, -1 }).length);
+		assertTrue(Arrays.equals(new byte[] { 1 },
+				PcapRowKey.toStopRow(new byte[] { 0, -1 })));
+	}
+
+	public void testNumericOrder() {
+		// "9" sorts after "10" as text, not as a row key
+		byte[] nine = PcapRowKey.toPrefix(0, "0a000001-c0a8c8fe-6-9");
+		byte[] ten = PcapRowKey.toPrefix(0, "0a000001-c0a8c8fe-6-10");
+		assertTrue(compare(nine, ten) < 0);
+	}
+
+	public void testPartialRangeKeys() {
+		assertEquals("c0a8c800", PcapRowKey.toRangeKey("c0a8c8"));
+		assertEquals("0a000001-c0a80000",
+				PcapRowKey.toRangeKey("0a000001-c0a8"));
+		assertEquals("0a000001", PcapRowKey.toRangeKey("0a000001-"));
+		assertEquals("0a000001-c0a8c8fe-6",
+				PcapRowKey.toRangeKey("0a000001-c0a8c8fe-6-"));
+		assertEquals("0a000001-c0a8c8fe-6-4",
+				PcapRowKey.toRangeKey("0a000001-c0a8c8fe-6-4"));
+
+		// a /24 range holds its first and last ips, not the next /24
+		byte[] start = PcapRowKey.toPrefix(0, PcapRowKey.toRangeKey("c0a8c8"));
+		byte[] stop = PcapRowKey.toPrefix(0, PcapRowKey.toRangeKey("c0a8c9"));
+		byte[] first = PcapRowKey.toPrefix(0, "c0a8c800-0a000001");
+		byte[] last = PcapRowKey.toPrefix(0, "c0a8c8ff-0a000001");
+		byte[] next = PcapRowKey.toPrefix(0, "c0a8c900-0a000001");
+		assertTrue(compare(start, first) <= 0);
+		assertTrue(compare(last, stop) < 0);
+		assertTrue(compare(next, stop) >= 0);
+	}
+
+	public void testInvalidKeys() {
+		String[] invalid = { "", "0a00001-c0a8c8fe-6-1-2-3-4",
+				"0a000001-c0a8c8fe-256-1-2-3-4", "0a000001-c0a8c8fe-6-65536-2",
+				"0a000001-c0a8c8fe-6-1-2-3-4-5", "0a000001-c0a8c8fe-6-1-",
+				"0a00000g-c0a8c8fe" };
+		for (String key : invalid) {
+			try {
+				PcapRowKey.toPrefix(0, key);
+				fail("Expected IllegalArgumentException for " + key);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		try {
+			PcapRowKey.toBytes("0a000001-c0a8c8fe-6-1-2", BUCKETS);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			PcapRowKey.getSalt(SRC, DST, 6, 1, 2, 257);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	private static int compare(byte[] a, byte[] b) {
+		for (int i = 0; i < Math.min(a.length, b.length); i++) {
+			int d = (a[i] & 0xff) - (b[i] & 0xff);
+			if (d != 0)
+				return d;
+		}
+		return a.length - b.length;
+	}
+}
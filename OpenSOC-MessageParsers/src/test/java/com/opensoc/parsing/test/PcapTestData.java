@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Builds small pcap captures in memory for the pcap tests and benchmarks.
+ */
+public class PcapTestData {
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private final boolean littleEndian;
+
+	/**
+	 * @param littleEndian
+	 *            Write the pcap headers little endian, as most capture tools
+	 *            on x86 do
+	 * @param nanos
+	 *            Use the nano second magic number
+	 */
+	public PcapTestData(boolean littleEndian, boolean nanos) {
+		this.littleEndian = littleEndian;
+		int32(nanos ? 0xa1b23c4d : 0xa1b2c3d4);
+		int16(2);
+		int16(4);
+		int32(0);
+		int32(0);
+		int32(65535);
+		int32(1);
+	}
+
+	public PcapTestData tcp(int tsSec, int tsFraction, int srcIp, int srcPort,
+			int dstIp, int dstPort, int ipId, int flags, int vlan) {
+		byte[] tcp = new byte[20 + 4];
+		put16(tcp, 0, srcPort);
+		put16(tcp, 2, dstPort);
+		put32(tcp, 4, 1000);
+		put32(tcp, 8, 2000);
+		tcp[12] = 5 << 4;
+		tcp[13] = (byte) flags;
+		put16(tcp, 14, 8192);
+		return record(tsSec, tsFraction, vlan,
+				ipv4(6, srcIp, dstIp, ipId, 0, tcp));
+	}
+
+	public PcapTestData udp(int tsSec, int tsFraction, int srcIp, int srcPort,
+			int dstIp, int dstPort, int ipId, int fragmentOffset) {
+		byte[] udp = new byte[8 + 12];
+		put16(udp, 0, srcPort);
+		put16(udp, 2, dstPort);
+		put16(udp, 4, udp.length);
+		put16(udp, 6, 0xbeef);
+		return record(tsSec, tsFraction, -1,
+				ipv4(17, srcIp, dstIp, ipId, fragmentOffset, udp));
+	}
+
+	/**
+	 * Adds an ARP request, which the parsers skip.
+	 */
+	public PcapTestData arp(int tsSec) {
+		byte[] frame = new byte[14 + 28];
+		put16(frame, 12, 0x0806);
+		return packet(tsSec, 0, frame, frame.length);
+	}
+
+	/**
+	 * Adds a record whose header claims more data than the capture holds.
+	 */
+	public PcapTestData truncated(int tsSec) {
+		int32(tsSec);
+		int32(0);
+		int32(1500);
+		int32(1500);
+		out.write(new byte[10], 0, 10);
+		return this;
+	}
+
+	public byte[] toByteArray() {
+		return out.toByteArray();
+	}
+
+	private PcapTestData record(int tsSec, int tsFraction, int vlan,
+			byte[] ip) {
+		int header = vlan < 0 ? 14 : 18;
+		byte[] frame = new byte[header + ip.length];
+		for (int i = 0; i < 12; i++)
+			frame[i] = (byte) (i + 1);
+		if (vlan >= 0) {
+			put16(frame, 12, 0x8100);
+			put16(frame, 14, vlan);
+		}
+		put16(frame, header - 2, 0x0800);
+		System.arraycopy(ip, 0, frame, header, ip.length);
+		return packet(tsSec, tsFraction, frame, frame.length + 4);
+	}
+
+	private PcapTestData packet(int tsSec, int tsFraction, byte[] frame,
+			int origLen) {
+		int32(tsSec);
+		int32(tsFraction);
+		int32(frame.length);
+		int32(origLen);
+		out.write(frame, 0, frame.length);
+		return this;
+	}
+
+	private static byte[] ipv4(int protocol, int srcIp, int dstIp, int ipId,
+			int fragmentOffset, byte[] payload) {
+		byte[] ip = new byte[20 + payload.length];
+		ip[0] = 0x45;
+		put16(ip, 2, ip.length);
+		put16(ip, 4, ipId);
+		put16(ip, 6, 0x4000 | fragmentOffset);
+		ip[8] = 64;
+		ip[9] = (byte) protocol;
+		put16(ip, 10, 0x1234);
+		put32(ip, 12, srcIp);
+		put32(ip, 16, dstIp);
+		System.arraycopy(payload, 0, ip, 20, payload.length);
+		return ip;
+	}
+
+	private void int32(int value) {
+		if (littleEndian)
+			value = Integer.reverseBytes(value);
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private void int16(int value) {
+		if (littleEndian) {
+			out.write(value);
+			out.write(value >>> 8);
+		} else {
+			out.write(value >>> 8);
+			out.write(value);
+		}
+	}
+
+	private static void put16(byte[] b, int p, int value) {
+		b[p] = (byte) (value >>> 8);
+		b[p + 1] = (byte) value;
+	}
+
+	private static void put32(byte[] b, int p, int value) {
+		put16(b, p, value >>> 16);
+		put16(b, p + 2, value);
+	}
+
+	/**
+	 * @return The address as an int, first octet in the high byte
+	 */
+	public static int ip(int a, int b, int c, int d) {
+		return (a << 24) | (b << 16) | (c << 8) | d;
+	}
+}
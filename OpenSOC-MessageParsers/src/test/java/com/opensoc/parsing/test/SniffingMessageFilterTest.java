@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+import com.opensoc.filters.BroProtocolSniffer;
+import com.opensoc.filters.SniffingMessageFilter;
+
+/**
+ * <ul>
+ * <li>Title: Test For SniffingMessageFilter</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class SniffingMessageFilterTest extends TestCase {
+
+	private boolean emit(SniffingMessageFilter filter, String message)
+			throws Exception {
+		byte[] bytes = message.getBytes("UTF-8");
+		return filter.emitTuple(bytes, 0, bytes.length);
+	}
+
+	public void testBroProtocolSniffer() throws Exception {
+		BroProtocolSniffer sniffer = new BroProtocolSniffer();
+		byte[] bytes = "  { \"http\":{\"ts\":1}}".getBytes("UTF-8");
+		assertEquals("http", sniffer.sniff(bytes, 0, bytes.length));
+		assertNull(sniffer.sniff(bytes, 0, 5));
+
+		bytes = "[\"http\"]".getBytes("UTF-8");
+		assertNull(sniffer.sniff(bytes, 0, bytes.length));
+	}
+
+	public void testIncludeAndExclude() throws Exception {
+		SniffingMessageFilter filter = new SniffingMessageFilter(
+				new BroProtocolSniffer(), new HashSet<String>(Arrays.asList(
+						"http", "dns")), new HashSet<String>(Arrays.asList(
+						"x509", "files")));
+
+		assertTrue(emit(filter, "{\"http\":{}}"));
+		assertFalse(emit(filter, "{\"files\":{}}"));
+		assertFalse(emit(filter, "{\"conn\":{}}"));
+		// undecided messages are left to the parser
+		assertTrue(emit(filter, "not json"));
+	}
+
+	public void testExcludeOnly() throws Exception {
+		SniffingMessageFilter filter = new SniffingMessageFilter(
+				new BroProtocolSniffer(), new HashSet<String>(),
+				new HashSet<String>(Arrays.asList("x509")));
+
+		assertTrue(emit(filter, "{\"conn\":{}}"));
+		assertFalse(emit(filter, "{\"x509\":{}}"));
+	}
+}
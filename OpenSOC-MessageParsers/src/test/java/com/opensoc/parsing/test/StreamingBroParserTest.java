@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+import org.json.simple.JSONObject;
+
+import com.opensoc.parsing.parsers.BasicBroParser;
+import com.opensoc.parsing.parsers.StreamingBroParser;
+import com.opensoc.test.AbstractSchemaTest;
+
+/**
+ * <ul>
+ * <li>Title: Test For StreamingBroParser</li>
+ * <li>Description: Checks the streaming parser against BasicBroParser</li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class StreamingBroParserTest extends AbstractSchemaTest {
+
+	private StreamingBroParser streamingParser = null;
+	private BasicBroParser basicParser = null;
+
+	public StreamingBroParserTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		streamingParser = new StreamingBroParser();
+		streamingParser.initializeParser();
+		basicParser = new BasicBroParser();
+
+		URL schema_url = getClass().getClassLoader().getResource(
+				"TestSchemas/BroSchema.json");
+		super.setSchemaJsonString(super.readSchemaFromFile(schema_url));
+	}
+
+	/**
+	 * Every field except original_string (which follows document order
+	 * instead of hash order) must match BasicBroParser.
+	 */
+	@SuppressWarnings("rawtypes")
+	public void testParseMatchesBasicParser() throws Exception {
+		URL log_url = getClass().getClassLoader().getResource("BroSample.log");
+
+		BufferedReader br = new BufferedReader(new FileReader(log_url.getFile()));
+		String line = "";
+		while ((line = br.readLine()) != null) {
+			// parse twice so the second pass runs off the key cache
+			for (int i = 0; i < 2; i++) {
+				JSONObject streamed = streamingParser.parse(line.getBytes("UTF-8"));
+				JSONObject basic = basicParser.parse(line.getBytes("UTF-8"));
+				assertNotNull(streamed);
+				assertNotNull(basic);
+
+				assertEquals(basic.keySet(), streamed.keySet());
+				for (Object key : basic.keySet()) {
+					if ("original_string".equals(key))
+						continue;
+					assertEquals("Mismatch on " + key, basic.get(key).toString(),
+							streamed.get(key).toString());
+				}
+				assertTrue(streamed.get("original_string").toString()
+						.startsWith("HTTP |"));
+				assertEquals(true, validateJsonData(super.getSchemaJsonString(),
+						streamed.toString()));
+			}
+		}
+		br.close();
+	}
+
+	public void testKeySanitizing() throws Exception {
+		JSONObject parsed = streamingParser.parse("{\"dns\":{\"we!ird-key\":1,\"query\":\"a.b.example.org\"}}"
+				.getBytes("UTF-8"));
+		assertNotNull(parsed);
+		assertEquals(Long.valueOf(1), parsed.get("weirdkey"));
+		assertEquals("example.org", parsed.get("tld"));
+		assertEquals("dns", parsed.get("protocol"));
+	}
+
+	/**
+	 * A message embedded in a larger buffer parses the same as on its own,
+	 * for both Bro parsers.
+	 */
+	public void testParseSlice() throws Exception {
+		byte[] message = "{\"dns\":{\"id.orig_h\":\"10.0.0.1\",\"query\":\"www.example.com\"}}"
+				.getBytes("UTF-8");
+		byte[] buffer = new byte[message.length + 8];
+		System.arraycopy(message, 0, buffer, 4, message.length);
+		buffer[0] = '{';
+		buffer[buffer.length - 1] = '}';
+
+		JSONObject whole = streamingParser.parse(message);
+		assertEquals(whole, streamingParser.parse(buffer, 4, message.length));
+		assertEquals(whole, streamingParser.parse(ByteBuffer.wrap(buffer, 4,
+				message.length)));
+
+		JSONObject basic = basicParser.parse(message);
+		assertEquals(basic, basicParser.parse(buffer, 4, message.length));
+		assertEquals("10.0.0.1", basic.get("ip_src_addr"));
+	}
+
+	public void testMalformedMessage() throws Exception {
+		assertNull(streamingParser.parse("{\"dns\":{\"a\":1,}}".getBytes("UTF-8")));
+		assertNull(streamingParser.parse("{\"dns\":".getBytes("UTF-8")));
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.parsing.test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import com.opensoc.parsing.TimestampParser;
+
+/**
+ * <ul>
+ * <li>Title: Test For TimestampParser</li>
+ * <li>Description: </li>
+ * </ul>
+ * @version $Revision: 1.0 $
+ */
+public class TimestampParserTest extends TestCase {
+
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	public void testIso8601() throws Exception {
+		assertEquals(1405612710000L,
+				TimestampParser.parseIso8601("2014-07-17T15:58:30Z"));
+		assertEquals(1405612710000L,
+				TimestampParser.parseIso8601("2014-07-17 15:58:30"));
+		assertEquals(1407397543741L,
+				TimestampParser.parseIso8601("2014-08-07 00:45:43.741 -07:00"));
+		assertEquals(1405592910000L,
+				TimestampParser.parseIso8601("2014-07-17T15:58:30+0530"));
+
+		// same second as the previous call, only the fraction changes
+		assertEquals(1405592910250L,
+				TimestampParser.parseIso8601("2014-07-17T15:58:30.25+05:30"));
+
+		byte[] line = "Jul 17 smc-01 2014-07-17T15:58:30Z 10.40.10.254"
+				.getBytes("UTF-8");
+		assertEquals(1405612710000L,
+				TimestampParser.parseIso8601(line, 14, line.length - 14));
+	}
+
+	public void testSyslog() throws Exception {
+		long now = System.currentTimeMillis();
+		long parsed = TimestampParser.parseSyslog("Jul  7 15:59:01 smc-01");
+		assertTrue(parsed <= now + 86400000L);
+
+		Calendar calendar = new GregorianCalendar(UTC);
+		calendar.setTimeInMillis(parsed);
+		assertEquals(Calendar.JULY, calendar.get(Calendar.MONTH));
+		assertEquals(7, calendar.get(Calendar.DAY_OF_MONTH));
+		assertEquals(15, calendar.get(Calendar.HOUR_OF_DAY));
+		assertEquals(59, calendar.get(Calendar.MINUTE));
+		assertEquals(1, calendar.get(Calendar.SECOND));
+
+		byte[] line = "<131>Jul  7 15:59:01 smc-01 StealthWatch[12365]: "
+				.getBytes("UTF-8");
+		assertEquals(parsed,
+				TimestampParser.parseSyslogHeader(line, 0, line.length, -1L));
+		line = "snort: [1:3192:2] WEB-CLIENT".getBytes("UTF-8");
+		assertEquals(-1L,
+				TimestampParser.parseSyslogHeader(line, 0, line.length, -1L));
+	}
+
+	public void testEpoch() {
+		assertEquals(1402307733473L, TimestampParser.parseEpoch("1402307733.473"));
+		assertEquals(1402307733470L, TimestampParser.parseEpoch("1402307733.47"));
+		assertEquals(1402307733473L, TimestampParser.parseEpoch("1402307733473"));
+		assertEquals(1402307733000L, TimestampParser.parseEpoch("1402307733"));
+
+		assertEquals(1402307733473L,
+				TimestampParser.toEpochMillis(Double.valueOf(1402307733.473)));
+		assertEquals(1402307733473L,
+				TimestampParser.toEpochMillis(Long.valueOf(1402307733473L)));
+		assertEquals(1402307733000L,
+				TimestampParser.toEpochMillis(Long.valueOf(1402307733L)));
+		assertEquals(1405612710000L,
+				TimestampParser.toEpochMillis("2014-07-17T15:58:30Z"));
+	}
+
+	public void testMatchesCalendar() {
+		Random random = new Random(42);
+		Calendar calendar = new GregorianCalendar(UTC);
+		for (int i = 0; i < 1000; i++) {
+			calendar.clear();
+			calendar.set(1970 + random.nextInt(130), random.nextInt(12),
+					1 + random.nextInt(28), random.nextInt(24),
+					random.nextInt(60), random.nextInt(60));
+			String text = String.format("%04d-%02d-%02dT%02d:%02d:%02dZ",
+					calendar.get(Calendar.YEAR),
+					calendar.get(Calendar.MONTH) + 1,
+					calendar.get(Calendar.DAY_OF_MONTH),
+					calendar.get(Calendar.HOUR_OF_DAY),
+					calendar.get(Calendar.MINUTE),
+					calendar.get(Calendar.SECOND));
+			assertEquals(text, calendar.getTimeInMillis(),
+					TimestampParser.parseIso8601(text));
+		}
+	}
+
+	public void testInvalid() {
+		String[] invalid = { "", "2014-13-17T15:58:30Z", "2014-07-17",
+				"Foo 17 15:59:01", "abc", "14023077.33.473" };
+		for (String text : invalid) {
+			try {
+				TimestampParser.toEpochMillis(text);
+				fail("Expected " + text + " to be rejected");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		assertEquals(-1L,
+				TimestampParser.parseIso8601("2014-07-17", 0, 10, -1L));
+	}
+}
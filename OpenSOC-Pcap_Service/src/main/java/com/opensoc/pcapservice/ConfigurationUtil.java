@@ -37,6 +37,30 @@ public class ConfigurationUtil {
 	/** The Constant DEFAULT_HCONNECTION_RETRY_LIMIT. */
 	private static final int DEFAULT_HCONNECTION_RETRY_LIMIT = 0;
 
+	/** The Constant DEFAULT_FETCH_POOL_SIZE. */
+	private static final int DEFAULT_FETCH_POOL_SIZE = 16;
+
+	/** The Constant DEFAULT_FETCH_CONCURRENCY. */
+	private static final int DEFAULT_FETCH_CONCURRENCY = 4;
+
+	/** The Constant DEFAULT_TABLE_POOL_SIZE. */
+	private static final int DEFAULT_TABLE_POOL_SIZE = 16;
+
+	/** The Constant DEFAULT_RETRY_BACKOFF_MILLIS. */
+	private static final long DEFAULT_RETRY_BACKOFF_MILLIS = 100;
+
+	/** The Constant DEFAULT_SCAN_CACHING. */
+	private static final int DEFAULT_SCAN_CACHING = 100;
+
+	/** The Constant DEFAULT_BLOCK_TIME_BUCKET. */
+	private static final long DEFAULT_BLOCK_TIME_BUCKET = 10000;
+
+	/** The Constant DEFAULT_IP_INDEX_TIME_BUCKET. */
+	private static final long DEFAULT_IP_INDEX_TIME_BUCKET = 3600000;
+
+	/** The Constant DEFAULT_IP_INDEX_MAX_SESSIONS. */
+	private static final int DEFAULT_IP_INDEX_MAX_SESSIONS = 10000;
+
 	/**
 	 * Loads configuration resources 
 	 * @return Configuration
@@ -229,6 +253,166 @@ public class ConfigurationUtil {
 				"hbase.table.row.key.token.appending.digits");
 	}
 
+	/**
+	 * Checks if the table row keys are salted binary pcap_ids, rather than
+	 * pcap_id strings.
+	 * 
+	 * @return true, if the row keys are binary
+	 */
+	public static boolean isBinaryRowKey() {
+		return "binary".equalsIgnoreCase(ConfigurationUtil.getConfiguration()
+				.getString("hbase.table.row.key.format", "string"));
+	}
+
+	/**
+	 * Checks if the table stores the packets of a session and time bucket as
+	 * one pcap block, rather than a cell per packet.
+	 * 
+	 * @return true, if the table holds pcap blocks
+	 */
+	public static boolean isBlockLayout() {
+		return "block".equalsIgnoreCase(ConfigurationUtil.getConfiguration()
+				.getString("hbase.table.layout", "packet"));
+	}
+
+	/**
+	 * Gets the width of the time buckets of pcap blocks, in the data time unit
+	 * of the table.
+	 * 
+	 * @return the time bucket width
+	 */
+	public static long getBlockTimeBucket() {
+		return ConfigurationUtil.getConfiguration().getLong(
+				"hbase.table.block.time.bucket", DEFAULT_BLOCK_TIME_BUCKET);
+	}
+
+	/**
+	 * Gets the number of salt buckets of binary row keys.
+	 * 
+	 * @return the row key salt buckets
+	 */
+	public static int getRowKeySaltBuckets() {
+		return ConfigurationUtil.getConfiguration().getInt(
+				"hbase.table.row.key.salt.buckets", 1);
+	}
+
+	/**
+	 * Gets the number of threads fetching keys, shared by all requests.
+	 * 
+	 * @return the fetch pool size
+	 */
+	public static int getFetchPoolSize() {
+		return ConfigurationUtil.getConfiguration().getInt(
+				"hbase.fetch.pool.size", DEFAULT_FETCH_POOL_SIZE);
+	}
+
+	/**
+	 * Gets the number of keys of one request fetched at the same time; 1
+	 * fetches the keys one after the other.
+	 * 
+	 * @return the fetch concurrency per request
+	 */
+	public static int getFetchConcurrency() {
+		return ConfigurationUtil.getConfiguration().getInt(
+				"hbase.fetch.concurrency.per.request",
+				DEFAULT_FETCH_CONCURRENCY);
+	}
+
+	/**
+	 * Gets the most idle tables kept in the table pool.
+	 * 
+	 * @return the table pool size
+	 */
+	public static int getTablePoolSize() {
+		return ConfigurationUtil.getConfiguration().getInt(
+				"hbase.table.pool.size", DEFAULT_TABLE_POOL_SIZE);
+	}
+
+	/**
+	 * Gets the back off before the first retry of a failed request, doubled
+	 * with each further retry.
+	 * 
+	 * @return the retry back off in milliseconds
+	 */
+	public static long getRetryBackOffMillis() {
+		return ConfigurationUtil.getConfiguration().getLong(
+				"hbase.hconnection.retry.backoff.millis",
+				DEFAULT_RETRY_BACKOFF_MILLIS);
+	}
+
+	/**
+	 * Gets the number of rows fetched per scanner rpc.
+	 * 
+	 * @return the scan caching
+	 */
+	public static int getScanCaching() {
+		return ConfigurationUtil.getConfiguration().getInt(
+				"hbase.scan.caching", DEFAULT_SCAN_CACHING);
+	}
+
+	/**
+	 * Gets the most cells returned per scanned row result; 0 or less returns
+	 * whole rows.
+	 * 
+	 * @return the scan batch
+	 */
+	public static int getScanBatch() {
+		return ConfigurationUtil.getConfiguration().getInt("hbase.scan.batch",
+				0);
+	}
+
+	/**
+	 * Checks if scans keep the blocks they read in the region servers' block
+	 * cache; large exports would evict the blocks other reads need.
+	 * 
+	 * @return true, if scans cache blocks
+	 */
+	public static boolean isScanCacheBlocks() {
+		return ConfigurationUtil.getConfiguration().getBoolean(
+				"hbase.scan.cache.blocks", false);
+	}
+
+	/**
+	 * Gets the ip index table name.
+	 * 
+	 * @return the ip index table name
+	 */
+	public static byte[] getIpIndexTableName() {
+		return Bytes.toBytes(ConfigurationUtil.getConfiguration().getString(
+				"hbase.ip.index.table.name"));
+	}
+
+	/**
+	 * Gets the ip index column family.
+	 * 
+	 * @return the ip index column family
+	 */
+	public static byte[] getIpIndexColumnFamily() {
+		return Bytes.toBytes(ConfigurationUtil.getConfiguration().getString(
+				"hbase.ip.index.column.family"));
+	}
+
+	/**
+	 * Gets the width of the ip index time buckets, in the data time unit of
+	 * the pcap table.
+	 * 
+	 * @return the time bucket width
+	 */
+	public static long getIpIndexTimeBucket() {
+		return ConfigurationUtil.getConfiguration().getLong(
+				"hbase.ip.index.time.bucket", DEFAULT_IP_INDEX_TIME_BUCKET);
+	}
+
+	/**
+	 * Gets the most sessions an ip index lookup resolves.
+	 * 
+	 * @return the max sessions
+	 */
+	public static int getIpIndexMaxSessions() {
+		return ConfigurationUtil.getConfiguration().getInt(
+				"hbase.ip.index.max.sessions", DEFAULT_IP_INDEX_MAX_SESSIONS);
+	}
+
 	/**
 	 * Convert to bytes.
 	 * 
@@ -4,20 +4,42 @@
 package com.opensoc.pcapservice;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.MasterNotRunningException;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.ZooKeeperConnectionException;
 import org.apache.hadoop.hbase.client.HConnection;
 import org.apache.hadoop.hbase.client.HConnectionManager;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.NoServerForRegionException;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.log4j.Logger;
 import org.mortbay.log.Log;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * Utility class which creates HConnection instance when the first request is
  * received and registers a shut down hook which closes the connection when the
  * JVM exits. Creates new connection to the cluster only if the existing
  * connection is closed for unknown reasons. Also creates Configuration with
- * HBase resources using configuration properties.
+ * HBase resources using configuration properties, and pools the tables of the
+ * pcap table, leased to one request at a time.
  * 
  * @author Sayi
  * 
@@ -37,6 +59,18 @@ public class HBaseConfigurationUtil {
    */
   private static HConnection clusterConnection = null;
 
+  /** The generation of the cluster connection, counting reconnects. */
+  private static volatile int connectionGeneration = 0;
+
+  /** The idle tables of the pool, by table name. */
+  private static final ConcurrentMap<String, BlockingQueue<HTableLease>> IDLE_TABLES = new ConcurrentHashMap<String, BlockingQueue<HTableLease>>();
+
+  /** The pool running the concurrent reads of all requests. */
+  private static volatile ExecutorService fetchPool = null;
+
+  /** The longest back off between retries. */
+  private static final long MAX_RETRY_BACKOFF_MILLIS = 10000;
+
   /**
    * Creates HConnection instance when the first request is received and returns
    * the same instance for all subsequent requests if the connection is still
@@ -67,6 +101,7 @@ public class HBaseConfigurationUtil {
         return;
       }
       clusterConnection = HConnectionManager.createConnection(read());
+      connectionGeneration++;
       addShutdownHook();
       System.out.println("Created HConnection and added shutDownHook");
     } catch (IOException e) {
@@ -111,10 +146,16 @@ public class HBaseConfigurationUtil {
   }
 
   /**
-   * Closes the underlying connection to cluster; ignores if any exception is
-   * thrown.
+   * Closes the idle tables of the pool and the underlying connection to
+   * cluster; ignores if any exception is thrown.
    */
   public static void closeConnection() {
+    for (BlockingQueue<HTableLease> idleTables : IDLE_TABLES.values()) {
+      for (HTableLease idle = idleTables.poll(); idle != null; idle = idleTables
+          .poll()) {
+        closeTable(idle.getTable());
+      }
+    }
     if (clusterConnection != null) {
       try {
         clusterConnection.close();
@@ -124,6 +165,211 @@ public class HBaseConfigurationUtil {
     }
   }
 
+  /**
+   * Leases a table of the pcap table, reusing an idle one of the pool if there
+   * is one. The lease must be closed once the request is done with the table.
+   * 
+   * @return the table lease
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public static HTableLease leaseTable() throws IOException {
+    return leaseTable(ConfigurationUtil.getTableName());
+  }
+
+  /**
+   * Leases a table, reusing an idle one of the pool of that table if there is
+   * one. The lease must be closed once the request is done with the table.
+   * 
+   * @param tableName
+   *          the table name
+   * @return the table lease
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public static HTableLease leaseTable(byte[] tableName) throws IOException {
+    HConnection connection = getConnection();
+    int generation = connectionGeneration;
+    String name = Bytes.toString(tableName);
+    BlockingQueue<HTableLease> idleTables = getIdleTables(name);
+    for (HTableLease idle = idleTables.poll(); idle != null; idle = idleTables
+        .poll()) {
+      if (idle.getGeneration() == generation) {
+        return new HTableLease(idle.getTable(), name, generation);
+      }
+      // created from a connection that has been replaced since
+      closeTable(idle.getTable());
+    }
+    return new HTableLease(connection.getTable(tableName), name, generation);
+  }
+
+  /**
+   * Gets the idle tables of the pool of a table.
+   * 
+   * @param tableName
+   *          the table name
+   * @return the idle tables
+   */
+  private static BlockingQueue<HTableLease> getIdleTables(String tableName) {
+    BlockingQueue<HTableLease> idleTables = IDLE_TABLES.get(tableName);
+    if (idleTables == null) {
+      BlockingQueue<HTableLease> created = new LinkedBlockingQueue<HTableLease>();
+      idleTables = IDLE_TABLES.putIfAbsent(tableName, created);
+      if (idleTables == null) {
+        idleTables = created;
+      }
+    }
+    return idleTables;
+  }
+
+  /**
+   * Hands the table of a lease back to the pool, or closes it if the lease was
+   * discarded, the connection was replaced or the pool is full.
+   * 
+   * @param lease
+   *          the lease
+   */
+  static void releaseTable(HTableLease lease) {
+    BlockingQueue<HTableLease> idleTables = getIdleTables(lease
+        .getTableName());
+    if (!lease.isDiscarded() && lease.getGeneration() == connectionGeneration
+        && idleTables.size() < ConfigurationUtil.getTablePoolSize()
+        && idleTables.offer(lease)) {
+      return;
+    }
+    closeTable(lease.getTable());
+  }
+
+  /**
+   * Closes a table; ignores if any exception is thrown.
+   * 
+   * @param table
+   *          the table
+   */
+  private static void closeTable(HTableInterface table) {
+    try {
+      table.close();
+    } catch (IOException e) {
+      Log.debug("Caught ignorable exception ", e);
+    }
+  }
+
+  /**
+   * Gets the start keys of the regions of the pcap table.
+   * 
+   * @return the region start keys, in ascending order; the first is empty
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public static byte[][] getRegionStartKeys() throws IOException {
+    List<HRegionLocation> locations = getConnection().locateRegions(
+        TableName.valueOf(ConfigurationUtil.getTableName()));
+    byte[][] startKeys = new byte[locations.size()][];
+    for (int i = 0; i < startKeys.length; i++) {
+      startKeys[i] = locations.get(i).getRegionInfo().getStartKey();
+    }
+    Arrays.sort(startKeys, Bytes.BYTES_COMPARATOR);
+    return startKeys;
+  }
+
+  /**
+   * Gets the pool running the concurrent Gets and Scans of all requests; each
+   * request keeps at most 'hbase.fetch.concurrency.per.request' of them in
+   * flight.
+   * 
+   * @return the fetch pool
+   */
+  public static ExecutorService getFetchPool() {
+    if (fetchPool == null) {
+      synchronized (HBaseConfigurationUtil.class) {
+        if (fetchPool == null) {
+          fetchPool = Executors.newFixedThreadPool(
+              ConfigurationUtil.getFetchPoolSize(), new ThreadFactoryBuilder()
+                  .setNameFormat("pcap-fetch-%d").setDaemon(true).build());
+        }
+      }
+    }
+    return fetchPool;
+  }
+
+  /**
+   * Waits for a read submitted to the fetch pool, throwing what it threw.
+   * 
+   * @param future
+   *          the future
+   * @return the result of the read
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while fetching pcaps");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Applies the configured scanner caching, batch size and block cache policy
+   * to a scan.
+   * 
+   * @param scan
+   *          the scan
+   */
+  public static void tuneScan(Scan scan) {
+    scan.setCaching(ConfigurationUtil.getScanCaching());
+    int batch = ConfigurationUtil.getScanBatch();
+    if (batch > 0) {
+      scan.setBatch(batch);
+    }
+    scan.setCacheBlocks(ConfigurationUtil.isScanCacheBlocks());
+  }
+
+  /**
+   * Checks if an exception means the cluster could not be reached, in which
+   * case the request is worth retrying.
+   * 
+   * @param e
+   *          the exception
+   * @return true, if the request can be retried
+   */
+  public static boolean isRetryable(IOException e) {
+    return e instanceof ZooKeeperConnectionException
+        || e instanceof MasterNotRunningException
+        || e instanceof NoServerForRegionException;
+  }
+
+  /**
+   * Sleeps before retrying a failed request, doubling the configured back off
+   * with each attempt. The connection is left open for the other requests; it
+   * is only recreated by {@link #getConnection()} if HBase closed it.
+   * 
+   * @param attempt
+   *          the number of the failed attempt, starting from 0
+   * @throws InterruptedIOException
+   *           if interrupted while sleeping
+   */
+  public static void backOff(int attempt) throws InterruptedIOException {
+    long millis = ConfigurationUtil.getRetryBackOffMillis() << Math.min(
+        attempt, 16);
+    try {
+      Thread.sleep(Math.min(millis, MAX_RETRY_BACKOFF_MILLIS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while backing off");
+    }
+  }
+
   /**
    * This method creates Configuration with HBase resources using configuration
    * properties. The same Configuration object will be used to communicate with
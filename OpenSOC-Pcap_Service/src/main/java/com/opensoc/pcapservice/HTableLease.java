@@ -0,0 +1,100 @@
+package com.opensoc.pcapservice;
+
+import java.io.Closeable;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+
+/**
+ * A table of a table pool, leased to one request at a time by
+ * {@link HBaseConfigurationUtil#leaseTable(byte[])}. Closing the lease hands the
+ * table back to the pool, unless the lease was discarded after an error, in
+ * which case the table itself is closed.
+ *
+ * @version $Revision: 1.0 $
+ */
+public class HTableLease implements Closeable {
+
+  /** The table. */
+  private final HTableInterface table;
+
+  /** The table name. */
+  private final String tableName;
+
+  /** The generation of the connection the table was created from. */
+  private final int generation;
+
+  /** The discarded. */
+  private boolean discarded;
+
+  /** The released. */
+  private boolean released;
+
+  /**
+   * Instantiates a new table lease.
+   *
+   * @param table
+   *          the table
+   * @param tableName
+   *          the table name, the pool the table goes back to
+   * @param generation
+   *          the generation of the connection the table was created from
+   */
+  HTableLease(HTableInterface table, String tableName, int generation) {
+    this.table = table;
+    this.tableName = tableName;
+    this.generation = generation;
+  }
+
+  /**
+   * Gets the table.
+   *
+   * @return the table
+   */
+  public HTableInterface getTable() {
+    return table;
+  }
+
+  /**
+   * Gets the table name.
+   *
+   * @return the table name
+   */
+  String getTableName() {
+    return tableName;
+  }
+
+  /**
+   * Gets the generation of the connection the table was created from.
+   *
+   * @return the generation
+   */
+  int getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Marks the table as not to be reused, as a request failed on it.
+   */
+  public void discard() {
+    discarded = true;
+  }
+
+  /**
+   * Checks if the lease was discarded.
+   *
+   * @return true, if discarded
+   */
+  boolean isDiscarded() {
+    return discarded;
+  }
+
+  /**
+   * Ends the lease; the table must not be used afterwards.
+   */
+  public void close() {
+    if (!released) {
+      released = true;
+      HBaseConfigurationUtil.releaseTable(this);
+    }
+  }
+}
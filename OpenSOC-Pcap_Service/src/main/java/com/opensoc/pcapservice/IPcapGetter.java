@@ -42,6 +42,31 @@ public interface IPcapGetter {
       long startTime, long endTime, boolean includeReverseTraffic,
       boolean includeDuplicateLastRow, long maxResultSize) throws IOException;
 
+  /**
+   * Gets the pcaps of all sessions to or from an ip, or any ip of a subnet,
+   * in a time range. The sessions are looked up in the ip index table and
+   * their pcaps fetched as for a list of keys.
+   * 
+   * @param ip
+   *          the ip, such as '10.1.2.3', or a subnet in CIDR notation, such as
+   *          '10.1.2.0/24'
+   * @param lastRowKey
+   *          last row key from the previous partial response
+   * @param startTime
+   *          the start time in system milliseconds to be used to filter the
+   *          pcaps. No lower bound if the caller sends negative value
+   * @param endTime
+   *          the end time in system milliseconds to be used to filter the
+   *          pcaps. No upper bound if the caller sends negative value
+   * @param maxResultSize
+   *          the max result size
+   * @return PcapsResponse with all matching pcaps merged together
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public PcapsResponse getPcapsByIp(String ip, String lastRowKey,
+      long startTime, long endTime, long maxResultSize) throws IOException;
+
   /**
    * Gets the pcaps for the input key.
    * 
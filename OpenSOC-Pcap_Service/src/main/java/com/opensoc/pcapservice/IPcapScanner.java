@@ -31,6 +31,34 @@ public interface IPcapScanner {
   public byte[] getPcaps(String startKey, String endKey, long maxResponseSize,
       long startTime, long endTime) throws IOException;
 
+  /**
+   * Gets the pcaps for between startKey (inclusive) and endKey (exclusive),
+   * sorted by timestamp but not merged, so that they can be streamed to the
+   * caller with {@link PcapsResponse#writePcaps(java.io.OutputStream)}.
+   * 
+   * @param startKey
+   *          the start key of a key range for which pcaps is to be retrieved.
+   * @param endKey
+   *          the end key of a key range for which pcaps is to be retrieved.
+   * @param maxResponseSize
+   *          indicates the maximum response size in MegaBytes(MB). User needs
+   *          to pass positive value and must be less than 60 (MB)
+   * @param startTime
+   *          the start time in system milliseconds to be used to filter the
+   *          pcaps. The value is set to '0' if the caller sends negative value
+   * @param endTime
+   *          the end time in system milliseconds to be used to filter the
+   *          pcaps. The value is set Long.MAX_VALUE if the caller sends
+   *          negative value
+   * @return the pcaps response holding the matching pcaps; if they pass the
+   *         max response size, it holds those of the first rows only, with
+   *         status PARTIAL and the last row included as its last row key
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public PcapsResponse getPcapsResponse(String startKey, String endKey,
+      long maxResponseSize, long startTime, long endTime) throws IOException;
+
   /**
    * Gets the pcaps for between startKey (inclusive) and endKey (exclusive).
    * 
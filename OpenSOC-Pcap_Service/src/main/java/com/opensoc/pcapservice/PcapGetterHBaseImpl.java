@@ -11,6 +11,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Resource;
 import javax.ws.rs.GET;
@@ -22,11 +26,8 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
-import org.apache.hadoop.hbase.MasterNotRunningException;
-import org.apache.hadoop.hbase.ZooKeeperConnectionException;
 import org.apache.hadoop.hbase.client.Get;
-import org.apache.hadoop.hbase.client.HTable;
-import org.apache.hadoop.hbase.client.NoServerForRegionException;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
@@ -36,6 +37,9 @@ import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.opensoc.pcap.PcapBlockKey;
+import com.opensoc.pcap.PcapIpIndexKey;
+import com.opensoc.pcap.PcapRowKey;
 
 /**
  * Singleton class which integrates with HBase table and returns pcaps sorted by
@@ -105,16 +109,8 @@ public class PcapGetterHBaseImpl implements IPcapGetter {
     }
     LOGGER.info("unprocessedKeys in getPcaps" + unprocessedKeys.toString());
     if (!CollectionUtils.isEmpty(unprocessedKeys)) {
-      for (int i = 0; i < unprocessedKeys.size(); i++) {
-        pcapsResponse = processKey(pcapsResponse, unprocessedKeys.get(i),
-            startTime, endTime, false, includeDuplicateLastRow, maxResultSize);
-        // LOGGER.debug("after scanning input unprocessedKeys.get(" + i + ") ="
-        // +
-        // pcapsResponse.toString()+"*********************************************************************");
-        if (pcapsResponse.getStatus() == PcapsResponse.Status.PARTIAL) {
-          return pcapsResponse;
-        }
-      }
+      pcapsResponse = processKeys(pcapsResponse, unprocessedKeys, startTime,
+          endTime, includeDuplicateLastRow, maxResultSize);
     }
     return pcapsResponse;
   }
@@ -159,6 +155,186 @@ public class PcapGetterHBaseImpl implements IPcapGetter {
         ConfigurationUtil.getDefaultResultSize());
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see com.opensoc.pcapservice.IPcapGetter#getPcapsByIp(java.lang.String,
+   * java.lang.String, long, long, long)
+   */
+
+  public PcapsResponse getPcapsByIp(String ip, String lastRowKey,
+      long startTime, long endTime, long maxResultSize) throws IOException {
+    Assert.hasText(ip, "ip must not be null or empty");
+    int[] ipRange = toIpRange(ip);
+    long bucketWidth = ConfigurationUtil.getIpIndexTimeBucket();
+    long firstBucket = startTime < 0 ? 0 : PcapIpIndexKey.getBucket(
+        PcapHelper.convertToDataCreationTimeUnit(startTime), bucketWidth);
+    long lastBucket = endTime < 0 ? Long.MAX_VALUE : PcapIpIndexKey
+        .getBucket(PcapHelper.convertToDataCreationTimeUnit(endTime),
+            bucketWidth);
+    List<String> keys = getSessionKeys(ipRange[0], ipRange[1], firstBucket,
+        lastBucket);
+    LOGGER.info("ip=" + ip + " resolved to " + keys.size() + " sessions");
+    if (keys.isEmpty()) {
+      return new PcapsResponse();
+    }
+    // both directions of a session are indexed under each of its ips
+    return getPcaps(keys, lastRowKey, startTime, endTime, false, false,
+        maxResultSize);
+  }
+
+  /**
+   * Gets the first and last ip of an ip or a subnet in CIDR notation.
+   * 
+   * @param ip
+   *          the ip or subnet
+   * @return the first and last ip, first octet in the high byte
+   */
+  @VisibleForTesting
+  static int[] toIpRange(String ip) {
+    String address = ip.trim();
+    int prefixLength = 32;
+    int slash = address.indexOf('/');
+    if (slash >= 0) {
+      prefixLength = Integer.parseInt(address.substring(slash + 1));
+      address = address.substring(0, slash);
+    }
+    Assert.isTrue(prefixLength >= 0 && prefixLength <= 32,
+        "Invalid subnet prefix length: " + ip);
+    String[] octets = address.split("\\.");
+    Assert.isTrue(octets.length == 4, "Invalid ip: " + ip);
+    int value = 0;
+    for (String octet : octets) {
+      int octetValue = Integer.parseInt(octet);
+      Assert.isTrue(octetValue >= 0 && octetValue <= 255, "Invalid ip: " + ip);
+      value = (value << 8) | octetValue;
+    }
+    int mask = prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+    return new int[] { value & mask, (value & mask) | ~mask };
+  }
+
+  /**
+   * Gets the session keys the ip index holds for a range of ips and time
+   * buckets. Each scan starts at the first time bucket of an ip; once it
+   * reaches a row past the last time bucket, or before the first one, it is
+   * closed and the next scan starts at the first time bucket of that row's
+   * ip, so the rows outside of the time buckets are skipped rather than read,
+   * and only the ips with rows cost a scan. At most
+   * 'hbase.ip.index.max.sessions' keys are returned.
+   * 
+   * @param firstIp
+   *          the first ip
+   * @param lastIp
+   *          the last ip
+   * @param firstBucket
+   *          the first time bucket
+   * @param lastBucket
+   *          the last time bucket
+   * @return the session keys
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @VisibleForTesting
+  List<String> getSessionKeys(int firstIp, int lastIp, long firstBucket,
+      long lastBucket) throws IOException {
+    int maxSessions = ConfigurationUtil.getIpIndexMaxSessions();
+    Set<String> sessionKeys = new HashSet<String>();
+    byte[] stopRow = PcapRowKey.toNextRow(PcapIpIndexKey.toBytes(lastIp,
+        lastBucket));
+    long ip = firstIp & 0xffffffffL;
+    long endIp = lastIp & 0xffffffffL;
+    int maxRetryLimit = ConfigurationUtil.getConnectionRetryLimit();
+    int attempt = 0;
+    while (ip <= endIp && sessionKeys.size() < maxSessions) {
+      HTableLease lease = null;
+      try {
+        lease = HBaseConfigurationUtil.leaseTable(ConfigurationUtil
+            .getIpIndexTableName());
+        ip = scanSessionKeys(lease.getTable(), (int) ip, stopRow, firstBucket,
+            lastBucket, maxSessions, sessionKeys);
+      } catch (IOException e) {
+        if (lease != null) {
+          lease.discard();
+        }
+        LOGGER.error("Exception occurred while scanning the ip index", e);
+        if (!HBaseConfigurationUtil.isRetryable(e)
+            || attempt >= maxRetryLimit) {
+          throw e;
+        }
+        // the keys found so far are kept, the scan resumes at this ip
+        HBaseConfigurationUtil.backOff(attempt++);
+      } finally {
+        if (lease != null) {
+          lease.close();
+        }
+      }
+    }
+    if (sessionKeys.size() >= maxSessions) {
+      LOGGER.warn("Ip index lookup stopped at " + maxSessions + " sessions");
+    }
+    return new ArrayList<String>(sessionKeys);
+  }
+
+  /**
+   * Scans the ip index from the first time bucket of an ip, adding the session
+   * keys of the rows in the time buckets, until a row outside of them.
+   * 
+   * @param table
+   *          the ip index table
+   * @param ip
+   *          the ip to start at
+   * @param stopRow
+   *          the row after the last time bucket of the last ip
+   * @param firstBucket
+   *          the first time bucket
+   * @param lastBucket
+   *          the last time bucket
+   * @param maxSessions
+   *          the max session keys
+   * @param sessionKeys
+   *          receives the session keys
+   * @return the ip the next scan starts at, past the last ip if done
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private long scanSessionKeys(HTableInterface table, int ip, byte[] stopRow,
+      long firstBucket, long lastBucket, int maxSessions,
+      Set<String> sessionKeys) throws IOException {
+    Scan scan = new Scan(PcapIpIndexKey.toBytes(ip, firstBucket), stopRow);
+    scan.addFamily(ConfigurationUtil.getIpIndexColumnFamily());
+    HBaseConfigurationUtil.tuneScan(scan);
+    // read ahead no further than the time buckets of an ip
+    long buckets = lastBucket - firstBucket;
+    if (buckets < scan.getCaching()) {
+      scan.setCaching((int) buckets + 2);
+    }
+    LOGGER.info("Scan :" + scan.toString());
+    ResultScanner resultScanner = table.getScanner(scan);
+    try {
+      for (Result result = resultScanner.next(); result != null; result = resultScanner
+          .next()) {
+        long rowIp = PcapIpIndexKey.getIp(result.getRow()) & 0xffffffffL;
+        long bucket = PcapIpIndexKey.getBucket(result.getRow());
+        if (bucket < firstBucket) {
+          // a later ip, before its first time bucket
+          return rowIp;
+        }
+        if (bucket > lastBucket) {
+          return rowIp + 1;
+        }
+        for (Cell cell : result.rawCells()) {
+          sessionKeys.add(Bytes.toString(CellUtil.cloneQualifier(cell)));
+        }
+        if (sessionKeys.size() >= maxSessions) {
+          break;
+        }
+      }
+    } finally {
+      resultScanner.close();
+    }
+    return Long.MAX_VALUE;
+  }
+
   /**
    * Always returns the singleton instance.
    * 
@@ -284,6 +460,123 @@ public
     return sbf.toString();
   }
 
+  /**
+   * Processes the keys in the given order until the response size is reached.
+   * Up to 'hbase.fetch.concurrency.per.request' keys are fetched at the same
+   * time on the shared fetch pool, ahead of the key being added to the
+   * response; the fetched rows are still added key by key, in order, and the
+   * response is cut after the row that reaches its size, so a partial response
+   * stops at the same row and 'lastRowKey' as a sequential run would.
+   * <p>
+   * The fetched size of all keys of the request is shared by the fetches, and
+   * each fetch scans at most what is left of 'maxResultSize' when it starts;
+   * once nothing is left the fetches not yet started are skipped. A skipped
+   * fetch, or one cut short by the shared size, is fetched again in place if
+   * the response turns out to need it.
+   * 
+   * @param pcapsResponse
+   *          the pcaps response
+   * @param keys
+   *          the keys, in the order of the response
+   * @param startTime
+   *          the start time
+   * @param endTime
+   *          the end time
+   * @param includeDuplicateLastRow
+   *          the include duplicate last row
+   * @param maxResultSize
+   *          the max result size
+   * @return the pcaps response
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @VisibleForTesting
+  PcapsResponse processKeys(PcapsResponse pcapsResponse, List<String> keys,
+      final long startTime, final long endTime,
+      final boolean includeDuplicateLastRow, final long maxResultSize)
+      throws IOException {
+    int concurrency = Math.min(ConfigurationUtil.getFetchConcurrency(),
+        keys.size());
+    if (concurrency <= 1) {
+      for (String key : keys) {
+        pcapsResponse = processKey(pcapsResponse, key, startTime, endTime,
+            false, includeDuplicateLastRow, maxResultSize);
+        if (pcapsResponse.getStatus() == PcapsResponse.Status.PARTIAL) {
+          break;
+        }
+      }
+      return pcapsResponse;
+    }
+    final AtomicLong fetchedSize = new AtomicLong(
+        pcapsResponse.getResponseSize());
+    List<Future<KeyFetch>> fetches = new ArrayList<Future<KeyFetch>>(
+        keys.size());
+    try {
+      for (int i = 0; i < concurrency; i++) {
+        fetches.add(submitFetch(keys.get(i), startTime, endTime,
+            includeDuplicateLastRow, maxResultSize, fetchedSize));
+      }
+      for (int i = 0; i < keys.size(); i++) {
+        KeyFetch fetch = HBaseConfigurationUtil.await(fetches.get(i));
+        if (fetch == null || fetch.isTruncated()) {
+          // skipped or cut short by the shared size, but the response still
+          // needs it
+          fetch = fetchKey(pcapsResponse, keys.get(i), startTime, endTime,
+              false, includeDuplicateLastRow, maxResultSize);
+        }
+        addToResponse(pcapsResponse, fetch, maxResultSize);
+        if (pcapsResponse.getStatus() == PcapsResponse.Status.PARTIAL) {
+          break;
+        }
+        if (i + concurrency < keys.size()) {
+          fetches.add(submitFetch(keys.get(i + concurrency), startTime,
+              endTime, includeDuplicateLastRow, maxResultSize, fetchedSize));
+        }
+      }
+    } finally {
+      for (Future<KeyFetch> fetch : fetches) {
+        fetch.cancel(false);
+      }
+    }
+    return pcapsResponse;
+  }
+
+  /**
+   * Submits the fetch of a key to the fetch pool.
+   * 
+   * @param key
+   *          the key
+   * @param startTime
+   *          the start time
+   * @param endTime
+   *          the end time
+   * @param includeDuplicateLastRow
+   *          the include duplicate last row
+   * @param maxResultSize
+   *          the max result size
+   * @param fetchedSize
+   *          the size fetched so far for the request
+   * @return the fetch; its result is null if the fetch was skipped, and
+   *         truncated if the shared size cut it short
+   */
+  private Future<KeyFetch> submitFetch(final String key, final long startTime,
+      final long endTime, final boolean includeDuplicateLastRow,
+      final long maxResultSize, final AtomicLong fetchedSize) {
+    ExecutorService pool = HBaseConfigurationUtil.getFetchPool();
+    return pool.submit(new Callable<KeyFetch>() {
+      public KeyFetch call() throws IOException {
+        long remainingSize = maxResultSize - fetchedSize.get();
+        if (remainingSize <= 0) {
+          return null;
+        }
+        KeyFetch fetch = fetchKey(new PcapsResponse(), key, startTime,
+            endTime, false, includeDuplicateLastRow, remainingSize);
+        fetchedSize.addAndGet(fetch.getSize());
+        return fetch;
+      }
+    });
+  }
+
   /**
    * Process key.
    * 
@@ -309,99 +602,136 @@ public
   PcapsResponse processKey(PcapsResponse pcapsResponse, String key,
       long startTime, long endTime, boolean isPartialResponse,
       boolean includeDuplicateLastRow, long maxResultSize) throws IOException {
-    HTable table = null;
-    Scan scan = null;
-    List<Cell> scannedCells = null;
-    try {
-      // 1. Create start and stop row for the key;
+    KeyFetch fetch = fetchKey(pcapsResponse, key, startTime, endTime,
+        isPartialResponse, includeDuplicateLastRow, maxResultSize);
+    addToResponse(pcapsResponse, fetch, maxResultSize);
+    return pcapsResponse;
+  }
+
+  /**
+   * Fetches the cells of a key, without adding them to the response.
+   * 
+   * @param pcapsResponse
+   *          the pcaps response the scans are sized for
+   * @param key
+   *          the key
+   * @param startTime
+   *          the start time
+   * @param endTime
+   *          the end time
+   * @param isPartialResponse
+   *          the is partial response
+   * @param includeDuplicateLastRow
+   *          the include duplicate last row
+   * @param maxResultSize
+   *          the max result size
+   * @return the key fetch
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @VisibleForTesting
+  KeyFetch fetchKey(PcapsResponse pcapsResponse, String key,
+      long startTime, long endTime, boolean isPartialResponse,
+      boolean includeDuplicateLastRow, long maxResultSize) throws IOException {
+    List<Scan> scans = null;
+    Get get = null;
+    // 1. Create start and stop rows for the key; binary row keys may need
+    // a scan per salt bucket, and pcap blocks are always scanned
+    if (ConfigurationUtil.isBlockLayout()) {
+      scans = Collections.singletonList(createBlockScanRequest(pcapsResponse,
+          key, startTime, endTime, isPartialResponse, includeDuplicateLastRow,
+          maxResultSize));
+    } else if (ConfigurationUtil.isBinaryRowKey()) {
+      scans = createBinaryScanRequests(pcapsResponse, key, startTime,
+          endTime, isPartialResponse, includeDuplicateLastRow, maxResultSize);
+    } else {
       Map<String, String> keysMap = createStartAndStopRowKeys(key,
           isPartialResponse, includeDuplicateLastRow);
+      if (keysMap != null) {
+        scans = Collections.singletonList(createScanRequest(pcapsResponse,
+            keysMap, startTime, endTime, maxResultSize));
+      }
+    }
+
+    // 2. if the input key contains all fragments (7) and it is not part
+    // of previous partial response (isPartialResponse),
+    // 'scans' will be null; do a Get; currently not doing any
+    // response size related checks for Get;
+    if (scans == null) {
+      get = createGetRequest(key, startTime, endTime);
+    }
+    // 3. Scans stop at the first row after the remaining response size
+    long sizeLimit = maxResultSize
+        - (pcapsResponse.getResponseSize() + ConfigurationUtil.getMaxRowSize());
 
-      // 2. if the input key contains all fragments (7) and it is not part
-      // of previous partial response (isPartialResponse),
-      // 'keysMap' will be null; do a Get; currently not doing any
-      // response size related checks for Get;
-      // by default all cells from a specific row are sorted by timestamp
-      if (keysMap == null) {
-        Get get = createGetRequest(key, startTime, endTime);
-        List<Cell> cells = executeGetRequest(table, get);
-        for (Cell cell : cells) {
-          pcapsResponse.addPcaps(CellUtil.cloneValue(cell));
+    int maxRetryLimit = ConfigurationUtil.getConnectionRetryLimit();
+    for (int attempt = 0;; attempt++) {
+      HTableLease lease = null;
+      try {
+        lease = HBaseConfigurationUtil.leaseTable();
+        if (get != null) {
+          return executeGetRequest(lease.getTable(), get);
         }
-        return pcapsResponse;
-      }
-      // 3. Create and execute Scan request
-      scan = createScanRequest(pcapsResponse, keysMap, startTime, endTime,
-          maxResultSize);
-      scannedCells = executeScanRequest(table, scan);
-      LOGGER.info("scannedCells size :" + scannedCells.size());
-      addToResponse(pcapsResponse, scannedCells, maxResultSize);
-
-    } catch (IOException e) {
-      LOGGER.error("Exception occurred while fetching Pcaps for the keys :"
-          + key, e);
-      if (e instanceof ZooKeeperConnectionException
-          || e instanceof MasterNotRunningException
-          || e instanceof NoServerForRegionException) {
-        int maxRetryLimit = ConfigurationUtil.getConnectionRetryLimit();
-        System.out.println("maxRetryLimit =" + maxRetryLimit);
-        for (int attempt = 1; attempt <= maxRetryLimit; attempt++) {
-          System.out.println("attempting  =" + attempt);
-          try {
-            HBaseConfigurationUtil.closeConnection(); // closing the
-            // existing
-            // connection
-            // and retry,
-            // it will
-            // create a new
-            // HConnection
-            scannedCells = executeScanRequest(table, scan);
-            addToResponse(pcapsResponse, scannedCells, maxResultSize);
-            break;
-          } catch (IOException ie) {
-            if (attempt == maxRetryLimit) {
-              LOGGER.error("Throwing the exception after retrying "
-                  + maxRetryLimit + " times.");
-              throw e;
-            }
-          }
+        return executeScanRequests(lease.getTable(), scans, sizeLimit);
+      } catch (IOException e) {
+        if (lease != null) {
+          lease.discard();
+        }
+        LOGGER.error("Exception occurred while fetching Pcaps for the keys :"
+            + key, e);
+        if (!HBaseConfigurationUtil.isRetryable(e)) {
+          return new KeyFetch(false);
+        }
+        if (attempt >= maxRetryLimit) {
+          LOGGER.error("Throwing the exception after retrying "
+              + maxRetryLimit + " times.");
+          throw e;
+        }
+        HBaseConfigurationUtil.backOff(attempt);
+      } finally {
+        if (lease != null) {
+          lease.close();
         }
-      }
-
-    } finally {
-      if (table != null) {
-        table.close();
       }
     }
-    return pcapsResponse;
   }
 
   /**
-   * Adds the to response.
+   * Adds the pcaps of a key to the response. If they were scanned and the
+   * response size is reached, the response is partial and resumes after the
+   * last row scanned; currently not doing any response size related checks
+   * for Get.
    * 
    * @param pcapsResponse
    *          the pcaps response
-   * @param scannedCells
-   *          the scanned cells
+   * @param fetch
+   *          the key fetch
    * @param maxResultSize
    *          the max result size
    */
-  private void addToResponse(PcapsResponse pcapsResponse,
-      List<Cell> scannedCells, long maxResultSize) {
-    String lastKeyFromCurrentScan = null;
-    if (scannedCells != null && scannedCells.size() > 0) {
-      lastKeyFromCurrentScan = new String(CellUtil.cloneRow(scannedCells
-          .get(scannedCells.size() - 1)));
-    }
-    // 4. calculate the response size
-    Collections.sort(scannedCells, PcapHelper.getCellTimestampComparator());
-    for (Cell sortedCell : scannedCells) {
-      pcapsResponse.addPcaps(CellUtil.cloneValue(sortedCell));
+  private void addToResponse(PcapsResponse pcapsResponse, KeyFetch fetch,
+      long maxResultSize) {
+    List<byte[]> pcaps = fetch.getPcaps();
+    long responseSize = pcapsResponse.getResponseSize();
+    long sizeLimit = maxResultSize - ConfigurationUtil.getMaxRowSize();
+    int from = 0;
+    for (int row = 0; row < fetch.getRowCount(); row++) {
+      int to = fetch.getRowEnd(row);
+      for (; from < to; from++) {
+        pcapsResponse.addPcaps(pcaps.get(from));
+        responseSize += pcaps.get(from).length;
+      }
+      if (fetch.isScanned() && responseSize >= sizeLimit) {
+        // response size reached; the rows after this one are left to the
+        // next request
+        pcapsResponse.setStatus(PcapsResponse.Status.PARTIAL);
+        pcapsResponse.setLastRowKey(PcapHelper.toKeyString(fetch
+            .getRow(row)));
+        return;
+      }
     }
-    if (!pcapsResponse.isResonseSizeWithinLimit(maxResultSize)) {
-      pcapsResponse.setStatus(PcapsResponse.Status.PARTIAL); // response size
-                                                             // reached
-      pcapsResponse.setLastRowKey(new String(lastKeyFromCurrentScan));
+    for (; from < pcaps.size(); from++) {
+      pcapsResponse.addPcaps(pcaps.get(from));
     }
   }
 
@@ -510,6 +840,189 @@ public
     return map;
   }
 
+  /**
+   * Builds the scans of a key when row keys are salted binary pcap_ids,
+   * following the logic of
+   * {@link #createStartAndStopRowKeys(String, boolean, boolean)} : 1. a full
+   * key that is not part of a partial response is a Get, returns 'null' 2. a
+   * partial response key resumes after (or at, with includeDuplicateLastRow)
+   * its row, up to the end of its first 'minimumTokensIninputKey' tokens 3.
+   * any other key scans all rows starting with its tokens.
+   * <p>
+   * The salt bucket is computed when the key holds the 5-tuple; keys with less
+   * tokens are scanned in every bucket.
+   * 
+   * @param pcapsResponse
+   *          the pcaps response
+   * @param key
+   *          the key
+   * @param startTime
+   *          the start time
+   * @param endTime
+   *          the end time
+   * @param isLastRowKey
+   *          if the key is part of partial response
+   * @param includeDuplicateLastRow
+   *          the include duplicate last row
+   * @param maxResultSize
+   *          the max result size
+   * @return the scans, in row key order
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @VisibleForTesting
+  List<Scan> createBinaryScanRequests(PcapsResponse pcapsResponse,
+      String key, long startTime, long endTime, boolean isLastRowKey,
+      boolean includeDuplicateLastRow, long maxResultSize) throws IOException {
+    int buckets = ConfigurationUtil.getRowKeySaltBuckets();
+    String regex = "\\" + HBaseConfigConstants.PCAP_KEY_DELIMETER;
+    int tokens = key.split(regex).length;
+    if (tokens == PcapRowKey.TOKENS && !isLastRowKey) {
+      return null;
+    }
+    List<Scan> scans = new ArrayList<Scan>();
+    String prefixKey = key;
+    int firstSalt = 0;
+    if (tokens == PcapRowKey.TOKENS) {
+      // resume after the last row, in its salt bucket
+      int minimumTokensIninputKey = ConfigurationUtil
+          .getMinimumTokensInInputkey();
+      if (minimumTokensIninputKey < tokens) {
+        prefixKey = getTokens(key, minimumTokensIninputKey);
+      }
+      byte[] lastRow = PcapRowKey.toBytes(key, buckets);
+      int lastSalt = lastRow[0] & 0xff;
+      byte[] startRow = includeDuplicateLastRow ? lastRow : PcapRowKey
+          .toNextRow(lastRow);
+      byte[] stopRow = PcapRowKey.toStopRow(PcapRowKey.toPrefix(lastSalt,
+          prefixKey));
+      scans.add(createScanRequest(pcapsResponse, startRow, stopRow, startTime,
+          endTime, maxResultSize));
+      // keys without the 5-tuple go on in the following buckets
+      firstSalt = lastSalt + 1;
+    }
+    int salt = PcapRowKey.getSalt(prefixKey, buckets);
+    if (salt >= 0) {
+      if (tokens < PcapRowKey.TOKENS) {
+        scans.add(createPrefixScanRequest(pcapsResponse, salt, prefixKey,
+            startTime, endTime, maxResultSize));
+      }
+      return scans;
+    }
+    for (int i = firstSalt; i < buckets; i++) {
+      scans.add(createPrefixScanRequest(pcapsResponse, i, prefixKey, startTime,
+          endTime, maxResultSize));
+    }
+    return scans;
+  }
+
+  /**
+   * Builds the scan of a key when the table holds pcap blocks : the rows of
+   * the session of the key, its first 5 tokens, in the time buckets of the
+   * time range. A partial response key, the session and the time bucket of the
+   * last row, resumes after (or at, with includeDuplicateLastRow) that row.
+   * 
+   * @param pcapsResponse
+   *          the pcaps response
+   * @param key
+   *          the key
+   * @param startTime
+   *          the start time
+   * @param endTime
+   *          the end time
+   * @param isLastRowKey
+   *          if the key is part of partial response
+   * @param includeDuplicateLastRow
+   *          the include duplicate last row
+   * @param maxResultSize
+   *          the max result size
+   * @return the scan
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @VisibleForTesting
+  Scan createBlockScanRequest(PcapsResponse pcapsResponse, String key,
+      long startTime, long endTime, boolean isLastRowKey,
+      boolean includeDuplicateLastRow, long maxResultSize) throws IOException {
+    String regex = "\\" + HBaseConfigConstants.PCAP_KEY_DELIMETER;
+    String[] keyTokens = key.split(regex);
+    Assert.isTrue(keyTokens.length >= PcapRowKey.SALT_TOKENS,
+        "pcap blocks are looked up by the 5-tuple of the session");
+    String sessionKey = keyTokens.length == PcapRowKey.SALT_TOKENS ? key
+        : getTokens(key, PcapRowKey.SALT_TOKENS);
+    boolean binary = ConfigurationUtil.isBinaryRowKey();
+    int saltBuckets = ConfigurationUtil.getRowKeySaltBuckets();
+    long bucketWidth = ConfigurationUtil.getBlockTimeBucket();
+    long[] timeRange = PcapHelper.toDataCreationTimeRange(startTime, endTime);
+
+    byte[] startRow;
+    if (isLastRowKey && keyTokens.length == PcapRowKey.SALT_TOKENS + 1) {
+      byte[] lastRow = PcapBlockKey.toBytes(sessionKey,
+          Long.parseLong(keyTokens[PcapRowKey.SALT_TOKENS]), binary,
+          saltBuckets);
+      startRow = includeDuplicateLastRow ? lastRow : PcapRowKey
+          .toNextRow(lastRow);
+    } else {
+      startRow = PcapBlockKey.toBytes(sessionKey,
+          PcapIpIndexKey.getBucket(timeRange[0], bucketWidth), binary,
+          saltBuckets);
+    }
+    byte[] stopRow;
+    if (timeRange[1] == Long.MAX_VALUE) {
+      stopRow = PcapRowKey.toStopRow(PcapBlockKey.toSessionPrefix(sessionKey,
+          binary, saltBuckets));
+    } else {
+      // the bucket of the last time excluded may still hold earlier packets
+      stopRow = PcapBlockKey.toBytes(sessionKey,
+          PcapIpIndexKey.getBucket(timeRange[1], bucketWidth) + 1, binary,
+          saltBuckets);
+    }
+    return createScanRequest(pcapsResponse, startRow, stopRow, startTime,
+        endTime, maxResultSize);
+  }
+
+  /**
+   * Creates the scan of all binary row keys starting with the tokens of a key,
+   * in one salt bucket.
+   * 
+   * @param pcapsResponse
+   *          the pcaps response
+   * @param salt
+   *          the salt bucket
+   * @param key
+   *          the key
+   * @param startTime
+   *          the start time
+   * @param endTime
+   *          the end time
+   * @param maxResultSize
+   *          the max result size
+   * @return the scan
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private Scan createPrefixScanRequest(PcapsResponse pcapsResponse, int salt,
+      String key, long startTime, long endTime, long maxResultSize)
+      throws IOException {
+    byte[] prefix = PcapRowKey.toPrefix(salt, key);
+    return createScanRequest(pcapsResponse, prefix,
+        PcapRowKey.toStopRow(prefix), startTime, endTime, maxResultSize);
+  }
+
+  /**
+   * Gets the row key of a pcap_id in the configured row key format.
+   * 
+   * @param key
+   *          the pcap_id
+   * @return the row key
+   */
+  private byte[] toRowKey(String key) {
+    if (ConfigurationUtil.isBinaryRowKey()) {
+      return PcapRowKey.toBytes(key, ConfigurationUtil.getRowKeySaltBuckets());
+    }
+    return Bytes.toBytes(key);
+  }
+
   /**
    * Returns false if keys is empty or null AND lastRowKey is null or
    * empty; otherwise returns true;.
@@ -536,52 +1049,84 @@ public
    *          hbase table
    * @param get
    *          Get
-   * @return List<Cell>
+   * @return the key fetch
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
-  private List<Cell> executeGetRequest(HTable table, Get get)
+  private KeyFetch executeGetRequest(HTableInterface table, Get get)
       throws IOException {
     LOGGER.info("Get :" + get.toString());
-    table = (HTable) HBaseConfigurationUtil.getConnection().getTable(
-        ConfigurationUtil.getTableName());
     Result result = table.get(get);
-    List<Cell> cells = result.getColumnCells(
-        ConfigurationUtil.getColumnFamily(),
-        ConfigurationUtil.getColumnQualifier());
-    return cells;
+    KeyFetch fetch = new KeyFetch(false);
+    fetch.add(result);
+    return fetch;
   }
 
   /**
-   * Execute scan request.
+   * Executes the scan requests one after the other, until the size limit is
+   * reached.
+   * 
+   * @param table
+   *          hbase table
+   * @param scans
+   *          the scans
+   * @param sizeLimit
+   *          the size after which no further row is scanned
+   * @return the key fetch, in scan order
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private KeyFetch executeScanRequests(HTableInterface table,
+      List<Scan> scans, long sizeLimit) throws IOException {
+    KeyFetch fetch = new KeyFetch(true);
+    for (Scan scan : scans) {
+      if (!executeScanRequest(table, scan, fetch, sizeLimit)) {
+        fetch.setTruncated(true);
+        break;
+      }
+    }
+    return fetch;
+  }
+
+  /**
+   * Execute scan request. The pcaps of each row are taken as the scanner
+   * returns it, without holding on to the results. Once the size limit is
+   * reached the scan stops before the next row, so that a partial response
+   * resumes after the last whole row.
    * 
    * @param table
    *          hbase table
    * @param scan
    *          the scan
-   * @return the list
+   * @param fetch
+   *          receives the pcaps
+   * @param sizeLimit
+   *          the size after which no further row is scanned
+   * @return false, if the scan stopped at the size limit
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
-  private List<Cell> executeScanRequest(HTable table, Scan scan)
-      throws IOException {
+  private boolean executeScanRequest(HTableInterface table, Scan scan,
+      KeyFetch fetch, long sizeLimit) throws IOException {
     LOGGER.info("Scan :" + scan.toString());
-    table = (HTable) HBaseConfigurationUtil.getConnection().getTable(
-    		ConfigurationUtil.getConfiguration().getString("hbase.table.name"));
     ResultScanner resultScanner = table.getScanner(scan);
-    List<Cell> scannedCells = new ArrayList<Cell>();
-    for (Result result = resultScanner.next(); result != null; result = resultScanner
-        .next()) {
-      List<Cell> cells = result.getColumnCells(
-          ConfigurationUtil.getColumnFamily(),
-          ConfigurationUtil.getColumnQualifier());
-      if (cells != null) {
-        for (Cell cell : cells) {
-          scannedCells.add(cell);
+    try {
+      for (Result result = resultScanner.next(); result != null; result = resultScanner
+          .next()) {
+        if (fetch.getSize() >= sizeLimit && fetch.getLastRow() != null
+            && !Arrays.equals(fetch.getLastRow(), result.getRow())) {
+          return false;
+        }
+        if (ConfigurationUtil.isBlockLayout()) {
+          fetch.add(result.getRow(), PcapHelper.decodeBlocks(result, scan));
+        } else {
+          fetch.add(result);
         }
       }
+    } finally {
+      resultScanner.close();
     }
-    return scannedCells;
+    return true;
   }
 
   /**
@@ -600,7 +1145,7 @@ public
   @VisibleForTesting
   Get createGetRequest(String key, long startTime, long endTime)
       throws IOException {
-    Get get = new Get(Bytes.toBytes(key));
+    Get get = new Get(toRowKey(key));
     // set family name
     get.addFamily(ConfigurationUtil.getColumnFamily());
 
@@ -637,14 +1182,47 @@ public
   Scan createScanRequest(PcapsResponse pcapsResponse,
       Map<String, String> keysMap, long startTime, long endTime,
       long maxResultSize) throws IOException {
+    return createScanRequest(pcapsResponse,
+        keysMap.get(HBaseConfigConstants.START_KEY).getBytes(),
+        keysMap.get(HBaseConfigConstants.END_KEY).getBytes(), startTime,
+        endTime, maxResultSize);
+  }
+
+  /**
+   * Creates the scan request.
+   * 
+   * @param pcapsResponse
+   *          the pcaps response
+   * @param startRow
+   *          the start row
+   * @param stopRow
+   *          the stop row
+   * @param startTime
+   *          the start time
+   * @param endTime
+   *          the end time
+   * @param maxResultSize
+   *          the max result size
+   * @return the scan
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @VisibleForTesting
+  Scan createScanRequest(PcapsResponse pcapsResponse, byte[] startRow,
+      byte[] stopRow, long startTime, long endTime, long maxResultSize)
+      throws IOException {
     Scan scan = new Scan();
-    // set column family, qualifier
-    scan.addColumn(ConfigurationUtil.getColumnFamily(),
-        ConfigurationUtil.getColumnQualifier());
+    // set column family, qualifier; each pcap block is a qualifier of its own
+    if (ConfigurationUtil.isBlockLayout()) {
+      scan.addFamily(ConfigurationUtil.getColumnFamily());
+    } else {
+      scan.addColumn(ConfigurationUtil.getColumnFamily(),
+          ConfigurationUtil.getColumnQualifier());
+    }
 
     // set start and stop keys
-    scan.setStartRow(keysMap.get(HBaseConfigConstants.START_KEY).getBytes());
-    scan.setStopRow(keysMap.get(HBaseConfigConstants.END_KEY).getBytes());
+    scan.setStartRow(startRow);
+    scan.setStopRow(stopRow);
 
     // set max results size : remaining size = max results size - ( current
     // pcaps response size + possible maximum row size)
@@ -658,8 +1236,15 @@ public
     scan.setMaxVersions(ConfigurationUtil.getConfiguration().getInt(
         "hbase.table.column.maxVersions"));
 
-    // set time range
-    setTimeRangeOnScan(scan, startTime, endTime);
+    // set caching, batch and block cache policy
+    HBaseConfigurationUtil.tuneScan(scan);
+
+    // set time range; pcap blocks are filtered as they are decoded
+    if (ConfigurationUtil.isBlockLayout()) {
+      PcapHelper.setBlockTimeRange(scan, startTime, endTime);
+    } else {
+      setTimeRangeOnScan(scan, startTime, endTime);
+    }
     return scan;
   }
 
@@ -806,4 +1391,196 @@ public
         + " <zk quorum> <output file> <start key> [stop key]");
   }
 
+  /**
+   * The pcaps fetched for a key, the last row they came from, and whether they
+   * were scanned, in which case the response size is checked once they are
+   * added.
+   */
+  @VisibleForTesting
+  static final class KeyFetch {
+
+    /** The pcaps. */
+    private final List<byte[]> pcaps = new ArrayList<byte[]>();
+
+    /** The scanned. */
+    private final boolean scanned;
+
+    /** The last row. */
+    private byte[] lastRow;
+
+    /** The row keys of the pcaps, in fetch order. */
+    private final List<byte[]> rows = new ArrayList<byte[]>();
+
+    /** The index after the last pcap of each row. */
+    private final List<Integer> rowEnds = new ArrayList<Integer>();
+
+    /** Whether the fetch stopped at its size limit. */
+    private boolean truncated;
+
+    /** The size. */
+    private long size;
+
+    /**
+     * Instantiates a new, empty key fetch.
+     * 
+     * @param scanned
+     *          whether the pcaps are scanned, rather than got
+     */
+    KeyFetch(boolean scanned) {
+      this.scanned = scanned;
+    }
+
+    /**
+     * Adds the pcaps of a row.
+     * 
+     * @param result
+     *          the row result
+     */
+    void add(Result result) {
+      List<Cell> cells = result.getColumnCells(
+          ConfigurationUtil.getColumnFamily(),
+          ConfigurationUtil.getColumnQualifier());
+      if (cells == null || cells.isEmpty()) {
+        return;
+      }
+      for (Cell cell : cells) {
+        add(CellUtil.cloneValue(cell));
+      }
+      setLastRow(result.getRow());
+    }
+
+    /**
+     * Adds the pcaps decoded from the blocks of a row.
+     * 
+     * @param row
+     *          the row key
+     * @param rowPcaps
+     *          the pcaps
+     */
+    void add(byte[] row, List<byte[]> rowPcaps) {
+      if (rowPcaps.isEmpty()) {
+        return;
+      }
+      for (byte[] pcap : rowPcaps) {
+        add(pcap);
+      }
+      setLastRow(row);
+    }
+
+    /**
+     * Adds a pcap.
+     * 
+     * @param pcap
+     *          the pcap
+     */
+    void add(byte[] pcap) {
+      pcaps.add(pcap);
+      size += pcap.length;
+    }
+
+    /**
+     * Gets the pcaps.
+     * 
+     * @return the pcaps
+     */
+    List<byte[]> getPcaps() {
+      return pcaps;
+    }
+
+    /**
+     * Checks if the pcaps were scanned.
+     * 
+     * @return true, if scanned
+     */
+    boolean isScanned() {
+      return scanned;
+    }
+
+    /**
+     * Gets the row key of the last row with pcaps.
+     * 
+     * @return the last row, null if there are no pcaps
+     */
+    byte[] getLastRow() {
+      return lastRow;
+    }
+
+    /**
+     * Sets the row key of the last row with pcaps, the row of the pcaps added
+     * since the previous row.
+     * 
+     * @param lastRow
+     *          the last row
+     */
+    void setLastRow(byte[] lastRow) {
+      int last = rows.size() - 1;
+      if (last >= 0 && Arrays.equals(rows.get(last), lastRow)) {
+        rowEnds.set(last, pcaps.size());
+      } else if (pcaps.size() > (last >= 0 ? rowEnds.get(last) : 0)) {
+        rows.add(lastRow);
+        rowEnds.add(pcaps.size());
+      }
+      this.lastRow = lastRow;
+    }
+
+    /**
+     * Gets the number of rows with pcaps.
+     * 
+     * @return the row count
+     */
+    int getRowCount() {
+      return rows.size();
+    }
+
+    /**
+     * Gets the row key of a row.
+     * 
+     * @param row
+     *          the row index
+     * @return the row key
+     */
+    byte[] getRow(int row) {
+      return rows.get(row);
+    }
+
+    /**
+     * Gets the index after the last pcap of a row.
+     * 
+     * @param row
+     *          the row index
+     * @return the row end
+     */
+    int getRowEnd(int row) {
+      return rowEnds.get(row);
+    }
+
+    /**
+     * Checks if the fetch stopped at its size limit, before the end of the
+     * key.
+     * 
+     * @return true, if truncated
+     */
+    boolean isTruncated() {
+      return truncated;
+    }
+
+    /**
+     * Sets whether the fetch stopped at its size limit.
+     * 
+     * @param truncated
+     *          the truncated
+     */
+    void setTruncated(boolean truncated) {
+      this.truncated = truncated;
+    }
+
+    /**
+     * Gets the size of the pcaps.
+     * 
+     * @return the size
+     */
+    long getSize() {
+      return size;
+    }
+  }
 }
@@ -1,14 +1,23 @@
 package com.opensoc.pcapservice;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.log4j.Logger;
 import org.mortbay.log.Log;
 import org.springframework.util.Assert;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.opensoc.pcap.PcapBlock;
+import com.opensoc.pcap.PcapBlockKey;
+import com.opensoc.pcap.PcapRowKey;
 
 /**
  * utility class which holds methods related to time conversions, building
@@ -19,6 +28,9 @@ public class PcapHelper {
   /** The Constant LOGGER. */
   private static final Logger LOGGER = Logger.getLogger(PcapHelper.class);
 
+  /** The scan attribute holding the time range pcap blocks are filtered by. */
+  private static final String BLOCK_TIME_RANGE_ATTRIBUTE = "pcap.block.time.range";
+
   /** The cell timestamp comparator. */
   private static CellTimestampComparator CELL_TIMESTAMP_COMPARATOR = new CellTimestampComparator();
 
@@ -161,6 +173,93 @@ public class PcapHelper {
     return CELL_TIMESTAMP_COMPARATOR;
   }
 
+  /**
+   * Converts a time range to the 'hbase' data creation time unit; a negative
+   * start time has no lower bound and a negative end time no upper bound.
+   * 
+   * @param startTime
+   *          the start time
+   * @param endTime
+   *          the end time
+   * @return the first time included and the first time excluded
+   */
+  public static long[] toDataCreationTimeRange(long startTime, long endTime) {
+    long minTime = startTime < 0 ? 0 : convertToDataCreationTimeUnit(startTime);
+    long maxTime = endTime < 0 ? Long.MAX_VALUE
+        : convertToDataCreationTimeUnit(endTime);
+    Assert.isTrue(minTime < maxTime,
+        "startTime value must be less than endTime value");
+    return new long[] { minTime, maxTime };
+  }
+
+  /**
+   * Sets the time range the pcap blocks of a scan are filtered by when they
+   * are decoded. The time range of the scan itself is left unset, as a block
+   * cell holds packets of many times.
+   * 
+   * @param scan
+   *          the scan
+   * @param startTime
+   *          the start time
+   * @param endTime
+   *          the end time
+   */
+  public static void setBlockTimeRange(Scan scan, long startTime, long endTime) {
+    long[] timeRange = toDataCreationTimeRange(startTime, endTime);
+    scan.setAttribute(BLOCK_TIME_RANGE_ATTRIBUTE,
+        Bytes.add(Bytes.toBytes(timeRange[0]), Bytes.toBytes(timeRange[1])));
+  }
+
+  /**
+   * Decodes the pcap blocks of a row into single packet pcaps, keeping those
+   * in the time range set on the scan that read the row.
+   * 
+   * @param result
+   *          the row
+   * @param scan
+   *          the scan
+   * @return the pcaps
+   * @throws IOException
+   *           if a block is not valid
+   */
+  public static List<byte[]> decodeBlocks(Result result, Scan scan)
+      throws IOException {
+    long minTime = 0;
+    long maxTime = Long.MAX_VALUE;
+    byte[] timeRange = scan.getAttribute(BLOCK_TIME_RANGE_ATTRIBUTE);
+    if (timeRange != null) {
+      minTime = Bytes.toLong(timeRange, 0);
+      maxTime = Bytes.toLong(timeRange, 8);
+    }
+    List<byte[]> pcaps = new ArrayList<byte[]>();
+    Cell[] cells = result.rawCells();
+    if (cells != null) {
+      for (Cell cell : cells) {
+        pcaps.addAll(PcapBlock.decode(CellUtil.cloneValue(cell), minTime,
+            maxTime));
+      }
+    }
+    return pcaps;
+  }
+
+  /**
+   * Gets the pcap_id of a row key in the configured row key format.
+   * 
+   * @param rowKey
+   *          the row key
+   * @return the pcap_id
+   */
+  public static String toKeyString(byte[] rowKey) {
+    if (ConfigurationUtil.isBlockLayout()) {
+      return PcapBlockKey.toKeyString(rowKey,
+          ConfigurationUtil.isBinaryRowKey());
+    }
+    if (ConfigurationUtil.isBinaryRowKey()) {
+      return PcapRowKey.toPcapId(rowKey);
+    }
+    return new String(rowKey);
+  }
+
   /**
    * Convert millis to data creation time unit.
    * 
@@ -1,6 +1,7 @@
 package com.opensoc.pcapservice;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -13,6 +14,7 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -81,10 +83,7 @@ public class PcapReceiverImplRestEasy {
 				response.setHeader(HEADER_PARTIAL_RESPONE_KEY,
 						pcapResponse.getLastRowKey());
 
-				return Response
-						.ok(pcapResponse.getPcaps(),
-								MediaType.APPLICATION_OCTET_STREAM).status(206)
-						.build();
+				return streamPcaps(pcapResponse, 206);
 
 			}
 
@@ -101,9 +100,7 @@ public class PcapReceiverImplRestEasy {
 		// return new ResponseEntity<byte[]>(pcapResponse.getPcaps(), headers,
 		// HttpStatus.OK);
 
-		return Response
-				.ok(pcapResponse.getPcaps(), MediaType.APPLICATION_OCTET_STREAM)
-				.status(200).build();
+		return streamPcaps(pcapResponse, 200);
 
 	}
 	
@@ -128,13 +125,13 @@ public class PcapReceiverImplRestEasy {
 					.entity("'end key' must not be null or empty").build();
 		
 		
-	    byte[] response = null;
+	    PcapsResponse response = null;
 	    try {
 	      IPcapScanner pcapScanner = PcapScannerHBaseImpl.getInstance();
-	      response = pcapScanner.getPcaps(startKey, endKey,
+	      response = pcapScanner.getPcapsResponse(startKey, endKey,
 	          ConfigurationUtil.validateMaxResultSize(maxResponseSize), startTime,
 	          endTime);
-	      if (response == null || response.length == 0) {
+	      if (response == null || response.getResponseSize() == 0) {
 	    	  
 	    	  return Response.status(Response.Status.NO_CONTENT).build();
 	        
@@ -142,6 +139,19 @@ public class PcapReceiverImplRestEasy {
 	      servlet_response.setHeader(HEADER_CONTENT_DISPOSITION_NAME,
 					HEADER_CONTENT_DISPOSITION_VALUE);
 
+	      // return http status '206 Partial Content' and the 'lastRowKey'
+	      // header if the range was cut at the max response size
+	      if (response.getStatus() == PcapsResponse.Status.PARTIAL) {
+	        servlet_response.setHeader(HEADER_PARTIAL_RESPONE_KEY,
+	            response.getLastRowKey());
+	        return streamPcaps(response, 206);
+	      }
+
+	    } catch (IllegalArgumentException e) {
+	      LOGGER.error("Invalid key range : startKey=" + startKey + ", endKey="
+	          + endKey, e);
+	      return Response.status(Response.Status.BAD_REQUEST)
+	          .entity(e.getMessage()).build();
 	    } catch (IOException e) {
 	      LOGGER.error(
 	          "Exception occurred while fetching Pcaps for the key range : startKey="
@@ -151,11 +161,50 @@ public class PcapReceiverImplRestEasy {
 	    // return http status '200 OK' along with the complete pcaps response file,
 	    // and headers
 	    
-		return Response
-				.ok(response, MediaType.APPLICATION_OCTET_STREAM)
-				.status(200).build();
+		return streamPcaps(response, 200);
 	  }
 
+	@GET
+	@Path("/pcapGetter/getPcapsByIp")
+	public Response getPcapsByIp(
+			@QueryParam("ip") String ip,
+			@QueryParam("lastRowKey") String lastRowKey,
+			@DefaultValue("-1") @QueryParam("startTime") long startTime,
+			@DefaultValue("-1") @QueryParam("endTime") long endTime,
+			@QueryParam("maxResponseSize") String maxResponseSize,
+			@Context HttpServletResponse response) throws IOException {
+
+		if (ip == null || ip.equals(""))
+			return Response.serverError().status(Response.Status.NO_CONTENT)
+					.entity("'ip' must not be null or empty").build();
+
+		PcapsResponse pcapResponse = null;
+		try {
+			IPcapGetter pcapGetter = PcapGetterHBaseImpl.getInstance();
+			pcapResponse = pcapGetter.getPcapsByIp(ip, lastRowKey, startTime,
+					endTime,
+					ConfigurationUtil.validateMaxResultSize(maxResponseSize));
+			if (pcapResponse == null || pcapResponse.getResponseSize() == 0) {
+				return Response.status(Response.Status.NO_CONTENT).build();
+			}
+			response.setHeader(HEADER_CONTENT_DISPOSITION_NAME,
+					HEADER_CONTENT_DISPOSITION_VALUE);
+
+			// return http status '206 Partial Content' and the key to resume
+			// from, as for 'getPcapsByKeys'
+			if (pcapResponse.getStatus() == PcapsResponse.Status.PARTIAL) {
+				response.setHeader(HEADER_PARTIAL_RESPONE_KEY,
+						pcapResponse.getLastRowKey());
+				return streamPcaps(pcapResponse, 206);
+			}
+		} catch (IOException e) {
+			LOGGER.error("Exception occurred while fetching Pcaps for the ip : "
+					+ ip, e);
+			throw e;
+		}
+		return streamPcaps(pcapResponse, 200);
+	}
+
 	  /*
 	   * (non-Javadoc)
 	   * 
@@ -225,10 +274,35 @@ public class PcapReceiverImplRestEasy {
 	    }
 	    // return http status '200 OK' along with the complete pcaps response file,
 	    // and headers
-	    return Response
-				.ok(response.getPcaps(), MediaType.APPLICATION_OCTET_STREAM)
-				.status(200).build();
+	    return streamPcaps(response, 200);
 	  }
+
+	/**
+	 * Builds a response whose entity merges the pcaps straight into the http
+	 * output stream, writing the pcap global header first and then the
+	 * packets in timestamp order. The merged pcap file is never held in
+	 * memory, and the client starts receiving it as soon as the merge starts.
+	 * The fetched pcaps themselves are still all in memory before anything is
+	 * written, up to the max response size: the status and the lastRowKey
+	 * header depend on the whole fetch, and the merge orders packets across
+	 * all of them.
+	 * 
+	 * @param pcapsResponse
+	 *            the pcaps to merge
+	 * @param status
+	 *            the http status
+	 * @return the response
+	 */
+	private Response streamPcaps(final PcapsResponse pcapsResponse, int status) {
+		StreamingOutput output = new StreamingOutput() {
+			public void write(OutputStream out) throws IOException {
+				pcapsResponse.writePcaps(out);
+			}
+		};
+		return Response.ok(output, MediaType.APPLICATION_OCTET_STREAM)
+				.status(status).build();
+	}
+
 	/**
 	 * This method parses the each value in the List using delimiter ',' and
 	 * builds a new List;.
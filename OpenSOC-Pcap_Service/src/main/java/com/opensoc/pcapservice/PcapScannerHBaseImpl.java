@@ -1,17 +1,16 @@
 package com.opensoc.pcapservice;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
-import org.apache.hadoop.hbase.MasterNotRunningException;
-import org.apache.hadoop.hbase.ZooKeeperConnectionException;
-import org.apache.hadoop.hbase.client.HTable;
-import org.apache.hadoop.hbase.client.NoServerForRegionException;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
@@ -20,7 +19,7 @@ import org.apache.log4j.Logger;
 import org.springframework.util.Assert;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.opensoc.pcap.PcapMerger;
+import com.opensoc.pcap.PcapRowKey;
 
 /**
  * Singleton class which integrates with HBase table and returns sorted pcaps
@@ -52,59 +51,126 @@ public class PcapScannerHBaseImpl implements IPcapScanner {
   
   public byte[] getPcaps(String startKey, String endKey, long maxResultSize,
       long startTime, long endTime) throws IOException {
+    return getPcapsResponse(startKey, endKey, maxResultSize, startTime,
+        endTime).getPcaps();
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see
+   * com.opensoc.pcapservice.IPcapScanner#getPcapsResponse(java.lang.String,
+   * java.lang.String, long, long, long)
+   */
+
+  public PcapsResponse getPcapsResponse(String startKey, String endKey,
+      long maxResultSize, long startTime, long endTime) throws IOException {
     Assert.hasText(startKey, "startKey must no be null or empty");
     byte[] cf = Bytes.toBytes(ConfigurationUtil.getConfiguration()
         .getString("hbase.table.column.family"));
     byte[] cq = Bytes.toBytes(ConfigurationUtil.getConfiguration()
         .getString("hbase.table.column.qualifier"));
-    // create scan request
-    Scan scan = createScanRequest(cf, cq, startKey, endKey, maxResultSize,
-        startTime, endTime);
-    List<byte[]> pcaps = new ArrayList<byte[]>();
-    HTable table = null;
-    try {
-      pcaps = scanPcaps(pcaps, table, scan, cf, cq);
-    } catch (IOException e) {
-      LOGGER.error(
-          "Exception occurred while fetching Pcaps for the key range : startKey="
-              + startKey + ", endKey=" + endKey, e);
-      if (e instanceof ZooKeeperConnectionException
-          || e instanceof MasterNotRunningException
-          || e instanceof NoServerForRegionException) {
-        int maxRetryLimit = getConnectionRetryLimit();
-        for (int attempt = 1; attempt <= maxRetryLimit; attempt++) {
-          try {
-            HBaseConfigurationUtil.closeConnection(); // closing the existing
-                                                      // connection and retry,
-                                                      // it will create a new
-                                                      // HConnection
-            pcaps = scanPcaps(pcaps, table, scan, cf, cq);
-            break;
-          } catch (IOException ie) {
-            if (attempt == maxRetryLimit) {
-              System.out.println("Throwing the exception after retrying "
-                  + maxRetryLimit + " times.");
-              throw e;
-            }
-          }
+    // create scan requests
+    List<Scan> scans = createScanRequests(cf, cq, startKey, endKey,
+        maxResultSize, startTime, endTime);
+    PcapsResponse response = null;
+    int maxRetryLimit = getConnectionRetryLimit();
+    for (int attempt = 0; response == null; attempt++) {
+      try {
+        response = scanPcaps(new PcapsResponse(), scans, cf, cq,
+            maxResultSize);
+      } catch (IOException e) {
+        LOGGER.error(
+            "Exception occurred while fetching Pcaps for the key range : startKey="
+                + startKey + ", endKey=" + endKey, e);
+        if (!HBaseConfigurationUtil.isRetryable(e)) {
+          throw e;
         }
-      } else {
-        throw e;
-      }
-    } finally {
-      if (table != null) {
-        table.close();
+        if (attempt >= maxRetryLimit) {
+          LOGGER.error("Throwing the exception after retrying "
+              + maxRetryLimit + " times.");
+          throw e;
+        }
+        HBaseConfigurationUtil.backOff(attempt);
       }
     }
-    if (pcaps.size() == 1) {
-      return pcaps.get(0);
-    }
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    PcapMerger.merge(baos, pcaps);
-    byte[] response = baos.toByteArray();
     return response;
   }
 
+  /**
+   * Creates the scan requests of a key range. With binary row keys the range
+   * is scanned in every salt bucket, unless both keys hold the same 5-tuple
+   * and so fall in the same bucket. A key may end in a partial ip token, as
+   * with string row keys; see {@link PcapRowKey#toRangeKey(String)}.
+   * 
+   * @param cf
+   *          the cf
+   * @param cq
+   *          the cq
+   * @param startKey
+   *          the start key
+   * @param endKey
+   *          the end key
+   * @param maxResultSize
+   *          the max result size
+   * @param startTime
+   *          the start time
+   * @param endTime
+   *          the end time
+   * @return the scans, in row key order
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @VisibleForTesting
+  List<Scan> createScanRequests(byte[] cf, byte[] cq, String startKey,
+      String endKey, long maxResultSize, long startTime, long endTime)
+      throws IOException {
+    if (!ConfigurationUtil.isBinaryRowKey()) {
+      return Collections.singletonList(createScanRequest(cf, cq, startKey,
+          endKey, maxResultSize, startTime, endTime));
+    }
+    startKey = PcapRowKey.toRangeKey(startKey);
+    endKey = endKey != null ? PcapRowKey.toRangeKey(endKey) : null;
+    int buckets = ConfigurationUtil.getRowKeySaltBuckets();
+    int firstSalt = 0;
+    int lastSalt = buckets - 1;
+    int salt = PcapRowKey.getSalt(startKey, buckets);
+    if (salt >= 0 && endKey != null
+        && salt == PcapRowKey.getSalt(endKey, buckets)
+        && sameSessionTuple(startKey, endKey)) {
+      firstSalt = salt;
+      lastSalt = salt;
+    }
+    List<Scan> scans = new ArrayList<Scan>();
+    for (int i = firstSalt; i <= lastSalt; i++) {
+      byte[] stopRow = endKey != null ? PcapRowKey.toPrefix(i, endKey)
+          : PcapRowKey.toStopRow(new byte[] { (byte) i });
+      scans.add(createScanRequest(cf, cq, PcapRowKey.toPrefix(i, startKey),
+          stopRow, maxResultSize, startTime, endTime));
+    }
+    return scans;
+  }
+
+  /**
+   * Checks if two keys start with the same 5-tuple.
+   * 
+   * @param key1
+   *          the key1
+   * @param key2
+   *          the key2
+   * @return true, if both keys hold the same 5-tuple
+   */
+  private boolean sameSessionTuple(String key1, String key2) {
+    byte[] prefix1 = PcapRowKey.toPrefix(0, key1);
+    byte[] prefix2 = PcapRowKey.toPrefix(0, key2);
+    for (int i = 0; i < PcapRowKey.SESSION_PREFIX_LENGTH; i++) {
+      if (prefix1[i] != prefix2[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Creates the scan request.
    * 
@@ -129,15 +195,56 @@ public class PcapScannerHBaseImpl implements IPcapScanner {
   @VisibleForTesting
   Scan createScanRequest(byte[] cf, byte[] cq, String startKey, String endKey,
       long maxResultSize, long startTime, long endTime) throws IOException {
+    return createScanRequest(cf, cq, startKey.getBytes(),
+        endKey != null ? endKey.getBytes() : null, maxResultSize, startTime,
+        endTime);
+  }
+
+  /**
+   * Creates the scan request.
+   * 
+   * @param cf
+   *          the cf
+   * @param cq
+   *          the cq
+   * @param startRow
+   *          the start row
+   * @param stopRow
+   *          the stop row, null to scan to the end of the table
+   * @param maxResultSize
+   *          the max result size
+   * @param startTime
+   *          the start time
+   * @param endTime
+   *          the end time
+   * @return the scan
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @VisibleForTesting
+  Scan createScanRequest(byte[] cf, byte[] cq, byte[] startRow,
+      byte[] stopRow, long maxResultSize, long startTime, long endTime)
+      throws IOException {
     Scan scan = new Scan();
-    scan.addColumn(cf, cq);
+    // each pcap block is a qualifier of its own
+    if (ConfigurationUtil.isBlockLayout()) {
+      scan.addFamily(cf);
+    } else {
+      scan.addColumn(cf, cq);
+    }
     scan.setMaxVersions(ConfigurationUtil.getConfiguration().getInt(
         "hbase.table.column.maxVersions"));
-    scan.setStartRow(startKey.getBytes());
-    if (endKey != null) {
-      scan.setStopRow(endKey.getBytes());
+    scan.setStartRow(startRow);
+    if (stopRow != null) {
+      scan.setStopRow(stopRow);
     }
     scan.setMaxResultSize(maxResultSize);
+    HBaseConfigurationUtil.tuneScan(scan);
+    if (ConfigurationUtil.isBlockLayout()) {
+      // pcap blocks are filtered as they are decoded
+      PcapHelper.setBlockTimeRange(scan, startTime, endTime);
+      return scan;
+    }
     boolean setTimeRange = true;
     if (startTime < 0 && endTime < 0) {
       setTimeRange = false;
@@ -164,45 +271,261 @@ public class PcapScannerHBaseImpl implements IPcapScanner {
   }
 
   /**
-   * Scan pcaps.
+   * Scans the ranges of the scans into a response, split along the region
+   * boundaries of the table.
+   * 
+   * @param response
+   *          the response
+   * @param scans
+   *          the scans, in row key order
+   * @param cf
+   *          the cf
+   * @param cq
+   *          the cq
+   * @param maxResultSize
+   *          the max result size; not limited if 0 or less
+   * @return the response
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   * @see #scanSubRanges(PcapsResponse, List, byte[], byte[], long)
+   */
+  @VisibleForTesting
+  PcapsResponse scanPcaps(PcapsResponse response, List<Scan> scans,
+      byte[] cf, byte[] cq, long maxResultSize) throws IOException {
+    return scanSubRanges(response,
+        splitByRegions(scans, HBaseConfigurationUtil.getRegionStartKeys()), cf,
+        cq, maxResultSize);
+  }
+
+  /**
+   * Scans sub-ranges into a response. Up to
+   * 'hbase.fetch.concurrency.per.request' sub-ranges are scanned at the same
+   * time on the fetch pool, so that a wide range is read from all region
+   * servers holding it at once. The pcaps of the sub-ranges are put in
+   * timestamp order when they are merged.
+   * <p>
+   * Whatever order the sub-ranges finish in, the response holds a prefix of
+   * the rows in row key order: the sub-ranges are added one after the other,
+   * row by row, and the response is cut at the row where its size reaches
+   * the max result size less the max row size. It is then marked PARTIAL,
+   * with that row as its last row key, like the responses of
+   * {@link PcapGetterHBaseImpl}. A sub-range scanned ahead stops at the same
+   * size by itself, and at its next row once the response is cut.
+   * 
+   * @param response
+   *          the response
+   * @param subScans
+   *          the scans of the sub-ranges, in row key order
+   * @param cf
+   *          the cf
+   * @param cq
+   *          the cq
+   * @param maxResultSize
+   *          the max result size; not limited if 0 or less
+   * @return the response
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @VisibleForTesting
+  PcapsResponse scanSubRanges(PcapsResponse response, List<Scan> subScans,
+      final byte[] cf, final byte[] cq, long maxResultSize) throws IOException {
+    final long sizeLimit = maxResultSize > 0 ? maxResultSize
+        - ConfigurationUtil.getMaxRowSize() : Long.MAX_VALUE;
+    final AtomicBoolean stopped = new AtomicBoolean();
+    int concurrency = Math.min(ConfigurationUtil.getFetchConcurrency(),
+        subScans.size());
+    if (concurrency <= 1) {
+      for (Scan scan : subScans) {
+        long remainingSize = sizeLimit - response.getResponseSize();
+        if (!addRange(response, scanRange(scan, cf, cq, remainingSize, stopped),
+            sizeLimit)) {
+          break;
+        }
+      }
+      return response;
+    }
+    ExecutorService pool = HBaseConfigurationUtil.getFetchPool();
+    List<Future<RangePcaps>> ranges = new ArrayList<Future<RangePcaps>>(
+        subScans.size());
+    try {
+      int added = 0;
+      boolean complete = true;
+      for (int i = 0; i < subScans.size(); i++) {
+        if (i >= concurrency) {
+          // keep 'concurrency' sub-ranges in flight
+          complete = addRange(response,
+              HBaseConfigurationUtil.await(ranges.get(added++)), sizeLimit);
+          if (!complete) {
+            break;
+          }
+        }
+        final Scan scan = subScans.get(i);
+        ranges.add(pool.submit(new Callable<RangePcaps>() {
+          public RangePcaps call() throws IOException {
+            return scanRange(scan, cf, cq, sizeLimit, stopped);
+          }
+        }));
+      }
+      while (complete && added < ranges.size()) {
+        complete = addRange(response,
+            HBaseConfigurationUtil.await(ranges.get(added++)), sizeLimit);
+      }
+    } finally {
+      stopped.set(true);
+      for (Future<RangePcaps> range : ranges) {
+        range.cancel(false);
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Adds the rows of a sub-range to a response, up to the row where the
+   * response size reaches the size limit.
+   * 
+   * @param response
+   *          the response
+   * @param range
+   *          the pcaps of the sub-range
+   * @param sizeLimit
+   *          the size limit
+   * @return false, if the response was cut at the size limit
+   */
+  private boolean addRange(PcapsResponse response, RangePcaps range,
+      long sizeLimit) {
+    List<byte[]> pcaps = range.getPcaps();
+    long responseSize = response.getResponseSize();
+    int from = 0;
+    for (int row = 0; row < range.getRowCount(); row++) {
+      int to = range.getRowEnd(row);
+      for (; from < to; from++) {
+        response.addPcaps(pcaps.get(from));
+        responseSize += pcaps.get(from).length;
+      }
+      if (responseSize >= sizeLimit) {
+        // response size reached; the rows after this one are left to the
+        // next request
+        response.setStatus(PcapsResponse.Status.PARTIAL);
+        response.setLastRowKey(PcapHelper.toKeyString(range.getRow(row)));
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Splits the ranges of scans at the region start keys they contain.
+   * 
+   * @param scans
+   *          the scans
+   * @param regionStartKeys
+   *          the region start keys, in ascending order
+   * @return the scans of the sub-ranges, in row key order
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @VisibleForTesting
+  List<Scan> splitByRegions(List<Scan> scans, byte[][] regionStartKeys)
+      throws IOException {
+    List<Scan> subScans = new ArrayList<Scan>();
+    for (Scan scan : scans) {
+      byte[] startRow = scan.getStartRow();
+      byte[] stopRow = scan.getStopRow();
+      for (byte[] regionStartKey : regionStartKeys) {
+        if (Bytes.compareTo(regionStartKey, startRow) <= 0) {
+          continue;
+        }
+        if (stopRow.length > 0
+            && Bytes.compareTo(regionStartKey, stopRow) >= 0) {
+          break;
+        }
+        subScans.add(createSubScan(scan, startRow, regionStartKey));
+        startRow = regionStartKey;
+      }
+      subScans.add(startRow == scan.getStartRow() ? scan : createSubScan(scan,
+          startRow, stopRow));
+    }
+    return subScans;
+  }
+
+  /**
+   * Copies a scan for a sub-range of its rows.
+   * 
+   * @param scan
+   *          the scan
+   * @param startRow
+   *          the start row
+   * @param stopRow
+   *          the stop row
+   * @return the scan
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private Scan createSubScan(Scan scan, byte[] startRow, byte[] stopRow)
+      throws IOException {
+    Scan subScan = new Scan(scan);
+    subScan.setStartRow(startRow);
+    subScan.setStopRow(stopRow);
+    return subScan;
+  }
+
+  /**
+   * Scans a range on a table leased for it, adding the pcaps of each row as
+   * the scanner returns it, without holding on to the results.
    * 
-   * @param pcaps
-   *          the pcaps
-   * @param table
-   *          the table
    * @param scan
    *          the scan
    * @param cf
    *          the cf
    * @param cq
    *          the cq
-   * @return the list
+   * @param sizeLimit
+   *          the size of pcaps after which the scan stops, at the end of the
+   *          row reaching it
+   * @param stopped
+   *          set once the pcaps of the range are no longer needed
+   * @return the pcaps of the range, by row
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
   @VisibleForTesting
-  List<byte[]> scanPcaps(List<byte[]> pcaps, HTable table, Scan scan,
-      byte[] cf, byte[] cq) throws IOException {
+  RangePcaps scanRange(Scan scan, byte[] cf, byte[] cq, long sizeLimit,
+      AtomicBoolean stopped) throws IOException {
     LOGGER.info("Scan =" + scan.toString());
-    table = (HTable) HBaseConfigurationUtil.getConnection().getTable(
-    		ConfigurationUtil.getConfiguration().getString("hbase.table.name"));
-    ResultScanner resultScanner = table.getScanner(scan);
-    List<Cell> scannedCells = new ArrayList<Cell>();
-    for (Result result = resultScanner.next(); result != null; result = resultScanner
-        .next()) {
-      List<Cell> cells = result.getColumnCells(cf, cq);
-      if (cells != null) {
-        for (Cell cell : cells) {
-          scannedCells.add(cell);
+    RangePcaps range = new RangePcaps();
+    HTableLease lease = HBaseConfigurationUtil.leaseTable();
+    try {
+      ResultScanner resultScanner = lease.getTable().getScanner(scan);
+      try {
+        while (range.getSize() < sizeLimit && !stopped.get()) {
+          Result result = resultScanner.next();
+          if (result == null) {
+            break;
+          }
+          if (ConfigurationUtil.isBlockLayout()) {
+            for (byte[] pcap : PcapHelper.decodeBlocks(result, scan)) {
+              range.addPcap(pcap);
+            }
+          } else {
+            List<Cell> cells = result.getColumnCells(cf, cq);
+            if (cells != null) {
+              for (Cell cell : cells) {
+                range.addPcap(CellUtil.cloneValue(cell));
+              }
+            }
+          }
+          range.endRow(result.getRow());
         }
+      } finally {
+        resultScanner.close();
       }
+    } catch (IOException e) {
+      lease.discard();
+      throw e;
+    } finally {
+      lease.close();
     }
-    Collections.sort(scannedCells, PcapHelper.getCellTimestampComparator());
-    LOGGER.info("sorted cells :" + scannedCells.toString());
-    for (Cell sortedCell : scannedCells) {
-      pcaps.add(CellUtil.cloneValue(sortedCell));
-    }
-    return pcaps;
+    return range;
   }
 
   /**
@@ -253,6 +576,71 @@ public class PcapScannerHBaseImpl implements IPcapScanner {
   private PcapScannerHBaseImpl() {
   }
 
+  /**
+   * The pcaps of a scanned sub-range, with the rows they were read from.
+   */
+  @VisibleForTesting
+  static final class RangePcaps {
+
+    /** The pcaps, in row order. */
+    private final List<byte[]> pcaps = new ArrayList<byte[]>();
+
+    /** The rows holding pcaps. */
+    private final List<byte[]> rows = new ArrayList<byte[]>();
+
+    /** The index after the last pcap of each row. */
+    private final List<Integer> rowEnds = new ArrayList<Integer>();
+
+    /** The size of the pcaps. */
+    private long size;
+
+    /**
+     * Adds a pcap of the current row.
+     * 
+     * @param pcap
+     *          the pcap
+     */
+    void addPcap(byte[] pcap) {
+      pcaps.add(pcap);
+      size += pcap.length;
+    }
+
+    /**
+     * Ends the row whose pcaps were added since the previous row; a row
+     * without pcaps is left out.
+     * 
+     * @param row
+     *          the row key
+     */
+    void endRow(byte[] row) {
+      int end = pcaps.size();
+      if (end > (rowEnds.isEmpty() ? 0 : rowEnds.get(rowEnds.size() - 1))) {
+        rows.add(row);
+        rowEnds.add(end);
+      }
+    }
+
+    List<byte[]> getPcaps() {
+      return pcaps;
+    }
+
+    int getRowCount() {
+      return rows.size();
+    }
+
+    byte[] getRow(int row) {
+      return rows.get(row);
+    }
+
+    int getRowEnd(int row) {
+      return rowEnds.get(row);
+    }
+
+    long getSize() {
+      return size;
+    }
+  }
+
   /**
    * The main method.
    */
@@ -5,6 +5,7 @@ package com.opensoc.pcapservice;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -141,6 +142,24 @@ public class PcapsResponse {
     return baos.toByteArray();
   }
 
+  /**
+   * Writes the pcaps merged into one pcap file. The packets are merged by
+   * timestamp as they are written, so no merged copy of the response is held
+   * in memory; the unmerged pcaps of the response are.
+   * 
+   * @param out
+   *          the out
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public void writePcaps(OutputStream out) throws IOException {
+    if (pcaps.size() == 1) {
+      out.write(pcaps.get(0));
+      return;
+    }
+    PcapMerger.merge(out, pcaps);
+  }
+
   /* (non-Javadoc)
    * @see java.lang.Object#toString()
    */
@@ -533,4 +533,89 @@ public class PcapGetterHBaseImplTest {
 
   }
 
+  /**
+   * Test_process keys_partial response in key order.
+   * 
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @Test
+  public void test_processKeys_partialResponseInKeyOrder() throws IOException {
+    // mocking
+    PcapGetterHBaseImpl spy = Mockito.spy((PcapGetterHBaseImpl) PcapGetterHBaseImpl
+        .getInstance());
+    List<String> keys = Arrays.asList("0a07002b-0a078039-06-1e8b-0087",
+        "0a07002b-0a078039-06-1e8b-0088", "0a07002b-0a078039-06-1e8b-0089",
+        "0a07002b-0a078039-06-1e8b-0090", "0a07002b-0a078039-06-1e8b-0091");
+    for (String key : keys) {
+      PcapGetterHBaseImpl.KeyFetch fetch = new PcapGetterHBaseImpl.KeyFetch(
+          true);
+      for (int i = 0; i < 3; i++) {
+        fetch.add(new byte[1000]);
+        fetch.setLastRow((key + "-1-" + i).getBytes());
+      }
+      Mockito
+          .doReturn(fetch)
+          .when(spy)
+          .fetchKey(Mockito.any(PcapsResponse.class), Mockito.eq(key),
+              Mockito.anyLong(), Mockito.anyLong(), Mockito.anyBoolean(),
+              Mockito.anyBoolean(), Mockito.anyLong());
+    }
+
+    // actual call; the second row of the second key reaches the response
+    // size (5000 less the max row size)
+    PcapsResponse response = spy.processKeys(new PcapsResponse(), keys, -1,
+        -1, false, 5000);
+
+    // verify; the rest of the fetched rows are cut from the response
+    Assert.isTrue(response.getStatus() == PcapsResponse.Status.PARTIAL);
+    Assert.isTrue(response.getResponseSize() == 5000);
+    Assert.isTrue("0a07002b-0a078039-06-1e8b-0088-1-1".equals(response
+        .getLastRowKey()));
+  }
+
+  /**
+   * Test_to ip range.
+   */
+  @Test
+  public void test_toIpRange() {
+    int[] host = PcapGetterHBaseImpl.toIpRange("10.1.2.3");
+    Assert.isTrue(host[0] == 0x0a010203 && host[1] == 0x0a010203);
+
+    int[] subnet = PcapGetterHBaseImpl.toIpRange("10.1.2.77/24");
+    Assert.isTrue(subnet[0] == 0x0a010200 && subnet[1] == 0x0a0102ff);
+
+    int[] all = PcapGetterHBaseImpl.toIpRange("192.168.0.1/0");
+    Assert.isTrue(all[0] == 0 && all[1] == 0xffffffff);
+  }
+
+  /**
+   * Test_get pcaps by ip_fetches indexed sessions.
+   * 
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @Test
+  public void test_getPcapsByIp_fetchesIndexedSessions() throws IOException {
+    // mocking
+    PcapGetterHBaseImpl pcapGetter = (PcapGetterHBaseImpl) PcapGetterHBaseImpl
+        .getInstance();
+    PcapGetterHBaseImpl spy = Mockito.spy(pcapGetter);
+    List<String> sessionKeys = Arrays.asList(
+        "0a010203-0a078039-6-1234-80", "0a07002b-0a010203-17-53-5353");
+    PcapsResponse indexedPcaps = new PcapsResponse();
+    Mockito.doReturn(sessionKeys).when(spy)
+        .getSessionKeys(0x0a010200, 0x0a0102ff, 0, Long.MAX_VALUE);
+    Mockito
+        .doReturn(indexedPcaps)
+        .when(spy)
+        .getPcaps(sessionKeys, null, -1, -1, false, false, 6000);
+
+    // actual call
+    PcapsResponse response = spy.getPcapsByIp("10.1.2.0/24", null, -1, -1,
+        6000);
+
+    // verify
+    Assert.isTrue(response == indexedPcaps);
+  }
 }
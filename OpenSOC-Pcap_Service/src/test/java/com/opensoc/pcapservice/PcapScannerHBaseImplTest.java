@@ -1,20 +1,24 @@
 package com.opensoc.pcapservice;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import junit.framework.Assert;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Scan;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -124,12 +128,15 @@ public class PcapScannerHBaseImplTest {
     List<byte[]> mockPcaps = new ArrayList<byte[]>();
     mockPcaps.add(getTestPcapBytes());
 
+    PcapsResponse mockResponse = new PcapsResponse();
+    mockResponse.setPcaps(mockPcaps);
+
     Mockito
-        .doReturn(mockPcaps)
+        .doReturn(mockResponse)
         .when(spy)
-        .scanPcaps(Mockito.any(ArrayList.class), Mockito.any(HTable.class),
-            Mockito.any(Scan.class), Mockito.any(byte[].class),
-            Mockito.any(byte[].class));
+        .scanPcaps(Mockito.any(PcapsResponse.class),
+            Mockito.anyListOf(Scan.class), Mockito.any(byte[].class),
+            Mockito.any(byte[].class), Mockito.anyLong());
 
     // actual call
     byte[] response = spy.getPcaps(startKey, endKey, maxResultSize, startTime,
@@ -163,12 +170,15 @@ public class PcapScannerHBaseImplTest {
     List<byte[]> mockPcaps = new ArrayList<byte[]>();
     mockPcaps.add(getTestPcapBytes());
 
+    PcapsResponse mockResponse = new PcapsResponse();
+    mockResponse.setPcaps(mockPcaps);
+
     Mockito
-        .doReturn(mockPcaps)
+        .doReturn(mockResponse)
         .when(spy)
-        .scanPcaps(Mockito.any(ArrayList.class), Mockito.any(HTable.class),
-            Mockito.any(Scan.class), Mockito.any(byte[].class),
-            Mockito.any(byte[].class));
+        .scanPcaps(Mockito.any(PcapsResponse.class),
+            Mockito.anyListOf(Scan.class), Mockito.any(byte[].class),
+            Mockito.any(byte[].class), Mockito.anyLong());
 
     // actual call
     byte[] response = spy.getPcaps(startKey, endKey);
@@ -202,12 +212,15 @@ public class PcapScannerHBaseImplTest {
     mockPcaps.add(getTestPcapBytes());
     mockPcaps.add(getTestPcapBytes());
 
+    PcapsResponse mockResponse = new PcapsResponse();
+    mockResponse.setPcaps(mockPcaps);
+
     Mockito
-        .doReturn(mockPcaps)
+        .doReturn(mockResponse)
         .when(spy)
-        .scanPcaps(Mockito.any(ArrayList.class), Mockito.any(HTable.class),
-            Mockito.any(Scan.class), Mockito.any(byte[].class),
-            Mockito.any(byte[].class));
+        .scanPcaps(Mockito.any(PcapsResponse.class),
+            Mockito.anyListOf(Scan.class), Mockito.any(byte[].class),
+            Mockito.any(byte[].class), Mockito.anyLong());
 
     // actual call
     byte[] response = spy.getPcaps(startKey, endKey);
@@ -217,6 +230,190 @@ public class PcapScannerHBaseImplTest {
     Assert.assertTrue(response.length > mockPcaps.get(0).length);
   }
 
+  /**
+   * Test_get pcaps response_streams merged pcaps.
+   * 
+   * @throws IOException
+   *           the IO exception
+   */
+  @SuppressWarnings("unchecked")
+  @Test
+  public void test_getPcapsResponse_streamsMergedPcaps() throws IOException {
+    // mocking
+    PcapScannerHBaseImpl pcapScanner = (PcapScannerHBaseImpl) PcapScannerHBaseImpl
+        .getInstance();
+    PcapScannerHBaseImpl spy = Mockito.spy(pcapScanner);
+    String startKey = "0a07002b-0a078039-06-1e8b-0087";
+    String endKey = "0a070025-0a07807a-06-aab8-c360";
+
+    List<byte[]> mockPcaps = new ArrayList<byte[]>();
+    mockPcaps.add(getTestPcapBytes());
+    mockPcaps.add(getTestPcapBytes());
+
+    PcapsResponse mockResponse = new PcapsResponse();
+    mockResponse.setPcaps(mockPcaps);
+
+    Mockito
+        .doReturn(mockResponse)
+        .when(spy)
+        .scanPcaps(Mockito.any(PcapsResponse.class),
+            Mockito.anyListOf(Scan.class), Mockito.any(byte[].class),
+            Mockito.any(byte[].class), Mockito.anyLong());
+
+    // actual call
+    PcapsResponse response = spy.getPcapsResponse(startKey, endKey, 60, -1,
+        -1);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    response.writePcaps(out);
+
+    // verify
+    Assert.assertEquals(PcapsResponse.Status.COMPLETE, response.getStatus());
+    Assert.assertEquals(2 * mockPcaps.get(0).length,
+        response.getResponseSize());
+    Assert.assertTrue(Arrays.equals(response.getPcaps(), out.toByteArray()));
+  }
+
+  /**
+   * Test_split by regions.
+   * 
+   * @throws IOException
+   *           the IO exception
+   */
+  @Test
+  public void test_splitByRegions() throws IOException {
+    PcapScannerHBaseImpl pcapScanner = (PcapScannerHBaseImpl) PcapScannerHBaseImpl
+        .getInstance();
+    Scan scan = new Scan("b".getBytes(), "f".getBytes());
+    byte[][] regionStartKeys = { new byte[0], "a".getBytes(), "b".getBytes(),
+        "d".getBytes(), "e".getBytes(), "f".getBytes(), "g".getBytes() };
+
+    // actual call
+    List<Scan> subScans = pcapScanner.splitByRegions(
+        Collections.singletonList(scan), regionStartKeys);
+
+    // verify
+    Assert.assertEquals(3, subScans.size());
+    Assert.assertTrue(Arrays.equals("b".getBytes(), subScans.get(0)
+        .getStartRow()));
+    Assert.assertTrue(Arrays.equals("d".getBytes(), subScans.get(0)
+        .getStopRow()));
+    Assert.assertTrue(Arrays.equals("d".getBytes(), subScans.get(1)
+        .getStartRow()));
+    Assert.assertTrue(Arrays.equals("e".getBytes(), subScans.get(1)
+        .getStopRow()));
+    Assert.assertTrue(Arrays.equals("e".getBytes(), subScans.get(2)
+        .getStartRow()));
+    Assert.assertTrue(Arrays.equals("f".getBytes(), subScans.get(2)
+        .getStopRow()));
+  }
+
+  /**
+   * Test_scan sub ranges_cut at row key prefix. The first sub-range finishes
+   * last, yet the response still holds the rows in row key order up to the
+   * one reaching the size limit.
+   * 
+   * @throws IOException
+   *           the IO exception
+   */
+  @Test
+  public void test_scanSubRanges_cutAtRowKeyPrefix() throws IOException {
+    // mocking
+    PcapScannerHBaseImpl pcapScanner = (PcapScannerHBaseImpl) PcapScannerHBaseImpl
+        .getInstance();
+    PcapScannerHBaseImpl spy = Mockito.spy(pcapScanner);
+    byte[] cf = "cf".getBytes();
+    byte[] cq = "pcap".getBytes();
+    Scan first = new Scan("a".getBytes(), "m".getBytes());
+    Scan second = new Scan("m".getBytes(), "z".getBytes());
+    final PcapScannerHBaseImpl.RangePcaps firstRange = range("a1", "a2");
+
+    Mockito
+        .doAnswer(new Answer<PcapScannerHBaseImpl.RangePcaps>() {
+          public PcapScannerHBaseImpl.RangePcaps answer(
+              InvocationOnMock invocation) throws InterruptedException {
+            Thread.sleep(200);
+            return firstRange;
+          }
+        })
+        .when(spy)
+        .scanRange(Mockito.same(first), Mockito.any(byte[].class),
+            Mockito.any(byte[].class), Mockito.anyLong(),
+            Mockito.any(AtomicBoolean.class));
+    Mockito
+        .doReturn(range("m1", "m2"))
+        .when(spy)
+        .scanRange(Mockito.same(second), Mockito.any(byte[].class),
+            Mockito.any(byte[].class), Mockito.anyLong(),
+            Mockito.any(AtomicBoolean.class));
+
+    // actual call; with the 0.07 KB max row size of the test configuration,
+    // 300 bytes are reached on the third row of 100 bytes
+    PcapsResponse response = spy.scanSubRanges(new PcapsResponse(),
+        Arrays.asList(first, second), cf, cq, 300);
+
+    // verify
+    Assert.assertEquals(PcapsResponse.Status.PARTIAL, response.getStatus());
+    Assert.assertEquals("m1", response.getLastRowKey());
+    Assert.assertEquals(300, response.getResponseSize());
+  }
+
+  /**
+   * Test_scan sub ranges_complete.
+   * 
+   * @throws IOException
+   *           the IO exception
+   */
+  @Test
+  public void test_scanSubRanges_complete() throws IOException {
+    // mocking
+    PcapScannerHBaseImpl pcapScanner = (PcapScannerHBaseImpl) PcapScannerHBaseImpl
+        .getInstance();
+    PcapScannerHBaseImpl spy = Mockito.spy(pcapScanner);
+    byte[] cf = "cf".getBytes();
+    byte[] cq = "pcap".getBytes();
+    Scan first = new Scan("a".getBytes(), "m".getBytes());
+    Scan second = new Scan("m".getBytes(), "z".getBytes());
+
+    Mockito
+        .doReturn(range("a1", "a2"))
+        .when(spy)
+        .scanRange(Mockito.same(first), Mockito.any(byte[].class),
+            Mockito.any(byte[].class), Mockito.anyLong(),
+            Mockito.any(AtomicBoolean.class));
+    Mockito
+        .doReturn(range("m1", "m2"))
+        .when(spy)
+        .scanRange(Mockito.same(second), Mockito.any(byte[].class),
+            Mockito.any(byte[].class), Mockito.anyLong(),
+            Mockito.any(AtomicBoolean.class));
+
+    // actual call
+    PcapsResponse response = spy.scanSubRanges(new PcapsResponse(),
+        Arrays.asList(first, second), cf, cq, 10000);
+
+    // verify
+    Assert.assertEquals(PcapsResponse.Status.COMPLETE, response.getStatus());
+    Assert.assertNull(response.getLastRowKey());
+    Assert.assertEquals(400, response.getResponseSize());
+  }
+
+  /**
+   * Builds the pcaps of a sub-range, one pcap of 100 bytes per row.
+   * 
+   * @param rows
+   *          the row keys
+   * @return the range pcaps
+   */
+  private static PcapScannerHBaseImpl.RangePcaps range(String... rows) {
+    PcapScannerHBaseImpl.RangePcaps range =
+        new PcapScannerHBaseImpl.RangePcaps();
+    for (String row : rows) {
+      range.addPcap(new byte[100]);
+      range.endRow(row.getBytes());
+    }
+    return range;
+  }
+
   /**
    * Gets the test pcap bytes.
    * 
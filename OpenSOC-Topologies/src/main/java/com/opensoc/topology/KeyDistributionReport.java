@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opensoc.topology;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import org.json.simple.JSONObject;
+
+import com.opensoc.helpers.topology.FlowHash;
+import com.opensoc.parser.interfaces.MessageParser;
+
+/**
+ * Shows how evenly the grouping key spreads sample traffic over the tasks of
+ * a fields grouped bolt, next to the summed IP key used before FlowHash.
+ * <p>
+ * Usage: KeyDistributionReport &lt;sample file&gt; &lt;parser class&gt;
+ * &lt;num.tasks&gt; [&lt;num.tasks&gt; ...]
+ * <p>
+ * e.g. KeyDistributionReport SampleInput/SourcefireExampleOutput
+ * com.opensoc.parsing.parsers.BasicSourcefireParser 4 8 16
+ */
+public class KeyDistributionReport {
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 3) {
+			System.out
+					.println("Usage: KeyDistributionReport <sample file> <parser class> <num.tasks> [<num.tasks> ...]");
+			System.exit(1);
+		}
+
+		MessageParser parser = (MessageParser) Class.forName(args[1])
+				.newInstance();
+		parser.initializeParser();
+
+		int[] taskCounts = new int[args.length - 2];
+		for (int i = 0; i < taskCounts.length; i++)
+			taskCounts[i] = Integer.parseInt(args[i + 2]);
+
+		long[][] hashed = new long[taskCounts.length][];
+		long[][] summed = new long[taskCounts.length][];
+		for (int i = 0; i < taskCounts.length; i++) {
+			hashed[i] = new long[taskCounts[i]];
+			summed[i] = new long[taskCounts[i]];
+		}
+
+		int lines = 0;
+		int failed = 0;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(args[0]), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().length() == 0)
+					continue;
+				JSONObject message = parser.parse(line.getBytes("UTF-8"));
+				if (message == null) {
+					failed++;
+					continue;
+				}
+				lines++;
+
+				Long key = FlowHash.hash(message);
+				String oldKey = summedKey(message);
+				for (int i = 0; i < taskCounts.length; i++) {
+					hashed[i][task(key, taskCounts[i])]++;
+					summed[i][task(oldKey, taskCounts[i])]++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		System.out.println("Messages: " + lines + ", failed to parse: "
+				+ failed);
+		for (int i = 0; i < taskCounts.length; i++) {
+			System.out.println();
+			System.out.println("num.tasks=" + taskCounts[i]);
+			report("  FlowHash ", hashed[i], lines);
+			report("  summed IP", summed[i], lines);
+		}
+	}
+
+	/**
+	 * Task picked by a fields grouping: hash of the grouped values modulo the
+	 * number of tasks.
+	 */
+	private static int task(Object key, int numTasks) {
+		int hash = Arrays.asList(key).hashCode();
+		return ((hash % numTasks) + numTasks) % numTasks;
+	}
+
+	private static void report(String name, long[] counts, int total) {
+
+		long max = 0;
+		long min = Long.MAX_VALUE;
+		int idle = 0;
+		for (long count : counts) {
+			max = Math.max(max, count);
+			min = Math.min(min, count);
+			if (count == 0)
+				idle++;
+		}
+		double mean = total / (double) counts.length;
+		double skew = mean == 0 ? 0 : max / mean;
+
+		System.out.println(String.format(
+				"%s max/mean %.2f  min %d  max %d  idle tasks %d  %s", name,
+				skew, min, max, idle, Arrays.toString(counts)));
+	}
+
+	/**
+	 * The key the parser bolts emitted before FlowHash: both addresses with
+	 * the dots removed, read as numbers and added.
+	 */
+	private static String summedKey(JSONObject message) {
+		Object src = message.get("ip_src_addr");
+		Object dst = message.get("ip_dst_addr");
+		try {
+			if (src == null && dst == null)
+				return "0";
+			if (src == null || src.toString().length() == 0)
+				return dst.toString();
+			if (dst == null || dst.toString().length() == 0)
+				return src.toString();
+			double ip1 = Double.parseDouble(src.toString().replace(".", ""));
+			double ip2 = Double.parseDouble(dst.toString().replace(".", ""));
+			return String.valueOf(ip1 + ip2);
+		} catch (NumberFormatException e) {
+			return "0";
+		}
+	}
+}
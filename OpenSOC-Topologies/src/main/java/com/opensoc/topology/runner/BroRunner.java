@@ -18,9 +18,11 @@
 package com.opensoc.topology.runner;
 
 import com.opensoc.filters.GenericMessageFilter;
+import com.opensoc.filters.SniffingMessageFilter;
 import com.opensoc.parser.interfaces.MessageParser;
-import com.opensoc.parsing.AbstractParserBolt;
+import com.opensoc.parser.interfaces.PrefixSniffer;
 import com.opensoc.parsing.TelemetryParserBolt;
+import com.opensoc.parsing.parsers.BasicBroParser;
 import com.opensoc.test.spouts.GenericInternalTestSpout;
 
 public class BroRunner extends TopologyRunner{
@@ -46,13 +48,30 @@ public class BroRunner extends TopologyRunner{
 			
 			Class loaded_class = Class.forName(class_name);
 			MessageParser parser = (MessageParser) loaded_class.newInstance();
+
+			if (parser instanceof BasicBroParser)
+				((BasicBroParser) parser).withFieldMappings(config
+						.subset("bolt.parser.mappings"));
 			
-			AbstractParserBolt parser_bolt = new TelemetryParserBolt()
+			TelemetryParserBolt parser_bolt = new TelemetryParserBolt()
 					.withMessageParser(parser)
 					.withOutputFieldName(topology_name)
 					.withMessageFilter(new GenericMessageFilter())
+					.withMessageFraming(
+							config.getString("bolt.parser.framing", "none"))
 					.withMetricConfig(config);
 
+			String sniffer_class = config.getString("bolt.parser.sniffer", null);
+
+			if (sniffer_class != null) {
+				PrefixSniffer sniffer = (PrefixSniffer) Class.forName(
+						sniffer_class).newInstance();
+				parser_bolt.withRawMessageFilter(new SniffingMessageFilter(
+						config, sniffer));
+				System.out.println("[OpenSOC] Filtering raw messages with "
+						+ sniffer_class);
+			}
+
 			builder.setBolt(name, parser_bolt,
 					config.getInt("bolt.parser.parallelism.hint"))
 					.shuffleGrouping(messageUpstreamComponent)
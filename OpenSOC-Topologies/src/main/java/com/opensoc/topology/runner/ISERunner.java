@@ -53,6 +53,8 @@ public class ISERunner extends TopologyRunner{
 					.withMessageParser(parser)
 					.withOutputFieldName(topology_name)
 					.withMessageFilter(new GenericMessageFilter())
+					.withMessageFraming(
+							config.getString("bolt.parser.framing", "none"))
 					.withMetricConfig(config);
 
 			builder.setBolt(name, parser_bolt,
@@ -56,7 +56,9 @@ public class PcapRunner extends TopologyRunner{
 			
 			System.out.println("[OpenSOC] ------" +  name + " is initializing from " + messageUpstreamComponent);
 			
-			PcapParserBolt pcapParser = new PcapParserBolt().withTsPrecision(config.getString("bolt.parser.ts.precision"));
+			PcapParserBolt pcapParser = new PcapParserBolt().withTsPrecision(config.getString("bolt.parser.ts.precision"))
+					.withMetricConfig(config)
+					.withFlows(config.getBoolean("bolt.flow.enabled", false));
 			
 			builder.setBolt(name, pcapParser,
 					config.getInt("bolt.parser.parallelism.hint"))
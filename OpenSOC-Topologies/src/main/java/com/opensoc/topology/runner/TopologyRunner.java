@@ -65,13 +65,20 @@ import com.opensoc.enrichment.adapters.whois.WhoisHBaseAdapter;
 import com.opensoc.enrichment.common.GenericEnrichmentBolt;
 import com.opensoc.enrichment.interfaces.EnrichmentAdapter;
 import com.opensoc.hbase.HBaseBolt;
+import com.opensoc.hbase.HBaseCountersBolt;
 import com.opensoc.hbase.HBaseStreamPartitioner;
+import com.opensoc.hbase.PcapBlockBolt;
+import com.opensoc.hbase.PcapIpIndexBolt;
+import com.opensoc.hbase.PcapSessionGrouping;
 import com.opensoc.hbase.TupleTableConfig;
 import com.opensoc.helpers.topology.Cli;
 import com.opensoc.helpers.topology.SettingsLoader;
 import com.opensoc.index.interfaces.IndexAdapter;
 import com.opensoc.indexing.TelemetryIndexingBolt;
 import com.opensoc.json.serialization.JSONKryoSerializer;
+import com.opensoc.parsing.PcapFlowBolt;
+import com.opensoc.pcap.PcapRecord;
+import com.opensoc.pcap.PcapRecordKryoSerializer;
 
 public abstract class TopologyRunner {
 
@@ -145,6 +152,8 @@ public abstract class TopologyRunner {
 
 		conf = new Config();
 		conf.registerSerialization(JSONObject.class, JSONKryoSerializer.class);
+		conf.registerSerialization(PcapRecord.class,
+				PcapRecordKryoSerializer.class);
 		conf.setDebug(debug);
 
 		System.out.println("[OpenSOC] Initializing Spout: " + topology_name);
@@ -193,6 +202,21 @@ public abstract class TopologyRunner {
 					"parser.bolt");
 		}
 
+		if (config.getBoolean("bolt.flow.enabled", false)) {
+			String component_name = config.getString("bolt.flow.name",
+					"DefaultFlowBolt");
+
+			// enrichment consumes the flow messages instead of the parser's
+			success = initializeFlowBolt(component_name);
+			messageComponents.add(component_name);
+
+			System.out.println("[OpenSOC] ------Component " + component_name
+					+ " initialized with the following settings:");
+
+			SettingsLoader.printConfigOptions((PropertiesConfiguration) config,
+					"bolt.flow");
+		}
+
 		if (config.getBoolean("bolt.enrichment.geo.enabled", false)) {
 			String component_name = config.getString(
 					"bolt.enrichment.geo.name", "DefaultGeoEnrichmentBolt");
@@ -367,6 +391,36 @@ public abstract class TopologyRunner {
 					"bolt.hbase");
 		}
 
+		if (config.containsKey("bolt.hbase.ip.index.enabled")
+				&& config.getBoolean("bolt.hbase.ip.index.enabled")) {
+			String component_name = config.getString(
+					"bolt.hbase.ip.index.name", "DefaultPcapIpIndexBolt");
+
+			success = initializeIpIndexBolt(component_name);
+			terminalComponents.add(component_name);
+
+			System.out.println("[OpenSOC] ------Component " + component_name
+					+ " initialized with the following settings:");
+
+			SettingsLoader.printConfigOptions((PropertiesConfiguration) config,
+					"bolt.hbase.ip.index");
+		}
+
+		if (config.containsKey("bolt.hbase.counters.enabled")
+				&& config.getBoolean("bolt.hbase.counters.enabled")) {
+			String component_name = config.getString(
+					"bolt.hbase.counters.name", "DefaultHBaseCountersBolt");
+
+			success = initializeCountersBolt(component_name);
+			terminalComponents.add(component_name);
+
+			System.out.println("[OpenSOC] ------Component " + component_name
+					+ " initialized with the following settings:");
+
+			SettingsLoader.printConfigOptions((PropertiesConfiguration) config,
+					"bolt.hbase.counters");
+		}
+
 		System.out.println("[OpenSOC] Topology Summary: ");
 		System.out.println("[OpenSOC] Message Stream: "
 				+ printComponentStream(messageComponents));
@@ -423,6 +477,11 @@ public abstract class TopologyRunner {
 							.toString(), config.getString(
 							"bolt.hbase.table.timestamp.tuple.field.name")
 							.toString());
+			hbaseBoltConfig.setRowKeyFormat(config.getString(
+					"bolt.hbase.table.row.key.format",
+					TupleTableConfig.ROW_KEY_FORMAT_STRING));
+			hbaseBoltConfig.setRowKeySaltBuckets(config.getInt(
+					"bolt.hbase.table.row.key.salt.buckets", 1));
 
 			String allColumnFamiliesColumnQualifiers = config.getString(
 					"bolt.hbase.table.fields").toString();
@@ -446,26 +505,65 @@ public abstract class TopologyRunner {
 				hbaseBoltConfig.setBatch(Boolean.valueOf(config.getString(
 						"bolt.hbase.enable.batching").toString()));
 
-				HBaseBolt hbase_bolt = new HBaseBolt(hbaseBoltConfig,
-						config.getString("kafka.zk.list"),
-						config.getString("kafka.zk.port"));
+				HBaseBolt hbase_bolt;
+				boolean blockLayout = "block".equals(config.getString(
+						"bolt.hbase.table.layout", "packet"));
+				if (blockLayout) {
+					// one compressed cell per session and time bucket
+					PcapBlockBolt block_bolt = new PcapBlockBolt(
+							hbaseBoltConfig,
+							config.getLong("bolt.hbase.table.block.time.bucket"),
+							config.getString("kafka.zk.list"),
+							config.getString("kafka.zk.port"));
+					block_bolt.setMaxBlockBytes(config.getInt(
+							"bolt.hbase.table.block.max.bytes", 1024 * 1024));
+					block_bolt.setCompress(config.getBoolean(
+							"bolt.hbase.table.block.compress", true));
+					// blocks hold their tuples, so they must be written well
+					// within the topology message timeout
+					block_bolt.setMaxOpenSecs(config.getInt(
+							"bolt.hbase.table.block.max.open.secs", 10));
+					block_bolt.setMaxOpenBytes(config.getLong(
+							"bolt.hbase.table.block.max.open.bytes",
+							64L * 1024 * 1024));
+					block_bolt.setFlushIntervalSecs(config.getInt(
+							"bolt.hbase.table.block.flush.interval.secs", 1));
+					hbase_bolt = block_bolt;
+				} else {
+					hbase_bolt = new HBaseBolt(hbaseBoltConfig,
+							config.getString("kafka.zk.list"),
+							config.getString("kafka.zk.port"));
+					// ack after flushCommits rather than on the write buffer
+					hbase_bolt.setBatchSize(config.getInt(
+							"bolt.hbase.batch.size", 0));
+					hbase_bolt.setBatchBytes(config.getLong(
+							"bolt.hbase.batch.bytes", 4L * 1024 * 1024));
+					hbase_bolt.setFlushIntervalSecs(config.getInt(
+							"bolt.hbase.batch.flush.interval.secs", 1));
+					hbase_bolt.withMetricConfig(config);
+				}
 				hbase_bolt.setAutoAck(true);
 
 				BoltDeclarer declarer = builder.setBolt(name, hbase_bolt,
 						config.getInt("bolt.hbase.parallelism.hint"))
 						.setNumTasks(config.getInt("bolt.hbase.num.tasks"));
 
-				if (Grouping._Fields.CUSTOM_OBJECT.toString().equalsIgnoreCase(
-						shuffleType)) {
+				if (blockLayout) {
+					// the packets of a session must reach one task to make
+					// one block
+					declarer.customGrouping(messageUpstreamComponent,
+							"pcap_data_stream", new PcapSessionGrouping(0));
+				} else if (Grouping._Fields.CUSTOM_OBJECT.toString()
+						.equalsIgnoreCase(shuffleType)) {
 					declarer.customGrouping(
 							messageUpstreamComponent,
 							"pcap_data_stream",
 							new HBaseStreamPartitioner(
-									hbaseBoltConfig.getTableName(),
+									hbaseBoltConfig,
 									0,
-									Integer.parseInt(conf
-											.get("bolt.hbase.partitioner.region.info.refresh.interval.mins")
-											.toString())));
+									config.getInt(
+											"bolt.hbase.partitioner.region.info.refresh.interval.mins",
+											60)));
 				} else if (Grouping._Fields.DIRECT.toString().equalsIgnoreCase(
 						shuffleType)) {
 					declarer.fieldsGrouping(messageUpstreamComponent,
@@ -480,6 +578,135 @@ public abstract class TopologyRunner {
 		return true;
 	}
 
+	public boolean initializeIpIndexBolt(String name) {
+
+		try {
+
+			String messageUpstreamComponent = dataComponents.get(dataComponents
+					.size()-1);
+
+			System.out.println("[OpenSOC] ------" + name
+					+ " is initializing from " + messageUpstreamComponent);
+
+			TupleTableConfig indexConfig = new TupleTableConfig(
+					config.getString("bolt.hbase.ip.index.table.name"),
+					config.getString("bolt.hbase.table.key.tuple.field.name"),
+					config.getString("bolt.hbase.table.timestamp.tuple.field.name"));
+			// the sessions are the qualifiers of the column family
+			indexConfig.addColumn(
+					config.getString("bolt.hbase.ip.index.column.family"),
+					"session");
+
+			PcapIpIndexBolt index_bolt = new PcapIpIndexBolt(indexConfig,
+					config.getLong("bolt.hbase.ip.index.time.bucket"),
+					config.getString("kafka.zk.list"),
+					config.getString("kafka.zk.port"));
+			index_bolt.setFlushIntervalSecs(config.getInt(
+					"bolt.hbase.ip.index.flush.interval.secs", 1));
+			index_bolt.setMaxPendingRows(config.getInt(
+					"bolt.hbase.ip.index.max.pending.rows", 10000));
+
+			builder.setBolt(name, index_bolt,
+					config.getInt("bolt.hbase.ip.index.parallelism.hint"))
+					.setNumTasks(config.getInt("bolt.hbase.ip.index.num.tasks"))
+					.shuffleGrouping(messageUpstreamComponent, "pcap_data_stream");
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		return true;
+	}
+
+	public boolean initializeFlowBolt(String name) {
+
+		try {
+
+			String messageUpstreamComponent = messageComponents
+					.get(messageComponents.size() - 1);
+
+			System.out.println("[OpenSOC] ------" + name
+					+ " is initializing from " + messageUpstreamComponent);
+
+			PcapFlowBolt flow_bolt = new PcapFlowBolt()
+					.withIdleTimeoutSecs(
+							config.getInt("bolt.flow.idle.timeout.secs", 30))
+					.withActiveTimeoutSecs(
+							config.getInt("bolt.flow.active.timeout.secs", 300))
+					.withCloseTimeoutSecs(
+							config.getInt("bolt.flow.close.timeout.secs", 2))
+					.withMaxFlows(config.getInt("bolt.flow.max.flows", 1000000))
+					.withTickIntervalSecs(
+							config.getInt("bolt.flow.tick.interval.secs", 1));
+
+			// both directions of a flow hash to the same key
+			builder.setBolt(name, flow_bolt,
+					config.getInt("bolt.flow.parallelism.hint"))
+					.setNumTasks(config.getInt("bolt.flow.num.tasks"))
+					.fieldsGrouping(messageUpstreamComponent,
+							"pcap_flow_stream", new Fields("flow_key"));
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		return true;
+	}
+
+	public boolean initializeCountersBolt(String name) {
+
+		try {
+
+			String messageUpstreamComponent = dataComponents.get(dataComponents
+					.size()-1);
+
+			System.out.println("[OpenSOC] ------" + name
+					+ " is initializing from " + messageUpstreamComponent);
+
+			TupleTableConfig countersConfig = new TupleTableConfig(
+					config.getString("bolt.hbase.counters.table.name"),
+					config.getString("bolt.hbase.counters.key.tuple.field.name"),
+					config.getString(
+							"bolt.hbase.counters.timestamp.tuple.field.name", ""));
+			// "<cf>:<cq1>,<cq2>", a qualifier that is no tuple field is a
+			// counter of its own
+			String[] cfCqTokens = StringUtils.split(
+					config.getString("bolt.hbase.counters.fields"), ":");
+			for (String columnQualifier : StringUtils.split(cfCqTokens[1], ",")) {
+				countersConfig.addColumn(cfCqTokens[0], columnQualifier);
+			}
+
+			HBaseCountersBolt counters_bolt = new HBaseCountersBolt(
+					countersConfig, config.getString("kafka.zk.list"),
+					config.getString("kafka.zk.port"));
+			counters_bolt.setIncrementField(config.getString(
+					"bolt.hbase.counters.increment.tuple.field.name", null));
+			counters_bolt.setRowKeyTokens(config.getInt(
+					"bolt.hbase.counters.row.key.tokens", 0));
+			counters_bolt.setTimeBucket(config.getLong(
+					"bolt.hbase.counters.time.bucket", 0));
+			counters_bolt.setFlushIntervalSecs(config.getInt(
+					"bolt.hbase.counters.flush.interval.secs", 10));
+			counters_bolt.setMaxCounters(config.getInt(
+					"bolt.hbase.counters.max.counters", 100000));
+			counters_bolt.setMaxPendingTuples(config.getInt(
+					"bolt.hbase.counters.max.pending.tuples", 10000));
+
+			builder.setBolt(name, counters_bolt,
+					config.getInt("bolt.hbase.counters.parallelism.hint"))
+					.setNumTasks(config.getInt("bolt.hbase.counters.num.tasks"))
+					.shuffleGrouping(
+							messageUpstreamComponent,
+							config.getString("bolt.hbase.counters.stream",
+									"pcap_data_stream"));
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(0);
+		}
+		return true;
+	}
+
 	private boolean initializeErrorIndexBolt(String component_name) {
 		try {
 			